@@ -0,0 +1,120 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Creates the databases used by the benchmarks in temporary directories.
+ */
+final class BenchmarkDatabase {
+
+    /**
+     * The seed of every benchmark corpus, so that runs can be compared.
+     */
+    static final long SEED = 20150601L;
+
+    static final String PROJECT_NAME = "benchmark";
+    static final String PROJECT_VERSION = "1.0";
+    static final String PROJECT = PROJECT_NAME + " " + PROJECT_VERSION;
+
+    private BenchmarkDatabase() {}
+
+    /**
+     * Builds a database of a synthetic corpus. The database is written by
+     * a separate JVM because a database cannot be reopened once it has been
+     * shut down, and the reader's statements are only prepared when the
+     * database is opened read only.
+     * @param entityCount the minimum number of declarations in the corpus
+     * @param seed the seed of the corpus
+     * @return the location of the database, within a new temporary
+     * directory
+     * @throws IOException if the directory cannot be created or the JVM
+     * cannot be started
+     * @throws InterruptedException if interrupted while waiting for the JVM
+     */
+    static Path build( long entityCount, long seed ) throws IOException, InterruptedException {
+        Path location = Files.createTempDirectory( "jimdb-bench" ).resolve( "db" );
+        Process process = new ProcessBuilder(
+                Paths.get( System.getProperty( "java.home" ), "bin", "java" ).toString(),
+                "-cp", System.getProperty( "java.class.path" ),
+                BenchmarkDatabase.class.getName(),
+                location.toString(),
+                Long.toString( entityCount ),
+                Long.toString( seed ) )
+                .inheritIO()
+                .start();
+        int exitValue = process.waitFor();
+        if ( exitValue != 0 ) {
+            throw new IOException( "Building the benchmark database failed: " + exitValue );
+        }
+
+        return location;
+    }
+
+    /**
+     * Stores the declarations of one file in a single transaction.
+     * @param writer a writer for the current project
+     * @param entities declarations sharing a file name
+     * @throws SQLException if the file cannot be stored
+     */
+    static void storeFile( DatabaseWriter writer, List<RawProgramEntity> entities )
+            throws SQLException {
+        String fileName = entities.get( 0 ).getFileName();
+        String digest = DatabaseWriter.digestOf( fileName.getBytes( StandardCharsets.UTF_8 ) );
+        if ( writer.beginFile( fileName, digest ) ) {
+            entities.forEach( writer::store );
+            writer.endFile();
+        }
+    }
+
+    /**
+     * Deletes the temporary directory containing a database.
+     * @param location the location of the database
+     * @throws IOException if a file cannot be deleted
+     */
+    static void delete( Path location ) throws IOException {
+        try ( Stream<Path> paths = Files.walk( location.getParent() ) ) {
+            for ( Path path : (Iterable<Path>) paths.sorted( Comparator.reverseOrder() )::iterator ) {
+                Files.delete( path );
+            }
+        }
+    }
+
+    /**
+     * Builds a database. The arguments are the database location, the
+     * number of declarations and the seed.
+     * @param args command line arguments
+     * @throws SQLException if the database cannot be built
+     */
+    public static void main( String[] args ) throws SQLException {
+        DatabaseManager.initialiseAndCreate( args[ 0 ] );
+        DatabaseManager.setProjectName( PROJECT_NAME );
+        DatabaseManager.setProjectVersion( PROJECT_VERSION );
+        new SyntheticCorpus( Long.parseLong( args[ 2 ] ) )
+                .writeTo( DatabaseWriterFactory.create(), Long.parseLong( args[ 1 ] ) );
+        DatabaseManager.shutdown();
+    }
+}
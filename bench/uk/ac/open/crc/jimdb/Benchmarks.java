@@ -0,0 +1,44 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the benchmarks with the GC profiler, so that allocation rates and
+ * collection counts are reported beside throughput.
+ */
+public class Benchmarks {
+
+    /**
+     * Runs the benchmarks whose names match the first argument, or all of
+     * them.
+     * @param args an optional regular expression
+     * @throws RunnerException if a benchmark fails
+     */
+    public static void main( String[] args ) throws RunnerException {
+        Options options = new OptionsBuilder()
+                .include( args.length > 0 ? args[ 0 ] : Benchmarks.class.getPackage().getName() )
+                .addProfiler( GCProfiler.class )
+                .build();
+        new Runner( options ).run();
+    }
+}
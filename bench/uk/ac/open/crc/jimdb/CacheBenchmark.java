@@ -0,0 +1,95 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures lookups in a {@linkplain DatabaseKeyCache} filled with
+ * identifier names. No database is needed.
+ */
+@State( Scope.Thread )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.MICROSECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3, time = 2 )
+@Measurement( iterations = 5, time = 2 )
+public class CacheBenchmark {
+
+    @Param( { "1000", "100000" } )
+    public int size;
+
+    private DatabaseKeyCache cache;
+    private Integer[] keys;
+    private String[] values;
+    private int next;
+
+    @Setup
+    public void fill() {
+        SyntheticCorpus corpus = new SyntheticCorpus( BenchmarkDatabase.SEED );
+        while ( corpus.entityCount() < this.size ) {
+            corpus.nextFile();
+        }
+        // there are fewer distinct names than entries, so each is numbered
+        List<String> names = corpus.identifierNames();
+        this.cache = new DatabaseKeyCache();
+        for ( int key = 1; key <= this.size; key++ ) {
+            this.cache.put( key, names.get( ( key - 1 ) % names.size() ) + key );
+        }
+
+        // probes visit the entries in a random order, and the values are
+        // copies so that lookups cannot succeed on identity alone
+        Random random = new Random( BenchmarkDatabase.SEED );
+        this.keys = new Integer[ this.size ];
+        this.values = new String[ this.size ];
+        for ( int i = 0; i < this.size; i++ ) {
+            int key = 1 + random.nextInt( this.size );
+            this.keys[ i ] = key;
+            this.values[ i ] = new String( this.cache.get( key ) );
+        }
+        this.next = 0;
+    }
+
+    @Benchmark
+    public String getByKey() {
+        return this.cache.get( this.keys[ nextProbe() ] );
+    }
+
+    @Benchmark
+    public Integer getByValue() {
+        return this.cache.get( this.values[ nextProbe() ] );
+    }
+
+    private int nextProbe() {
+        int probe = this.next;
+        this.next = probe + 1 == this.size ? 0 : probe + 1;
+        return probe;
+    }
+}
@@ -0,0 +1,149 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+/**
+ * Counts latencies in log-linear buckets, in the manner of HdrHistogram.
+ * Values below 256 have a bucket each. Above that each power of two is
+ * split into 128 buckets, so a value is reported to within 1% whatever
+ * its magnitude, and the whole range of a {@code long} takes 7296 counts.
+ * A histogram is not thread safe: each thread records into its own and
+ * they are added together afterwards.
+ */
+final class LatencyHistogram {
+
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+    private static final int BUCKET_COUNT =
+            ( 64 - SUB_BUCKET_BITS ) * SUB_BUCKET_COUNT;
+
+    private final long[] counts;
+    private long totalCount;
+    private long total;
+    private long minimum;
+    private long maximum;
+
+    /**
+     * Creates an empty histogram.
+     */
+    LatencyHistogram() {
+        this.counts = new long[ BUCKET_COUNT ];
+        this.totalCount = 0;
+        this.total = 0;
+        this.minimum = Long.MAX_VALUE;
+        this.maximum = 0;
+    }
+
+    /**
+     * Records a value.
+     * @param value a latency, which must not be negative
+     */
+    void record( long value ) {
+        this.counts[ indexFor( value ) ]++;
+        this.totalCount++;
+        this.total += value;
+        this.minimum = Math.min( this.minimum, value );
+        this.maximum = Math.max( this.maximum, value );
+    }
+
+    /**
+     * Adds the values recorded by another histogram to this one.
+     * @param other a histogram
+     */
+    void add( LatencyHistogram other ) {
+        for ( int i = 0; i < BUCKET_COUNT; i++ ) {
+            this.counts[ i ] += other.counts[ i ];
+        }
+        this.totalCount += other.totalCount;
+        this.total += other.total;
+        this.minimum = Math.min( this.minimum, other.minimum );
+        this.maximum = Math.max( this.maximum, other.maximum );
+    }
+
+    /**
+     * Retrieves the number of values recorded.
+     * @return the number of values
+     */
+    long count() {
+        return this.totalCount;
+    }
+
+    /**
+     * Retrieves the mean of the values recorded.
+     * @return the exact mean, or zero if nothing has been recorded
+     */
+    double mean() {
+        return this.totalCount == 0 ? 0 : (double) this.total / this.totalCount;
+    }
+
+    /**
+     * Retrieves the smallest value recorded.
+     * @return the exact minimum, or zero if nothing has been recorded
+     */
+    long minimum() {
+        return this.totalCount == 0 ? 0 : this.minimum;
+    }
+
+    /**
+     * Retrieves the largest value recorded.
+     * @return the exact maximum
+     */
+    long maximum() {
+        return this.maximum;
+    }
+
+    /**
+     * Retrieves the value below which a percentage of values fall.
+     * @param percentile a percentage from 0 to 100
+     * @return the largest value that falls in the same bucket as the
+     * percentile, capped at the maximum, or zero if nothing has been
+     * recorded
+     */
+    long percentile( double percentile ) {
+        if ( this.totalCount == 0 ) {
+            return 0;
+        }
+
+        long rank = Math.max( 1, (long) Math.ceil( percentile / 100 * this.totalCount ) );
+        long seen = 0;
+        for ( int i = 0; i < BUCKET_COUNT; i++ ) {
+            seen += this.counts[ i ];
+            if ( seen >= rank ) {
+                return Math.min( highestValueAt( i ), this.maximum );
+            }
+        }
+
+        return this.maximum;
+    }
+
+    // values below 2 * SUB_BUCKET_COUNT index themselves, and each doubling
+    // after that adds SUB_BUCKET_COUNT buckets of twice the width
+    private static int indexFor( long value ) {
+        int magnitude = 63 - Long.numberOfLeadingZeros( value | ( 2 * SUB_BUCKET_COUNT - 1 ) );
+        int shift = magnitude - SUB_BUCKET_BITS;
+        return ( shift << SUB_BUCKET_BITS ) + (int) ( value >>> shift );
+    }
+
+    private static long highestValueAt( int index ) {
+        if ( index < 2 * SUB_BUCKET_COUNT ) {
+            return index;
+        }
+        int shift = ( index >>> SUB_BUCKET_BITS ) - 1;
+        long subBucket = index - ( (long) shift << SUB_BUCKET_BITS );
+        return ( ( subBucket + 1 ) << shift ) - 1;
+    }
+}
@@ -0,0 +1,130 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import uk.ac.open.crc.idtk.Species;
+
+/**
+ * Measures queries against a database built from a synthetic corpus. The
+ * names looked up are taken from the same corpus, so every lookup finds
+ * something.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3, time = 5 )
+@Measurement( iterations = 5, time = 5 )
+public class ReaderBenchmark {
+
+    @Param( { "50000" } )
+    public long entityCount;
+
+    private Path location;
+    private DatabaseReader reader;
+    private EntityDatabaseReader entityReader;
+    private String[] identifierNames;
+    private String[] classNames;
+    private int nextName;
+    private int nextClass;
+
+    @Setup
+    public void open() throws IOException, InterruptedException, SQLException {
+        this.location = BenchmarkDatabase.build( this.entityCount, BenchmarkDatabase.SEED );
+        DatabaseManager.initialise( this.location.toString() );
+        this.reader = DatabaseReaderFactory.create();
+        this.entityReader = new EntityDatabaseReader();
+
+        // regenerates the stored corpus to find names that are present
+        SyntheticCorpus corpus = new SyntheticCorpus( BenchmarkDatabase.SEED );
+        while ( corpus.entityCount() < this.entityCount ) {
+            corpus.nextFile();
+        }
+        this.identifierNames = corpus.identifierNames().toArray( new String[ 0 ] );
+        this.classNames = corpus.classNames().toArray( new String[ 0 ] );
+        this.nextName = 0;
+        this.nextClass = 0;
+    }
+
+    @TearDown
+    public void close() throws IOException, SQLException {
+        DatabaseManager.shutdown();
+        BenchmarkDatabase.delete( this.location );
+    }
+
+    @Benchmark
+    public ArrayList<String> tokensFor() {
+        return this.entityReader.tokensFor( nextIdentifierName() );
+    }
+
+    @Benchmark
+    public List<ProgramEntity> getEntitiesForQuery() {
+        return this.reader.getEntitiesFor( new EntityQuery()
+                .inProject( BenchmarkDatabase.PROJECT )
+                .ofSpecies( Species.FIELD )
+                .nameMatching( nextIdentifierName() ) );
+    }
+
+    /**
+     * Hydrates every declaration in the project.
+     * @return the declarations
+     */
+    @Benchmark
+    public List<ProgramEntity> getEntitiesForProject() {
+        return this.reader.getEntitiesFor( BenchmarkDatabase.PROJECT );
+    }
+
+    @Benchmark
+    public ArrayList<String> getNameSetFor() {
+        return this.reader.getNameSetFor( BenchmarkDatabase.PROJECT, Species.LOCAL_VARIABLE, 100, 0 );
+    }
+
+    @Benchmark
+    public ArrayList<InheritableProgramEntity> getSubClassesFor() {
+        return this.reader.getSubClassesFor( nextClassName() );
+    }
+
+    private String nextIdentifierName() {
+        String name = this.identifierNames[ this.nextName ];
+        this.nextName = ( this.nextName + 1 ) % this.identifierNames.length;
+        return name;
+    }
+
+    private String nextClassName() {
+        String name = this.classNames[ this.nextClass ];
+        this.nextClass = ( this.nextClass + 1 ) % this.classNames.length;
+        return name;
+    }
+}
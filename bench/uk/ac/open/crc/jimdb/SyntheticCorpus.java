@@ -0,0 +1,632 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.open.crc.idtk.Modifier;
+import uk.ac.open.crc.idtk.Species;
+import uk.ac.open.crc.idtk.TypeName;
+
+/**
+ * Generates a corpus of declarations resembling those jim extracts from
+ * Java source, for load testing without access to real projects. Each file
+ * declares one class, interface or enum, which may contain member classes,
+ * and their fields, constructors, methods, formal arguments and local
+ * variables. Component words and identifier names are drawn from Zipf
+ * distributions, so that a few names are very common and most are rare.
+ * Classes extend, and types implement, earlier types of the corpus, with
+ * popular base types favoured.
+ * <p>
+ * The same seed and settings always generate the same corpus. Names seen
+ * so far are recorded, so memory use grows with the number of distinct
+ * names and classes rather than the number of declarations.
+ * </p>
+ */
+final class SyntheticCorpus {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( SyntheticCorpus.class );
+
+    // the most frequent words, in rank order; the rest are made up
+    private static final String[] COMMON_WORDS = {
+        "get", "set", "value", "name", "is", "to", "type", "list", "count",
+        "index", "data", "string", "result", "add", "id", "key", "create",
+        "file", "node", "size", "item", "map", "path", "context", "element",
+        "buffer", "event", "message", "object", "state", "config", "builder",
+        "handler", "manager", "entry", "field", "class", "info", "line",
+        "text", "input", "output", "stream", "reader", "writer", "table",
+        "offset", "length", "time", "source", "target", "parent", "child",
+        "default", "current", "new", "old", "max", "min", "total"
+    };
+
+    private static final String[] SYLLABLES = {
+        "ba", "co", "de", "fi", "gu", "ha", "jo", "ka", "lu", "me", "no",
+        "pa", "qui", "ro", "sa", "te", "vo", "wi", "xe", "zo", "an", "er",
+        "in", "or", "us"
+    };
+
+    // type names in rank order
+    private static final String[] COMMON_TYPES = {
+        "int", "String", "boolean", "long", "Object", "List", "Map", "double",
+        "byte[]", "Set", "Integer", "char", "float", "Iterator", "File",
+        "StringBuilder", "Collection", "short", "Exception", "Class"
+    };
+
+    private static final String[] LOOP_VARIABLES = { "i", "j", "k", "n", "it", "e" };
+
+    private final Random random;
+    private double zipfExponent;
+    private int vocabularySize;
+    private int nameCount;
+    private int packageCount;
+    private String packagePrefix;
+    // built on first use from the settings
+    private String[] vocabulary;
+    private ZipfSampler wordSampler;
+    private String[][] namePool;
+    private ZipfSampler nameSampler;
+    private ZipfSampler typeSampler;
+    private ZipfSampler packageSampler;
+
+    private final ArrayList<String> classNames;
+    private final ArrayList<String> interfaceNames;
+    private final LinkedHashSet<String> identifierNames;
+    private int fileCount;
+    private long entityCount;
+
+    // the file being generated
+    private ArrayList<RawProgramEntity> entities;
+    private String fileName;
+    private String packageName;
+    private int entityIndex;
+    private int line;
+
+    /**
+     * Creates a corpus with the default settings.
+     * @param seed seeds every choice made by the generator
+     */
+    SyntheticCorpus( long seed ) {
+        this.random = new Random( seed );
+        this.zipfExponent = 1.0;
+        this.vocabularySize = 2000;
+        this.nameCount = 20000;
+        this.packageCount = 50;
+        this.packagePrefix = "synthetic";
+        this.classNames = new ArrayList<>();
+        this.interfaceNames = new ArrayList<>();
+        this.identifierNames = new LinkedHashSet<>();
+        this.fileCount = 0;
+        this.entityCount = 0;
+    }
+
+    /**
+     * Sets the exponent of the Zipf distributions of words, names, types
+     * and packages. Larger values concentrate use on the commonest.
+     * @param exponent a positive exponent, 1.0 by default
+     * @return this corpus
+     * @throws IllegalArgumentException if the exponent is not positive
+     * @throws IllegalStateException if generation has started
+     */
+    SyntheticCorpus zipfExponent( double exponent ) {
+        if ( ! ( exponent > 0 ) ) {
+            throw new IllegalArgumentException( "Exponent must be positive: " + exponent );
+        }
+        checkNotStarted();
+        this.zipfExponent = exponent;
+        return this;
+    }
+
+    /**
+     * Sets the number of distinct component words.
+     * @param size the number of words, at least the number of built in
+     * common words; 2000 by default
+     * @return this corpus
+     * @throws IllegalArgumentException if the size is too small
+     * @throws IllegalStateException if generation has started
+     */
+    SyntheticCorpus vocabularySize( int size ) {
+        if ( size < COMMON_WORDS.length ) {
+            throw new IllegalArgumentException(
+                    "Vocabulary must have at least " + COMMON_WORDS.length + " words: " + size );
+        }
+        checkNotStarted();
+        this.vocabularySize = size;
+        return this;
+    }
+
+    /**
+     * Sets the number of distinct identifier names, other than class names
+     * and loop variables.
+     * @param count the number of names, 20000 by default
+     * @return this corpus
+     * @throws IllegalArgumentException if the count is not positive
+     * @throws IllegalStateException if generation has started
+     */
+    SyntheticCorpus nameCount( int count ) {
+        if ( count < 1 ) {
+            throw new IllegalArgumentException( "Name count must be positive: " + count );
+        }
+        checkNotStarted();
+        this.nameCount = count;
+        return this;
+    }
+
+    /**
+     * Sets the number of packages.
+     * @param count the number of packages, 50 by default
+     * @return this corpus
+     * @throws IllegalArgumentException if the count is not positive
+     * @throws IllegalStateException if generation has started
+     */
+    SyntheticCorpus packageCount( int count ) {
+        if ( count < 1 ) {
+            throw new IllegalArgumentException( "Package count must be positive: " + count );
+        }
+        checkNotStarted();
+        this.packageCount = count;
+        return this;
+    }
+
+    /**
+     * Sets the prefix of package names, and so of file names. Corpora with
+     * different prefixes can be stored in one project without their files
+     * replacing each other.
+     * @param prefix a package name, {@code synthetic} by default
+     * @return this corpus
+     * @throws IllegalStateException if generation has started
+     */
+    SyntheticCorpus packagePrefix( String prefix ) {
+        checkNotStarted();
+        this.packagePrefix = prefix;
+        return this;
+    }
+
+    /**
+     * Generates the declarations of the next file.
+     * @return the declarations, each container preceding its contents
+     */
+    List<RawProgramEntity> nextFile() {
+        if ( this.vocabulary == null ) {
+            prepare();
+        }
+
+        int fileIndex = this.fileCount++;
+        this.entities = new ArrayList<>();
+        this.packageName = this.packagePrefix + ".p" + this.packageSampler.next( this.random );
+        this.entityIndex = 0;
+        this.line = 1;
+
+        double kind = this.random.nextDouble();
+        Species species = kind < 0.80 ? Species.CLASS
+                : kind < 0.92 ? Species.INTERFACE
+                : Species.ENUM;
+        String typeName = className( fileIndex );
+        this.fileName = this.packageName.replace( '.', '/' ) + "/" + typeName + ".java";
+        addType( species, typeName, null, 0 );
+
+        this.entityCount += this.entities.size();
+        return this.entities;
+    }
+
+    /**
+     * Stores files until at least the given number of declarations have
+     * been stored, each file in its own transaction.
+     * @param writer a writer for the current project
+     * @param minimumCount the number of declarations to store
+     * @return the number of declarations stored
+     * @throws SQLException if a file cannot be stored
+     */
+    long writeTo( DatabaseWriter writer, long minimumCount ) throws SQLException {
+        long stored = 0;
+        long nextReport = 100000;
+        while ( stored < minimumCount ) {
+            List<RawProgramEntity> file = nextFile();
+            BenchmarkDatabase.storeFile( writer, file );
+            stored += file.size();
+            if ( stored >= nextReport ) {
+                LOGGER.info( "Stored {} declarations in {} files", stored, this.fileCount );
+                nextReport += 100000;
+            }
+        }
+
+        return stored;
+    }
+
+    /**
+     * Retrieves the names of the classes generated so far.
+     * @return class names in the order they were generated, which may
+     * repeat
+     */
+    List<String> classNames() {
+        return Collections.unmodifiableList( this.classNames );
+    }
+
+    /**
+     * Retrieves the distinct identifier names generated so far.
+     * @return identifier names in order of first use
+     */
+    List<String> identifierNames() {
+        return new ArrayList<>( this.identifierNames );
+    }
+
+    /**
+     * Retrieves the number of declarations generated so far.
+     * @return the number of declarations
+     */
+    long entityCount() {
+        return this.entityCount;
+    }
+
+    /**
+     * Writes a corpus to a database, creating the database if necessary.
+     * The arguments are the database location, the number of declarations,
+     * the seed, and optionally the project name and version.
+     * @param args command line arguments
+     * @throws SQLException if the database cannot be written
+     */
+    public static void main( String[] args ) throws SQLException {
+        if ( args.length < 3 ) {
+            System.err.println( "Usage: SyntheticCorpus location declarations seed "
+                    + "[project-name project-version]" );
+            System.exit( 1 );
+        }
+        DatabaseManager.initialiseAndCreate( args[ 0 ] );
+        DatabaseManager.setProjectName( args.length > 3 ? args[ 3 ] : "synthetic" );
+        DatabaseManager.setProjectVersion( args.length > 4 ? args[ 4 ] : args[ 2 ] );
+        long stored = new SyntheticCorpus( Long.parseLong( args[ 2 ] ) )
+                .writeTo( DatabaseWriterFactory.create(), Long.parseLong( args[ 1 ] ) );
+        LOGGER.info( "Stored {} declarations", stored );
+        DatabaseManager.shutdown();
+    }
+
+    // -----------------------------------------------------------------
+
+    private void checkNotStarted() {
+        if ( this.vocabulary != null ) {
+            throw new IllegalStateException( "Settings cannot change once generation has started" );
+        }
+    }
+
+    private void prepare() {
+        this.vocabulary = new String[ this.vocabularySize ];
+        System.arraycopy( COMMON_WORDS, 0, this.vocabulary, 0, COMMON_WORDS.length );
+        LinkedHashSet<String> words = new LinkedHashSet<>( Arrays.asList( COMMON_WORDS ) );
+        for ( int i = COMMON_WORDS.length; i < this.vocabularySize; i++ ) {
+            String word;
+            do {
+                StringBuilder syllables = new StringBuilder();
+                for ( int s = 2 + this.random.nextInt( 2 ); s > 0; s-- ) {
+                    syllables.append( SYLLABLES[ this.random.nextInt( SYLLABLES.length ) ] );
+                }
+                word = syllables.toString();
+            }
+            while ( ! words.add( word ) );
+            this.vocabulary[ i ] = word;
+        }
+        this.wordSampler = new ZipfSampler( this.vocabularySize, this.zipfExponent );
+
+        // names are distinct sequences of one to three words, and those
+        // made of common words are given the common ranks
+        LinkedHashMap<List<Integer>, Integer> names = new LinkedHashMap<>();
+        for ( int attempt = 0; 
+                names.size() < this.nameCount && attempt < 20 * this.nameCount; 
+                attempt++ ) {
+            double length = this.random.nextDouble();
+            Integer[] ranks = new Integer[ length < 0.4 ? 1 : length < 0.85 ? 2 : 3 ];
+            int rankTotal = 0;
+            for ( int w = 0; w < ranks.length; w++ ) {
+                ranks[ w ] = this.wordSampler.next( this.random );
+                rankTotal += ranks[ w ] + 1;
+            }
+            List<Integer> name = Arrays.asList( ranks );
+            // a word is not repeated within a name
+            if ( new HashSet<>( name ).size() == ranks.length ) {
+                names.putIfAbsent( name, rankTotal );
+            }
+        }
+        ArrayList<List<Integer>> ordered = new ArrayList<>( names.keySet() );
+        ordered.sort( Comparator.comparing( names::get ) );
+        this.namePool = new String[ ordered.size() ][];
+        for ( int rank = 0; rank < ordered.size(); rank++ ) {
+            List<Integer> ranks = ordered.get( rank );
+            this.namePool[ rank ] = new String[ ranks.size() ];
+            for ( int w = 0; w < ranks.size(); w++ ) {
+                this.namePool[ rank ][ w ] = this.vocabulary[ ranks.get( w ) ];
+            }
+        }
+        this.nameSampler = new ZipfSampler( this.namePool.length, this.zipfExponent );
+        this.typeSampler = new ZipfSampler( COMMON_TYPES.length, this.zipfExponent );
+        this.packageSampler = new ZipfSampler( this.packageCount, this.zipfExponent );
+    }
+
+    // adds a type declaration and its members
+    private void addType( Species species, String name, String containerUid, int depth ) {
+        String uid = nextUid();
+        ArrayList<TypeName> superClasses = new ArrayList<>();
+        ArrayList<TypeName> superTypes = new ArrayList<>();
+        if ( species == Species.INTERFACE || species == Species.NESTED_INTERFACE ) {
+            if ( this.random.nextDouble() < 0.2 ) {
+                addSuperType( superTypes );
+            }
+        }
+        else {
+            if ( species != Species.ENUM && this.random.nextDouble() < 0.35 ) {
+                String superClass = popular( this.classNames );
+                if ( superClass != null ) {
+                    superClasses.add( typeName( superClass ) );
+                }
+            }
+            for ( int i = this.random.nextInt( 3 ); i > 0; i-- ) {
+                addSuperType( superTypes );
+            }
+        }
+
+        ArrayList<Modifier> modifiers = new ArrayList<>();
+        modifiers.add( depth == 0 || this.random.nextDouble() < 0.5 ? Modifier.PUBLIC : Modifier.PRIVATE );
+        if ( depth > 0 && this.random.nextDouble() < 0.6 ) {
+            modifiers.add( Modifier.STATIC );
+        }
+        if ( species == Species.CLASS || species == Species.MEMBER_CLASS ) {
+            double kind = this.random.nextDouble();
+            if ( kind < 0.1 ) {
+                modifiers.add( Modifier.ABSTRACT );
+            }
+            else if ( kind < 0.2 ) {
+                modifiers.add( Modifier.FINAL );
+            }
+        }
+        add( containerUid, uid, name, species, typeName( name ), null,
+                modifiers, false, superClasses, superTypes );
+        if ( species == Species.INTERFACE || species == Species.NESTED_INTERFACE ) {
+            this.interfaceNames.add( name );
+        }
+        else {
+            this.classNames.add( name );
+        }
+
+        boolean isInterface = species == Species.INTERFACE || species == Species.NESTED_INTERFACE;
+        if ( species == Species.ENUM ) {
+            for ( int i = 2 + this.random.nextInt( 5 ); i > 0; i-- ) {
+                add( uid, nextUid(), constantName(), Species.ENUM_CONSTANT, typeName( name ),
+                        null, modifiers( Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL ),
+                        false, null, null );
+            }
+        }
+        for ( int i = geometric( isInterface ? 0.5 : 3 ); i > 0; i-- ) {
+            addField( uid, isInterface );
+        }
+        if ( species == Species.CLASS || species == Species.MEMBER_CLASS ) {
+            for ( int i = this.random.nextInt( 3 ); i > 0; i-- ) {
+                addMethod( uid, name, Species.CONSTRUCTOR, false );
+            }
+        }
+        for ( int i = geometric( species == Species.ENUM ? 1 : 5 ); i > 0; i-- ) {
+            addMethod( uid, lowerCamelCase( nextName() ), Species.METHOD, isInterface );
+        }
+        if ( depth < 2 && ! isInterface && this.random.nextDouble() < 0.15 ) {
+            boolean nestedInterface = this.random.nextDouble() < 0.2;
+            addType( nestedInterface ? Species.NESTED_INTERFACE : Species.MEMBER_CLASS,
+                    className( this.fileCount ), uid, depth + 1 );
+        }
+    }
+
+    private void addField( String containerUid, boolean isInterface ) {
+        ArrayList<Modifier> modifiers = new ArrayList<>();
+        boolean isConstant = isInterface || this.random.nextDouble() < 0.15;
+        if ( isConstant ) {
+            modifiers.addAll( modifiers( Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL ) );
+        }
+        else {
+            double access = this.random.nextDouble();
+            modifiers.add( access < 0.75 ? Modifier.PRIVATE
+                    : access < 0.9 ? Modifier.PROTECTED
+                    : Modifier.PUBLIC );
+            if ( this.random.nextDouble() < 0.3 ) {
+                modifiers.add( Modifier.FINAL );
+            }
+        }
+        String name = isConstant ? constantName() : lowerCamelCase( nextName() );
+        add( containerUid, nextUid(), name, Species.FIELD, nextType(), null,
+                modifiers, false, null, null );
+    }
+
+    private void addMethod( String containerUid, String name, Species species, boolean isAbstract ) {
+        String uid = nextUid();
+        ArrayList<Modifier> modifiers = new ArrayList<>();
+        double access = this.random.nextDouble();
+        modifiers.add( isAbstract || access < 0.6 ? Modifier.PUBLIC
+                : access < 0.85 ? Modifier.PRIVATE
+                : Modifier.PROTECTED );
+        if ( isAbstract ) {
+            modifiers.add( Modifier.ABSTRACT );
+        }
+        else if ( species == Species.METHOD && this.random.nextDouble() < 0.1 ) {
+            modifiers.add( Modifier.STATIC );
+        }
+        TypeName returnType = species == Species.CONSTRUCTOR ? typeName( name ) : nextType();
+
+        // the arguments are chosen first as they form the signature
+        TypeName[] argumentTypes = new TypeName[ Math.min( 6, geometric( 1.5 ) ) ];
+        String[] argumentTypeNames = new String[ argumentTypes.length ];
+        for ( int i = 0; i < argumentTypes.length; i++ ) {
+            argumentTypes[ i ] = nextType();
+            argumentTypeNames[ i ] = argumentTypes[ i ].identifierName();
+        }
+        add( containerUid, uid, name, species, returnType,
+                name + "(" + String.join( ",", argumentTypeNames ) + ")",
+                modifiers, false, null, null );
+        for ( TypeName argumentType : argumentTypes ) {
+            add( uid, nextUid(), lowerCamelCase( nextName() ), Species.FORMAL_ARGUMENT,
+                    argumentType, null, modifiers(), false, null, null );
+        }
+
+        if ( ! isAbstract ) {
+            for ( int i = geometric( 2.5 ); i > 0; i-- ) {
+                this.line++;
+                if ( this.random.nextDouble() < 0.15 ) {
+                    String loopVariable = LOOP_VARIABLES[ this.random.nextInt( LOOP_VARIABLES.length ) ];
+                    add( uid, nextUid(), loopVariable, Species.LOCAL_VARIABLE, typeName( "int" ),
+                            null, modifiers(), true, null, null );
+                }
+                else {
+                    add( uid, nextUid(), lowerCamelCase( nextName() ), Species.LOCAL_VARIABLE,
+                            nextType(), null,
+                            this.random.nextDouble() < 0.1 ? modifiers( Modifier.FINAL ) : modifiers(),
+                            false, null, null );
+                }
+            }
+        }
+        this.line++;
+    }
+
+    private void addSuperType( ArrayList<TypeName> superTypes ) {
+        String superType = popular( this.interfaceNames );
+        if ( superType != null ) {
+            superTypes.add( typeName( superType ) );
+        }
+    }
+
+    private void add(
+            String containerUid,
+            String entityUid,
+            String name,
+            Species species,
+            TypeName typeName,
+            String methodSignature,
+            ArrayList<Modifier> modifiers,
+            boolean isLoopControlVariable,
+            ArrayList<TypeName> superClasses,
+            ArrayList<TypeName> superTypes ) {
+        int column = 5 + 4 * this.random.nextInt( 4 );
+        this.entities.add( new RawProgramEntity( this.fileName, this.packageName,
+                containerUid, entityUid, name, species, typeName,
+                this.random.nextDouble() < 0.05, methodSignature, modifiers,
+                isLoopControlVariable,
+                superClasses == null ? new ArrayList<>() : superClasses,
+                superTypes == null ? new ArrayList<>() : superTypes,
+                this.line, column, this.line, column + name.length() ) );
+        this.identifierNames.add( name );
+        this.line++;
+    }
+
+    // earlier types are chosen roughly in proportion to 1 / rank, so the
+    // first types declared become the popular base types
+    private String popular( List<String> names ) {
+        if ( names.isEmpty() ) {
+            return null;
+        }
+        int index = (int) Math.pow( names.size(), this.random.nextDouble() ) - 1;
+        return names.get( Math.min( index, names.size() - 1 ) );
+    }
+
+    // a number of items with the given mean, following a geometric distribution
+    private int geometric( double mean ) {
+        double p = 1 / ( mean + 1 );
+        return (int) ( Math.log( 1 - this.random.nextDouble() ) / Math.log( 1 - p ) );
+    }
+
+    private String[] nextName() {
+        return this.namePool[ this.nameSampler.next( this.random ) ];
+    }
+
+    private String[] words( int count ) {
+        String[] words = new String[ count ];
+        for ( int i = 0; i < count; i++ ) {
+            words[ i ] = this.vocabulary[ this.wordSampler.next( this.random ) ];
+        }
+        return words;
+    }
+
+    // class names are mostly distinct, so are made afresh from common words
+    private String className( int fileIndex ) {
+        String[] words = words( 1 + this.random.nextInt( 3 ) );
+        String name = upperCamelCase( words );
+        return this.random.nextDouble() < 0.7 ? name : name + fileIndex;
+    }
+
+    private String constantName() {
+        return String.join( "_", nextName() ).toUpperCase( Locale.ROOT );
+    }
+
+    private TypeName nextType() {
+        if ( ! this.classNames.isEmpty() && this.random.nextDouble() < 0.25 ) {
+            return typeName( popular( this.classNames ) );
+        }
+        return typeName( COMMON_TYPES[ this.typeSampler.next( this.random ) ] );
+    }
+
+    private String nextUid() {
+        return String.format( "%08x%08x", this.fileCount, this.entityIndex++ );
+    }
+
+    private static String lowerCamelCase( String[] words ) {
+        StringBuilder name = new StringBuilder( words[ 0 ] );
+        for ( int i = 1; i < words.length; i++ ) {
+            name.append( Character.toUpperCase( words[ i ].charAt( 0 ) ) )
+                    .append( words[ i ], 1, words[ i ].length() );
+        }
+        return name.toString();
+    }
+
+    private static String upperCamelCase( String[] words ) {
+        String name = lowerCamelCase( words );
+        return Character.toUpperCase( name.charAt( 0 ) ) + name.substring( 1 );
+    }
+
+    // types are stored unresolved, as jim records them without a classpath
+    private static TypeName typeName( String name ) {
+        return new TypeName( name, name );
+    }
+
+    private static ArrayList<Modifier> modifiers( Modifier... modifiers ) {
+        return new ArrayList<>( Arrays.asList( modifiers ) );
+    }
+
+    /**
+     * Draws ranks from zero to {@code n - 1} with probability proportional
+     * to {@code 1 / (rank + 1)^s}.
+     */
+    private static final class ZipfSampler {
+        private final double[] cumulative;
+
+        ZipfSampler( int n, double exponent ) {
+            this.cumulative = new double[ n ];
+            double total = 0;
+            for ( int rank = 0; rank < n; rank++ ) {
+                total += 1 / Math.pow( rank + 1, exponent );
+                this.cumulative[ rank ] = total;
+            }
+        }
+
+        int next( Random random ) {
+            double target = random.nextDouble() * this.cumulative[ this.cumulative.length - 1 ];
+            int rank = Arrays.binarySearch( this.cumulative, target );
+            return rank >= 0 ? rank : Math.min( -rank - 1, this.cumulative.length - 1 );
+        }
+    }
+}
@@ -0,0 +1,444 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Collectors;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.open.crc.idtk.Species;
+
+/**
+ * Replays a mix of ingest and {@linkplain DatabaseReader} calls against a
+ * database from several threads, and reports the latency distribution of
+ * each kind of call. The arguments are the database location followed by
+ * any of these settings, given as {@code key=value}:
+ * <dl>
+ * <dt>mix</dt><dd>the weight of each operation, by default
+ * {@code entities:70,names:20,inheritance:10}; the operations are
+ * {@code entities}, {@code project}, {@code names}, {@code tokens},
+ * {@code inheritance} and {@code ingest}</dd>
+ * <dt>threads</dt><dd>the number of threads, 4 by default</dd>
+ * <dt>warmup</dt><dd>seconds run before latencies are recorded, 10 by
+ * default</dd>
+ * <dt>duration</dt><dd>seconds for which latencies are recorded, 60 by
+ * default</dd>
+ * <dt>seed</dt><dd>seeds the choice of operations and arguments, and the
+ * synthetic corpus, 42 by default</dd>
+ * <dt>name, version</dt><dd>the project read and written, by default
+ * {@code synthetic} and the seed, as stored by
+ * {@linkplain SyntheticCorpus}</dd>
+ * <dt>preload</dt><dd>the number of synthetic declarations to store
+ * before starting, 0 by default</dd>
+ * <dt>report</dt><dd>a file to which the results are also written as
+ * comma separated values</dd>
+ * </dl>
+ * <p>
+ * The readers and the writer share one connection and its prepared
+ * statements, so calls are made one at a time, in the order threads ask
+ * for them. Latencies include the wait, as the caller sees it.
+ * </p>
+ */
+final class WorkloadDriver {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( WorkloadDriver.class );
+
+    private static final List<String> SETTINGS = Arrays.asList( 
+            "mix", "threads", "warmup", "duration", "seed", "name", "version", 
+            "preload", "report" );
+
+    private static final Species[] NAME_SPECIES = {
+        Species.FIELD, Species.METHOD, Species.FORMAL_ARGUMENT, Species.LOCAL_VARIABLE
+    };
+
+    /**
+     * The calls a workload is made of.
+     */
+    enum Operation {
+        /** a query for the declarations of a name in the project */
+        ENTITIES {
+            @Override
+            void run( WorkloadDriver driver, Random random ) {
+                driver.reader.getEntitiesFor( new EntityQuery()
+                        .inProject( driver.project )
+                        .nameMatching( pick( driver.identifierNames, random ) ) );
+            }
+        },
+        /** retrieval of every declaration in the project */
+        PROJECT {
+            @Override
+            void run( WorkloadDriver driver, Random random ) {
+                driver.reader.getEntitiesFor( driver.project );
+            }
+        },
+        /** a sample of the names of a species */
+        NAMES {
+            @Override
+            void run( WorkloadDriver driver, Random random ) {
+                driver.reader.getNameSetFor( driver.project,
+                        NAME_SPECIES[ random.nextInt( NAME_SPECIES.length ) ], 100, 0 );
+            }
+        },
+        /** the tokens of a name */
+        TOKENS {
+            @Override
+            void run( WorkloadDriver driver, Random random ) {
+                driver.reader.getTokensFor( pick( driver.identifierNames, random ) );
+            }
+        },
+        /** the subclasses of a class */
+        INHERITANCE {
+            @Override
+            void run( WorkloadDriver driver, Random random ) {
+                driver.reader.getSubClassesFor( pick( driver.classNames, random ) );
+            }
+        },
+        /** storing one synthetic file */
+        INGEST {
+            @Override
+            void run( WorkloadDriver driver, Random random ) throws SQLException {
+                BenchmarkDatabase.storeFile( driver.writer, driver.ingestCorpus.nextFile() );
+            }
+        };
+
+        abstract void run( WorkloadDriver driver, Random random ) throws SQLException;
+
+        String label() {
+            return name().toLowerCase( Locale.ROOT );
+        }
+    }
+
+    private final String project;
+    private final EnumMap<Operation, Integer> mix;
+    private final int threadCount;
+    private final long warmupNanos;
+    private final long durationNanos;
+    private final long seed;
+    // calls are serialised, fairly, as the connection is shared
+    private final ReentrantLock database;
+
+    private DatabaseReader reader;
+    private DatabaseWriter writer;
+    private SyntheticCorpus ingestCorpus;
+    private List<String> identifierNames;
+    private List<String> classNames;
+
+    private WorkloadDriver(
+            String project,
+            EnumMap<Operation, Integer> mix,
+            int threadCount,
+            long warmupSeconds,
+            long durationSeconds,
+            long seed ) {
+        this.project = project;
+        this.mix = mix;
+        this.threadCount = threadCount;
+        this.warmupNanos = TimeUnit.SECONDS.toNanos( warmupSeconds );
+        this.durationNanos = TimeUnit.SECONDS.toNanos( durationSeconds );
+        this.seed = seed;
+        this.database = new ReentrantLock( true );
+    }
+
+    /**
+     * Runs a workload and prints its report.
+     * @param args the database location and settings
+     * @throws SQLException if the database cannot be opened
+     * @throws IOException if the report cannot be written
+     * @throws InterruptedException if interrupted while the workload runs
+     */
+    public static void main( String[] args )
+            throws SQLException, IOException, InterruptedException {
+        if ( args.length < 1 ) {
+            System.err.println( "Usage: WorkloadDriver location [key=value ...]" );
+            System.exit( 1 );
+        }
+        Map<String, String> settings = new LinkedHashMap<>();
+        settings.put( "mix", "entities:70,names:20,inheritance:10" );
+        settings.put( "threads", "4" );
+        settings.put( "warmup", "10" );
+        settings.put( "duration", "60" );
+        settings.put( "seed", "42" );
+        settings.put( "name", "synthetic" );
+        settings.put( "preload", "0" );
+        for ( int i = 1; i < args.length; i++ ) {
+            int equals = args[ i ].indexOf( '=' );
+            if ( equals < 1 || ! SETTINGS.contains( args[ i ].substring( 0, equals ) ) ) {
+                throw new IllegalArgumentException( "Unrecognised setting: " + args[ i ] );
+            }
+            settings.put( args[ i ].substring( 0, equals ), args[ i ].substring( equals + 1 ) );
+        }
+        settings.putIfAbsent( "version", settings.get( "seed" ) );
+
+        EnumMap<Operation, Integer> mix = parseMix( settings.get( "mix" ) );
+        long seed = Long.parseLong( settings.get( "seed" ) );
+        long preload = Long.parseLong( settings.get( "preload" ) );
+        WorkloadDriver driver = new WorkloadDriver(
+                settings.get( "name" ) + " " + settings.get( "version" ),
+                mix,
+                Integer.parseInt( settings.get( "threads" ) ),
+                Long.parseLong( settings.get( "warmup" ) ),
+                Long.parseLong( settings.get( "duration" ) ),
+                seed );
+
+        boolean isWriting = preload > 0 || mix.containsKey( Operation.INGEST );
+        if ( isWriting ) {
+            DatabaseManager.initialiseAndCreate( args[ 0 ] );
+            DatabaseManager.setProjectName( settings.get( "name" ) );
+            DatabaseManager.setProjectVersion( settings.get( "version" ) );
+            driver.writer = DatabaseWriterFactory.create();
+            if ( preload > 0 ) {
+                LOGGER.info( "Preloading {} declarations", preload );
+                new SyntheticCorpus( seed ).writeTo( driver.writer, preload );
+            }
+            // ingested files are kept apart from any stored by the corpus
+            driver.ingestCorpus = new SyntheticCorpus( seed + 1 ).packagePrefix( "workload" );
+        }
+        else {
+            DatabaseManager.initialise( args[ 0 ] );
+        }
+
+        try {
+            Map<Operation, Result> results = driver.run();
+            driver.report( results, System.out, false );
+            if ( settings.containsKey( "report" ) ) {
+                try ( PrintStream csv = new PrintStream(
+                        Files.newOutputStream( Paths.get( settings.get( "report" ) ) ),
+                        false,
+                        StandardCharsets.UTF_8.name() ) ) {
+                    driver.report( results, csv, true );
+                }
+            }
+        }
+        finally {
+            DatabaseManager.shutdown();
+        }
+    }
+
+    private Map<Operation, Result> run() throws InterruptedException {
+        this.reader = DatabaseReaderFactory.create();
+        this.identifierNames = this.reader.getIdentifierNamesFor( this.project );
+        this.classNames = this.reader.getAllClassNamesFor( this.project ).stream()
+                .map( ProgramEntity::getIdentifierName )
+                .collect( Collectors.toList() );
+        if ( this.identifierNames.isEmpty() || this.classNames.isEmpty() ) {
+            throw new IllegalStateException(
+                    "No declarations found for " + this.project + "; try preload=100000" );
+        }
+        LOGGER.info( "Running {} threads against {} names and {} classes",
+                this.threadCount, this.identifierNames.size(), this.classNames.size() );
+
+        Operation[] operations = this.mix.keySet().toArray( new Operation[ 0 ] );
+        int[] cumulativeWeights = new int[ operations.length ];
+        int totalWeight = 0;
+        for ( int i = 0; i < operations.length; i++ ) {
+            totalWeight += this.mix.get( operations[ i ] );
+            cumulativeWeights[ i ] = totalWeight;
+        }
+
+        long start = System.nanoTime();
+        long recordFrom = start + this.warmupNanos;
+        long end = recordFrom + this.durationNanos;
+        ArrayList<Worker> workers = new ArrayList<>();
+        for ( int t = 0; t < this.threadCount; t++ ) {
+            Worker worker = new Worker( t, new Random( this.seed + t ), operations,
+                    cumulativeWeights, recordFrom, end );
+            workers.add( worker );
+            worker.thread.start();
+        }
+
+        EnumMap<Operation, Result> results = new EnumMap<>( Operation.class );
+        for ( Operation operation : operations ) {
+            results.put( operation, new Result() );
+        }
+        for ( Worker worker : workers ) {
+            worker.thread.join();
+            for ( Operation operation : operations ) {
+                results.get( operation ).add( worker.results.get( operation ) );
+            }
+        }
+
+        return results;
+    }
+
+    // latencies are reported in microseconds
+    private void report( Map<Operation, Result> results, PrintStream out, boolean isCsv ) {
+        String[] headings = { "operation", "count", "ops/s", "mean", "p50", "p90",
+            "p99", "p99.9", "max", "errors" };
+        String format = isCsv
+                ? "%s,%d,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%.1f,%d%n"
+                : "%-12s %9d %9.1f %9.1f %9.1f %9.1f %9.1f %9.1f %10.1f %7d%n";
+        if ( isCsv ) {
+            out.println( String.join( ",", headings ) );
+        }
+        else {
+            out.printf( "Workload %s: %d threads, %ds recorded after %ds warm up, mix %s%n",
+                    this.project, this.threadCount,
+                    TimeUnit.NANOSECONDS.toSeconds( this.durationNanos ),
+                    TimeUnit.NANOSECONDS.toSeconds( this.warmupNanos ),
+                    this.mix.entrySet().stream()
+                            .map( (e) -> e.getKey().label() + ":" + e.getValue() )
+                            .collect( Collectors.joining( "," ) ) );
+            out.printf( "%-12s %9s %9s %9s %9s %9s %9s %9s %10s %7s   (latencies in us)%n",
+                    (Object[]) headings );
+        }
+
+        LatencyHistogram all = new LatencyHistogram();
+        long allErrors = 0;
+        for ( Map.Entry<Operation, Result> entry : results.entrySet() ) {
+            Result result = entry.getValue();
+            print( out, format, entry.getKey().label(), result.latencies, result.errors );
+            all.add( result.latencies );
+            allErrors += result.errors;
+        }
+        print( out, format, "all", all, allErrors );
+    }
+
+    private void print(
+            PrintStream out,
+            String format,
+            String label,
+            LatencyHistogram latencies,
+            long errors ) {
+        double seconds = this.durationNanos / 1e9;
+        out.printf( Locale.ROOT, format,
+                label,
+                latencies.count(),
+                latencies.count() / seconds,
+                latencies.mean() / 1e3,
+                latencies.percentile( 50 ) / 1e3,
+                latencies.percentile( 90 ) / 1e3,
+                latencies.percentile( 99 ) / 1e3,
+                latencies.percentile( 99.9 ) / 1e3,
+                latencies.maximum() / 1e3,
+                errors );
+    }
+
+    private static EnumMap<Operation, Integer> parseMix( String mix ) {
+        EnumMap<Operation, Integer> weights = new EnumMap<>( Operation.class );
+        for ( String part : mix.split( "," ) ) {
+            String[] pair = part.trim().split( ":" );
+            if ( pair.length != 2 ) {
+                throw new IllegalArgumentException( "Mix entries are operation:weight: " + part );
+            }
+            int weight = Integer.parseInt( pair[ 1 ].trim() );
+            if ( weight > 0 ) {
+                weights.put( Operation.valueOf( pair[ 0 ].trim().toUpperCase( Locale.ROOT ) ), weight );
+            }
+        }
+        if ( weights.isEmpty() ) {
+            throw new IllegalArgumentException( "Mix has no operations: " + mix );
+        }
+
+        return weights;
+    }
+
+    private static String pick( List<String> values, Random random ) {
+        return values.get( random.nextInt( values.size() ) );
+    }
+
+    /**
+     * The latencies and failures of one operation.
+     */
+    private static final class Result {
+        final LatencyHistogram latencies = new LatencyHistogram();
+        long errors;
+
+        void add( Result other ) {
+            this.latencies.add( other.latencies );
+            this.errors += other.errors;
+        }
+    }
+
+    /**
+     * A thread issuing operations until the run ends.
+     */
+    private final class Worker implements Runnable {
+        final Thread thread;
+        final EnumMap<Operation, Result> results;
+        private final Random random;
+        private final Operation[] operations;
+        private final int[] cumulativeWeights;
+        private final long recordFrom;
+        private final long end;
+
+        Worker( int index,
+                Random random,
+                Operation[] operations,
+                int[] cumulativeWeights,
+                long recordFrom,
+                long end ) {
+            this.random = random;
+            this.operations = operations;
+            this.cumulativeWeights = cumulativeWeights;
+            this.recordFrom = recordFrom;
+            this.end = end;
+            this.results = new EnumMap<>( Operation.class );
+            for ( Operation operation : operations ) {
+                this.results.put( operation, new Result() );
+            }
+            this.thread = new Thread( this, "workload-" + index );
+        }
+
+        @Override
+        public void run() {
+            int totalWeight = this.cumulativeWeights[ this.cumulativeWeights.length - 1 ];
+            for ( long start = System.nanoTime(); start < this.end; start = System.nanoTime() ) {
+                int choice = this.random.nextInt( totalWeight );
+                int i = 0;
+                while ( this.cumulativeWeights[ i ] <= choice ) {
+                    i++;
+                }
+                Operation operation = this.operations[ i ];
+                boolean failed = false;
+                WorkloadDriver.this.database.lock();
+                try {
+                    operation.run( WorkloadDriver.this, this.random );
+                }
+                catch ( SQLException | RuntimeException e ) {
+                    failed = true;
+                    LOGGER.warn( "{} failed: {}", operation.label(), e.getMessage() );
+                }
+                finally {
+                    WorkloadDriver.this.database.unlock();
+                }
+                long latency = System.nanoTime() - start;
+                if ( start >= this.recordFrom ) {
+                    Result result = this.results.get( operation );
+                    result.latencies.record( latency );
+                    if ( failed ) {
+                        result.errors++;
+                    }
+                }
+            }
+        }
+    }
+}
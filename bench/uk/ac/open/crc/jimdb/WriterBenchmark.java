@@ -0,0 +1,93 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.SQLException;
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures storing declarations into a new database. Each trial writes to
+ * its own database in a temporary directory, which grows as the trial
+ * proceeds.
+ */
+@State( Scope.Benchmark )
+@BenchmarkMode( Mode.Throughput )
+@OutputTimeUnit( TimeUnit.SECONDS )
+@Fork( 1 )
+@Warmup( iterations = 3, time = 5 )
+@Measurement( iterations = 5, time = 5 )
+public class WriterBenchmark {
+
+    private Path location;
+    private DatabaseWriter writer;
+    private SyntheticCorpus corpus;
+    private ArrayDeque<RawProgramEntity> pending;
+
+    @Setup
+    public void open() throws IOException, SQLException {
+        this.location = Files.createTempDirectory( "jimdb-bench" ).resolve( "db" );
+        DatabaseManager.initialiseAndCreate( this.location.toString() );
+        DatabaseManager.setProjectName( BenchmarkDatabase.PROJECT_NAME );
+        DatabaseManager.setProjectVersion( BenchmarkDatabase.PROJECT_VERSION );
+        this.writer = DatabaseWriterFactory.create();
+        this.corpus = new SyntheticCorpus( BenchmarkDatabase.SEED );
+        this.pending = new ArrayDeque<>();
+    }
+
+    @TearDown
+    public void close() throws IOException, SQLException {
+        DatabaseManager.shutdown();
+        BenchmarkDatabase.delete( this.location );
+    }
+
+    /**
+     * Stores one declaration, which is committed on its own. Generating
+     * the declarations is cheap beside the inserts and is included.
+     */
+    @Benchmark
+    public void storeEntity() {
+        if ( this.pending.isEmpty() ) {
+            this.pending.addAll( this.corpus.nextFile() );
+        }
+        this.writer.store( this.pending.poll() );
+    }
+
+    /**
+     * Stores the declarations of one file in a single transaction, as an
+     * incremental ingest does.
+     * @throws SQLException if the file cannot be stored
+     */
+    @Benchmark
+    public void ingestFile() throws SQLException {
+        BenchmarkDatabase.storeFile( this.writer, this.corpus.nextFile() );
+    }
+}
@@ -0,0 +1,520 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.EnumMap;
+
+/**
+ * A read-only image of the database, written by
+ * {@linkplain AnalysisImageBuilder} and mapped into memory, so that opening
+ * it reads nothing but the header and processes reading the same image
+ * share its pages through the operating system's cache.
+ * <p>
+ * The file begins with a header, the magic number, the format version,
+ * the number of entity rows and the number of sections, followed by an
+ * entry for each section giving its id, offset and length. Sections start
+ * on eight byte boundaries and all values are big endian.
+ * </p>
+ * <p>
+ * Program entities are held as rows, grouped by project in project key
+ * order and in program entity key order within a project, with one
+ * section for each column. Names are held as keys resolved through the
+ * dictionary sections. An entity shared by several versions of a project
+ * has a row in each.
+ * </p>
+ */
+final class AnalysisImage {
+
+    // "JIMDBIMG"
+    static final long MAGIC = 0x4a494d4442494d47L;
+    static final int FORMAT_VERSION = 1;
+    static final int HEADER_SIZE = 8 + 4 + 4 + 4;
+    static final int SECTION_ENTRY_SIZE = 4 + 8 + 8;
+
+    // bits of the flags column
+    static final int IS_ANONYMOUS = 1;
+    static final int IS_ARRAY = 1 << 1;
+    static final int IS_LOOP_CONTROL_VARIABLE = 1 << 2;
+    static final int HAS_CONTAINER_UID = 1 << 3;
+    static final int HAS_ENTITY_UID = 1 << 4;
+
+    /**
+     * The sections of an image. The ordinal is the id recorded in the
+     * header, so new sections must be added at the end.
+     * <p>
+     * A dictionary section holds the entry count <i>n</i>, the keys in
+     * ascending order, the indexes of the entries in the order of their
+     * UTF-8 bytes, <i>n</i> + 1 offsets and the bytes of the values. A
+     * list section holds the list count <i>n</i>, <i>n</i> + 1 offsets and
+     * the values. A keyed list section holds the key count <i>n</i>, the
+     * keys in ascending order, <i>n</i> + 1 offsets and the values. Column
+     * and offset sections hold one int for each row, or row and one more.
+     * </p>
+     */
+    enum Section {
+        IDENTIFIER_NAMES,
+        TOKENS,
+        TYPE_NAMES,
+        FILE_NAMES,
+        METHOD_SIGNATURES,
+        // package keys to package names
+        PACKAGE_NAMES,
+        SPECIES,
+        MODIFIERS,
+        // project keys to the project name and version separated by a space
+        PROJECTS,
+        PROJECT_NAMES,
+        PROJECT_VERSIONS,
+        // lists of token keys, by identifier name dictionary index
+        TOKEN_SEQUENCES,
+        // the key, first row, row count, first uid index entry and uid
+        // index entry count of each project, in key order
+        PROJECT_ROWS,
+        ENTITY_KEYS,
+        ENTITY_NAMES,
+        ENTITY_SPECIES,
+        ENTITY_TYPE_NAMES,
+        ENTITY_PACKAGES,
+        ENTITY_FILES,
+        ENTITY_SIGNATURES,
+        ENTITY_FLAGS,
+        ENTITY_MODIFIERS,
+        START_LINES,
+        START_COLUMNS,
+        END_LINES,
+        END_COLUMNS,
+        CONTAINER_UID_OFFSETS,
+        CONTAINER_UID_BYTES,
+        ENTITY_UID_OFFSETS,
+        ENTITY_UID_BYTES,
+        // rows in program entity key order
+        KEY_INDEX,
+        // rows of each project in entity uid order
+        UID_INDEX,
+        // identifier name keys of the super classes and types of each row
+        SUPER_CLASS_OFFSETS,
+        SUPER_CLASS_NAMES,
+        SUPER_TYPE_OFFSETS,
+        SUPER_TYPE_NAMES,
+        // rows by the identifier name key of a super class or type
+        SUB_CLASSES,
+        SUB_TYPES
+    }
+
+    private final Path file;
+    private final int rowCount;
+    private final EnumMap<Section, ByteBuffer> sections;
+
+    private AnalysisImage( Path file, int rowCount, EnumMap<Section, ByteBuffer> sections ) {
+        this.file = file;
+        this.rowCount = rowCount;
+        this.sections = sections;
+    }
+
+    /**
+     * Maps an image into memory.
+     * @param file the image file
+     * @return the image
+     * @throws IOException if the file cannot be read or is not an image
+     * of this version
+     */
+    static AnalysisImage open( Path file ) throws IOException {
+        try ( FileChannel channel = FileChannel.open( file, StandardOpenOption.READ ) ) {
+            ByteBuffer header = read( channel, 0, HEADER_SIZE );
+            if ( header.getLong() != MAGIC ) {
+                throw new IOException( "Not an analysis image: " + file );
+            }
+            int version = header.getInt();
+            if ( version != FORMAT_VERSION ) {
+                throw new IOException(
+                        "Unsupported analysis image version " + version + ": " + file );
+            }
+            int rowCount = header.getInt();
+            int sectionCount = header.getInt();
+
+            ByteBuffer entries = read( channel, HEADER_SIZE, sectionCount * SECTION_ENTRY_SIZE );
+            Section[] known = Section.values();
+            EnumMap<Section, ByteBuffer> sections = new EnumMap<>( Section.class );
+            for ( int i = 0; i < sectionCount; i++ ) {
+                int id = entries.getInt();
+                long offset = entries.getLong();
+                long length = entries.getLong();
+                if ( id < 0 || id >= known.length ) {
+                    continue;
+                }
+                if ( offset + length > channel.size() ) {
+                    throw new IOException( "Truncated analysis image: " + file );
+                }
+                // the mapping outlives the channel
+                sections.put( known[ id ],
+                        channel.map( FileChannel.MapMode.READ_ONLY, offset, length ) );
+            }
+            for ( Section section : known ) {
+                if ( ! sections.containsKey( section ) ) {
+                    throw new IOException(
+                            "Analysis image has no " + section + " section: " + file );
+                }
+            }
+
+            return new AnalysisImage( file, rowCount, sections );
+        }
+    }
+
+    /**
+     * Creates an image from sections held in memory.
+     * @param rowCount the number of entity rows
+     * @param sections the contents of every section
+     * @return the image
+     */
+    static AnalysisImage of( int rowCount, EnumMap<Section, ByteBuffer> sections ) {
+        return new AnalysisImage( null, rowCount, sections );
+    }
+
+    /**
+     * Retrieves the file the image was mapped from.
+     * @return the image file, or {@code null} if the image is held in
+     * memory
+     */
+    Path file() {
+        return this.file;
+    }
+
+    /**
+     * Retrieves the number of entity rows.
+     * @return the number of rows
+     */
+    int rowCount() {
+        return this.rowCount;
+    }
+
+    /**
+     * Retrieves a column, offset or index section.
+     * @param section the section
+     * @return a view of the section as ints
+     */
+    IntBuffer ints( Section section ) {
+        return this.sections.get( section ).duplicate().asIntBuffer();
+    }
+
+    /**
+     * Retrieves a dictionary section.
+     * @param section the section
+     * @return the dictionary
+     */
+    Dictionary dictionary( Section section ) {
+        return new Dictionary( this.sections.get( section ) );
+    }
+
+    /**
+     * Retrieves a list section.
+     * @param section the section
+     * @return the lists
+     */
+    Lists lists( Section section ) {
+        IntBuffer ints = ints( section );
+        int count = ints.get( 0 );
+        return new Lists( slice( ints, 1, count + 1 ), slice( ints, count + 2, ints.limit() - count - 2 ) );
+    }
+
+    /**
+     * Retrieves the lists held in a pair of offset and value sections.
+     * @param offsets the offset section
+     * @param values the value section
+     * @return the lists
+     */
+    Lists lists( Section offsets, Section values ) {
+        return new Lists( ints( offsets ), ints( values ) );
+    }
+
+    /**
+     * Retrieves a keyed list section.
+     * @param section the section
+     * @return the lists
+     */
+    KeyedLists keyedLists( Section section ) {
+        IntBuffer ints = ints( section );
+        int count = ints.get( 0 );
+        return new KeyedLists(
+                slice( ints, 1, count ),
+                new Lists(
+                        slice( ints, count + 1, count + 1 ),
+                        slice( ints, 2 * count + 2, ints.limit() - 2 * count - 2 ) ) );
+    }
+
+    /**
+     * Retrieves the strings held in a pair of offset and byte sections.
+     * @param offsets the offset section
+     * @param bytes the byte section
+     * @return the strings
+     */
+    Strings strings( Section offsets, Section bytes ) {
+        return new Strings( ints( offsets ), this.sections.get( bytes ).duplicate() );
+    }
+
+    private static ByteBuffer read( FileChannel channel, long position, int length )
+            throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate( length );
+        while ( buffer.hasRemaining() ) {
+            if ( channel.read( buffer, position + buffer.position() ) < 0 ) {
+                throw new IOException( "Truncated analysis image" );
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static IntBuffer slice( IntBuffer ints, int start, int length ) {
+        IntBuffer view = ints.duplicate();
+        view.position( start );
+        view.limit( start + length );
+        return view.slice();
+    }
+
+    /**
+     * A table of strings, where string <i>i</i> is held in the bytes
+     * between {@code offsets[i]} and {@code offsets[i + 1]}.
+     */
+    static final class Strings {
+        private final IntBuffer offsets;
+        private final ByteBuffer bytes;
+
+        Strings( IntBuffer offsets, ByteBuffer bytes ) {
+            this.offsets = offsets;
+            this.bytes = bytes;
+        }
+
+        /**
+         * Retrieves a string.
+         * @param index the index of the string
+         * @return the string
+         */
+        String get( int index ) {
+            int start = this.offsets.get( index );
+            byte[] value = new byte[ this.offsets.get( index + 1 ) - start ];
+            // absolute reads leave the shared buffer untouched
+            for ( int i = 0; i < value.length; i++ ) {
+                value[ i ] = this.bytes.get( start + i );
+            }
+            return new String( value, StandardCharsets.UTF_8 );
+        }
+
+        /**
+         * Compares a string with the UTF-8 bytes of another, byte by
+         * byte as unsigned values.
+         * @param index the index of the string
+         * @param value the bytes to compare with
+         * @return a negative number, zero or a positive number as the
+         * string is less than, equal to or greater than the value
+         */
+        int compare( int index, byte[] value ) {
+            int start = this.offsets.get( index );
+            int length = this.offsets.get( index + 1 ) - start;
+            for ( int i = 0; i < Math.min( length, value.length ); i++ ) {
+                int difference = ( this.bytes.get( start + i ) & 0xff ) - ( value[ i ] & 0xff );
+                if ( difference != 0 ) {
+                    return difference;
+                }
+            }
+            return length - value.length;
+        }
+    }
+
+    /**
+     * Maps database keys to strings and back, by binary search of the
+     * keys or of the values.
+     */
+    static final class Dictionary {
+        private final int size;
+        private final IntBuffer keys;
+        private final IntBuffer valueOrder;
+        private final Strings values;
+
+        Dictionary( ByteBuffer section ) {
+            IntBuffer ints = section.duplicate().asIntBuffer();
+            this.size = ints.get( 0 );
+            this.keys = slice( ints, 1, this.size );
+            this.valueOrder = slice( ints, 1 + this.size, this.size );
+            ByteBuffer bytes = section.duplicate();
+            bytes.position( 4 * ( 3 * this.size + 2 ) );
+            this.values = new Strings( slice( ints, 1 + 2 * this.size, this.size + 1 ), bytes.slice() );
+        }
+
+        /**
+         * Retrieves the number of entries.
+         * @return the number of entries
+         */
+        int size() {
+            return this.size;
+        }
+
+        /**
+         * Retrieves the key of an entry.
+         * @param index the index of the entry, in key order
+         * @return the key
+         */
+        int keyAt( int index ) {
+            return this.keys.get( index );
+        }
+
+        /**
+         * Retrieves the value of an entry.
+         * @param index the index of the entry, in key order
+         * @return the value
+         */
+        String valueAt( int index ) {
+            return this.values.get( index );
+        }
+
+        /**
+         * Finds the entry for a key.
+         * @param key a database key
+         * @return the index of the entry, or a negative number if the key
+         * is not recorded
+         */
+        int indexOf( int key ) {
+            int low = 0;
+            int high = this.size - 1;
+            while ( low <= high ) {
+                int middle = ( low + high ) >>> 1;
+                int candidate = this.keys.get( middle );
+                if ( candidate < key ) {
+                    low = middle + 1;
+                }
+                else if ( candidate > key ) {
+                    high = middle - 1;
+                }
+                else {
+                    return middle;
+                }
+            }
+            return -1;
+        }
+
+        /**
+         * Retrieves the value of a key.
+         * @param key a database key
+         * @return the value, or {@code null} if the key is not recorded
+         */
+        String get( int key ) {
+            int index = indexOf( key );
+            return index < 0 ? null : valueAt( index );
+        }
+
+        /**
+         * Retrieves the key of a value.
+         * @param value a string
+         * @return the key, or {@code null} if the value is not recorded
+         */
+        Integer get( String value ) {
+            if ( value == null ) {
+                return null;
+            }
+            byte[] bytes = value.getBytes( StandardCharsets.UTF_8 );
+            int low = 0;
+            int high = this.size - 1;
+            while ( low <= high ) {
+                int middle = ( low + high ) >>> 1;
+                int index = this.valueOrder.get( middle );
+                int comparison = this.values.compare( index, bytes );
+                if ( comparison < 0 ) {
+                    low = middle + 1;
+                }
+                else if ( comparison > 0 ) {
+                    high = middle - 1;
+                }
+                else {
+                    return this.keys.get( index );
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Lists of ints, where list <i>i</i> is held in the values between
+     * {@code offsets[i]} and {@code offsets[i + 1]}.
+     */
+    static final class Lists {
+        private final IntBuffer offsets;
+        private final IntBuffer values;
+
+        Lists( IntBuffer offsets, IntBuffer values ) {
+            this.offsets = offsets;
+            this.values = values;
+        }
+
+        /**
+         * Retrieves a list.
+         * @param index the index of the list
+         * @return the values in the list
+         */
+        int[] get( int index ) {
+            int start = this.offsets.get( index );
+            int[] list = new int[ this.offsets.get( index + 1 ) - start ];
+            for ( int i = 0; i < list.length; i++ ) {
+                list[ i ] = this.values.get( start + i );
+            }
+            return list;
+        }
+    }
+
+    /**
+     * Lists of ints found by key.
+     */
+    static final class KeyedLists {
+        private static final int[] NONE = new int[ 0 ];
+
+        private final IntBuffer keys;
+        private final Lists lists;
+
+        KeyedLists( IntBuffer keys, Lists lists ) {
+            this.keys = keys;
+            this.lists = lists;
+        }
+
+        /**
+         * Retrieves the list for a key.
+         * @param key a key
+         * @return the values in the list, empty if the key has none
+         */
+        int[] get( int key ) {
+            int low = 0;
+            int high = this.keys.limit() - 1;
+            while ( low <= high ) {
+                int middle = ( low + high ) >>> 1;
+                int candidate = this.keys.get( middle );
+                if ( candidate < key ) {
+                    low = middle + 1;
+                }
+                else if ( candidate > key ) {
+                    high = middle - 1;
+                }
+                else {
+                    return this.lists.get( middle );
+                }
+            }
+            return NONE;
+        }
+    }
+}
@@ -0,0 +1,632 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.open.crc.jimdb.AnalysisImage.Section;
+
+/**
+ * Writes the contents of the database to an analysis image, a single
+ * file that {@linkplain DatabaseReaderFactory#createFromImage(java.lang.String)}
+ * maps into memory to serve reads without the database. An image suits
+ * analysis of a finished corpus: it opens almost at once, needs no
+ * database connection, and several processes reading the same image
+ * share one copy of it in memory.
+ * <p>
+ * The database must be initialised with
+ * {@linkplain DatabaseManager#initialise(java.lang.String)} before use.
+ * Projects are read one at a time, and each section of the image is
+ * written to a work file beside the image before they are gathered into
+ * it, so memory use is bounded by the largest project rather than the
+ * corpus. Each section is limited to 2GB.
+ * </p>
+ * <p>
+ * The same image is built in memory from an 
+ * {@linkplain InMemoryStorageBackend} to serve its readers.
+ * </p>
+ */
+public class AnalysisImageBuilder {
+    private static final Logger LOGGER = LoggerFactory.getLogger( AnalysisImageBuilder.class );
+
+    /**
+     * The file name extension conventionally used for images.
+     */
+    public static final String FILE_EXTENSION = ".jimg";
+
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    private final Path file;
+    private final EnumMap<Section, DataOutputStream> outputs;
+    private Path workDirectory;
+
+    private final AnalysisImageSource source;
+
+    /**
+     * Creates a builder that writes to the given file.
+     * @param file the image file, which is replaced if it exists
+     */
+    public AnalysisImageBuilder( Path file ) {
+        this.file = file.toAbsolutePath();
+        this.outputs = new EnumMap<>( Section.class );
+        this.source = new DatabaseSource();
+    }
+
+    /**
+     * Creates a builder of images held in memory.
+     * @param source the contents of the image
+     */
+    AnalysisImageBuilder( AnalysisImageSource source ) {
+        this.file = null;
+        this.outputs = new EnumMap<>( Section.class );
+        this.source = source;
+    }
+
+    /**
+     * Writes every project in the database to the image.
+     * @return the path of the image written
+     * @throws IOException if the database cannot be read or the image
+     * cannot be written
+     */
+    public Path build() throws IOException {
+        long start = System.currentTimeMillis();
+        Path directory = this.file.getParent();
+        Files.createDirectories( directory );
+        this.workDirectory = Files.createTempDirectory( directory, ".image" );
+        Path temporaryFile = directory.resolve( this.file.getFileName() + ".part" );
+        try {
+            for ( Section section : Section.values() ) {
+                this.outputs.put( section, new DataOutputStream( new BufferedOutputStream(
+                        Files.newOutputStream( workFileFor( section ) ), BUFFER_SIZE ) ) );
+            }
+
+            int rowCount = writeSections();
+            writeImage( temporaryFile, rowCount );
+            Files.move( temporaryFile, this.file, StandardCopyOption.REPLACE_EXISTING );
+
+            LOGGER.info(
+                    "Built analysis image of {} entities at {} in {} ms",
+                    rowCount,
+                    this.file,
+                    System.currentTimeMillis() - start );
+            return this.file;
+        }
+        finally {
+            for ( DataOutputStream output : this.outputs.values() ) {
+                output.close();
+            }
+            this.outputs.clear();
+            for ( Section section : Section.values() ) {
+                Files.deleteIfExists( workFileFor( section ) );
+            }
+            Files.deleteIfExists( this.workDirectory );
+            Files.deleteIfExists( temporaryFile );
+        }
+    }
+
+    /**
+     * Builds an image held in memory, which is not written to a file.
+     * @return the image
+     * @throws IOException if the source cannot be read
+     */
+    AnalysisImage buildInMemory() throws IOException {
+        EnumMap<Section, SectionBuffer> buffers = new EnumMap<>( Section.class );
+        try {
+            for ( Section section : Section.values() ) {
+                SectionBuffer buffer = new SectionBuffer();
+                buffers.put( section, buffer );
+                this.outputs.put( section, new DataOutputStream( new BufferedOutputStream( buffer ) ) );
+            }
+
+            int rowCount = writeSections();
+            EnumMap<Section, ByteBuffer> sections = new EnumMap<>( Section.class );
+            for ( Section section : Section.values() ) {
+                output( section ).flush();
+                sections.put( section, buffers.get( section ).buffer() );
+            }
+            return AnalysisImage.of( rowCount, sections );
+        }
+        finally {
+            this.outputs.clear();
+        }
+    }
+
+    // writes every section, returning the number of entity rows
+    private int writeSections() throws IOException {
+        SortedMap<Integer, String> identifierNames = entries( Section.IDENTIFIER_NAMES );
+        writeDictionary( Section.IDENTIFIER_NAMES, identifierNames );
+        writeDictionary( Section.TOKENS, entries( Section.TOKENS ) );
+        writeDictionary( Section.TYPE_NAMES, entries( Section.TYPE_NAMES ) );
+        writeDictionary( Section.FILE_NAMES, entries( Section.FILE_NAMES ) );
+        writeDictionary( Section.METHOD_SIGNATURES, entries( Section.METHOD_SIGNATURES ) );
+        writeDictionary( Section.SPECIES, entries( Section.SPECIES ) );
+        writeDictionary( Section.MODIFIERS, entries( Section.MODIFIERS ) );
+        writeTokenSequences( identifierNames );
+
+        return writeEntities();
+    }
+
+    // writes the columns and indexes of every project's entities, and the
+    // dictionaries of project and package names read with them
+    private int writeEntities() throws IOException {
+        Map<Integer, int[]> superClassNames = this.source.superNameKeys( false );
+        Map<Integer, int[]> superTypeNames = this.source.superNameKeys( true );
+        if ( superClassNames == null || superTypeNames == null ) {
+            throw new IOException( "Could not read super class and type names from database" );
+        }
+
+        SortedMap<Integer, String> projects = this.source.projects();
+        TreeMap<Integer, String> projectNames = new TreeMap<>();
+        TreeMap<Integer, String> projectVersions = new TreeMap<>();
+        TreeMap<Integer, String> packageNames = new TreeMap<>();
+
+        // key and row pairs, sorted to build the indexes
+        LongArray keyRows = new LongArray();
+        LongArray subClassRows = new LongArray();
+        LongArray subTypeRows = new LongArray();
+        long[] stringBytes = { 0, 0 };
+        int[] superNameCounts = { 0, 0 };
+        output( Section.CONTAINER_UID_OFFSETS ).writeInt( 0 );
+        output( Section.ENTITY_UID_OFFSETS ).writeInt( 0 );
+        output( Section.SUPER_CLASS_OFFSETS ).writeInt( 0 );
+        output( Section.SUPER_TYPE_OFFSETS ).writeInt( 0 );
+
+        int rowCount = 0;
+        int uidRowCount = 0;
+        for ( Map.Entry<Integer, String> project : projects.entrySet() ) {
+            int projectKey = project.getKey();
+            ProjectEntityColumns columns = this.source.projectEntityColumns( projectKey );
+            ProjectContext projectContext = this.source.projectContext( projectKey );
+            if ( columns == null || projectContext == null ) {
+                throw new IOException(
+                        "Could not read project from database: " + project.getValue() );
+            }
+            projectNames.put( projectKey, projectContext.name() );
+            projectVersions.put( projectKey, projectContext.version() );
+
+            byte[][] entityUids = new byte[ columns.rowCount ][];
+            int firstRow = rowCount;
+            for ( int i = 0; i < columns.rowCount; i++ ) {
+                int row = rowCount++;
+                int programEntityKey = columns.programEntityKeys[ i ];
+                String packageName = projectContext.packageNameFor( columns.packageKeys[ i ] );
+                if ( packageName != null ) {
+                    packageNames.put( columns.packageKeys[ i ], packageName );
+                }
+                int modifiers = 0;
+                for ( int m = columns.modifierOffsets[ i ]; m < columns.modifierOffsets[ i + 1 ]; m++ ) {
+                    modifiers |= ModifierCache.bitFor( columns.modifierKeys[ m ] );
+                }
+                int flags = ( columns.isAnonymous[ i ] ? AnalysisImage.IS_ANONYMOUS : 0 )
+                        | ( columns.isArray[ i ] ? AnalysisImage.IS_ARRAY : 0 )
+                        | ( columns.isLoopControlVariable[ i ] ? AnalysisImage.IS_LOOP_CONTROL_VARIABLE : 0 )
+                        | ( columns.containerUids[ i ] != null ? AnalysisImage.HAS_CONTAINER_UID : 0 )
+                        | ( columns.entityUids[ i ] != null ? AnalysisImage.HAS_ENTITY_UID : 0 );
+
+                output( Section.ENTITY_KEYS ).writeInt( programEntityKey );
+                output( Section.ENTITY_NAMES ).writeInt( columns.identifierNameKeys[ i ] );
+                output( Section.ENTITY_SPECIES ).writeInt( columns.speciesKeys[ i ] );
+                output( Section.ENTITY_TYPE_NAMES ).writeInt( columns.typeNameKeys[ i ] );
+                output( Section.ENTITY_PACKAGES ).writeInt( columns.packageKeys[ i ] );
+                output( Section.ENTITY_FILES ).writeInt( columns.fileNameKeys[ i ] );
+                output( Section.ENTITY_SIGNATURES ).writeInt( columns.methodSignatureKeys[ i ] );
+                output( Section.ENTITY_FLAGS ).writeInt( flags );
+                output( Section.ENTITY_MODIFIERS ).writeInt( modifiers );
+                output( Section.START_LINES ).writeInt( columns.startLineNumbers[ i ] );
+                output( Section.START_COLUMNS ).writeInt( columns.startColumns[ i ] );
+                output( Section.END_LINES ).writeInt( columns.endLineNumbers[ i ] );
+                output( Section.END_COLUMNS ).writeInt( columns.endColumns[ i ] );
+
+                writeString( Section.CONTAINER_UID_OFFSETS, Section.CONTAINER_UID_BYTES,
+                        bytesOf( columns.containerUids[ i ] ), stringBytes, 0 );
+                entityUids[ i ] = bytesOf( columns.entityUids[ i ] );
+                writeString( Section.ENTITY_UID_OFFSETS, Section.ENTITY_UID_BYTES,
+                        entityUids[ i ], stringBytes, 1 );
+
+                writeSuperNames( Section.SUPER_CLASS_OFFSETS, Section.SUPER_CLASS_NAMES,
+                        superClassNames.get( programEntityKey ), row, subClassRows, superNameCounts, 0 );
+                writeSuperNames( Section.SUPER_TYPE_OFFSETS, Section.SUPER_TYPE_NAMES,
+                        superTypeNames.get( programEntityKey ), row, subTypeRows, superNameCounts, 1 );
+
+                keyRows.add( pair( programEntityKey, row ) );
+            }
+
+            // rows without an entity uid are left out of the uid index
+            int projectRowCount = columns.rowCount;
+            Integer[] uidOrder = new Integer[ projectRowCount ];
+            int uidCount = 0;
+            for ( int i = 0; i < projectRowCount; i++ ) {
+                if ( columns.entityUids[ i ] != null ) {
+                    uidOrder[ uidCount++ ] = i;
+                }
+            }
+            Arrays.sort( uidOrder, 0, uidCount,
+                    (a, b) -> compareBytes( entityUids[ a ], entityUids[ b ] ) );
+            for ( int i = 0; i < uidCount; i++ ) {
+                output( Section.UID_INDEX ).writeInt( firstRow + uidOrder[ i ] );
+            }
+
+            DataOutputStream projectRows = output( Section.PROJECT_ROWS );
+            projectRows.writeInt( projectKey );
+            projectRows.writeInt( firstRow );
+            projectRows.writeInt( projectRowCount );
+            projectRows.writeInt( uidRowCount );
+            projectRows.writeInt( uidCount );
+            uidRowCount += uidCount;
+
+            LOGGER.debug( "Added {} entities for \"{}\" to analysis image",
+                    projectRowCount, project.getValue() );
+        }
+
+        writeDictionary( Section.PROJECTS, projects );
+        writeDictionary( Section.PROJECT_NAMES, projectNames );
+        writeDictionary( Section.PROJECT_VERSIONS, projectVersions );
+        writeDictionary( Section.PACKAGE_NAMES, packageNames );
+
+        long[] sortedKeyRows = keyRows.sorted();
+        for ( long keyRow : sortedKeyRows ) {
+            output( Section.KEY_INDEX ).writeInt( (int) keyRow );
+        }
+        writeKeyedLists( Section.SUB_CLASSES, subClassRows.sorted() );
+        writeKeyedLists( Section.SUB_TYPES, subTypeRows.sorted() );
+
+        return rowCount;
+    }
+
+    // gathers the work files into the image, after the header
+    private void writeImage( Path temporaryFile, int rowCount ) throws IOException {
+        for ( DataOutputStream output : this.outputs.values() ) {
+            output.close();
+        }
+
+        Section[] sections = Section.values();
+        long[] offsets = new long[ sections.length ];
+        long[] lengths = new long[ sections.length ];
+        long position = align( AnalysisImage.HEADER_SIZE
+                + (long) sections.length * AnalysisImage.SECTION_ENTRY_SIZE );
+        for ( Section section : sections ) {
+            int id = section.ordinal();
+            lengths[ id ] = Files.size( workFileFor( section ) );
+            if ( lengths[ id ] > Integer.MAX_VALUE ) {
+                throw new IOException( "Analysis image section " + section + " exceeds 2GB" );
+            }
+            offsets[ id ] = position;
+            position = align( position + lengths[ id ] );
+        }
+
+        ByteBuffer header = ByteBuffer.allocate(
+                AnalysisImage.HEADER_SIZE + sections.length * AnalysisImage.SECTION_ENTRY_SIZE );
+        header.putLong( AnalysisImage.MAGIC )
+                .putInt( AnalysisImage.FORMAT_VERSION )
+                .putInt( rowCount )
+                .putInt( sections.length );
+        for ( Section section : sections ) {
+            header.putInt( section.ordinal() )
+                    .putLong( offsets[ section.ordinal() ] )
+                    .putLong( lengths[ section.ordinal() ] );
+        }
+        header.flip();
+
+        try ( FileChannel image = FileChannel.open( temporaryFile,
+                StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING,
+                StandardOpenOption.WRITE ) ) {
+            while ( header.hasRemaining() ) {
+                image.write( header );
+            }
+            for ( Section section : sections ) {
+                int id = section.ordinal();
+                try ( FileChannel work = FileChannel.open( workFileFor( section ), StandardOpenOption.READ ) ) {
+                    // the gaps left for alignment read as zeros
+                    image.position( offsets[ id ] );
+                    long copied = 0;
+                    while ( copied < lengths[ id ] ) {
+                        copied += work.transferTo( copied, lengths[ id ] - copied, image );
+                    }
+                }
+            }
+            image.force( true );
+        }
+    }
+
+    private void writeTokenSequences( SortedMap<Integer, String> identifierNames )
+            throws IOException {
+        int[] offsets = new int[ identifierNames.size() + 1 ];
+        int[] tokenKeys = new int[ Math.max( 16, identifierNames.size() * 2 ) ];
+        int tokenCount = 0;
+        int index = 0;
+        for ( int identifierNameKey : identifierNames.keySet() ) {
+            int[] sequence = this.source.componentWordKeysFor( identifierNameKey );
+            if ( tokenCount + sequence.length > tokenKeys.length ) {
+                tokenKeys = Arrays.copyOf( tokenKeys,
+                        Math.max( tokenKeys.length * 2, tokenCount + sequence.length ) );
+            }
+            System.arraycopy( sequence, 0, tokenKeys, tokenCount, sequence.length );
+            tokenCount += sequence.length;
+            offsets[ ++index ] = tokenCount;
+        }
+
+        DataOutputStream output = output( Section.TOKEN_SEQUENCES );
+        output.writeInt( identifierNames.size() );
+        for ( int offset : offsets ) {
+            output.writeInt( offset );
+        }
+        for ( int i = 0; i < tokenCount; i++ ) {
+            output.writeInt( tokenKeys[ i ] );
+        }
+    }
+
+    private void writeDictionary( Section section, SortedMap<Integer, String> entries )
+            throws IOException {
+        int size = entries.size();
+        int[] keys = new int[ size ];
+        byte[][] values = new byte[ size ][];
+        int index = 0;
+        for ( Map.Entry<Integer, String> entry : entries.entrySet() ) {
+            keys[ index ] = entry.getKey();
+            values[ index++ ] = bytesOf( entry.getValue() );
+        }
+        Integer[] valueOrder = new Integer[ size ];
+        for ( int i = 0; i < size; i++ ) {
+            valueOrder[ i ] = i;
+        }
+        Arrays.sort( valueOrder, (a, b) -> compareBytes( values[ a ], values[ b ] ) );
+
+        DataOutputStream output = output( section );
+        output.writeInt( size );
+        for ( int key : keys ) {
+            output.writeInt( key );
+        }
+        for ( int i : valueOrder ) {
+            output.writeInt( i );
+        }
+        long offset = 0;
+        output.writeInt( 0 );
+        for ( byte[] value : values ) {
+            offset += value.length;
+            if ( offset > Integer.MAX_VALUE ) {
+                throw new IOException( "Analysis image section " + section + " exceeds 2GB" );
+            }
+            output.writeInt( (int) offset );
+        }
+        for ( byte[] value : values ) {
+            output.write( value );
+        }
+    }
+
+    // writes key and row pairs, sorted by key, as lists of rows by key
+    private void writeKeyedLists( Section section, long[] keyRows ) throws IOException {
+        int keyCount = 0;
+        for ( int i = 0; i < keyRows.length; i++ ) {
+            if ( i == 0 || keyOf( keyRows[ i ] ) != keyOf( keyRows[ i - 1 ] ) ) {
+                keyCount++;
+            }
+        }
+
+        DataOutputStream output = output( section );
+        output.writeInt( keyCount );
+        for ( int i = 0; i < keyRows.length; i++ ) {
+            if ( i == 0 || keyOf( keyRows[ i ] ) != keyOf( keyRows[ i - 1 ] ) ) {
+                output.writeInt( keyOf( keyRows[ i ] ) );
+            }
+        }
+        for ( int i = 0; i < keyRows.length; i++ ) {
+            if ( i == 0 || keyOf( keyRows[ i ] ) != keyOf( keyRows[ i - 1 ] ) ) {
+                output.writeInt( i );
+            }
+        }
+        output.writeInt( keyRows.length );
+        for ( long keyRow : keyRows ) {
+            output.writeInt( (int) keyRow );
+        }
+    }
+
+    // appends a string to a table, counting the bytes written so far in
+    // the given element of byteCounts
+    private void writeString(
+            Section offsets,
+            Section bytes,
+            byte[] value,
+            long[] byteCounts,
+            int counter ) throws IOException {
+        byteCounts[ counter ] += value.length;
+        if ( byteCounts[ counter ] > Integer.MAX_VALUE ) {
+            throw new IOException( "Analysis image section " + bytes + " exceeds 2GB" );
+        }
+        output( bytes ).write( value );
+        output( offsets ).writeInt( (int) byteCounts[ counter ] );
+    }
+
+    private void writeSuperNames(
+            Section offsets,
+            Section names,
+            int[] superNameKeys,
+            int row,
+            LongArray subRows,
+            int[] nameCounts,
+            int counter ) throws IOException {
+        if ( superNameKeys != null ) {
+            for ( int superNameKey : superNameKeys ) {
+                output( names ).writeInt( superNameKey );
+                subRows.add( pair( superNameKey, row ) );
+            }
+            nameCounts[ counter ] += superNameKeys.length;
+        }
+        output( offsets ).writeInt( nameCounts[ counter ] );
+    }
+
+    private DataOutputStream output( Section section ) {
+        return this.outputs.get( section );
+    }
+
+    private Path workFileFor( Section section ) {
+        return this.workDirectory.resolve( section.name().toLowerCase() );
+    }
+
+    private SortedMap<Integer, String> entries( Section section ) throws IOException {
+        SortedMap<Integer, String> entries = this.source.entries( section );
+        if ( entries == null ) {
+            throw new IOException( "Could not read " + section + " from database" );
+        }
+        return entries;
+    }
+
+    private static byte[] bytesOf( String value ) {
+        return value == null ? new byte[ 0 ] : value.getBytes( StandardCharsets.UTF_8 );
+    }
+
+    // orders as AnalysisImage.Strings compares, by unsigned byte values
+    private static int compareBytes( byte[] a, byte[] b ) {
+        for ( int i = 0; i < Math.min( a.length, b.length ); i++ ) {
+            int difference = ( a[ i ] & 0xff ) - ( b[ i ] & 0xff );
+            if ( difference != 0 ) {
+                return difference;
+            }
+        }
+        return a.length - b.length;
+    }
+
+    // keys are positive, so pairs sort by key and then by row
+    private static long pair( int key, int row ) {
+        return ( (long) key << 32 ) | row;
+    }
+
+    private static int keyOf( long pair ) {
+        return (int) ( pair >>> 32 );
+    }
+
+    private static long align( long position ) {
+        return ( position + 7 ) & ~7L;
+    }
+
+    /**
+     * Reads the contents of the image from the database and its caches.
+     */
+    private static final class DatabaseSource implements AnalysisImageSource {
+
+        @Override
+        public SortedMap<Integer, String> entries( Section section ) {
+            DatabaseKeyCache cache;
+            switch ( section ) {
+                case IDENTIFIER_NAMES:
+                    cache = IdentifierNameCache.getInstance();
+                    break;
+                case TOKENS:
+                    cache = TokenCache.getInstance();
+                    break;
+                case TYPE_NAMES:
+                    cache = TypeNameCache.getInstance();
+                    break;
+                case FILE_NAMES:
+                    cache = FileNameCache.getInstance();
+                    break;
+                case METHOD_SIGNATURES:
+                    cache = MethodSignatureCache.getInstance();
+                    break;
+                case SPECIES:
+                    cache = SpeciesCache.getInstance();
+                    break;
+                case MODIFIERS:
+                    cache = ModifierCache.getInstance();
+                    break;
+                default:
+                    throw new IllegalArgumentException( "Not a cached dictionary: " + section );
+            }
+            TreeMap<Integer, String> entries = new TreeMap<>();
+            cache.forEach( entries::put );
+            return entries;
+        }
+
+        @Override
+        public int[] componentWordKeysFor( int identifierNameKey ) {
+            return TokenSequenceStore.getInstance().componentWordKeysFor( identifierNameKey );
+        }
+
+        @Override
+        public SortedMap<Integer, String> projects() {
+            ProjectKeyStore projectKeyStore = ProjectKeyStore.getInstance();
+            TreeMap<Integer, String> projects = new TreeMap<>();
+            for ( String projectNameAndVersion : projectKeyStore.getProjectNames() ) {
+                projects.put( projectKeyStore.get( projectNameAndVersion ), projectNameAndVersion );
+            }
+            return projects;
+        }
+
+        @Override
+        public ProjectContext projectContext( int projectKey ) {
+            return ProjectContextCache.getInstance().get( projectKey );
+        }
+
+        @Override
+        public ProjectEntityColumns projectEntityColumns( int projectKey ) {
+            // serialised on the database manager
+            return EntityDatabaseManager.loadProjectEntityColumns( projectKey );
+        }
+
+        @Override
+        public Map<Integer, int[]> superNameKeys( boolean isSuperTypes ) {
+            return EntityDatabaseManager.loadSuperNameKeys( isSuperTypes );
+        }
+    }
+
+    /**
+     * A section built in memory, viewed without copying.
+     */
+    private static final class SectionBuffer extends ByteArrayOutputStream {
+
+        ByteBuffer buffer() {
+            return ByteBuffer.wrap( this.buf, 0, this.count ).slice();
+        }
+    }
+
+    /**
+     * A growable array of longs.
+     */
+    private static final class LongArray {
+        private long[] values = new long[ 1024 ];
+        private int size = 0;
+
+        void add( long value ) {
+            if ( this.size == this.values.length ) {
+                this.values = Arrays.copyOf( this.values, this.size * 2 );
+            }
+            this.values[ this.size++ ] = value;
+        }
+
+        long[] sorted() {
+            long[] sorted = Arrays.copyOf( this.values, this.size );
+            Arrays.sort( sorted );
+            return sorted;
+        }
+    }
+}
@@ -0,0 +1,74 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.util.Map;
+import java.util.SortedMap;
+import uk.ac.open.crc.jimdb.AnalysisImage.Section;
+
+/**
+ * Supplies the contents of an analysis image to 
+ * {@linkplain AnalysisImageBuilder}, either from the database or from an 
+ * {@linkplain InMemoryStorageBackend}. Methods return {@code null} where 
+ * the contents cannot be read.
+ */
+interface AnalysisImageSource {
+
+    /**
+     * Retrieves the entries of a dictionary.
+     * @param section one of the identifier name, token, type name, file 
+     * name, method signature, species or modifier dictionary sections
+     * @return the values by key
+     */
+    SortedMap<Integer, String> entries( Section section );
+
+    /**
+     * Retrieves the component words of an identifier name.
+     * @param identifierNameKey the key of an identifier name
+     * @return the token keys in order, which may be empty
+     */
+    int[] componentWordKeysFor( int identifierNameKey );
+
+    /**
+     * Retrieves the projects.
+     * @return the project name and version, separated by a space, by 
+     * project key
+     */
+    SortedMap<Integer, String> projects();
+
+    /**
+     * Retrieves the name, version and package names of a project.
+     * @param projectKey the key of a project
+     * @return the context
+     */
+    ProjectContext projectContext( int projectKey );
+
+    /**
+     * Retrieves the program entities of a project.
+     * @param projectKey the key of a project
+     * @return the columns
+     */
+    ProjectEntityColumns projectEntityColumns( int projectKey );
+
+    /**
+     * Retrieves the identifier name keys of the super classes or super 
+     * types of every entity.
+     * @param isSuperTypes {@code true} for super types
+     * @return the identifier name keys by program entity key
+     */
+    Map<Integer, int[]> superNameKeys( boolean isSuperTypes );
+}
@@ -0,0 +1,599 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.IntFunction;
+import org.apache.arrow.memory.BufferAllocator;
+import org.apache.arrow.memory.RootAllocator;
+import org.apache.arrow.vector.BitVector;
+import org.apache.arrow.vector.FieldVector;
+import org.apache.arrow.vector.IntVector;
+import org.apache.arrow.vector.VarCharVector;
+import org.apache.arrow.vector.VectorSchemaRoot;
+import org.apache.arrow.vector.complex.ListVector;
+import org.apache.arrow.vector.dictionary.Dictionary;
+import org.apache.arrow.vector.dictionary.DictionaryProvider;
+import org.apache.arrow.vector.ipc.ArrowFileWriter;
+import org.apache.arrow.vector.types.pojo.ArrowType;
+import org.apache.arrow.vector.types.pojo.DictionaryEncoding;
+import org.apache.arrow.vector.types.pojo.Field;
+import org.apache.arrow.vector.types.pojo.FieldType;
+import org.apache.arrow.vector.types.pojo.Schema;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Exports projects to Arrow IPC files (Feather v2), one file per project,
+ * with one row per program entity. Identifier, type, package, file and
+ * species names are dictionary encoded, and the tokens and modifiers of
+ * each entity are list columns. The project name and version are recorded
+ * in the schema metadata. Each file is named after its project, with
+ * characters other than letters, digits, dots and hyphens written as
+ * {@code _} and the hex digits of their UTF-8 bytes.
+ * <p>
+ * Projects are exported in parallel. Reads from the database are
+ * serialised, as the database connection is shared, but encoding and
+ * writing proceed concurrently. The database must be initialised with
+ * {@linkplain DatabaseManager#initialise(java.lang.String)} before use.
+ * </p>
+ * <p>
+ * Requires the Apache Arrow Java libraries (arrow-vector and
+ * arrow-memory) on the classpath.
+ * </p>
+ */
+public class ArrowExporter {
+    private static final Logger LOGGER = LoggerFactory.getLogger( ArrowExporter.class );
+
+    /**
+     * The file name extension used for exported files.
+     */
+    public static final String FILE_EXTENSION = ".arrow";
+
+    /**
+     * Schema metadata key for the project name.
+     */
+    public static final String PROJECT_NAME_METADATA_KEY = "jimdb.project.name";
+
+    /**
+     * Schema metadata key for the project version.
+     */
+    public static final String PROJECT_VERSION_METADATA_KEY = "jimdb.project.version";
+
+    private static final int DEFAULT_BATCH_SIZE = 65536;
+
+    private static final ArrowType.Int INDEX_TYPE = new ArrowType.Int( 32, true );
+    private static final ArrowType.Int INT_TYPE = new ArrowType.Int( 32, true );
+
+    private static final long IDENTIFIER_NAME_DICTIONARY_ID = 0;
+    private static final long SPECIES_DICTIONARY_ID = 1;
+    private static final long TYPE_NAME_DICTIONARY_ID = 2;
+    private static final long PACKAGE_NAME_DICTIONARY_ID = 3;
+    private static final long FILE_NAME_DICTIONARY_ID = 4;
+
+    private final Path outputDirectory;
+    private final int threadCount;
+    private int batchSize;
+
+    private final ProjectKeyStore projectKeyStore;
+    private final ProjectContextCache projectContextCache;
+    private final IdentifierNameCache identifierNameCache;
+    private final TypeNameCache typeNameCache;
+    private final FileNameCache fileNameCache;
+    private final SpeciesCache speciesCache;
+    private final ModifierCache modifierCache;
+    private final MethodSignatureCache methodSignatureCache;
+    private final TokenCache tokenCache;
+    private final TokenSequenceStore tokenSequenceStore;
+
+    /**
+     * Creates an exporter that writes to the given directory using one
+     * thread per available processor.
+     * @param outputDirectory the directory to write files to
+     */
+    public ArrowExporter( Path outputDirectory ) {
+        this( outputDirectory, Runtime.getRuntime().availableProcessors() );
+    }
+
+    /**
+     * Creates an exporter that writes to the given directory.
+     * @param outputDirectory the directory to write files to
+     * @param threadCount the maximum number of projects to export concurrently
+     */
+    public ArrowExporter( Path outputDirectory, int threadCount ) {
+        if ( threadCount < 1 ) {
+            throw new IllegalArgumentException( "thread count must be positive" );
+        }
+        this.outputDirectory = outputDirectory;
+        this.threadCount = threadCount;
+        this.batchSize = DEFAULT_BATCH_SIZE;
+        this.projectKeyStore = ProjectKeyStore.getInstance();
+        this.projectContextCache = ProjectContextCache.getInstance();
+        this.identifierNameCache = IdentifierNameCache.getInstance();
+        this.typeNameCache = TypeNameCache.getInstance();
+        this.fileNameCache = FileNameCache.getInstance();
+        this.speciesCache = SpeciesCache.getInstance();
+        this.modifierCache = ModifierCache.getInstance();
+        this.methodSignatureCache = MethodSignatureCache.getInstance();
+        this.tokenCache = TokenCache.getInstance();
+        this.tokenSequenceStore = TokenSequenceStore.getInstance();
+    }
+
+    /**
+     * Sets the maximum number of rows in each record batch.
+     * @param batchSize a positive number of rows
+     */
+    public void setBatchSize( int batchSize ) {
+        if ( batchSize < 1 ) {
+            throw new IllegalArgumentException( "batch size must be positive" );
+        }
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Exports a single project.
+     * @param projectNameAndVersion a project name and version, as listed by
+     * {@linkplain DatabaseReader#getProjectList()}
+     * @return the path of the file written
+     * @throws IOException if the project is unknown, cannot be read from
+     * the database, or the file cannot be written
+     */
+    public Path exportProject( String projectNameAndVersion ) throws IOException {
+        try ( BufferAllocator rootAllocator = new RootAllocator( Long.MAX_VALUE ) ) {
+            return export( projectNameAndVersion, rootAllocator );
+        }
+    }
+
+    /**
+     * Exports every project in the database.
+     * @return the paths of the files written
+     * @throws IOException if any project cannot be exported
+     */
+    public List<Path> exportAll() throws IOException {
+        return exportProjects( this.projectKeyStore.getProjectNames() );
+    }
+
+    /**
+     * Exports the given projects in parallel.
+     * @param projectNamesAndVersions a list of project names and versions
+     * @return the paths of the files written, in the same order as the projects
+     * @throws IOException if any project cannot be exported
+     */
+    public List<Path> exportProjects( List<String> projectNamesAndVersions )
+            throws IOException {
+        List<Path> paths = new ArrayList<>();
+        if ( projectNamesAndVersions.isEmpty() ) {
+            return paths;
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(
+                Math.min( this.threadCount, projectNamesAndVersions.size() ) );
+        try ( BufferAllocator rootAllocator = new RootAllocator( Long.MAX_VALUE ) ) {
+            List<Future<Path>> futures = new ArrayList<>();
+            for ( String projectNameAndVersion : projectNamesAndVersions ) {
+                futures.add( executor.submit(
+                        () -> export( projectNameAndVersion, rootAllocator ) ) );
+            }
+
+            for ( Future<Path> future : futures ) {
+                paths.add( future.get() );
+            }
+        }
+        catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new IOException( "Export interrupted", e );
+        }
+        catch ( ExecutionException e ) {
+            if ( e.getCause() instanceof IOException ) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException( "Export failed", e.getCause() );
+        }
+        finally {
+            executor.shutdownNow();
+        }
+
+        return paths;
+    }
+
+    // reads a project and writes it to a file
+    private Path export( String projectNameAndVersion, BufferAllocator rootAllocator )
+            throws IOException {
+        Integer projectKey = this.projectKeyStore.get( projectNameAndVersion );
+        if ( projectKey == null ) {
+            throw new IOException( "Unknown project: " + projectNameAndVersion );
+        }
+
+        long start = System.currentTimeMillis();
+        // serialised on the database manager
+        ProjectEntityColumns columns =
+                EntityDatabaseManager.loadProjectEntityColumns( projectKey );
+        ProjectContext projectContext = this.projectContextCache.get( projectKey );
+        if ( columns == null || projectContext == null ) {
+            throw new IOException(
+                    "Could not read project from database: " + projectNameAndVersion );
+        }
+
+        Path file = this.outputDirectory.resolve(
+                fileNameFor( projectNameAndVersion ) + FILE_EXTENSION );
+        Path temporaryFile = this.outputDirectory.resolve(
+                fileNameFor( projectNameAndVersion ) + FILE_EXTENSION + ".part" );
+
+        try ( BufferAllocator allocator = rootAllocator.newChildAllocator(
+                projectNameAndVersion, 0, Long.MAX_VALUE ) ) {
+            write( columns, projectContext, allocator, temporaryFile );
+            Files.move( temporaryFile, file, StandardCopyOption.REPLACE_EXISTING );
+        }
+        catch ( IOException | RuntimeException e ) {
+            try {
+                Files.deleteIfExists( temporaryFile );
+            }
+            catch ( IOException deleteException ) {
+                e.addSuppressed( deleteException );
+            }
+            throw e;
+        }
+
+        LOGGER.info(
+                "Exported {} entities for \"{}\" to {} in {} ms",
+                columns.rowCount,
+                projectNameAndVersion,
+                file,
+                System.currentTimeMillis() - start );
+
+        return file;
+    }
+
+    private void write(
+            ProjectEntityColumns columns,
+            ProjectContext projectContext,
+            BufferAllocator allocator,
+            Path file ) throws IOException {
+        // dense, per file dictionaries
+        DenseDictionary identifierNames = new DenseDictionary(
+                columns.identifierNameKeys, this.identifierNameCache::get );
+        DenseDictionary species = new DenseDictionary(
+                columns.speciesKeys, this.speciesCache::get );
+        DenseDictionary typeNames = new DenseDictionary(
+                columns.typeNameKeys, this.typeNameCache::get );
+        DenseDictionary packageNames = new DenseDictionary(
+                columns.packageKeys, projectContext::packageNameFor );
+        DenseDictionary fileNames = new DenseDictionary(
+                columns.fileNameKeys, this.fileNameCache::get );
+
+        // tokens are a property of the identifier name, so encode
+        // them once for each dictionary entry
+        byte[][][] tokensByName = new byte[ identifierNames.size() ][][];
+        for ( int i = 0; i < tokensByName.length; i++ ) {
+            ArrayList<String> tokens = this.tokenSequenceStore.tokensFor(
+                    identifierNames.keyAt( i ), this.tokenCache );
+            tokensByName[ i ] = new byte[ tokens.size() ][];
+            for ( int j = 0; j < tokens.size(); j++ ) {
+                tokensByName[ i ][ j ] = utf8( tokens.get( j ) );
+            }
+        }
+        HashMap<Integer,byte[]> modifierNames = new HashMap<>();
+
+        DictionaryProvider.MapDictionaryProvider provider =
+                new DictionaryProvider.MapDictionaryProvider();
+        List<VarCharVector> dictionaryVectors = new ArrayList<>();
+        List<Field> fields = new ArrayList<>();
+        List<FieldVector> vectors = new ArrayList<>();
+
+        try {
+            IntVector programEntityKeys = (IntVector) addVector(
+                    allocator, fields, vectors,
+                    new Field( "program_entity_key",
+                            FieldType.nullable( INT_TYPE ), null ) );
+            IntVector identifierNameIndices = addDictionaryVector(
+                    allocator, fields, vectors, provider, dictionaryVectors,
+                    "identifier_name", IDENTIFIER_NAME_DICTIONARY_ID, identifierNames );
+            ListVector tokenLists = addListVector(
+                    allocator, fields, vectors, "tokens" );
+            IntVector speciesIndices = addDictionaryVector(
+                    allocator, fields, vectors, provider, dictionaryVectors,
+                    "species", SPECIES_DICTIONARY_ID, species );
+            IntVector typeNameIndices = addDictionaryVector(
+                    allocator, fields, vectors, provider, dictionaryVectors,
+                    "type_name", TYPE_NAME_DICTIONARY_ID, typeNames );
+            IntVector packageNameIndices = addDictionaryVector(
+                    allocator, fields, vectors, provider, dictionaryVectors,
+                    "package_name", PACKAGE_NAME_DICTIONARY_ID, packageNames );
+            ListVector modifierLists = addListVector(
+                    allocator, fields, vectors, "modifiers" );
+            VarCharVector containerUids = addUtf8Vector(
+                    allocator, fields, vectors, "container_uid" );
+            VarCharVector entityUids = addUtf8Vector(
+                    allocator, fields, vectors, "entity_uid" );
+            VarCharVector methodSignatures = addUtf8Vector(
+                    allocator, fields, vectors, "method_signature" );
+            BitVector isAnonymous = addBitVector(
+                    allocator, fields, vectors, "is_anonymous" );
+            BitVector isArray = addBitVector(
+                    allocator, fields, vectors, "is_array" );
+            BitVector isLoopControlVariable = addBitVector(
+                    allocator, fields, vectors, "is_loop_control_var" );
+            IntVector fileNameIndices = addDictionaryVector(
+                    allocator, fields, vectors, provider, dictionaryVectors,
+                    "file_name", FILE_NAME_DICTIONARY_ID, fileNames );
+            IntVector startLineNumbers = (IntVector) addVector(
+                    allocator, fields, vectors,
+                    new Field( "start_line_number", FieldType.nullable( INT_TYPE ), null ) );
+            IntVector startColumns = (IntVector) addVector(
+                    allocator, fields, vectors,
+                    new Field( "start_column", FieldType.nullable( INT_TYPE ), null ) );
+            IntVector endLineNumbers = (IntVector) addVector(
+                    allocator, fields, vectors,
+                    new Field( "end_line_number", FieldType.nullable( INT_TYPE ), null ) );
+            IntVector endColumns = (IntVector) addVector(
+                    allocator, fields, vectors,
+                    new Field( "end_column", FieldType.nullable( INT_TYPE ), null ) );
+
+            HashMap<String,String> metadata = new HashMap<>();
+            metadata.put( PROJECT_NAME_METADATA_KEY, projectContext.name() );
+            metadata.put( PROJECT_VERSION_METADATA_KEY, projectContext.version() );
+            VectorSchemaRoot root =
+                    new VectorSchemaRoot( new Schema( fields, metadata ), vectors, 0 );
+
+            try ( FileChannel channel = FileChannel.open(
+                    file,
+                    StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING,
+                    StandardOpenOption.WRITE );
+                  ArrowFileWriter writer = new ArrowFileWriter( root, provider, channel ) ) {
+                writer.start();
+
+                for ( int first = 0; first < columns.rowCount; first += this.batchSize ) {
+                    int last = Math.min( first + this.batchSize, columns.rowCount );
+                    root.allocateNew();
+
+                    for ( int row = first; row < last; row++ ) {
+                        int i = row - first;
+                        programEntityKeys.setSafe( i, columns.programEntityKeys[ row ] );
+
+                        int nameIndex = identifierNames.indexAt( row );
+                        identifierNameIndices.setSafe( i, nameIndex );
+                        setList( tokenLists, i, tokensByName[ nameIndex ] );
+
+                        speciesIndices.setSafe( i, species.indexAt( row ) );
+                        typeNameIndices.setSafe( i, typeNames.indexAt( row ) );
+                        packageNameIndices.setSafe( i, packageNames.indexAt( row ) );
+
+                        int modifierStart = columns.modifierOffsets[ row ];
+                        int modifierEnd = columns.modifierOffsets[ row + 1 ];
+                        byte[][] modifiers = new byte[ modifierEnd - modifierStart ][];
+                        for ( int m = modifierStart; m < modifierEnd; m++ ) {
+                            modifiers[ m - modifierStart ] = modifierNames.computeIfAbsent(
+                                    columns.modifierKeys[ m ],
+                                    key -> utf8( this.modifierCache.get( key ) ) );
+                        }
+                        setList( modifierLists, i, modifiers );
+
+                        setUtf8( containerUids, i, columns.containerUids[ row ] );
+                        setUtf8( entityUids, i, columns.entityUids[ row ] );
+                        int methodSignatureKey = columns.methodSignatureKeys[ row ];
+                        setUtf8(
+                                methodSignatures,
+                                i,
+                                methodSignatureKey == 0
+                                        ? null
+                                        : this.methodSignatureCache.get( methodSignatureKey ) );
+
+                        isAnonymous.setSafe( i, columns.isAnonymous[ row ] ? 1 : 0 );
+                        isArray.setSafe( i, columns.isArray[ row ] ? 1 : 0 );
+                        isLoopControlVariable.setSafe(
+                                i, columns.isLoopControlVariable[ row ] ? 1 : 0 );
+
+                        fileNameIndices.setSafe( i, fileNames.indexAt( row ) );
+                        startLineNumbers.setSafe( i, columns.startLineNumbers[ row ] );
+                        startColumns.setSafe( i, columns.startColumns[ row ] );
+                        endLineNumbers.setSafe( i, columns.endLineNumbers[ row ] );
+                        endColumns.setSafe( i, columns.endColumns[ row ] );
+                    }
+
+                    root.setRowCount( last - first );
+                    writer.writeBatch();
+                }
+
+                writer.end();
+            }
+        }
+        finally {
+            vectors.forEach( FieldVector::close );
+            dictionaryVectors.forEach( VarCharVector::close );
+        }
+    }
+
+    private FieldVector addVector(
+            BufferAllocator allocator,
+            List<Field> fields,
+            List<FieldVector> vectors,
+            Field field ) {
+        FieldVector vector = field.createVector( allocator );
+        fields.add( field );
+        vectors.add( vector );
+        return vector;
+    }
+
+    private VarCharVector addUtf8Vector(
+            BufferAllocator allocator,
+            List<Field> fields,
+            List<FieldVector> vectors,
+            String name ) {
+        return (VarCharVector) addVector(
+                allocator, fields, vectors,
+                new Field( name, FieldType.nullable( ArrowType.Utf8.INSTANCE ), null ) );
+    }
+
+    private BitVector addBitVector(
+            BufferAllocator allocator,
+            List<Field> fields,
+            List<FieldVector> vectors,
+            String name ) {
+        return (BitVector) addVector(
+                allocator, fields, vectors,
+                new Field( name, FieldType.nullable( ArrowType.Bool.INSTANCE ), null ) );
+    }
+
+    private ListVector addListVector(
+            BufferAllocator allocator,
+            List<Field> fields,
+            List<FieldVector> vectors,
+            String name ) {
+        Field item = new Field(
+                "item", FieldType.nullable( ArrowType.Utf8.INSTANCE ), null );
+        return (ListVector) addVector(
+                allocator, fields, vectors,
+                new Field(
+                        name,
+                        FieldType.nullable( new ArrowType.List() ),
+                        Collections.singletonList( item ) ) );
+    }
+
+    // adds the index column for a dictionary encoded string column,
+    // and registers the dictionary with the provider
+    private IntVector addDictionaryVector(
+            BufferAllocator allocator,
+            List<Field> fields,
+            List<FieldVector> vectors,
+            DictionaryProvider.MapDictionaryProvider provider,
+            List<VarCharVector> dictionaryVectors,
+            String name,
+            long dictionaryId,
+            DenseDictionary values ) {
+        VarCharVector dictionaryVector = new VarCharVector( name + "_dictionary", allocator );
+        dictionaryVectors.add( dictionaryVector );
+        dictionaryVector.allocateNew();
+        for ( int i = 0; i < values.size(); i++ ) {
+            setUtf8( dictionaryVector, i, values.valueAt( i ) );
+        }
+        dictionaryVector.setValueCount( values.size() );
+
+        DictionaryEncoding encoding = new DictionaryEncoding( dictionaryId, false, INDEX_TYPE );
+        provider.put( new Dictionary( dictionaryVector, encoding ) );
+
+        return (IntVector) addVector(
+                allocator, fields, vectors,
+                new Field( name, new FieldType( true, INDEX_TYPE, encoding ), null ) );
+    }
+
+    private static void setList( ListVector listVector, int index, byte[][] values ) {
+        int offset = listVector.startNewValue( index );
+        VarCharVector data = (VarCharVector) listVector.getDataVector();
+        for ( int i = 0; i < values.length; i++ ) {
+            data.setSafe( offset + i, values[ i ] );
+        }
+        listVector.endValue( index, values.length );
+    }
+
+    private static void setUtf8( VarCharVector vector, int index, String value ) {
+        if ( value == null ) {
+            vector.setNull( index );
+        }
+        else {
+            vector.setSafe( index, utf8( value ) );
+        }
+    }
+
+    private static byte[] utf8( String value ) {
+        return value == null ? new byte[0] : value.getBytes( StandardCharsets.UTF_8 );
+    }
+
+    // project names may contain characters that are awkward in file names,
+    // so those and the escape character are written as _ and two hex
+    // digits for each UTF-8 byte, which keeps distinct projects distinct
+    private static String fileNameFor( String projectNameAndVersion ) {
+        StringBuilder fileName = new StringBuilder();
+        for ( byte b : utf8( projectNameAndVersion ) ) {
+            char c = (char) ( b & 0xff );
+            if ( ( c >= 'A' && c <= 'Z' ) || ( c >= 'a' && c <= 'z' ) 
+                    || ( c >= '0' && c <= '9' ) || c == '.' || c == '-' ) {
+                fileName.append( c );
+            }
+            else {
+                fileName.append( String.format( "_%02x", b & 0xff ) );
+            }
+        }
+        return fileName.toString();
+    }
+
+    /**
+     * Maps the database keys found in a column to dense dictionary indices
+     * in order of first appearance.
+     */
+    private static class DenseDictionary {
+        private final int[] indices;
+        private int[] keys;
+        private final String[] values;
+
+        DenseDictionary( int[] columnKeys, IntFunction<String> resolver ) {
+            this.indices = new int[ columnKeys.length ];
+            this.keys = new int[ 16 ];
+            HashMap<Integer,Integer> dictionaryIndices = new HashMap<>();
+            for ( int row = 0; row < columnKeys.length; row++ ) {
+                int key = columnKeys[ row ];
+                Integer index = dictionaryIndices.get( key );
+                if ( index == null ) {
+                    index = dictionaryIndices.size();
+                    dictionaryIndices.put( key, index );
+                    if ( index == this.keys.length ) {
+                        this.keys = Arrays.copyOf( this.keys, index * 2 );
+                    }
+                    this.keys[ index ] = key;
+                }
+                this.indices[ row ] = index;
+            }
+            this.keys = Arrays.copyOf( this.keys, dictionaryIndices.size() );
+
+            this.values = new String[ this.keys.length ];
+            for ( int i = 0; i < this.keys.length; i++ ) {
+                this.values[ i ] = resolver.apply( this.keys[ i ] );
+            }
+        }
+
+        int size() {
+            return this.keys.length;
+        }
+
+        int indexAt( int row ) {
+            return this.indices[ row ];
+        }
+
+        int keyAt( int index ) {
+            return this.keys[ index ];
+        }
+
+        String valueAt( int index ) {
+            return this.values[ index ];
+        }
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.function.IntPredicate;
+
+/**
+ * Records which program entities of a project contain which others, as
+ * given by their container and entity uids. Entities are held as rows in
+ * program entity key order, and the children of row <i>i</i> are the rows
+ * between {@code childOffsets[i]} and {@code childOffsets[i + 1]} of
+ * {@code childRows}. An entity whose container is not in the project is
+ * treated as a root.
+ */
+final class ContainmentIndex {
+
+    private static final int[] NONE = new int[ 0 ];
+
+    private final int[] programEntityKeys;
+    private final int[] speciesKeys;
+    private final int[] parentRows;
+    private final int[] childOffsets;
+    private final int[] childRows;
+    // an entity uid shared by several rows identifies the first of them
+    private final HashMap<String, Integer> rowsByUid;
+
+    /**
+     * Builds the index from the columns of a project's program entities.
+     * @param programEntityKeys the program entity keys, in ascending order
+     * @param speciesKeys the species key of each entity
+     * @param containerUids the container uid of each entity
+     * @param entityUids the entity uid of each entity
+     * @param rowCount the number of entities
+     */
+    ContainmentIndex(
+            int[] programEntityKeys,
+            int[] speciesKeys,
+            String[] containerUids,
+            String[] entityUids,
+            int rowCount ) {
+        this.programEntityKeys = Arrays.copyOf( programEntityKeys, rowCount );
+        this.speciesKeys = Arrays.copyOf( speciesKeys, rowCount );
+        this.rowsByUid = new HashMap<>( rowCount * 2 );
+        for ( int row = 0; row < rowCount; row++ ) {
+            if ( entityUids[ row ] != null ) {
+                this.rowsByUid.putIfAbsent( entityUids[ row ], row );
+            }
+        }
+
+        this.parentRows = new int[ rowCount ];
+        this.childOffsets = new int[ rowCount + 1 ];
+        for ( int row = 0; row < rowCount; row++ ) {
+            Integer parentRow = containerUids[ row ] == null
+                    ? null
+                    : this.rowsByUid.get( containerUids[ row ] );
+            if ( parentRow == null || parentRow == row ) {
+                this.parentRows[ row ] = -1;
+            }
+            else {
+                this.parentRows[ row ] = parentRow;
+                this.childOffsets[ parentRow + 1 ]++;
+            }
+        }
+        for ( int row = 0; row < rowCount; row++ ) {
+            this.childOffsets[ row + 1 ] += this.childOffsets[ row ];
+        }
+
+        // rows are visited in order, so each run of children is in key order
+        this.childRows = new int[ this.childOffsets[ rowCount ] ];
+        int[] next = Arrays.copyOf( this.childOffsets, rowCount );
+        for ( int row = 0; row < rowCount; row++ ) {
+            int parentRow = this.parentRows[ row ];
+            if ( parentRow >= 0 ) {
+                this.childRows[ next[ parentRow ]++ ] = row;
+            }
+        }
+    }
+
+    /**
+     * Retrieves the entities directly contained by an entity.
+     * @param entityUid the uid of the containing entity
+     * @return program entity keys in ascending order, empty if the uid is
+     * unknown
+     */
+    int[] childrenOf( String entityUid ) {
+        int row = rowFor( entityUid );
+        if ( row < 0 ) {
+            return NONE;
+        }
+
+        int[] keys = new int[ this.childOffsets[ row + 1 ] - this.childOffsets[ row ] ];
+        for ( int i = 0; i < keys.length; i++ ) {
+            keys[ i ] = this.programEntityKeys[ this.childRows[ this.childOffsets[ row ] + i ] ];
+        }
+        return keys;
+    }
+
+    /**
+     * Retrieves the entities contained, directly or indirectly, by an
+     * entity.
+     * @param entityUid the uid of the containing entity
+     * @param speciesFilter accepts the species keys of the entities to
+     * include; the contents of excluded entities are still searched
+     * @return program entity keys in depth first order, each container
+     * preceding its contents, empty if the uid is unknown
+     */
+    int[] descendantsOf( String entityUid, IntPredicate speciesFilter ) {
+        int row = rowFor( entityUid );
+        if ( row < 0 ) {
+            return NONE;
+        }
+
+        int[] keys = new int[ 16 ];
+        int keyCount = 0;
+        int[] stack = new int[ 16 ];
+        int depth = 0;
+        // guards against uids that form a cycle
+        BitSet visited = new BitSet( this.programEntityKeys.length );
+        visited.set( row );
+        for ( int i = this.childOffsets[ row + 1 ] - 1; i >= this.childOffsets[ row ]; i-- ) {
+            stack = push( stack, depth++, this.childRows[ i ] );
+        }
+        while ( depth > 0 ) {
+            int current = stack[ --depth ];
+            if ( visited.get( current ) ) {
+                continue;
+            }
+            visited.set( current );
+            if ( speciesFilter.test( this.speciesKeys[ current ] ) ) {
+                keys = push( keys, keyCount++, this.programEntityKeys[ current ] );
+            }
+            // pushed in reverse so that children are visited in key order
+            for ( int i = this.childOffsets[ current + 1 ] - 1;
+                    i >= this.childOffsets[ current ];
+                    i-- ) {
+                stack = push( stack, depth++, this.childRows[ i ] );
+            }
+        }
+
+        return Arrays.copyOf( keys, keyCount );
+    }
+
+    /**
+     * Retrieves the entities containing an entity.
+     * @param entityUid the uid of an entity
+     * @return program entity keys, innermost container first, empty if the
+     * uid is unknown
+     */
+    int[] ancestorsOf( String entityUid ) {
+        int row = rowFor( entityUid );
+        if ( row < 0 ) {
+            return NONE;
+        }
+
+        int[] keys = new int[ 8 ];
+        int keyCount = 0;
+        BitSet visited = new BitSet( this.programEntityKeys.length );
+        visited.set( row );
+        for ( int current = this.parentRows[ row ];
+                current >= 0 && ! visited.get( current );
+                current = this.parentRows[ current ] ) {
+            visited.set( current );
+            keys = push( keys, keyCount++, this.programEntityKeys[ current ] );
+        }
+
+        return Arrays.copyOf( keys, keyCount );
+    }
+
+    /**
+     * Retrieves the number of entities in the index.
+     * @return the number of entities
+     */
+    int size() {
+        return this.programEntityKeys.length;
+    }
+
+    private int rowFor( String entityUid ) {
+        Integer row = entityUid == null ? null : this.rowsByUid.get( entityUid );
+        return row == null ? -1 : row;
+    }
+
+    private static int[] push( int[] values, int count, int value ) {
+        if ( count == values.length ) {
+            values = Arrays.copyOf( values, count * 2 );
+        }
+        values[ count ] = value;
+        return values;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Holds the containment index of each project that has been queried. An
+ * index is loaded when first used and discarded when entities of its
+ * project are stored or deleted.
+ */
+class ContainmentIndexCache {
+
+    private static ContainmentIndexCache instance = null;
+
+    /**
+     * Retrieves the instance of this class.
+     * @return the instance of this class
+     */
+    synchronized static ContainmentIndexCache getInstance() {
+        if ( instance == null ) {
+            instance = new ContainmentIndexCache();
+        }
+
+        return instance;
+    }
+
+    private final HashMap<Integer, ContainmentIndex> indexes;
+    // projects whose indexes were loaded while a transaction is open, and
+    // so may hold rows that are rolled back, or null
+    private HashSet<Integer> journal;
+
+    private ContainmentIndexCache() {
+        this.indexes = new HashMap<>();
+        this.journal = null;
+    }
+
+    /**
+     * Retrieves the containment index of a project, loading it if
+     * necessary.
+     * @param projectKey key of a project
+     * @return the index, or {@code null} if it could not be loaded
+     */
+    ContainmentIndex get( int projectKey ) {
+        // the manager is locked first, as it is when the cache is cleared
+        synchronized ( EntityDatabaseManager.class ) {
+            synchronized ( this ) {
+                ContainmentIndex index = this.indexes.get( projectKey );
+                if ( index == null ) {
+                    index = EntityDatabaseManager.loadContainmentIndex( projectKey );
+                    if ( index != null ) {
+                        this.indexes.put( projectKey, index );
+                        if ( this.journal != null ) {
+                            this.journal.add( projectKey );
+                        }
+                    }
+                }
+
+                return index;
+            }
+        }
+    }
+
+    /**
+     * Discards the index of a project.
+     * @param projectKey key of a project
+     */
+    synchronized void remove( int projectKey ) {
+        this.indexes.remove( projectKey );
+    }
+
+    /**
+     * Discards all indexes.
+     */
+    synchronized void clear() {
+        this.indexes.clear();
+    }
+
+    /**
+     * Starts recording the indexes loaded, so that they can be discarded
+     * if the transaction open while they were loaded is rolled back.
+     */
+    synchronized void startJournal() {
+        this.journal = new HashSet<>();
+    }
+
+    /**
+     * Stops recording the indexes loaded.
+     */
+    synchronized void endJournal() {
+        this.journal = null;
+    }
+
+    /**
+     * Discards the indexes loaded since the journal was started, and
+     * stops recording.
+     */
+    synchronized void rollBackJournal() {
+        if ( this.journal != null ) {
+            this.journal.forEach( this.indexes::remove );
+            this.journal = null;
+        }
+    }
+}
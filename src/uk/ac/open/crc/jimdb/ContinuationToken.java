@@ -0,0 +1,93 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * The position of a keyset scan: the scan continues with the matching 
+ * program entities whose keys are greater than {@code afterKey} and no 
+ * greater than {@code lastKey}. The fingerprint of the query is recorded 
+ * so that a token cannot be used to continue a different query.
+ * <p>
+ * Tokens are encoded as URL safe base 64 text, so that they can be 
+ * written to checkpoint files and passed between processes.
+ * </p>
+ */
+final class ContinuationToken {
+    private static final byte VERSION = 1;
+    private static final int ENCODED_SIZE = 1 + 4 + 4 + 4;
+
+    final int afterKey;
+    final int lastKey;
+    final int fingerprint;
+
+    ContinuationToken( int afterKey, int lastKey, int fingerprint ) {
+        this.afterKey = afterKey;
+        this.lastKey = lastKey;
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Creates the token that continues a scan after the given key.
+     * @param programEntityKey the key of the last program entity read
+     * @return the token
+     */
+    ContinuationToken after( int programEntityKey ) {
+        return new ContinuationToken( programEntityKey, this.lastKey, this.fingerprint );
+    }
+
+    /**
+     * Encodes the token as text.
+     * @return the text of the token
+     */
+    String encode() {
+        ByteBuffer buffer = ByteBuffer.allocate( ENCODED_SIZE );
+        buffer.put( VERSION ).putInt( this.afterKey ).putInt( this.lastKey ).putInt( this.fingerprint );
+        return Base64.getUrlEncoder().withoutPadding().encodeToString( buffer.array() );
+    }
+
+    /**
+     * Decodes a token.
+     * @param text the text of a token
+     * @param fingerprint the fingerprint of the query being continued
+     * @return the token
+     * @throws IllegalArgumentException if the text is not a token, or is 
+     * a token for a different query
+     */
+    static ContinuationToken decode( String text, int fingerprint ) {
+        byte[] bytes;
+        try {
+            bytes = Base64.getUrlDecoder().decode( text );
+        }
+        catch ( IllegalArgumentException e ) {
+            throw new IllegalArgumentException( "Not a continuation token: " + text, e );
+        }
+        if ( bytes.length != ENCODED_SIZE || bytes[ 0 ] != VERSION ) {
+            throw new IllegalArgumentException( "Not a continuation token: " + text );
+        }
+        ByteBuffer buffer = ByteBuffer.wrap( bytes, 1, ENCODED_SIZE - 1 );
+        ContinuationToken token =
+                new ContinuationToken( buffer.getInt(), buffer.getInt(), buffer.getInt() );
+        if ( token.fingerprint != fingerprint ) {
+            throw new IllegalArgumentException(
+                    "Continuation token is for a different query: " + text );
+        }
+        return token;
+    }
+}
@@ -16,20 +16,30 @@
 
 package uk.ac.open.crc.jimdb;
 
+import java.util.ArrayList;
+import java.util.function.BiConsumer;
 import org.apache.commons.collections4.bidimap.DualHashBidiMap;
 
 /**
  * Generic implementation of a cache for database keys and string values.
+ * The caches are read by the worker threads of parallel scans while they 
+ * may be cleared or rebuilt, so access to the entries is synchronised.
  */
 class DatabaseKeyCache {
 
     private final DualHashBidiMap<Integer,String> cache;
+    // reported with lookups
+    private final String name;
+    // keys added while a transaction is open, or null
+    private ArrayList<Integer> journal;
     
     /**
      * Constructor.
      */
     DatabaseKeyCache() {
         this.cache = new DualHashBidiMap<>();
+        this.name = getClass().getSimpleName();
+        this.journal = null;
     }
     
     /**
@@ -39,8 +49,12 @@ class DatabaseKeyCache {
      * @return {@code null} unless the key has been previously associated with 
      * a value in which case the previous value is returned
      */
-    String put( Integer key, String value ) {
-        return this.cache.put( key, value );
+    synchronized String put( Integer key, String value ) {
+        String previous = this.cache.put( key, value );
+        if ( this.journal != null && previous == null ) {
+            this.journal.add( key );
+        }
+        return previous;
     }
     
     /**
@@ -48,8 +62,10 @@ class DatabaseKeyCache {
      * @param key a database key
      * @return the value associate with the key
      */
-    String get( Integer key ) {
-        return this.cache.get( key );
+    synchronized String get( Integer key ) {
+        String value = this.cache.get( key );
+        Metrics.cacheLookup( this.name, value != null );
+        return value;
     }
     
     /**
@@ -58,15 +74,62 @@ class DatabaseKeyCache {
      * @return a database key associated with the value or {@code null} if 
      * the value string is unrecognised.
      */
-    Integer get( String value ) {
-        return this.cache.getKey( value );
+    synchronized Integer get( String value ) {
+        Integer key = this.cache.getKey( value );
+        Metrics.cacheLookup( this.name, key != null );
+        return key;
+    }
+    
+    /**
+     * Removes all entries from the cache.
+     */
+    synchronized void clear() {
+        this.cache.clear();
+        if ( this.journal != null ) {
+            this.journal.clear();
+        }
+    }
+    
+    /**
+     * Starts recording the keys added to the cache, so that they can be 
+     * removed if the transaction that stored them is rolled back.
+     */
+    synchronized void startJournal() {
+        this.journal = new ArrayList<>();
+    }
+    
+    /**
+     * Stops recording keys, keeping those added.
+     */
+    synchronized void endJournal() {
+        this.journal = null;
+    }
+    
+    /**
+     * Removes the keys added since the journal was started, and stops 
+     * recording keys.
+     */
+    synchronized void rollBackJournal() {
+        if ( this.journal != null ) {
+            this.journal.forEach( this.cache::remove );
+            this.journal = null;
+        }
+    }
+    
+    /**
+     * Passes each entry in the cache to an action. Lookups made this way
+     * are not reported to the metrics listener.
+     * @param action receives each key and its value
+     */
+    synchronized void forEach( BiConsumer<Integer, String> action ) {
+        this.cache.forEach( action );
     }
     
     /** 
      * Recovers the number of entries in the cache.
      * @return the size of the cache
      */
-    int size() {
+    synchronized int size() {
         return this.cache.size();
     }
 }
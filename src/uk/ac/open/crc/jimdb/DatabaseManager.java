@@ -16,6 +16,8 @@
 
 package uk.ac.open.crc.jimdb;
 
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.sql.SQLException;
 
 /**
@@ -23,13 +25,17 @@ import java.sql.SQLException;
  *
  */
 public class DatabaseManager {
+    private static final StorageBackend DERBY = new DerbyStorageBackend();
+    private static volatile StorageBackend storageBackend = DERBY;
+    
     // TODO
     // add some safety nets such as ensuring a database is not opened
     // twice and that only one database is open at any one time.
     // Though Derby does police that.
     /**
      * Initialises the database at the given location creating a new database
-     * if it does not already exist. 
+     * if it does not already exist. The database can be both written and 
+     * read.
      * 
      * @param databaseLocation a {@code String} containing a database path.
      * @throws java.sql.SQLException if the database library fails to initialise
@@ -38,6 +44,7 @@ public class DatabaseManager {
     public static void initialiseAndCreate( String databaseLocation ) 
             throws SQLException {
         EntityDatabaseManager.openDatabaseWithCreation(databaseLocation);
+        storageBackend = DERBY;
     }
     
     /**
@@ -50,6 +57,37 @@ public class DatabaseManager {
      */
     public static void initialise(String databaseLocation) throws SQLException {
         EntityDatabaseManager.openDatabase(databaseLocation);
+        storageBackend = DERBY;
+    }
+    
+    /**
+     * Uses the given backend in place of the Derby database. Writers and 
+     * readers created afterwards by {@linkplain DatabaseWriterFactory} and 
+     * {@linkplain DatabaseReaderFactory} store to and read from the backend.
+     * 
+     * @param backend a storage backend
+     */
+    public static void initialise( StorageBackend backend ) {
+        storageBackend = backend;
+    }
+    
+    /**
+     * Initialises an empty database held in memory, which can be both 
+     * written and read without Derby or the disk. The database is 
+     * discarded on {@linkplain #shutdown()}. It suits ingest for immediate 
+     * analysis, and tests. Each reader sees the entities stored before it 
+     * was created, and not those stored afterwards.
+     */
+    public static void initialiseInMemory() {
+        storageBackend = new InMemoryStorageBackend();
+    }
+    
+    /**
+     * Retrieves the backend chosen when the database was initialised.
+     * @return the storage backend
+     */
+    static StorageBackend storageBackend() {
+        return storageBackend;
     }
         
     /**
@@ -91,12 +129,165 @@ public class DatabaseManager {
         InttConfiguration.getInstance().setLoggingLevel( level );
     }
     
+    /**
+     * Deletes a project from the database, together with any identifier 
+     * names, component words, type names and other values used by no 
+     * other project. The tables are then compressed to reclaim the space.
+     * 
+     * @param projectNameAndVersion a project name and version, as listed 
+     *   by {@linkplain DatabaseReader#getProjectList()}
+     * @return {@code false} if the project is not in the database
+     * @throws SQLException if the deletion fails, in which case the 
+     *   database is unchanged
+     */
+    public static boolean removeProject( String projectNameAndVersion ) 
+            throws SQLException {
+        try {
+            return storageBackend.removeProject( projectNameAndVersion );
+        }
+        catch ( StorageException storageEx ) {
+            throw storageEx.toSQLException();
+        }
+    }
+    
+    /**
+     * Converts the database to deduplicated storage, in which a program 
+     * entity that is unchanged between versions of a project is stored 
+     * once and shared by each version. The conversion is permanent and 
+     * requires a database opened with 
+     * {@linkplain #initialiseAndCreate(java.lang.String)}. Entities 
+     * already stored are kept as they are.
+     * @throws SQLException if the conversion fails
+     */
+    public static void enableDeduplicatedStorage() throws SQLException {
+        EntityDatabaseManager.enableDeduplication();
+    }
+    
+    /**
+     * Indicates whether the database uses deduplicated storage.
+     * @return {@code true} if entities are shared between versions
+     */
+    public static boolean isDeduplicatedStorage() {
+        return EntityDatabaseManager.isDeduplicated();
+    }
+    
+    /**
+     * Converts the database to store the container and entity uids of 
+     * program entities as binary data rather than text. Hexadecimal 
+     * digests take half the space, which leaves room for more rows in each 
+     * page. Uids are returned as the same strings either way. The 
+     * conversion is permanent and requires a database opened with 
+     * {@linkplain #initialiseAndCreate(java.lang.String)}. It is quickest 
+     * on a new database, before anything is stored.
+     * @throws SQLException if the conversion fails, in which case the 
+     *   database is unchanged
+     */
+    public static void enableBinaryUidStorage() throws SQLException {
+        EntityDatabaseManager.enableBinaryUids();
+    }
+    
+    /**
+     * Indicates whether the database stores uids as binary data.
+     * @return {@code true} if uids are stored as binary data
+     */
+    public static boolean isBinaryUidStorage() {
+        return EntityDatabaseManager.hasBinaryUids();
+    }
+    
+    /**
+     * Prepares the database for reading after a large load. Each table is 
+     * compressed, returning unused space to the operating system, and 
+     * Derby's optimiser statistics for its indexes are updated, then the 
+     * database is checkpointed. Tables are processed in parallel. Nothing 
+     * else should use the database meanwhile.
+     * @return the pages allocated to each table before and after, and the 
+     *   time taken
+     * @throws SQLException if any table cannot be optimised; the data is 
+     *   unaffected
+     * @throws IllegalStateException if a transaction is open
+     */
+    public static OptimisationReport optimise() throws SQLException {
+        return EntityDatabaseManager.optimise( false );
+    }
+    
+    /**
+     * Prepares the database for reading after a large load, as 
+     * {@linkplain #optimise()} does, optionally compressing tables in 
+     * place. In place compression needs no room for a copy of each table, 
+     * but may return less space to the operating system.
+     * @param inPlace {@code true} to compress tables in place
+     * @return the pages allocated to each table before and after, and the 
+     *   time taken
+     * @throws SQLException if any table cannot be optimised; the data is 
+     *   unaffected
+     * @throws IllegalStateException if a transaction is open
+     */
+    public static OptimisationReport optimise( boolean inPlace ) throws SQLException {
+        return EntityDatabaseManager.optimise( inPlace );
+    }
+    
+    /**
+     * Installs a listener to receive measurements of statement executions, 
+     * commits, cache lookups and the stages of storing program entities. 
+     * Statements and commits are only measured for a database initialised 
+     * after a listener is installed.
+     * @param listener a listener, or {@code null} to stop reporting
+     */
+    public static void setMetricsListener( MetricsListener listener ) {
+        Metrics.setListener( listener );
+    }
+    
+    /**
+     * Publishes measurements as MXBeans on the platform MBean server, 
+     * where they can be read with JConsole or any other JMX client. Call 
+     * this before the database is initialised.
+     * @return the listener collecting the measurements
+     */
+    public static JmxMetrics enableJmxMetrics() {
+        MetricsListener current = Metrics.getListener();
+        if ( current instanceof JmxMetrics ) {
+            return (JmxMetrics) current;
+        }
+        JmxMetrics metrics = new JmxMetrics();
+        Metrics.setListener( metrics );
+        return metrics;
+    }
+    
+    /**
+     * Records statements slower than a threshold in a rolling log, with 
+     * their parameters and the runtime statistics and plan Derby kept for 
+     * them. Derby collects statistics for every statement once this is 
+     * enabled, which slows it down, so it is meant for diagnosis. Call 
+     * this before the database is initialised.
+     * @param directory the folder for the log, which is created if 
+     *   necessary
+     * @param thresholdMillis the time in milliseconds a statement may take 
+     *   before it is logged
+     * @throws IOException if the folder cannot be created
+     */
+    public static void enableSlowQueryLog( String directory, long thresholdMillis ) 
+            throws IOException {
+        SlowQueryLog.enable( Paths.get( directory ), thresholdMillis );
+    }
+    
+    /**
+     * Stops recording slow statements.
+     */
+    public static void disableSlowQueryLog() {
+        SlowQueryLog.disable();
+    }
+    
     /**
      * Shut the database down allowing any queued write operations to be 
      * completed first.
      * @throws SQLException if the database shutdown fails
      */
     public static void shutdown() throws SQLException {
-        EntityDatabaseManager.shutdown();
+        try {
+            storageBackend.shutdown();
+        }
+        catch ( StorageException storageEx ) {
+            throw storageEx.toSQLException();
+        }
     }
 }
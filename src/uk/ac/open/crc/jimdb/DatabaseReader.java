@@ -17,8 +17,13 @@
 package uk.ac.open.crc.jimdb;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import uk.ac.open.crc.idtk.Modifier;
 import uk.ac.open.crc.idtk.Species;
 
 /**
@@ -277,4 +282,301 @@ public interface DatabaseReader {
      * @return a list containing all the name declarations in a project
      */
     public List<ProgramEntity> getEntitiesFor( String projectNameAndVersion );
+    
+    /**
+     * Retrieves the keys of all declarations of a species. Key sets may be 
+     * combined before the declarations are retrieved with 
+     * {@linkplain #getEntitiesFor(EntityKeySet)}.
+     * @param species a species
+     * @return a set of declaration keys
+     */
+    public EntityKeySet getEntityKeysFor( Species species );
+    
+    /**
+     * Retrieves the keys of all declarations that use a modifier.
+     * @param modifier a modifier
+     * @return a set of declaration keys
+     */
+    public EntityKeySet getEntityKeysFor( Modifier modifier );
+    
+    /**
+     * Retrieves the keys of all declarations whose type is in a type group.
+     * @param typeGroup a type group
+     * @return a set of declaration keys
+     */
+    public EntityKeySet getEntityKeysFor( TypeGroup typeGroup );
+    
+    /**
+     * Retrieves the keys of all the declarations in a project.
+     * @param projectNameAndVersion a string consisting of the project name, a space 
+     * and the project version
+     * @return a set of declaration keys, which is empty if the project is 
+     * not recognised
+     */
+    public EntityKeySet getEntityKeysForProject( String projectNameAndVersion );
+    
+    /**
+     * Retrieves the declarations identified by a set of keys. Where the 
+     * keys are drawn from {@linkplain #getEntityKeysForProject(String)} 
+     * the declarations are those of that project, even where they are 
+     * shared with other versions.
+     * @param entityKeys a set of declaration keys
+     * @return a list of declarations in key order
+     */
+    public List<ProgramEntity> getEntitiesFor( EntityKeySet entityKeys );
+    
+    /**
+     * Retrieves declarations by key. The declarations are fetched in 
+     * batches, so a large collection of keys costs few queries.
+     * @param programEntityKeys a collection of declaration keys
+     * @return a list of declarations in the order of the keys, omitting 
+     * keys that do not identify a declaration
+     */
+    public List<ProgramEntity> getEntitiesByKeys( Collection<Integer> programEntityKeys );
+    
+    /**
+     * Retrieves a declaration by its entity uid.
+     * @param projectNameAndVersion a string consisting of the project name, a space 
+     * and the project version
+     * @param entityUid an entity uid
+     * @return the declaration, or {@code null} if the project or uid is 
+     * not recognised
+     */
+    public ProgramEntity getEntityByUid( String projectNameAndVersion, String entityUid );
+    
+    /**
+     * Retrieves declarations by their entity uids, for example uids kept
+     * from an earlier run. The uids are looked up in batches.
+     * @param projectNameAndVersion a string consisting of the project name, a space 
+     * and the project version
+     * @param entityUids a collection of entity uids
+     * @return a map of uids to declarations, which omits uids that are 
+     * not recognised
+     */
+    public Map<String, ProgramEntity> getEntitiesByUids( 
+            String projectNameAndVersion, Collection<String> entityUids );
+    
+    /**
+     * Retrieves the declarations made directly within a declaration, 
+     * such as the members of a class or the formal arguments of a method. 
+     * Containment is held in memory for each project once first queried.
+     * @param projectNameAndVersion a string consisting of the project name, a space 
+     * and the project version
+     * @param entityUid the uid of the containing declaration
+     * @return a list of declarations in key order, which is empty if the 
+     * project or uid is not recognised
+     */
+    public List<ProgramEntity> getChildren( String projectNameAndVersion, String entityUid );
+    
+    /**
+     * Retrieves the declarations made within a declaration at any depth, 
+     * optionally restricted to some species. For example, the locals and 
+     * formal arguments of a method, including those of nested blocks and 
+     * classes.
+     * @param projectNameAndVersion a string consisting of the project name, a space 
+     * and the project version
+     * @param entityUid the uid of the containing declaration
+     * @param species the species to include, or none for all
+     * @return a list of declarations, each preceding those it contains, 
+     * which is empty if the project or uid is not recognised
+     */
+    public List<ProgramEntity> getDescendants( 
+            String projectNameAndVersion, String entityUid, Species... species );
+    
+    /**
+     * Retrieves the declarations within which a declaration is made.
+     * @param projectNameAndVersion a string consisting of the project name, a space 
+     * and the project version
+     * @param entityUid the uid of a declaration
+     * @return a list of declarations, innermost first, which is empty if 
+     * the project or uid is not recognised
+     */
+    public List<ProgramEntity> getAncestors( String projectNameAndVersion, String entityUid );
+    
+    /**
+     * Retrieves the members of a type declaration grouped by species.
+     * @param projectNameAndVersion a string consisting of the project name, a space 
+     * and the project version
+     * @param classUid the uid of a class, interface or enum
+     * @return a map of species to members in key order, which is empty 
+     * if the project or uid is not recognised
+     */
+    public Map<Species, List<ProgramEntity>> getMembers( 
+            String projectNameAndVersion, String classUid );
+    
+    /**
+     * Retrieves the declarations that span a line of a file, such as a 
+     * class, a method within it and a local declared on the line.
+     * @param projectNameAndVersion a string consisting of the project name, a space 
+     * and the project version
+     * @param fileName the name of the file, as stored
+     * @param lineNumber a line number
+     * @return a list of declarations in order of their start positions, 
+     * which is empty if the project or file is not recognised
+     */
+    public List<ProgramEntity> getEntitiesAt( 
+            String projectNameAndVersion, String fileName, int lineNumber );
+    
+    /**
+     * Retrieves the declarations that span a position in a file.
+     * @param projectNameAndVersion a string consisting of the project name, a space 
+     * and the project version
+     * @param fileName the name of the file, as stored
+     * @param lineNumber a line number
+     * @param column a column on the line
+     * @return a list of declarations in order of their start positions, 
+     * which is empty if the project or file is not recognised
+     */
+    public List<ProgramEntity> getEntitiesAt( 
+            String projectNameAndVersion, String fileName, int lineNumber, int column );
+    
+    /**
+     * Retrieves the declarations that start and end within a range of 
+     * lines of a file.
+     * @param projectNameAndVersion a string consisting of the project name, a space 
+     * and the project version
+     * @param fileName the name of the file, as stored
+     * @param firstLineNumber the first line of the range
+     * @param lastLineNumber the last line of the range
+     * @return a list of declarations in order of their start positions, 
+     * which is empty if the project or file is not recognised
+     */
+    public List<ProgramEntity> getEntitiesWithin( 
+            String projectNameAndVersion, 
+            String fileName, 
+            int firstLineNumber, 
+            int lastLineNumber );
+    
+    /**
+     * Retrieves all the declarations in a file.
+     * @param projectNameAndVersion a string consisting of the project name, a space 
+     * and the project version
+     * @param fileName the name of the file, as stored
+     * @return a list of declarations in order of their start positions, 
+     * which is empty if the project or file is not recognised
+     */
+    public List<ProgramEntity> getEntitiesInFile( String projectNameAndVersion, String fileName );
+    
+    /**
+     * Counts the declarations of each species in a project. The counts 
+     * are computed by the database without retrieving the declarations.
+     * @param projectNameAndVersion a string consisting of the project name, a space 
+     * and the project version
+     * @return a map of species to counts, which is empty if the 
+     * project is not recognised
+     */
+    public Map<Species, FacetCount> countBySpecies( String projectNameAndVersion );
+    
+    /**
+     * Counts the declarations that use each modifier in a project.
+     * @param projectNameAndVersion a string consisting of the project name, a space 
+     * and the project version
+     * @return a map of modifiers to counts, which is empty if the 
+     * project is not recognised
+     */
+    public Map<Modifier, FacetCount> countByModifier( String projectNameAndVersion );
+    
+    /**
+     * Counts the declarations in each package of a project.
+     * @param projectNameAndVersion a string consisting of the project name, a space 
+     * and the project version
+     * @return a map of package names to counts, which is empty if the 
+     * project is not recognised
+     */
+    public Map<String, FacetCount> countByPackage( String projectNameAndVersion );
+    
+    /**
+     * Counts the declarations in a project whose types fall in each 
+     * type group.
+     * @param projectNameAndVersion a string consisting of the project name, a space 
+     * and the project version
+     * @return a map of type groups to counts, which is empty if the 
+     * project is not recognised
+     */
+    public Map<TypeGroup, FacetCount> countByTypeGroup( String projectNameAndVersion );
+    
+    /**
+     * Retrieves the declarations matching a query.
+     * @param query a query
+     * @return a list of declarations in key order
+     */
+    public List<ProgramEntity> getEntitiesFor( EntityQuery query );
+    
+    /**
+     * Passes each declaration matching a query to a consumer as it is 
+     * retrieved, without holding the results in memory.
+     * @param query a query
+     * @param consumer receives each declaration in key order
+     */
+    public void forEachEntity( EntityQuery query, Consumer<? super ProgramEntity> consumer );
+    
+    /**
+     * Retrieves the keys of the declarations matching a query, which 
+     * may be combined with other key sets.
+     * @param query a query
+     * @return a set of declaration keys
+     */
+    public EntityKeySet getEntityKeysFor( EntityQuery query );
+    
+    /**
+     * Retrieves a page of the declarations matching a query. Pages are 
+     * found by key rather than by position, so each page costs the same 
+     * however far into the scan it is, and declarations stored during a 
+     * scan are neither repeated nor cause others to be skipped. The 
+     * token of each page may be saved so that an interrupted scan can be 
+     * resumed, by this or another reader.
+     * @param query a query, whose limit is ignored
+     * @param continuationToken the token of the previous page, a token 
+     * from {@linkplain #splitEntityScan(EntityQuery, int)}, or {@code null} 
+     * to start the scan
+     * @param pageSize the maximum number of declarations in the page
+     * @return the page
+     * @throws IllegalArgumentException if the token was not issued for 
+     * an identical query
+     */
+    public EntityPage getEntityPage( EntityQuery query, String continuationToken, int pageSize );
+    
+    /**
+     * Divides the scan of a query into ranges of keys, so that it can be 
+     * shared between workers. Each worker pages through its range with 
+     * {@linkplain #getEntityPage(EntityQuery, java.lang.String, int)}, 
+     * starting from its token.
+     * @param query a query
+     * @param partitions the number of ranges wanted
+     * @return the token starting each range, in key order, which may be 
+     * fewer than asked for and is empty if nothing matches
+     */
+    public List<String> splitEntityScan( EntityQuery query, int partitions );
+    
+    /**
+     * Retrieves the declarations matching a query as a parallel stream. 
+     * The query's key range is divided into partitions, each read on a 
+     * database connection of its own, and the declarations are built by 
+     * the fork join pool running the stream. To use a pool other than the 
+     * common pool, run the stream's terminal operation from a task of 
+     * that pool. The encounter order is key order, so 
+     * {@code forEachOrdered} and collecting to a list see the declarations 
+     * in key order, while {@code forEach} sees each partition as soon as 
+     * it is read.
+     * @param query a query, whose limit is ignored; restricting it to a 
+     * project with {@linkplain EntityQuery#inProject(java.lang.String)} 
+     * scans the project's key range
+     * @param partitions the number of partitions, of which each is held 
+     * in memory whole while it is being consumed
+     * @return a parallel stream of declarations
+     * @throws IllegalStateException from the stream's terminal operation 
+     * if a partition cannot be read
+     */
+    public Stream<ProgramEntity> getEntityStream( EntityQuery query, int partitions );
+    
+    /**
+     * Retrieves the declarations matching a query in key order, reading 
+     * partitions of the query in parallel as 
+     * {@linkplain #getEntityStream(EntityQuery, int)} does.
+     * @param query a query, whose limit is ignored
+     * @param partitions the number of partitions
+     * @return a list of declarations in key order
+     * @throws IllegalStateException if a partition cannot be read
+     */
+    public List<ProgramEntity> getEntitiesInParallel( EntityQuery query, int partitions );
 }
@@ -16,6 +16,9 @@
 
 package uk.ac.open.crc.jimdb;
 
+import java.io.IOException;
+import java.nio.file.Paths;
+
 /**
  * Provides a convenience method for creating 
  * instances of {@linkplain DatabaseReaderImplementation}.
@@ -28,6 +31,19 @@ public class DatabaseReaderFactory {
      * @return an instance of {@code DatabaseWriter}
      */
     public static DatabaseReader create() {
-        return new DatabaseReaderImplementation();
+        return DatabaseManager.storageBackend().createReader();
+    }
+    
+    /**
+     * Creates a reader served from an analysis image written by 
+     * {@linkplain AnalysisImageBuilder}. The image is mapped into memory, 
+     * so the reader is ready at once and needs no database. Queries 
+     * given as an {@linkplain EntityQuery} are evaluated over its columns.
+     * @param imageFileName the name of the image file
+     * @return a reader of the image
+     * @throws IOException if the file cannot be mapped or is not an image
+     */
+    public static DatabaseReader createFromImage( String imageFileName ) throws IOException {
+        return new ImageDatabaseReader( AnalysisImage.open( Paths.get( imageFileName ) ) );
     }
 }
@@ -17,8 +17,13 @@
 package uk.ac.open.crc.jimdb;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import uk.ac.open.crc.idtk.Modifier;
 import uk.ac.open.crc.idtk.Species;
 
 
@@ -305,4 +310,308 @@ public class DatabaseReaderImplementation implements DatabaseReader {
     public List<ProgramEntity> getEntitiesFor( String projectNameAndVersion ) {
         return this.entityDatabaseReader.getEntitiesFor( projectNameAndVersion );
     }
+    
+    /**
+     * {@inheritDoc}
+     * @param species {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public EntityKeySet getEntityKeysFor( Species species ) {
+        return this.entityDatabaseReader.getEntityKeysFor( species );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @param modifier {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public EntityKeySet getEntityKeysFor( Modifier modifier ) {
+        return this.entityDatabaseReader.getEntityKeysFor( modifier );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @param typeGroup {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public EntityKeySet getEntityKeysFor( TypeGroup typeGroup ) {
+        return this.entityDatabaseReader.getEntityKeysFor( typeGroup );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @param projectNameAndVersion {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public EntityKeySet getEntityKeysForProject( String projectNameAndVersion ) {
+        return this.entityDatabaseReader.getEntityKeysForProject( projectNameAndVersion );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @param entityKeys {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public List<ProgramEntity> getEntitiesFor( EntityKeySet entityKeys ) {
+        return this.entityDatabaseReader.getEntitiesFor( entityKeys );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @param programEntityKeys {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public List<ProgramEntity> getEntitiesByKeys( Collection<Integer> programEntityKeys ) {
+        return this.entityDatabaseReader.getEntitiesByKeys( programEntityKeys );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @param projectNameAndVersion {@inheritDoc}
+     * @param entityUid {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public ProgramEntity getEntityByUid( String projectNameAndVersion, String entityUid ) {
+        return this.entityDatabaseReader.getEntityByUid( projectNameAndVersion, entityUid );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @param projectNameAndVersion {@inheritDoc}
+     * @param entityUids {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public Map<String, ProgramEntity> getEntitiesByUids( 
+            String projectNameAndVersion, Collection<String> entityUids ) {
+        return this.entityDatabaseReader.getEntitiesByUids( projectNameAndVersion, entityUids );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @param projectNameAndVersion {@inheritDoc}
+     * @param entityUid {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public List<ProgramEntity> getChildren( String projectNameAndVersion, String entityUid ) {
+        return this.entityDatabaseReader.getChildren( projectNameAndVersion, entityUid );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @param projectNameAndVersion {@inheritDoc}
+     * @param entityUid {@inheritDoc}
+     * @param species {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public List<ProgramEntity> getDescendants( 
+            String projectNameAndVersion, String entityUid, Species... species ) {
+        return this.entityDatabaseReader.getDescendants( 
+                projectNameAndVersion, entityUid, species );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @param projectNameAndVersion {@inheritDoc}
+     * @param entityUid {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public List<ProgramEntity> getAncestors( String projectNameAndVersion, String entityUid ) {
+        return this.entityDatabaseReader.getAncestors( projectNameAndVersion, entityUid );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @param projectNameAndVersion {@inheritDoc}
+     * @param classUid {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public Map<Species, List<ProgramEntity>> getMembers( 
+            String projectNameAndVersion, String classUid ) {
+        return this.entityDatabaseReader.getMembers( projectNameAndVersion, classUid );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @param projectNameAndVersion {@inheritDoc}
+     * @param fileName {@inheritDoc}
+     * @param lineNumber {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public List<ProgramEntity> getEntitiesAt( 
+            String projectNameAndVersion, String fileName, int lineNumber ) {
+        return this.entityDatabaseReader.getEntitiesAt( 
+                projectNameAndVersion, fileName, lineNumber );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @param projectNameAndVersion {@inheritDoc}
+     * @param fileName {@inheritDoc}
+     * @param lineNumber {@inheritDoc}
+     * @param column {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public List<ProgramEntity> getEntitiesAt( 
+            String projectNameAndVersion, String fileName, int lineNumber, int column ) {
+        return this.entityDatabaseReader.getEntitiesAt( 
+                projectNameAndVersion, fileName, lineNumber, column );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @param projectNameAndVersion {@inheritDoc}
+     * @param fileName {@inheritDoc}
+     * @param firstLineNumber {@inheritDoc}
+     * @param lastLineNumber {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public List<ProgramEntity> getEntitiesWithin( 
+            String projectNameAndVersion, 
+            String fileName, 
+            int firstLineNumber, 
+            int lastLineNumber ) {
+        return this.entityDatabaseReader.getEntitiesWithin( 
+                projectNameAndVersion, fileName, firstLineNumber, lastLineNumber );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @param projectNameAndVersion {@inheritDoc}
+     * @param fileName {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public List<ProgramEntity> getEntitiesInFile( String projectNameAndVersion, String fileName ) {
+        return this.entityDatabaseReader.getEntitiesInFile( projectNameAndVersion, fileName );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @param projectNameAndVersion {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public Map<Species, FacetCount> countBySpecies( String projectNameAndVersion ) {
+        return this.entityDatabaseReader.countBySpecies( projectNameAndVersion );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @param projectNameAndVersion {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public Map<Modifier, FacetCount> countByModifier( String projectNameAndVersion ) {
+        return this.entityDatabaseReader.countByModifier( projectNameAndVersion );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @param projectNameAndVersion {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public Map<String, FacetCount> countByPackage( String projectNameAndVersion ) {
+        return this.entityDatabaseReader.countByPackage( projectNameAndVersion );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @param projectNameAndVersion {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public Map<TypeGroup, FacetCount> countByTypeGroup( String projectNameAndVersion ) {
+        return this.entityDatabaseReader.countByTypeGroup( projectNameAndVersion );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @param query {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public List<ProgramEntity> getEntitiesFor( EntityQuery query ) {
+        return this.entityDatabaseReader.getEntitiesFor( query );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @param query {@inheritDoc}
+     * @param consumer {@inheritDoc}
+     */
+    @Override
+    public void forEachEntity( EntityQuery query, Consumer<? super ProgramEntity> consumer ) {
+        this.entityDatabaseReader.forEachEntity( query, consumer );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @param query {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public EntityKeySet getEntityKeysFor( EntityQuery query ) {
+        return this.entityDatabaseReader.getEntityKeysFor( query );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @param query {@inheritDoc}
+     * @param continuationToken {@inheritDoc}
+     * @param pageSize {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public EntityPage getEntityPage( EntityQuery query, String continuationToken, int pageSize ) {
+        return this.entityDatabaseReader.getEntityPage( query, continuationToken, pageSize );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @param query {@inheritDoc}
+     * @param partitions {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public List<String> splitEntityScan( EntityQuery query, int partitions ) {
+        return this.entityDatabaseReader.splitEntityScan( query, partitions );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @param query {@inheritDoc}
+     * @param partitions {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public Stream<ProgramEntity> getEntityStream( EntityQuery query, int partitions ) {
+        return this.entityDatabaseReader.streamEntities( query, partitions );
+    }
+    
+    /**
+     * {@inheritDoc}
+     * @param query {@inheritDoc}
+     * @param partitions {@inheritDoc}
+     * @return {@inheritDoc}
+     */
+    @Override
+    public List<ProgramEntity> getEntitiesInParallel( EntityQuery query, int partitions ) {
+        return this.entityDatabaseReader.getEntitiesInParallel( query, partitions );
+    }
 }
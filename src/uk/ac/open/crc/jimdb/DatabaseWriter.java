@@ -16,23 +16,155 @@
 
 package uk.ac.open.crc.jimdb;
 
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.sql.SQLException;
+
 /**
- * Provides an API for writing to the database.
- *
+ * Provides an API for writing to the database. Entities are written 
+ * through an {@linkplain EntityStore} created by the 
+ * {@linkplain StorageBackend} chosen when the database was initialised.
+ * <p>
+ * For incremental ingest each file is bracketed by calls to
+ * {@linkplain #beginFile(java.lang.String, java.lang.String)} and
+ * {@linkplain #endFile()}. A file whose content digest is unchanged since
+ * it was last stored for the project is skipped. Otherwise the file's
+ * existing entities are replaced by those stored before {@code endFile()}
+ * in a single transaction. An existing project with the same name and
+ * version is updated in place.
+ * </p>
  */
 public class DatabaseWriter {
 
+    private final EntityStore entityStore;
+    private String currentFileName;
+    private String currentDigest;
+
     // package private to control the means of instantiation
-    DatabaseWriter() {
+    DatabaseWriter( EntityStore entityStore ) {
+        this.entityStore = entityStore;
+        this.currentFileName = null;
+        this.currentDigest = null;
     }
 
     /**
-     * Stores the declaration recorded in the {@linkplain RawProgramEntity} to 
+     * Stores the declaration recorded in the {@linkplain RawProgramEntity} to
      * the database.
      * @param programEntity a declaration
      */
     public void store( RawProgramEntity programEntity ) {
-        EntityDatabaseWriter writer = new EntityDatabaseWriter();
-        writer.store( programEntity );
+        this.entityStore.store( programEntity );
+    }
+
+    /**
+     * Starts the incremental ingest of a file. Where the file is unchanged
+     * nothing is done and {@code false} is returned, and the caller should
+     * not store the file's entities. Otherwise the file's existing entities
+     * are deleted and the caller should store the current entities, then
+     * call {@linkplain #endFile()}.
+     *
+     * @param fileName the file name, as recorded in each entity
+     * @param digest a digest of the file's content, such as that returned
+     * by {@linkplain #digestOf(byte[])}
+     * @return {@code true} if the file's entities should be stored
+     * @throws SQLException if the file's existing entities cannot be deleted
+     * @throws IllegalStateException if the previous file has not been ended
+     */
+    public boolean beginFile( String fileName, String digest ) throws SQLException {
+        if ( this.currentFileName != null ) {
+            throw new IllegalStateException(
+                    "File not ended: " + this.currentFileName );
+        }
+
+        try {
+            if ( ! this.entityStore.beginFile( fileName, digest ) ) {
+                return false;
+            }
+        }
+        catch ( StorageException storageEx ) {
+            throw storageEx.toSQLException();
+        }
+
+        this.currentFileName = fileName;
+        this.currentDigest = digest;
+
+        return true;
+    }
+
+    /**
+     * Records the digest of the current file and commits its entities.
+     * @throws SQLException if any of the file's entities could not be
+     * stored or the commit fails, in which case the file's previous
+     * entities and digest are retained
+     * @throws IllegalStateException if no file has been started
+     */
+    public void endFile() throws SQLException {
+        if ( this.currentFileName == null ) {
+            throw new IllegalStateException( "No file started" );
+        }
+
+        try {
+            this.entityStore.endFile( this.currentFileName, this.currentDigest );
+        }
+        catch ( StorageException storageEx ) {
+            throw storageEx.toSQLException();
+        }
+        finally {
+            this.currentFileName = null;
+            this.currentDigest = null;
+        }
+    }
+
+    /**
+     * Abandons the current file, retaining its previous entities.
+     */
+    public void abandonFile() {
+        if ( this.currentFileName != null ) {
+            this.entityStore.abandonFile();
+            this.currentFileName = null;
+            this.currentDigest = null;
+        }
+    }
+
+    /**
+     * Deletes the entities of a file that no longer exists in the project.
+     * @param fileName the file name, as recorded in each entity
+     * @throws SQLException if the entities cannot be deleted
+     * @throws IllegalStateException if a file has been started and not ended
+     */
+    public void removeFile( String fileName ) throws SQLException {
+        if ( this.currentFileName != null ) {
+            throw new IllegalStateException(
+                    "File not ended: " + this.currentFileName );
+        }
+
+        try {
+            this.entityStore.removeFile( fileName );
+        }
+        catch ( StorageException storageEx ) {
+            throw storageEx.toSQLException();
+        }
+    }
+
+    /**
+     * Computes a digest of file content for use with
+     * {@linkplain #beginFile(java.lang.String, java.lang.String)}.
+     * @param content the content of a file
+     * @return a SHA-256 digest as a hexadecimal string
+     */
+    public static String digestOf( byte[] content ) {
+        try {
+            byte[] digest = MessageDigest.getInstance( "SHA-256" ).digest( content );
+            StringBuilder hex = new StringBuilder( digest.length * 2 );
+            for ( byte b : digest ) {
+                hex.append( Character.forDigit( ( b >> 4 ) & 0xf, 16 ) );
+                hex.append( Character.forDigit( b & 0xf, 16 ) );
+            }
+            return hex.toString();
+        }
+        catch ( NoSuchAlgorithmException e ) {
+            // every Java platform is required to support SHA-256
+            throw new IllegalStateException( e );
+        }
     }
 }
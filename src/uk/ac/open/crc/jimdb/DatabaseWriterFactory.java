@@ -29,6 +29,6 @@ public class DatabaseWriterFactory {
      * @return an instance of {@code DatabaseWriter}
      */
     public static DatabaseWriter create() {
-        return new DatabaseWriter();
+        return new DatabaseWriter( DatabaseManager.storageBackend().createStore() );
     }
 }
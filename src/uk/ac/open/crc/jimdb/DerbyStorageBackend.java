@@ -0,0 +1,58 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.sql.SQLException;
+
+/**
+ * Stores program entities in the Derby database opened by 
+ * {@linkplain DatabaseManager}. This is the default backend.
+ */
+final class DerbyStorageBackend implements StorageBackend {
+
+    @Override
+    public EntityStore createStore() {
+        return new EntityDatabaseWriter();
+    }
+
+    @Override
+    public DatabaseReader createReader() {
+        return new DatabaseReaderImplementation();
+    }
+
+    @Override
+    public boolean removeProject( String projectNameAndVersion ) throws StorageException {
+        Integer projectKey = ProjectKeyStore.getInstance().get( projectNameAndVersion );
+        if ( projectKey == null ) {
+            return false;
+        }
+
+        try {
+            EntityDatabaseManager.removeProject( projectKey );
+        }
+        catch ( SQLException sqlEx ) {
+            throw new StorageException( 
+                    "Could not remove project: " + projectNameAndVersion, sqlEx );
+        }
+        return true;
+    }
+
+    @Override
+    public void shutdown() {
+        EntityDatabaseManager.shutdown();
+    }
+}
@@ -0,0 +1,253 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.function.Supplier;
+
+/**
+ * Holds in-memory sets of program entity keys for each species, modifier,
+ * project and type group. The index is loaded from the database when first
+ * used, maintained as entities are stored, and discarded when entities are
+ * deleted so that it is reloaded on next use.
+ */
+class EntityBitmapIndex {
+
+    private static EntityBitmapIndex instance = null;
+
+    /**
+     * Retrieves the instance of this class.
+     * @return the instance of this class
+     */
+    synchronized static EntityBitmapIndex getInstance() {
+        if ( instance == null ) {
+            instance = new EntityBitmapIndex();
+        }
+
+        return instance;
+    }
+
+    private final HashMap<Integer, EntityKeySet> speciesSets;
+    private final HashMap<Integer, EntityKeySet> modifierSets;
+    private final HashMap<Integer, EntityKeySet> projectSets;
+    private final EnumMap<TypeGroup, EntityKeySet> typeGroupSets;
+    // type names are classified once
+    private final HashMap<Integer, TypeGroup> typeGroups;
+    private boolean isLoaded;
+    // entities added while a transaction is open, as pairs of entity key
+    // and the project shared with, or zero for a new entity; null when no
+    // transaction is open
+    private ArrayList<int[]> journal;
+    // set where the index is loaded while a transaction is open, and so
+    // may hold rows that are rolled back
+    private boolean isLoadedInJournal;
+
+    private EntityBitmapIndex() {
+        this.speciesSets = new HashMap<>();
+        this.modifierSets = new HashMap<>();
+        this.projectSets = new HashMap<>();
+        this.typeGroupSets = new EnumMap<>( TypeGroup.class );
+        this.typeGroups = new HashMap<>();
+        this.isLoaded = false;
+        this.journal = null;
+        this.isLoadedInJournal = false;
+    }
+
+    /**
+     * Records a newly stored program entity, if the index is loaded.
+     * @param programEntityKey key of the program entity
+     * @param projectKey key of the project
+     * @param speciesKey key of the entity's species
+     * @param typeNameKey key of the entity's type name
+     * @param modifiers the entity's modifiers as a bit mask
+     */
+    synchronized void addEntity(
+            int programEntityKey,
+            int projectKey,
+            int speciesKey,
+            int typeNameKey,
+            int modifiers ) {
+        if ( this.isLoaded ) {
+            setFor( this.speciesSets, speciesKey ).add( programEntityKey );
+            setFor( this.projectSets, projectKey ).add( programEntityKey );
+            this.typeGroupSets
+                    .computeIfAbsent( typeGroupFor( typeNameKey ), (group) -> new EntityKeySet() )
+                    .add( programEntityKey );
+            while ( modifiers != 0 ) {
+                int modifierKey = Integer.numberOfTrailingZeros( modifiers ) + 1;
+                setFor( this.modifierSets, modifierKey ).add( programEntityKey );
+                modifiers &= modifiers - 1;
+            }
+            if ( this.journal != null ) {
+                this.journal.add( new int[] { programEntityKey, 0 } );
+            }
+        }
+    }
+
+    /**
+     * Records that a program entity belongs to a project, if the index is
+     * loaded. Used where an entity is shared between versions.
+     * @param programEntityKey key of the program entity
+     * @param projectKey key of the project
+     */
+    synchronized void addToProject( int programEntityKey, int projectKey ) {
+        if ( this.isLoaded ) {
+            setFor( this.projectSets, projectKey ).add( programEntityKey );
+            if ( this.journal != null ) {
+                this.journal.add( new int[] { programEntityKey, projectKey } );
+            }
+        }
+    }
+
+    /**
+     * Retrieves the entities of a species.
+     * @param speciesKey key of a species
+     * @return a copy of the set of entity keys
+     */
+    EntityKeySet getSpeciesSet( int speciesKey ) {
+        return snapshot( () -> this.speciesSets.get( speciesKey ) );
+    }
+
+    /**
+     * Retrieves the entities declared with a modifier.
+     * @param modifierKey key of a modifier
+     * @return a copy of the set of entity keys
+     */
+    EntityKeySet getModifierSet( int modifierKey ) {
+        return snapshot( () -> this.modifierSets.get( modifierKey ) );
+    }
+
+    /**
+     * Retrieves the entities of a project.
+     * @param projectKey key of a project
+     * @return a copy of the set of entity keys
+     */
+    EntityKeySet getProjectSet( int projectKey ) {
+        return snapshot( () -> this.projectSets.get( projectKey ) ).inProject( projectKey );
+    }
+
+    /**
+     * Retrieves the entities whose type falls into a type group.
+     * @param typeGroup a type group
+     * @return a copy of the set of entity keys
+     */
+    EntityKeySet getTypeGroupSet( TypeGroup typeGroup ) {
+        return snapshot( () -> this.typeGroupSets.get( typeGroup ) );
+    }
+
+    /**
+     * Discards the index so that it is reloaded when next used.
+     */
+    synchronized void clear() {
+        this.speciesSets.clear();
+        this.modifierSets.clear();
+        this.projectSets.clear();
+        this.typeGroupSets.clear();
+        this.typeGroups.clear();
+        this.isLoaded = false;
+        if ( this.journal != null ) {
+            this.journal.clear();
+        }
+    }
+
+    /**
+     * Starts recording the entities added to the index, so that they can
+     * be removed if the transaction that stored them is rolled back.
+     */
+    synchronized void startJournal() {
+        this.journal = new ArrayList<>();
+        this.isLoadedInJournal = false;
+    }
+
+    /**
+     * Stops recording entities, keeping those added.
+     */
+    synchronized void endJournal() {
+        this.journal = null;
+    }
+
+    /**
+     * Removes the entities added since the journal was started, or
+     * discards the index if it was loaded since, and stops recording.
+     */
+    synchronized void rollBackJournal() {
+        if ( this.journal == null ) {
+            return;
+        }
+        if ( this.isLoadedInJournal ) {
+            clear();
+        }
+        else {
+            for ( int[] entry : this.journal ) {
+                if ( entry[ 1 ] != 0 ) {
+                    removeFrom( this.projectSets.get( entry[ 1 ] ), entry[ 0 ] );
+                }
+                else {
+                    this.speciesSets.values().forEach( (set) -> set.remove( entry[ 0 ] ) );
+                    this.modifierSets.values().forEach( (set) -> set.remove( entry[ 0 ] ) );
+                    this.projectSets.values().forEach( (set) -> set.remove( entry[ 0 ] ) );
+                    this.typeGroupSets.values().forEach( (set) -> set.remove( entry[ 0 ] ) );
+                }
+            }
+        }
+        this.journal = null;
+    }
+
+    // loads the index if necessary and copies one of its sets
+    private EntityKeySet snapshot( Supplier<EntityKeySet> set ) {
+        // the manager is locked first, as it is when the index is cleared
+        synchronized ( EntityDatabaseManager.class ) {
+            synchronized ( this ) {
+                if ( ! this.isLoaded ) {
+                    this.isLoaded = true;
+                    this.isLoadedInJournal = this.journal != null;
+                    if ( ! EntityDatabaseManager.loadEntityBitmapIndex( this ) ) {
+                        // leave the index empty and try again next time
+                        clear();
+                    }
+                }
+                
+                return copyOf( set.get() );
+            }
+        }
+    }
+
+    private TypeGroup typeGroupFor( int typeNameKey ) {
+        return this.typeGroups.computeIfAbsent( typeNameKey, (key) -> {
+            String typeName = TypeNameCache.getInstance().get( key );
+            return typeName == null
+                    ? TypeGroup.REFERENCE
+                    : TypeGroup.classifyFromString( typeName );
+        } );
+    }
+
+    private static EntityKeySet setFor( HashMap<Integer, EntityKeySet> sets, int key ) {
+        return sets.computeIfAbsent( key, (k) -> new EntityKeySet() );
+    }
+
+    private static void removeFrom( EntityKeySet set, int programEntityKey ) {
+        if ( set != null ) {
+            set.remove( programEntityKey );
+        }
+    }
+
+    private static EntityKeySet copyOf( EntityKeySet set ) {
+        return set == null ? new EntityKeySet() : set.copy();
+    }
+}
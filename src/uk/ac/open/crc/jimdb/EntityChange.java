@@ -0,0 +1,210 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import uk.ac.open.crc.idtk.Species;
+
+/**
+ * Describes a single difference between two versions of a project, as
+ * reported by {@linkplain ProjectDiff}. Values that do not apply to the
+ * kind of change, such as the old name of an added entity, are
+ * {@code null}, and line numbers are zero.
+ */
+public class EntityChange {
+
+    /**
+     * The kinds of change reported.
+     */
+    public enum Kind {
+        /** The entity is only found in the new version. */
+        ADDED,
+        /** The entity is only found in the old version. */
+        REMOVED,
+        /** The entity is found in both versions with different names. */
+        RENAMED,
+        /** The entity is found in both versions with different types. */
+        TYPE_CHANGED
+    }
+
+    private final Kind kind;
+    private final Species species;
+    private final String fileName;
+    private final String packageName;
+    private final String containerUid;
+    private final String entityUid;
+    private final String oldName;
+    private final String newName;
+    private final String oldType;
+    private final String newType;
+    private final int oldLineNumber;
+    private final int newLineNumber;
+
+    EntityChange(
+            Kind kind,
+            Species species,
+            String fileName,
+            String packageName,
+            String containerUid,
+            String entityUid,
+            String oldName,
+            String newName,
+            String oldType,
+            String newType,
+            int oldLineNumber,
+            int newLineNumber ) {
+        this.kind = kind;
+        this.species = species;
+        this.fileName = fileName;
+        this.packageName = packageName;
+        this.containerUid = containerUid;
+        this.entityUid = entityUid;
+        this.oldName = oldName;
+        this.newName = newName;
+        this.oldType = oldType;
+        this.newType = newType;
+        this.oldLineNumber = oldLineNumber;
+        this.newLineNumber = newLineNumber;
+    }
+
+    /**
+     * Retrieves the kind of change.
+     * @return the kind of change
+     */
+    public Kind kind() {
+        return this.kind;
+    }
+
+    /**
+     * Retrieves the species of the entity.
+     * @return the species
+     */
+    public Species species() {
+        return this.species;
+    }
+
+    /**
+     * Retrieves the name of the file containing the entity, taken from the
+     * new version where there is one.
+     * @return a file name
+     */
+    public String fileName() {
+        return this.fileName;
+    }
+
+    /**
+     * Retrieves the name of the package containing the entity, taken from
+     * the new version where there is one.
+     * @return a package name
+     */
+    public String packageName() {
+        return this.packageName;
+    }
+
+    /**
+     * Retrieves the uid of the entity's container, taken from the new
+     * version where there is one.
+     * @return a container uid
+     */
+    public String containerUid() {
+        return this.containerUid;
+    }
+
+    /**
+     * Retrieves the uid of the entity, taken from the new version where
+     * there is one.
+     * @return an entity uid
+     */
+    public String entityUid() {
+        return this.entityUid;
+    }
+
+    /**
+     * Retrieves the name of the entity in the old version.
+     * @return an identifier name, or {@code null} for added entities
+     */
+    public String oldName() {
+        return this.oldName;
+    }
+
+    /**
+     * Retrieves the name of the entity in the new version.
+     * @return an identifier name, or {@code null} for removed entities
+     */
+    public String newName() {
+        return this.newName;
+    }
+
+    /**
+     * Retrieves the type of the entity in the old version.
+     * @return a type name, or {@code null} for added entities
+     */
+    public String oldType() {
+        return this.oldType;
+    }
+
+    /**
+     * Retrieves the type of the entity in the new version.
+     * @return a type name, or {@code null} for removed entities
+     */
+    public String newType() {
+        return this.newType;
+    }
+
+    /**
+     * Retrieves the line on which the entity starts in the old version.
+     * @return a line number, or zero for added entities
+     */
+    public int oldLineNumber() {
+        return this.oldLineNumber;
+    }
+
+    /**
+     * Retrieves the line on which the entity starts in the new version.
+     * @return a line number, or zero for removed entities
+     */
+    public int newLineNumber() {
+        return this.newLineNumber;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        sb.append( this.kind ).append( ' ' );
+        sb.append( this.species == null ? "?" : this.species.description() );
+        sb.append( ' ' );
+        switch ( this.kind ) {
+            case ADDED:
+                sb.append( this.newName );
+                break;
+            case REMOVED:
+                sb.append( this.oldName );
+                break;
+            case RENAMED:
+                sb.append( this.oldName ).append( " -> " ).append( this.newName );
+                break;
+            case TYPE_CHANGED:
+                sb.append( this.newName ).append( ": " )
+                        .append( this.oldType ).append( " -> " ).append( this.newType );
+                break;
+            default:
+                break;
+        }
+        sb.append( " (" ).append( this.fileName ).append( ')' );
+
+        return sb.toString();
+    }
+}
@@ -22,6 +22,21 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 import org.apache.derby.jdbc.BasicEmbeddedDataSource40;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -65,6 +80,17 @@ class EntityDatabaseManager {
 //    static final String EXTENDS_CLASS_TABLE = "EXTENDS_CLASS";
 
     static final String FILE_NAMES_TABLE = "FILES";
+    static final String FILE_DIGESTS_TABLE = "FILE_DIGESTS";
+    static final String ENTITY_VERSIONS_TABLE = "ENTITY_VERSIONS";
+    
+    // database property recording that entities are shared between versions
+    static final String DEDUPLICATED_PROPERTY = "jimdb.storage.deduplicated";
+    
+    // database property recording that uids are stored as bit data
+    static final String BINARY_UIDS_PROPERTY = "jimdb.storage.binaryuids";
+    
+    private static final String ENTITY_UID_INDEX = "PROGRAM_ENTITIES_UID_INDEX";
+    private static final String ENTITY_POSITION_INDEX = "PROGRAM_ENTITIES_POSITION_INDEX";
     
     private static final String SQL_CREATE_IDENTIFIER_TABLE =
             "CREATE TABLE "
@@ -137,7 +163,8 @@ class EntityDatabaseManager {
             + "start_line_number INT, "
             + "start_column INT, "
             + "end_line_number INT, "
-            + "end_column INT"
+            + "end_column INT, "
+            + "modifiers INT NOT NULL DEFAULT 0"   // see ModifierCache.bitFor()
             + ")";
         
     // REVIEW this solution
@@ -238,10 +265,104 @@ class EntityDatabaseManager {
               + SCHEMA + "." + PROGRAM_ENTITIES_TABLE + "(program_entity_key)"
             + ")";
     
+    // content digest of each file when its entities were last stored,
+    // used to skip unchanged files during incremental ingest
+    private static final String SQL_CREATE_FILE_DIGESTS_TABLE = 
+            "CREATE TABLE "
+            + SCHEMA + "." + FILE_DIGESTS_TABLE
+            + "("
+            + "project_key_fk INT NOT NULL REFERENCES " 
+              + SCHEMA + "." + PROJECT_TABLE + "(project_key), "
+            + "file_name_key_fk INT NOT NULL REFERENCES " 
+              + SCHEMA + "." + FILE_NAMES_TABLE + "(file_name_key), "
+            + "digest VARCHAR(128) NOT NULL, "
+            + "PRIMARY KEY (project_key_fk, file_name_key_fk)"
+            + ")";
+    
+    // the versions each entity belongs to when entities are deduplicated,
+    // with the package key of each version
+    private static final String SQL_CREATE_ENTITY_VERSIONS_TABLE = 
+            "CREATE TABLE "
+            + SCHEMA + "." + ENTITY_VERSIONS_TABLE
+            + "("
+            + "project_key_fk INT NOT NULL REFERENCES " 
+              + SCHEMA + "." + PROJECT_TABLE + "(project_key), "
+            + "program_entity_key_fk INT NOT NULL REFERENCES " 
+              + SCHEMA + "." + PROGRAM_ENTITIES_TABLE + "(program_entity_key), "
+            + "package_key_fk INT REFERENCES " 
+              + SCHEMA + "." + PACKAGES_TABLE + "(package_key), "
+            + "PRIMARY KEY (project_key_fk, program_entity_key_fk)"
+            + ")";
+    
+    private static final String SQL_CREATE_ENTITY_POSITION_INDEX = 
+            "CREATE INDEX " + SCHEMA + "." + ENTITY_POSITION_INDEX 
+            + " ON " + SCHEMA + "." + PROGRAM_ENTITIES_TABLE 
+            + "(file_name_key_fk, start_line_number)";
+    
+    // a flag byte and up to 255 characters of UTF-8
+    private static final String BINARY_UID_TYPE = "VARCHAR(1024) FOR BIT DATA";
+    private static final int UID_CONVERSION_BATCH_SIZE = 1000;
+    
+    private static final String SQL_CREATE_ENTITY_UID_INDEX = 
+            "CREATE INDEX " + SCHEMA + "." + ENTITY_UID_INDEX 
+            + " ON " + SCHEMA + "." + PROGRAM_ENTITIES_TABLE + "(entity_uid)";
+    
+    // Placeholders for the project scope of queries on the program entities
+    // table, replaced by scoped() when the statements are prepared. Where 
+    // entities are deduplicated, membership of a project is recorded in the 
+    // entity versions table rather than the program entities table.
+    private static final String PROJECT_SCOPE = "${project}";
+    private static final String PROJECT_PACKAGE_SCOPE = "${project.package}";
+    
+    // Placeholder for the modifiers bit mask of an entity, also replaced by 
+    // scoped(). Databases opened for reading before the modifiers column 
+    // was added are not migrated, so the mask is summed from their modifier 
+    // rows instead.
+    private static final String MODIFIERS_MASK = "${modifiers}";
+    
 
     private static BasicEmbeddedDataSource40 dataSource = null;
 
     private static Connection connection = null;
+    
+    // idle read only connections for parallel scans, opened on demand
+    private static final ConcurrentLinkedQueue<Connection> readConnections = 
+            new ConcurrentLinkedQueue<>();
+    private static final int MAXIMUM_IDLE_READ_CONNECTIONS = 
+            Runtime.getRuntime().availableProcessors();
+
+    // set while the writer groups its inserts into a single transaction
+    private static boolean inTransaction = false;
+    
+    // the first write to fail in the open transaction, which prevents its commit
+    private static SQLException writeFailure = null;
+    
+    private static boolean openedForWriting = false;
+    
+    // set when entities are shared between project versions
+    private static boolean deduplicated = false;
+    
+    // set when uids are stored in the form produced by UidCodec
+    private static boolean binaryUids = false;
+    
+    // set when a database opened for reading predates the modifiers column:
+    // the bit for each modifier key, as an SQL CASE expression
+    private static String modifierBits = null;
+    
+    // prepared statements for compiled entity queries, least recently used first
+    private static final int QUERY_PLAN_CACHE_SIZE = 64;
+    private static final LinkedHashMap<String, PreparedStatement> queryPlans = 
+            new LinkedHashMap<String, PreparedStatement>( 16, 0.75f, true ) {
+                @Override
+                protected boolean removeEldestEntry( 
+                        Map.Entry<String, PreparedStatement> eldest ) {
+                    if ( size() > QUERY_PLAN_CACHE_SIZE ) {
+                        closeQueryPlan( eldest.getValue() );
+                        return true;
+                    }
+                    return false;
+                }
+            };
 
 
     /// ------- statements and prepared statements -------------
@@ -315,11 +436,6 @@ class EntityDatabaseManager {
             + "(method_signature)"
             + " VALUES(?)";
 
-    private static final String MODIFIER_XREF_INSERT_STATEMENT = 
-            "INSERT INTO " + SCHEMA + "." + MODIFIERS_XREF_TABLE
-            + "(modifier_key_fk, program_entity_key_fk)"
-            + " VALUES(?,?)";
-    
     private static final String PROGRAM_ENTITY_INSERT_STATEMENT = 
             "INSERT INTO " + SCHEMA + "." + PROGRAM_ENTITIES_TABLE 
             + "(project_key_fk, package_key_fk, identifier_name_key_fk, "
@@ -327,14 +443,105 @@ class EntityDatabaseManager {
             + "type_name_key_fk, "
             + "method_signature_key_fk, is_anonymous, file_name_key_fk, "
             + "is_array, is_loop_control_var, "
-            + "start_line_number, start_column, end_line_number, end_column)"
-            + " VALUES(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
+            + "start_line_number, start_column, end_line_number, end_column, "
+            + "modifiers)"
+            + " VALUES(?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?,?)";
     
     private static final String FILE_NAME_INSERT_STATEMENT = 
             "INSERT INTO " + SCHEMA + "." + FILE_NAMES_TABLE
             + "(file_name)"
             + " VALUES(?)";
     
+    // incremental ingest
+    private static final String FILE_DIGEST_QUERY = 
+            "SELECT digest FROM " + SCHEMA + "." + FILE_DIGESTS_TABLE
+            + " WHERE project_key_fk = ? AND file_name_key_fk = ?";
+    
+    private static final String FILE_DIGEST_INSERT_STATEMENT = 
+            "INSERT INTO " + SCHEMA + "." + FILE_DIGESTS_TABLE
+            + "(project_key_fk, file_name_key_fk, digest)"
+            + " VALUES(?,?,?)";
+    
+    private static final String FILE_DIGEST_DELETE_STATEMENT = 
+            "DELETE FROM " + SCHEMA + "." + FILE_DIGESTS_TABLE
+            + " WHERE project_key_fk = ? AND file_name_key_fk = ?";
+    
+    private static final String ENTITY_KEYS_FOR_FILE_SUBQUERY = 
+            "SELECT program_entity_key FROM " + SCHEMA + "." + PROGRAM_ENTITIES_TABLE
+            + " WHERE project_key_fk = ? AND file_name_key_fk = ?";
+    
+    private static final String FILE_MODIFIERS_XREF_DELETE_STATEMENT = 
+            "DELETE FROM " + SCHEMA + "." + MODIFIERS_XREF_TABLE
+            + " WHERE program_entity_key_fk IN (" 
+            + ENTITY_KEYS_FOR_FILE_SUBQUERY + ")";
+    
+    private static final String FILE_SUPER_CLASS_XREF_DELETE_STATEMENT = 
+            "DELETE FROM " + SCHEMA + "." + SUPER_CLASS_XREF_TABLE
+            + " WHERE sub_class_entity_key_fk IN (" 
+            + ENTITY_KEYS_FOR_FILE_SUBQUERY + ")";
+    
+    private static final String FILE_SUPER_TYPE_XREF_DELETE_STATEMENT = 
+            "DELETE FROM " + SCHEMA + "." + SUPER_TYPE_XREF_TABLE
+            + " WHERE sub_type_entity_key_fk IN (" 
+            + ENTITY_KEYS_FOR_FILE_SUBQUERY + ")";
+    
+    private static final String FILE_PROGRAM_ENTITIES_DELETE_STATEMENT = 
+            "DELETE FROM " + SCHEMA + "." + PROGRAM_ENTITIES_TABLE
+            + " WHERE project_key_fk = ? AND file_name_key_fk = ?";
+    
+    // deduplicated storage
+    private static final String ENTITY_VERSION_INSERT_STATEMENT = 
+            "INSERT INTO " + SCHEMA + "." + ENTITY_VERSIONS_TABLE
+            + "(project_key_fk, program_entity_key_fk, package_key_fk)"
+            + " VALUES(?,?,?)";
+    
+    // finds an entity identical to one about to be stored, in another version
+    private static final String IDENTICAL_ENTITY_QUERY = 
+            "SELECT program_entity_key FROM " 
+            + SCHEMA + "." + PROGRAM_ENTITIES_TABLE + " e"
+            + " WHERE e.entity_uid = ? AND e.identifier_name_key_fk = ?"
+            + " AND e.container_uid = ? AND e.species_name_key_fk = ?"
+            + " AND e.type_name_key_fk = ? AND e.method_signature_key_fk = ?"
+            + " AND e.is_anonymous = ? AND e.file_name_key_fk = ?"
+            + " AND e.is_array = ? AND e.is_loop_control_var = ?"
+            + " AND e.start_line_number = ? AND e.start_column = ?"
+            + " AND e.end_line_number = ? AND e.end_column = ?"
+            + " AND e.modifiers = ?"
+            + " AND e.package_key_fk IN (SELECT package_key FROM " 
+            + SCHEMA + "." + PACKAGES_TABLE + " WHERE package_name_key_fk = ?)"
+            + " AND NOT EXISTS (SELECT 1 FROM " 
+            + SCHEMA + "." + ENTITY_VERSIONS_TABLE + " v"
+            + " WHERE v.program_entity_key_fk = e.program_entity_key"
+            + " AND v.project_key_fk = ?)";
+    
+    private static final String ENTITY_SUPER_CLASS_NAMES_QUERY = 
+            "SELECT t.type_name FROM " 
+            + SCHEMA + "." + SUPER_CLASS_XREF_TABLE + " x, "
+            + SCHEMA + "." + TYPE_NAMES_TABLE + " t"
+            + " WHERE x.sub_class_entity_key_fk = ?"
+            + " AND t.type_name_key = x.super_class_name_key_fk";
+    
+    private static final String ENTITY_SUPER_TYPE_NAMES_QUERY = 
+            "SELECT t.type_name FROM " 
+            + SCHEMA + "." + SUPER_TYPE_XREF_TABLE + " x, "
+            + SCHEMA + "." + TYPE_NAMES_TABLE + " t"
+            + " WHERE x.sub_type_entity_key_fk = ?"
+            + " AND t.type_name_key = x.super_type_name_key_fk";
+    
+    private static final String FILE_ENTITY_VERSIONS_DELETE_STATEMENT = 
+            "DELETE FROM " + SCHEMA + "." + ENTITY_VERSIONS_TABLE
+            + " WHERE project_key_fk = ? AND program_entity_key_fk IN ("
+            + "SELECT program_entity_key FROM " + SCHEMA + "." + PROGRAM_ENTITIES_TABLE
+            + " WHERE file_name_key_fk = ?)";
+    
+    // entities of a file that no longer belong to any version
+    private static final String UNSHARED_ENTITY_KEYS_FOR_FILE_SUBQUERY = 
+            "SELECT program_entity_key FROM " 
+            + SCHEMA + "." + PROGRAM_ENTITIES_TABLE + " e"
+            + " WHERE e.file_name_key_fk = ? AND NOT EXISTS (SELECT 1 FROM " 
+            + SCHEMA + "." + ENTITY_VERSIONS_TABLE + " v"
+            + " WHERE v.program_entity_key_fk = e.program_entity_key)";
+    
     // read statements
     private static final String PACKAGE_NAME_QUERY =
             "SELECT package_name FROM "
@@ -375,6 +582,99 @@ class EntityDatabaseManager {
             + SCHEMA + "." + SUPER_TYPE_XREF_TABLE
             + " WHERE sub_type_entity_key_fk=?";
 
+    /**
+     * The number of keys bound to {@code sqlProgramEntitiesByKeysQuery} 
+     * and the other batched queries. Shorter batches of keys are padded 
+     * with {@code -1}, which is never a key.
+     */
+    static final int ENTITY_KEY_BATCH_SIZE = 256;
+    
+    private static final String PROGRAM_ENTITIES_BY_KEYS_QUERY = 
+            "SELECT * FROM "
+            + SCHEMA + "." + PROGRAM_ENTITIES_TABLE
+            + " WHERE program_entity_key IN (" 
+            + String.join( ",", Collections.nCopies( ENTITY_KEY_BATCH_SIZE, "?" ) ) 
+            + ") ORDER BY program_entity_key";
+    
+    // padded with nulls, which match no uid
+    private static final String ENTITY_KEYS_BY_UIDS_QUERY = 
+            "SELECT program_entity_key, entity_uid FROM "
+            + SCHEMA + "." + PROGRAM_ENTITIES_TABLE
+            + " WHERE entity_uid IN (" 
+            + String.join( ",", Collections.nCopies( ENTITY_KEY_BATCH_SIZE, "?" ) ) 
+            + ") AND " + PROJECT_SCOPE
+            + " ORDER BY program_entity_key";
+    
+    // super class and super type names for a batch of entities, as 
+    // identifier name keys
+    private static final String SUPER_CLASS_NAMES_BY_KEYS_QUERY = 
+            "SELECT x.sub_class_entity_key_fk, t.identifier_name_key_fk FROM "
+            + SCHEMA + "." + SUPER_CLASS_XREF_TABLE + " x, "
+            + SCHEMA + "." + TYPE_NAMES_TABLE + " t"
+            + " WHERE t.type_name_key = x.super_class_name_key_fk"
+            + " AND x.sub_class_entity_key_fk IN (" 
+            + String.join( ",", Collections.nCopies( ENTITY_KEY_BATCH_SIZE, "?" ) ) 
+            + ")";
+    
+    private static final String SUPER_TYPE_NAMES_BY_KEYS_QUERY = 
+            "SELECT x.sub_type_entity_key_fk, t.identifier_name_key_fk FROM "
+            + SCHEMA + "." + SUPER_TYPE_XREF_TABLE + " x, "
+            + SCHEMA + "." + TYPE_NAMES_TABLE + " t"
+            + " WHERE t.type_name_key = x.super_type_name_key_fk"
+            + " AND x.sub_type_entity_key_fk IN (" 
+            + String.join( ",", Collections.nCopies( ENTITY_KEY_BATCH_SIZE, "?" ) ) 
+            + ")";
+    
+    // the same for every entity, as read when building an analysis image
+    private static final String ALL_SUPER_CLASS_NAMES_QUERY = 
+            "SELECT x.sub_class_entity_key_fk, t.identifier_name_key_fk FROM "
+            + SCHEMA + "." + SUPER_CLASS_XREF_TABLE + " x, "
+            + SCHEMA + "." + TYPE_NAMES_TABLE + " t"
+            + " WHERE t.type_name_key = x.super_class_name_key_fk";
+    
+    private static final String ALL_SUPER_TYPE_NAMES_QUERY = 
+            "SELECT x.sub_type_entity_key_fk, t.identifier_name_key_fk FROM "
+            + SCHEMA + "." + SUPER_TYPE_XREF_TABLE + " x, "
+            + SCHEMA + "." + TYPE_NAMES_TABLE + " t"
+            + " WHERE t.type_name_key = x.super_type_name_key_fk";
+    
+    // the same for a range of entity keys, as read by a parallel scan
+    static final String SUPER_CLASS_NAMES_IN_RANGE_QUERY = ALL_SUPER_CLASS_NAMES_QUERY
+            + " AND x.sub_class_entity_key_fk > ? AND x.sub_class_entity_key_fk <= ?";
+    
+    static final String SUPER_TYPE_NAMES_IN_RANGE_QUERY = ALL_SUPER_TYPE_NAMES_QUERY
+            + " AND x.sub_type_entity_key_fk > ? AND x.sub_type_entity_key_fk <= ?";
+    
+    // source position lookups, in order of position in the file
+    private static final String POSITION_ORDER = 
+            " ORDER BY start_line_number, start_column, program_entity_key";
+    
+    // the start column is compared on the start line, and the end column on the end line
+    private static final String ENTITIES_AT_POSITION_QUERY = 
+            "SELECT * FROM "
+            + SCHEMA + "." + PROGRAM_ENTITIES_TABLE
+            + " WHERE file_name_key_fk = ?"
+            + " AND start_line_number <= ? AND end_line_number >= ?"
+            + " AND (start_line_number < ? OR start_column <= ?)"
+            + " AND (end_line_number > ? OR end_column >= ?)"
+            + " AND " + PROJECT_SCOPE
+            + POSITION_ORDER;
+    
+    private static final String ENTITIES_WITHIN_LINES_QUERY = 
+            "SELECT * FROM "
+            + SCHEMA + "." + PROGRAM_ENTITIES_TABLE
+            + " WHERE file_name_key_fk = ?"
+            + " AND start_line_number BETWEEN ? AND ? AND end_line_number <= ?"
+            + " AND " + PROJECT_SCOPE
+            + POSITION_ORDER;
+    
+    private static final String ENTITIES_IN_FILE_QUERY = 
+            "SELECT * FROM "
+            + SCHEMA + "." + PROGRAM_ENTITIES_TABLE
+            + " WHERE file_name_key_fk = ?"
+            + " AND " + PROJECT_SCOPE
+            + POSITION_ORDER;
+
     private static final String TYPE_NAME_QUERY =
             "SELECT type_name FROM "
             + SCHEMA + "." + TYPE_NAMES_TABLE
@@ -410,11 +710,16 @@ class EntityDatabaseManager {
             + SCHEMA + "." + PACKAGES_TABLE 
             + " WHERE project_key_fk = ?";
     
-    private static final String PACKAGE_NAME_KEY_QUERY = 
+    static final String PACKAGE_NAME_KEY_QUERY = 
             "SELECT package_name_key_fk FROM "  
             + SCHEMA + "." + PACKAGES_TABLE 
             + " WHERE package_key = ?";
     
+    private static final String PACKAGES_FOR_PROJECT_QUERY = 
+            "SELECT package_key, package_name_key_fk FROM "  
+            + SCHEMA + "." + PACKAGES_TABLE 
+            + " WHERE project_key_fk = ?";
+    
     private static final String NAMED_PACKAGE_KEY_QUERY = 
             "SELECT package_key FROM "  
             + SCHEMA + "." + PACKAGES_TABLE 
@@ -428,24 +733,24 @@ class EntityDatabaseManager {
     private static final String PROGRAM_ENTITY_BY_PROJECT_QUERY = 
             "SELECT * FROM "
             + SCHEMA + "." + PROGRAM_ENTITIES_TABLE
-            + " WHERE project_key_fk = ?";
+            + " WHERE " + PROJECT_SCOPE;
     
     private static final String CLASS_NAME_KEYS_FOR_PACKAGE_QUERY = 
             "SELECT identifier_name_key_fk FROM "
             + SCHEMA + "." + PROGRAM_ENTITIES_TABLE 
-            + " WHERE project_key_fk = ? AND package_key_fk = ? "
-            + "AND species_name_key_fk = ?"; // DO NOT hard code the species key
+            + " WHERE " + PROJECT_PACKAGE_SCOPE
+            + " AND species_name_key_fk = ?"; // DO NOT hard code the species key
     
-        private static final String MODIFIER_KEYS_QUERY = 
-            "SELECT modifier_key_fk FROM "
-            + SCHEMA + "." + MODIFIERS_XREF_TABLE   
-            + " WHERE program_entity_key_fk = ?";
+    private static final String ENTITY_MODIFIERS_QUERY = 
+            "SELECT " + MODIFIERS_MASK + " AS modifiers FROM "
+            + SCHEMA + "." + PROGRAM_ENTITIES_TABLE   
+            + " WHERE program_entity_key = ?";
     
     private static final String ALL_CLASS_DATA_FOR_PROJECT_QUERY = 
             "SELECT * FROM " 
             + SCHEMA + "." + PROGRAM_ENTITIES_TABLE 
             + " WHERE species_name_key_fk = ? "
-            + " AND project_key_fk = ?";
+            + " AND " + PROJECT_SCOPE;
     
     private static final String ALL_NAMES_FOR_SPECIES_QUERY = 
             "SELECT identifier_name_key_fk FROM "
@@ -456,12 +761,19 @@ class EntityDatabaseManager {
             "SELECT identifier_name_key_fk FROM "
             + SCHEMA + "." + PROGRAM_ENTITIES_TABLE
             + " WHERE species_name_key_fk = ?" 
-            + " AND project_key_fk = ?";
+            + " AND " + PROJECT_SCOPE;
+    
+    private static final String ALL_NAMES_FOR_SPECIES_BY_PROJECT_AND_MODIFIER_QUERY = 
+            "SELECT identifier_name_key_fk FROM "
+            + SCHEMA + "." + PROGRAM_ENTITIES_TABLE
+            + " WHERE species_name_key_fk = ?" 
+            + " AND " + PROJECT_SCOPE
+            + " AND MOD(" + MODIFIERS_MASK + " / ?, 2) = 1";
     
     private static final String ALL_NAMES_FOR_PROJECT_QUERY = 
             "SELECT identifier_name_key_fk FROM "
             + SCHEMA + "." + PROGRAM_ENTITIES_TABLE 
-            + " WHERE project_key_fk = ?";
+            + " WHERE " + PROJECT_SCOPE;
     
     private static final String ALL_NAMES_QUERY = 
             "SELECT identifier_name_key FROM "
@@ -470,12 +782,44 @@ class EntityDatabaseManager {
     private static final String ALL_IDENTIFIER_DATA_FOR_PROJECT =
             "SELECT identifier_name_key_fk, species_name_key_fk, type_name_key_fk FROM "
             + SCHEMA + "." + PROGRAM_ENTITIES_TABLE 
-            + " WHERE project_key_fk = ?";
+            + " WHERE " + PROJECT_SCOPE;
     
     private static final String ALL_PROGRAM_ENTITIES_BY_SPECIES_FOR_PROJECT_QUERY = 
             "SELECT * FROM "
             + SCHEMA + "." + PROGRAM_ENTITIES_TABLE 
-            + " WHERE project_key_fk = ? AND species_name_key_fk = ?";
+            + " WHERE " + PROJECT_SCOPE + " AND species_name_key_fk = ?";
+
+    // facet counts
+    private static final String SPECIES_FACET_QUERY = 
+            "SELECT species_name_key_fk, COUNT(*), COUNT(DISTINCT identifier_name_key_fk) FROM "
+            + SCHEMA + "." + PROGRAM_ENTITIES_TABLE 
+            + " WHERE " + PROJECT_SCOPE 
+            + " GROUP BY species_name_key_fk";
+    
+    // modifiers are separated by the caller
+    private static final String MODIFIER_FACET_QUERY = 
+            "SELECT modifiers, identifier_name_key_fk, COUNT(*) FROM"
+            + " (SELECT " + MODIFIERS_MASK + " AS modifiers, identifier_name_key_fk FROM "
+            + SCHEMA + "." + PROGRAM_ENTITIES_TABLE 
+            + " WHERE " + PROJECT_SCOPE + ") m"
+            + " WHERE modifiers <> 0"
+            + " GROUP BY modifiers, identifier_name_key_fk";
+    
+    // grouped by name as shared entities may use another version's package key
+    private static final String PACKAGE_FACET_QUERY = 
+            "SELECT k.package_name_key_fk, COUNT(*), COUNT(DISTINCT p.identifier_name_key_fk) FROM "
+            + SCHEMA + "." + PROGRAM_ENTITIES_TABLE + " p, "
+            + SCHEMA + "." + PACKAGES_TABLE + " k"
+            + " WHERE k.package_key = p.package_key_fk"
+            + " AND p." + PROJECT_SCOPE 
+            + " GROUP BY k.package_name_key_fk";
+    
+    // type groups are classified by the caller
+    private static final String TYPE_NAME_FACET_QUERY = 
+            "SELECT type_name_key_fk, identifier_name_key_fk, COUNT(*) FROM "
+            + SCHEMA + "." + PROGRAM_ENTITIES_TABLE 
+            + " WHERE " + PROJECT_SCOPE 
+            + " GROUP BY type_name_key_fk, identifier_name_key_fk";
 
     private static final String PROJECT_DETAILS_QUERY = 
             "SELECT project_name, project_version FROM "
@@ -491,17 +835,17 @@ class EntityDatabaseManager {
             "SELECT program_entity_key, container_uid, entity_uid, type_name_key_fk, "
             + "project_key_fk, "
             + "file_name_key_fk, start_line_number, start_column, "
-            + "end_line_number, end_column, "
+            + "end_line_number, end_column, " + MODIFIERS_MASK + " AS modifiers, "
             + "species_name_key_fk FROM "
             + SCHEMA + "." + PROGRAM_ENTITIES_TABLE
-            + " WHERE project_key_fk = ? AND package_key_fk = ? AND identifier_name_key_fk = ?"
+            + " WHERE " + PROJECT_PACKAGE_SCOPE + " AND identifier_name_key_fk = ?"
             + " AND species_name_key_fk in (3,10)"; // brittle -- may need more generic method for injecting species key value
     
     private static final String ENTITY_CANDIDATES_FOR_NAME_QUERY =
             "SELECT program_entity_key, project_key_fk, package_key_fk, "
             + "container_uid, entity_uid, type_name_key_fk, "
             + "file_name_key_fk, start_line_number, start_column, "
-            + "end_line_number, end_column, "
+            + "end_line_number, end_column, " + MODIFIERS_MASK + " AS modifiers, "
             + "species_name_key_fk FROM "
             + SCHEMA + "." + PROGRAM_ENTITIES_TABLE
             + " WHERE identifier_name_key_fk = ? and species_name_key_fk = ?"; 
@@ -517,15 +861,6 @@ class EntityDatabaseManager {
             + SCHEMA + "." + SUPER_TYPE_XREF_TABLE
             + " WHERE super_type_name_key_fk = ?";
     
-    private static final String INHERITABLE_ENTITY_BY_KEY_QUERY = 
-            "SELECT identifier_name_key_fk, project_key_fk, package_key_fk, "
-            + "container_uid, entity_uid, type_name_key_fk, "
-            + "file_name_key_fk, start_line_number, start_column, "
-            + "end_line_number, end_column, "
-            + "species_name_key_fk FROM "
-            + SCHEMA + "." + PROGRAM_ENTITIES_TABLE
-            + " WHERE program_entity_key = ?"; 
-            
     // ------------------------------------------
     
     static PreparedStatement sqlFileNameInsert = null;
@@ -559,8 +894,24 @@ class EntityDatabaseManager {
     static PreparedStatement sqlImplementsInterfaceInsert = null;
 
     static PreparedStatement sqlTypeNameHardWordXrefInsert = null;
-    
-    static PreparedStatement sqlModifierXrefInsert = null;
+
+    static PreparedStatement sqlFileDigestQuery = null;
+    static PreparedStatement sqlFileDigestInsert = null;
+    static PreparedStatement sqlFileDigestDelete = null;
+    static PreparedStatement sqlFileModifiersXrefDelete = null;
+    static PreparedStatement sqlFileSuperClassXrefDelete = null;
+    static PreparedStatement sqlFileSuperTypeXrefDelete = null;
+    static PreparedStatement sqlFileProgramEntitiesDelete = null;
+
+    static PreparedStatement sqlEntityVersionInsert = null;
+    static PreparedStatement sqlIdenticalEntityQuery = null;
+    static PreparedStatement sqlEntitySuperClassNamesQuery = null;
+    static PreparedStatement sqlEntitySuperTypeNamesQuery = null;
+    static PreparedStatement sqlFileEntityVersionsDelete = null;
+    static PreparedStatement sqlUnsharedModifiersXrefDelete = null;
+    static PreparedStatement sqlUnsharedSuperClassXrefDelete = null;
+    static PreparedStatement sqlUnsharedSuperTypeXrefDelete = null;
+    static PreparedStatement sqlUnsharedProgramEntitiesDelete = null;
     
     
     // Reader query statements
@@ -575,6 +926,7 @@ class EntityDatabaseManager {
     static PreparedStatement sqlPackageNameQuery = null;
     static PreparedStatement sqlPackageNameKeyQuery = null;
     static PreparedStatement sqlNamedPackageKeyQuery = null;
+    static PreparedStatement sqlPackagesForProjectQuery = null;
     
     
     static PreparedStatement sqlProjectsQuery = null;
@@ -585,7 +937,7 @@ class EntityDatabaseManager {
     static PreparedStatement sqlTypeNameIdentifierQuery = null;
     static PreparedStatement sqlTypeNameHardWordsXrefQuery = null;
 
-    static PreparedStatement sqlModifiersXrefQuery = null;
+    static PreparedStatement sqlEntityModifiersQuery = null;
     static PreparedStatement sqlClassNameKeysForPackageQuery = null;
     static PreparedStatement sqlMethodReturnTypeQuery = null;
     static PreparedStatement sqlMethodModifiersQuery = null;
@@ -602,6 +954,11 @@ class EntityDatabaseManager {
     
     static PreparedStatement sqlProgramEntitiesBySpeciesQuery = null;
     
+    static PreparedStatement sqlSpeciesFacetQuery = null;
+    static PreparedStatement sqlModifierFacetQuery = null;
+    static PreparedStatement sqlPackageFacetQuery = null;
+    static PreparedStatement sqlTypeNameFacetQuery = null;
+    
     // for extracting corpora
     static PreparedStatement sqlAllNamesForSpeciesQuery = null;
     static PreparedStatement sqlAllNamesForSpeciesByProjectQuery = null;
@@ -617,6 +974,14 @@ class EntityDatabaseManager {
     
     static PreparedStatement sqlAllEntitiesBySpeciesQuery = null;
     static PreparedStatement sqlAllEntitiesByProjectQuery = null;
+    static PreparedStatement sqlProgramEntitiesByKeysQuery = null;
+    static PreparedStatement sqlEntityKeysByUidsQuery = null;
+    static PreparedStatement sqlSuperClassNamesByKeysQuery = null;
+    static PreparedStatement sqlSuperTypeNamesByKeysQuery = null;
+    
+    static PreparedStatement sqlEntitiesAtPositionQuery = null;
+    static PreparedStatement sqlEntitiesWithinLinesQuery = null;
+    static PreparedStatement sqlEntitiesInFileQuery = null;
     
     // for mwnci
     static PreparedStatement sqlClassOrInterfaceForFqnQuery = null;
@@ -625,7 +990,6 @@ class EntityDatabaseManager {
     static PreparedStatement sqlTypeNameKeyByIdentifierNameKeyQuery = null;
     static PreparedStatement sqlSubClassKeyQuery = null;
     static PreparedStatement sqlSubTypeKeyQuery = null;
-    static PreparedStatement sqlInheritableProgramEntityQuery = null;
     
     static PreparedStatement sqlProjectDetailsQuery = null;
     
@@ -639,6 +1003,44 @@ class EntityDatabaseManager {
             "CALL SYSCS_UTIL.SYSCS_SET_DATABASE_PROPERTY"
             + "('derby.storage.pageCacheSize','40000')";
 
+    // ------- maintenance ----------------------------------------
+    private static final String derbyCompressTable =
+            "CALL SYSCS_UTIL.SYSCS_COMPRESS_TABLE(?, ?, 1)";
+
+    // purges deleted rows, defragments and truncates without a copy
+    private static final String derbyInPlaceCompressTable =
+            "CALL SYSCS_UTIL.SYSCS_INPLACE_COMPRESS_TABLE(?, ?, 1, 1, 1)";
+
+    private static final String derbyUpdateStatistics =
+            "CALL SYSCS_UTIL.SYSCS_UPDATE_STATISTICS(?, ?, NULL)";
+
+    private static final String derbyCheckpoint =
+            "CALL SYSCS_UTIL.SYSCS_CHECKPOINT_DATABASE()";
+
+    // pages of the table and its indexes
+    private static final String derbyAllocatedPages =
+            "SELECT SUM(numallocatedpages) "
+            + "FROM TABLE (SYSCS_DIAG.SPACE_TABLE('%s', '%s')) s";
+
+    private static final String[] OPTIMISED_TABLES = {
+            PROGRAM_ENTITIES_TABLE,
+            IDENTIFIER_NAMES_TABLE,
+            COMPONENT_WORDS_TABLE,
+            COMPONENT_WORDS_XREF_TABLE,
+            TYPE_NAMES_TABLE,
+            METHOD_SIGNATURES_TABLE,
+            PROJECT_TABLE,
+            PACKAGES_TABLE,
+            PACKAGE_NAMES_TABLE,
+            SPECIES_TABLE,
+            MODIFIERS_TABLE,
+            MODIFIERS_XREF_TABLE,
+            SUPER_CLASS_XREF_TABLE,
+            SUPER_TYPE_XREF_TABLE,
+            FILE_NAMES_TABLE,
+            FILE_DIGESTS_TABLE,
+            ENTITY_VERSIONS_TABLE };
+
     /**
      * Obtains a database connection. The database should have
      * been initialised previously.
@@ -674,7 +1076,7 @@ class EntityDatabaseManager {
 
             // NEED TO review and revise following when moving to multi-threaded
             // DataBaseWriters
-            connection = dataSource.getConnection();
+            connection = Metrics.instrument( dataSource.getConnection() );
 
             // set the derby values for page size and page cache size
             connection.prepareStatement(derbySetPageCacheSize).execute();
@@ -682,6 +1084,15 @@ class EntityDatabaseManager {
 
             // and switch off the auto-commit
             connection.setAutoCommit(false);
+            
+            deduplicated = readBooleanProperty( DEDUPLICATED_PROPERTY );
+            binaryUids = readBooleanProperty( BINARY_UIDS_PROPERTY );
+            
+            // the column is added when the database is next opened for writing
+            if ( ! columnExists( PROGRAM_ENTITIES_TABLE, "MODIFIERS" ) ) {
+                LOGGER.info( "Reading modifiers from {}", MODIFIERS_XREF_TABLE );
+                modifierBits = modifierBitsCase();
+            }
 
             createReaderPreparedStatements();
 
@@ -711,7 +1122,7 @@ class EntityDatabaseManager {
 
             // NEED TO review and revise following when moving to multi-threaded
             // DataBaseWriters
-            connection = dataSource.getConnection();
+            connection = Metrics.instrument( dataSource.getConnection() );
 
             // set the derby values for page size and page cache size
             connection.prepareStatement(derbySetPageCacheSize).execute();
@@ -731,10 +1142,19 @@ class EntityDatabaseManager {
                 // determine that there are no tables present?
                 createTables();
             }
+            
+            deduplicated = readBooleanProperty( DEDUPLICATED_PROPERTY );
+            binaryUids = readBooleanProperty( BINARY_UIDS_PROPERTY );
+            
+            upgradeSchema();
 
             // and switch off the auto-commit
             connection.setAutoCommit(false);
+            openedForWriting = true;
  
+            // a database open for writing can also be read; statements
+            // used by both are then the writer's
+            createReaderPreparedStatements();
             createWriterPreparedStatements();
             
             buildCaches();
@@ -745,7 +1165,9 @@ class EntityDatabaseManager {
             cacheIdentifierNamesAndKeys();
             
             cacheTokensAndKeys();
-            
+
+            cacheTokenSequences();
+
             cacheMethodSignatures();
             
             cacheTypeNames();
@@ -811,13 +1233,50 @@ class EntityDatabaseManager {
         sqlSuperClassInsert = connection.prepareStatement(SUPER_CLASS_INSERT_STATEMENT);
         sqlSuperTypeInsert = connection.prepareStatement(SUPER_TYPE_INSERT_STATEMENT);
 
-        sqlModifierXrefInsert = connection.prepareStatement(
-                MODIFIER_XREF_INSERT_STATEMENT, 
-                Statement.RETURN_GENERATED_KEYS);
-        
         sqlProgramEntityInsert = connection.prepareStatement(
                 PROGRAM_ENTITY_INSERT_STATEMENT, 
                 Statement.RETURN_GENERATED_KEYS);
+        
+        sqlFileDigestQuery = connection.prepareStatement(FILE_DIGEST_QUERY);
+        sqlFileDigestInsert = connection.prepareStatement(FILE_DIGEST_INSERT_STATEMENT);
+        sqlFileDigestDelete = connection.prepareStatement(FILE_DIGEST_DELETE_STATEMENT);
+        sqlFileModifiersXrefDelete = 
+                connection.prepareStatement(FILE_MODIFIERS_XREF_DELETE_STATEMENT);
+        sqlFileSuperClassXrefDelete = 
+                connection.prepareStatement(FILE_SUPER_CLASS_XREF_DELETE_STATEMENT);
+        sqlFileSuperTypeXrefDelete = 
+                connection.prepareStatement(FILE_SUPER_TYPE_XREF_DELETE_STATEMENT);
+        sqlFileProgramEntitiesDelete = 
+                connection.prepareStatement(FILE_PROGRAM_ENTITIES_DELETE_STATEMENT);
+        
+        if ( deduplicated ) {
+            sqlEntityVersionInsert = 
+                    connection.prepareStatement(ENTITY_VERSION_INSERT_STATEMENT);
+            sqlIdenticalEntityQuery = 
+                    connection.prepareStatement(IDENTICAL_ENTITY_QUERY);
+            sqlEntitySuperClassNamesQuery = 
+                    connection.prepareStatement(ENTITY_SUPER_CLASS_NAMES_QUERY);
+            sqlEntitySuperTypeNamesQuery = 
+                    connection.prepareStatement(ENTITY_SUPER_TYPE_NAMES_QUERY);
+            sqlFileEntityVersionsDelete = 
+                    connection.prepareStatement(FILE_ENTITY_VERSIONS_DELETE_STATEMENT);
+            sqlUnsharedModifiersXrefDelete = connection.prepareStatement(
+                    "DELETE FROM " + SCHEMA + "." + MODIFIERS_XREF_TABLE
+                    + " WHERE program_entity_key_fk IN (" 
+                    + UNSHARED_ENTITY_KEYS_FOR_FILE_SUBQUERY + ")" );
+            sqlUnsharedSuperClassXrefDelete = connection.prepareStatement(
+                    "DELETE FROM " + SCHEMA + "." + SUPER_CLASS_XREF_TABLE
+                    + " WHERE sub_class_entity_key_fk IN (" 
+                    + UNSHARED_ENTITY_KEYS_FOR_FILE_SUBQUERY + ")" );
+            sqlUnsharedSuperTypeXrefDelete = connection.prepareStatement(
+                    "DELETE FROM " + SCHEMA + "." + SUPER_TYPE_XREF_TABLE
+                    + " WHERE sub_type_entity_key_fk IN (" 
+                    + UNSHARED_ENTITY_KEYS_FOR_FILE_SUBQUERY + ")" );
+            sqlUnsharedProgramEntitiesDelete = connection.prepareStatement(
+                    "DELETE FROM " + SCHEMA + "." + PROGRAM_ENTITIES_TABLE
+                    + " WHERE program_entity_key IN (" 
+                    + UNSHARED_ENTITY_KEYS_FOR_FILE_SUBQUERY + ")" );
+        }
    }
 
     // Only prepared statements needed for the reader
@@ -863,33 +1322,47 @@ class EntityDatabaseManager {
             sqlSuperTypeQuery = connection.prepareStatement(SUPER_TYPE_QUERY);
 
             sqlNamedPackageKeyQuery = connection.prepareStatement( NAMED_PACKAGE_KEY_QUERY );
+            sqlPackagesForProjectQuery = connection.prepareStatement( PACKAGES_FOR_PROJECT_QUERY );
             
-            sqlClassNameKeysForPackageInProjectQuery = connection.prepareStatement( CLASS_NAME_KEYS_FOR_PACKAGE_QUERY );
+            sqlClassNameKeysForPackageInProjectQuery = connection.prepareStatement( scoped( CLASS_NAME_KEYS_FOR_PACKAGE_QUERY ) );
                     
-            sqlModifiersXrefQuery = connection.prepareStatement(MODIFIER_KEYS_QUERY);
+            sqlEntityModifiersQuery = connection.prepareStatement( scoped( ENTITY_MODIFIERS_QUERY ) );
                         
-            sqlAllClassDataQuery = connection.prepareStatement( ALL_CLASS_DATA_FOR_PROJECT_QUERY );
+            sqlAllClassDataQuery = connection.prepareStatement( scoped( ALL_CLASS_DATA_FOR_PROJECT_QUERY ) );
             
             sqlAllNamesForSpeciesQuery = connection.prepareStatement(ALL_NAMES_FOR_SPECIES_QUERY);
-            sqlAllNamesForSpeciesByProjectQuery = connection.prepareStatement(ALL_NAMES_FOR_SPECIES_BY_PROJECT_QUERY);
-            sqlAllNamesForProjectQuery = connection.prepareStatement(ALL_NAMES_FOR_PROJECT_QUERY);
+            sqlAllNamesForSpeciesByProjectQuery = connection.prepareStatement( scoped( ALL_NAMES_FOR_SPECIES_BY_PROJECT_QUERY ) );
+            sqlAllNamesForSpeciesByProjectAndModifierQuery = connection.prepareStatement( scoped( ALL_NAMES_FOR_SPECIES_BY_PROJECT_AND_MODIFIER_QUERY ) );
+            sqlAllNamesForProjectQuery = connection.prepareStatement( scoped( ALL_NAMES_FOR_PROJECT_QUERY ) );
             sqlAllNamesQuery = connection.prepareStatement(ALL_NAMES_QUERY);
             
-            sqlAllIdentifierDataQuery = connection.prepareStatement(ALL_IDENTIFIER_DATA_FOR_PROJECT);
+            sqlAllIdentifierDataQuery = connection.prepareStatement( scoped( ALL_IDENTIFIER_DATA_FOR_PROJECT ) );
+            
+            sqlProgramEntitiesBySpeciesQuery = connection.prepareStatement( scoped( ALL_PROGRAM_ENTITIES_BY_SPECIES_FOR_PROJECT_QUERY ) );
             
-            sqlProgramEntitiesBySpeciesQuery = connection.prepareStatement( ALL_PROGRAM_ENTITIES_BY_SPECIES_FOR_PROJECT_QUERY );
+            sqlSpeciesFacetQuery = connection.prepareStatement( scoped( SPECIES_FACET_QUERY ) );
+            sqlModifierFacetQuery = connection.prepareStatement( scoped( MODIFIER_FACET_QUERY ) );
+            sqlPackageFacetQuery = connection.prepareStatement( scoped( PACKAGE_FACET_QUERY ) );
+            sqlTypeNameFacetQuery = connection.prepareStatement( scoped( TYPE_NAME_FACET_QUERY ) );
             
-            sqlClassOrInterfaceForFqnQuery = connection.prepareStatement( CLASS_OR_INTERFACE_FOR_FQN_QUERY );
-            sqlEntityCandidatesForNameQuery = connection.prepareStatement( ENTITY_CANDIDATES_FOR_NAME_QUERY );
+            sqlClassOrInterfaceForFqnQuery = connection.prepareStatement( scoped( CLASS_OR_INTERFACE_FOR_FQN_QUERY ) );
+            sqlEntityCandidatesForNameQuery = connection.prepareStatement( scoped( ENTITY_CANDIDATES_FOR_NAME_QUERY ) );
             sqlTypeNameKeyByIdentifierNameKeyQuery = connection.prepareStatement( TYPE_NAME_KEY_BY_IDENTIFIER_NAME_KEY_QUERY );
             sqlSubClassKeyQuery = connection.prepareStatement( SUB_CLASS_KEY_QUERY );
             sqlSubTypeKeyQuery = connection.prepareStatement( SUB_TYPE_KEY_QUERY );
-            sqlInheritableProgramEntityQuery = connection.prepareStatement( INHERITABLE_ENTITY_BY_KEY_QUERY );
             
             sqlProjectDetailsQuery = connection.prepareStatement( PROJECT_DETAILS_QUERY );
             
-            sqlAllEntitiesBySpeciesQuery = connection.prepareStatement( PROGRAM_ENTITY_BY_SPECIES_QUERY );
-            sqlAllEntitiesByProjectQuery = connection.prepareStatement( PROGRAM_ENTITY_BY_PROJECT_QUERY );
+            sqlAllEntitiesBySpeciesQuery = connection.prepareStatement( scoped( PROGRAM_ENTITY_BY_SPECIES_QUERY ) );
+            sqlAllEntitiesByProjectQuery = connection.prepareStatement( scoped( PROGRAM_ENTITY_BY_PROJECT_QUERY ) );
+            sqlProgramEntitiesByKeysQuery = connection.prepareStatement( scoped( PROGRAM_ENTITIES_BY_KEYS_QUERY ) );
+            sqlEntityKeysByUidsQuery = connection.prepareStatement( scoped( ENTITY_KEYS_BY_UIDS_QUERY ) );
+            sqlSuperClassNamesByKeysQuery = connection.prepareStatement( SUPER_CLASS_NAMES_BY_KEYS_QUERY );
+            sqlSuperTypeNamesByKeysQuery = connection.prepareStatement( SUPER_TYPE_NAMES_BY_KEYS_QUERY );
+            
+            sqlEntitiesAtPositionQuery = connection.prepareStatement( scoped( ENTITIES_AT_POSITION_QUERY ) );
+            sqlEntitiesWithinLinesQuery = connection.prepareStatement( scoped( ENTITIES_WITHIN_LINES_QUERY ) );
+            sqlEntitiesInFileQuery = connection.prepareStatement( scoped( ENTITIES_IN_FILE_QUERY ) );
     }
 
 
@@ -897,10 +1370,443 @@ class EntityDatabaseManager {
     // this acts.
     static synchronized void shutdown() {
         LOGGER.info("Shutting down database.");
+        Connection readConnection;
+        while ( ( readConnection = readConnections.poll() ) != null ) {
+            closeReadConnection( readConnection );
+        }
         dataSource.setShutdownDatabase("shutdown");
     }
 
 
+    /**
+     * Drops a project's membership of shared program entities and hands 
+     * each entity it owns that is still a member of another version to 
+     * the earliest such version, so that the entity survives the deletion
+     * of the project's own rows.
+     * @param projectKey a database key for a project
+     */
+    private synchronized static void transferSharedEntities( int projectKey ) 
+            throws SQLException {
+        String versions = SCHEMA + "." + ENTITY_VERSIONS_TABLE;
+        executeUpdate( 
+                "DELETE FROM " + versions + " WHERE project_key_fk = ?",
+                projectKey );
+        int transferCount = executeUpdate( 
+                "UPDATE " + SCHEMA + "." + PROGRAM_ENTITIES_TABLE + " e"
+                        + " SET project_key_fk = (SELECT MIN(v.project_key_fk) FROM " 
+                        + versions + " v"
+                        + " WHERE v.program_entity_key_fk = e.program_entity_key)"
+                        + " WHERE e.project_key_fk = ? AND EXISTS (SELECT 1 FROM " 
+                        + versions + " v"
+                        + " WHERE v.program_entity_key_fk = e.program_entity_key)",
+                projectKey );
+        if ( transferCount > 0 ) {
+            // the package key belonged to the removed project
+            executeUpdate( 
+                    "UPDATE " + SCHEMA + "." + PROGRAM_ENTITIES_TABLE + " e"
+                            + " SET package_key_fk = (SELECT v.package_key_fk FROM " 
+                            + versions + " v"
+                            + " WHERE v.program_entity_key_fk = e.program_entity_key"
+                            + " AND v.project_key_fk = e.project_key_fk)"
+                            + " WHERE e.package_key_fk IN (SELECT package_key FROM " 
+                            + SCHEMA + "." + PACKAGES_TABLE + " WHERE project_key_fk = ?)"
+                            + " AND e.project_key_fk <> ?",
+                    projectKey, projectKey );
+        }
+        LOGGER.info( "Transferred {} shared program entities", transferCount );
+    }
+    
+    /**
+     * Deletes a project, its program entities and their cross references, 
+     * then deletes any names, tokens, signatures, package names and file 
+     * names no longer used by a program entity. The affected tables are 
+     * compressed to return the space to the operating system, and the 
+     * caches are rebuilt.
+     * @param projectKey a database key for a project
+     * @throws SQLException if the deletion fails, in which case it is 
+     * rolled back
+     */
+    static synchronized void removeProject( int projectKey ) throws SQLException {
+        LOGGER.info( "Removing project with key: {}", projectKey );
+        String entityKeys = 
+                "SELECT program_entity_key FROM " 
+                + SCHEMA + "." + PROGRAM_ENTITIES_TABLE
+                + " WHERE project_key_fk = ?";
+        
+        try {
+            if ( deduplicated ) {
+                transferSharedEntities( projectKey );
+            }
+            
+            // the project's own rows
+            executeUpdate( 
+                    "DELETE FROM " + SCHEMA + "." + MODIFIERS_XREF_TABLE 
+                            + " WHERE program_entity_key_fk IN (" + entityKeys + ")",
+                    projectKey );
+            executeUpdate( 
+                    "DELETE FROM " + SCHEMA + "." + SUPER_CLASS_XREF_TABLE 
+                            + " WHERE sub_class_entity_key_fk IN (" + entityKeys + ")",
+                    projectKey );
+            executeUpdate( 
+                    "DELETE FROM " + SCHEMA + "." + SUPER_TYPE_XREF_TABLE 
+                            + " WHERE sub_type_entity_key_fk IN (" + entityKeys + ")",
+                    projectKey );
+            if ( tableExists( FILE_DIGESTS_TABLE ) ) {
+                executeUpdate( 
+                        "DELETE FROM " + SCHEMA + "." + FILE_DIGESTS_TABLE 
+                                + " WHERE project_key_fk = ?",
+                        projectKey );
+            }
+            int entityCount = executeUpdate( 
+                    "DELETE FROM " + SCHEMA + "." + PROGRAM_ENTITIES_TABLE 
+                            + " WHERE project_key_fk = ?",
+                    projectKey );
+            executeUpdate( 
+                    "DELETE FROM " + SCHEMA + "." + PACKAGES_TABLE 
+                            + " WHERE project_key_fk = ?",
+                    projectKey );
+            executeUpdate( 
+                    "DELETE FROM " + SCHEMA + "." + PROJECT_TABLE 
+                            + " WHERE project_key = ?",
+                    projectKey );
+            LOGGER.info( "Deleted {} program entities", entityCount );
+            
+            // now the dictionaries, in dependency order
+            int typeNameCount = executeUpdate( 
+                    "DELETE FROM " + SCHEMA + "." + TYPE_NAMES_TABLE + " t"
+                            + " WHERE NOT EXISTS (SELECT 1 FROM " 
+                            + SCHEMA + "." + PROGRAM_ENTITIES_TABLE + " p"
+                            + " WHERE p.type_name_key_fk = t.type_name_key)"
+                            + " AND NOT EXISTS (SELECT 1 FROM " 
+                            + SCHEMA + "." + SUPER_CLASS_XREF_TABLE + " c"
+                            + " WHERE c.super_class_name_key_fk = t.type_name_key)"
+                            + " AND NOT EXISTS (SELECT 1 FROM " 
+                            + SCHEMA + "." + SUPER_TYPE_XREF_TABLE + " s"
+                            + " WHERE s.super_type_name_key_fk = t.type_name_key)" );
+            String unusedIdentifierNames = 
+                    "SELECT i.identifier_name_key FROM " 
+                    + SCHEMA + "." + IDENTIFIER_NAMES_TABLE + " i"
+                    + " WHERE NOT EXISTS (SELECT 1 FROM " 
+                    + SCHEMA + "." + PROGRAM_ENTITIES_TABLE + " p"
+                    + " WHERE p.identifier_name_key_fk = i.identifier_name_key)"
+                    + " AND NOT EXISTS (SELECT 1 FROM " 
+                    + SCHEMA + "." + TYPE_NAMES_TABLE + " t"
+                    + " WHERE t.identifier_name_key_fk = i.identifier_name_key)";
+            executeUpdate( 
+                    "DELETE FROM " + SCHEMA + "." + COMPONENT_WORDS_XREF_TABLE
+                            + " WHERE identifier_name_key_fk IN (" 
+                            + unusedIdentifierNames + ")" );
+            int identifierNameCount = executeUpdate( 
+                    "DELETE FROM " + SCHEMA + "." + IDENTIFIER_NAMES_TABLE
+                            + " WHERE identifier_name_key IN (" 
+                            + unusedIdentifierNames + ")" );
+            int componentWordCount = executeUpdate( 
+                    "DELETE FROM " + SCHEMA + "." + COMPONENT_WORDS_TABLE + " w"
+                            + " WHERE NOT EXISTS (SELECT 1 FROM " 
+                            + SCHEMA + "." + COMPONENT_WORDS_XREF_TABLE + " x"
+                            + " WHERE x.component_word_key_fk = w.component_word_key)" );
+            // method_signature_key_fk is nullable, and a NULL would make
+            // NOT IN match nothing
+            int methodSignatureCount = executeUpdate( 
+                    "DELETE FROM " + SCHEMA + "." + METHOD_SIGNATURES_TABLE + " m"
+                            + " WHERE NOT EXISTS (SELECT 1 FROM " 
+                            + SCHEMA + "." + PROGRAM_ENTITIES_TABLE + " p"
+                            + " WHERE p.method_signature_key_fk = m.method_signature_key)" );
+            executeUpdate( 
+                    "DELETE FROM " + SCHEMA + "." + PACKAGE_NAMES_TABLE + " n"
+                            + " WHERE NOT EXISTS (SELECT 1 FROM " 
+                            + SCHEMA + "." + PACKAGES_TABLE + " k"
+                            + " WHERE k.package_name_key_fk = n.package_name_key)" );
+            String unusedFileNames = 
+                    "DELETE FROM " + SCHEMA + "." + FILE_NAMES_TABLE + " f"
+                    + " WHERE NOT EXISTS (SELECT 1 FROM " 
+                    + SCHEMA + "." + PROGRAM_ENTITIES_TABLE + " p"
+                    + " WHERE p.file_name_key_fk = f.file_name_key)";
+            if ( tableExists( FILE_DIGESTS_TABLE ) ) {
+                unusedFileNames += 
+                        " AND NOT EXISTS (SELECT 1 FROM " 
+                        + SCHEMA + "." + FILE_DIGESTS_TABLE + " d"
+                        + " WHERE d.file_name_key_fk = f.file_name_key)";
+            }
+            executeUpdate( unusedFileNames );
+            
+            connection.commit();
+            LOGGER.info( 
+                    "Deleted {} unused identifier names, {} type names, "
+                            + "{} component words and {} method signatures",
+                    identifierNameCount, 
+                    typeNameCount, 
+                    componentWordCount, 
+                    methodSignatureCount );
+        }
+        catch ( SQLException sqlEx ) {
+            LOGGER.error(
+                    "Could not remove project: {}\n"
+                            + "SQL state: {}\nError code: {}",
+                    sqlEx.getMessage(), 
+                    sqlEx.getSQLState(), 
+                    sqlEx.getErrorCode() );
+            connection.rollback();
+            throw sqlEx;
+        }
+        
+        if ( Integer.valueOf( projectKey ).equals( 
+                JimDbConfiguration.getInstance().getProjectKey() ) ) {
+            JimDbConfiguration.getInstance().setProjectKey( null );
+        }
+        rebuildCaches();
+        
+        compressTables(
+                PROGRAM_ENTITIES_TABLE,
+                ENTITY_VERSIONS_TABLE,
+                FILE_DIGESTS_TABLE,
+                MODIFIERS_XREF_TABLE,
+                SUPER_CLASS_XREF_TABLE,
+                SUPER_TYPE_XREF_TABLE,
+                COMPONENT_WORDS_XREF_TABLE,
+                IDENTIFIER_NAMES_TABLE,
+                COMPONENT_WORDS_TABLE,
+                TYPE_NAMES_TABLE,
+                METHOD_SIGNATURES_TABLE,
+                PACKAGES_TABLE,
+                PACKAGE_NAMES_TABLE,
+                FILE_NAMES_TABLE );
+    }
+    
+    // returns space freed by deletions to the operating system, skipping
+    // the optional tables a database does not have
+    private synchronized static void compressTables( String... tableNames ) {
+        try ( PreparedStatement sqlCompressTable = connection.prepareStatement(
+                "CALL SYSCS_UTIL.SYSCS_COMPRESS_TABLE(?, ?, 1)" ) ) {
+            for ( String tableName : tableNames ) {
+                if ( ! tableExists( tableName ) ) {
+                    continue;
+                }
+                LOGGER.info( "Compressing table {}", tableName );
+                sqlCompressTable.setString( 1, SCHEMA );
+                sqlCompressTable.setString( 2, tableName );
+                sqlCompressTable.execute();
+                connection.commit();
+            }
+        }
+        catch ( SQLException sqlEx ) {
+            // the data is intact, only the space is not reclaimed
+            LOGGER.warn(
+                    "Table compression failed: {}\n"
+                            + "SQL state: {}\nError code: {}",
+                    sqlEx.getMessage(), 
+                    sqlEx.getSQLState(), 
+                    sqlEx.getErrorCode() );
+        }
+    }
+    
+    /**
+     * Compresses each table and updates the optimiser statistics of its 
+     * indexes, then checkpoints the database. Tables are optimised in 
+     * parallel, largest first, each on a connection of its own. A table 
+     * whose optimisation conflicts with another's over locks is optimised 
+     * again once the others are finished.
+     * @param inPlace {@code true} to compress tables in place, which 
+     *   needs no extra disk space but returns less to the operating system
+     * @return a description of the work done
+     * @throws SQLException if any table cannot be optimised, after the 
+     *   others have been
+     * @throws IllegalStateException if a transaction is open
+     */
+    static synchronized OptimisationReport optimise( boolean inPlace ) 
+            throws SQLException {
+        if ( inTransaction ) {
+            throw new IllegalStateException( 
+                    "Cannot optimise the database while a transaction is open" );
+        }
+        long start = System.nanoTime();
+        LOGGER.info( "Optimising database" );
+        
+        // the shared connection must not hold locks on the tables
+        connection.commit();
+        Map<String, Long> pagesBefore = new HashMap<>();
+        for ( String tableName : OPTIMISED_TABLES ) {
+            if ( tableExists( tableName ) ) {
+                pagesBefore.put( tableName, allocatedPages( connection, tableName ) );
+            }
+        }
+        connection.commit();
+        List<String> tableNames = new ArrayList<>( pagesBefore.keySet() );
+        tableNames.sort( Comparator.comparing( pagesBefore::get, Comparator.reverseOrder() ) );
+        
+        List<OptimisationReport.TableReport> tables = new ArrayList<>();
+        List<String> conflictingTableNames = new ArrayList<>();
+        List<String> failedTableNames = new ArrayList<>();
+        SQLException failure = null;
+        ExecutorService executor = Executors.newFixedThreadPool( Math.max( 1, 
+                Math.min( tableNames.size(), Runtime.getRuntime().availableProcessors() ) ) );
+        try {
+            Map<String, Future<OptimisationReport.TableReport>> futures = new LinkedHashMap<>();
+            for ( String tableName : tableNames ) {
+                futures.put( tableName, executor.submit( 
+                        () -> optimiseTable( tableName, pagesBefore.get( tableName ), inPlace ) ) );
+            }
+            for ( Map.Entry<String, Future<OptimisationReport.TableReport>> entry 
+                    : futures.entrySet() ) {
+                try {
+                    tables.add( entry.getValue().get() );
+                }
+                catch ( ExecutionException e ) {
+                    SQLException sqlEx = e.getCause() instanceof SQLException
+                            ? (SQLException) e.getCause()
+                            : new SQLException( "Optimisation failed", e.getCause() );
+                    if ( isLockConflict( sqlEx ) ) {
+                        conflictingTableNames.add( entry.getKey() );
+                    }
+                    else {
+                        failedTableNames.add( entry.getKey() );
+                        failure = failure == null ? sqlEx : failure;
+                    }
+                }
+            }
+        }
+        catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+            throw new SQLException( "Optimisation interrupted", e );
+        }
+        finally {
+            executor.shutdownNow();
+        }
+        
+        for ( String tableName : conflictingTableNames ) {
+            try {
+                tables.add( optimiseTable( tableName, pagesBefore.get( tableName ), inPlace ) );
+            }
+            catch ( SQLException sqlEx ) {
+                failedTableNames.add( tableName );
+                failure = failure == null ? sqlEx : failure;
+            }
+        }
+        
+        long checkpointStart = System.nanoTime();
+        try ( PreparedStatement sqlCheckpoint = connection.prepareStatement( derbyCheckpoint ) ) {
+            sqlCheckpoint.execute();
+        }
+        long end = System.nanoTime();
+        
+        if ( failure != null ) {
+            LOGGER.error(
+                    "Could not optimise tables {}: {}\n"
+                            + "SQL state: {}\nError code: {}",
+                    failedTableNames,
+                    failure.getMessage(), 
+                    failure.getSQLState(), 
+                    failure.getErrorCode() );
+            throw failure;
+        }
+        
+        OptimisationReport report = new OptimisationReport( 
+                tables, 
+                TimeUnit.NANOSECONDS.toMillis( end - checkpointStart ),
+                TimeUnit.NANOSECONDS.toMillis( end - start ) );
+        LOGGER.info( "Optimised database: {}", report );
+        return report;
+    }
+    
+    /**
+     * Borrows a read only connection for a parallel scan, which must be 
+     * handed back with {@linkplain #returnReadConnection(java.sql.Connection)}.
+     * Each connection commits after every statement, so a scan holds no 
+     * locks between reads. Called from pool threads, so does not 
+     * synchronise on the manager.
+     * @return a connection
+     * @throws SQLException if a connection cannot be opened
+     */
+    static Connection borrowReadConnection() throws SQLException {
+        Connection readConnection = readConnections.poll();
+        if ( readConnection == null ) {
+            readConnection = Metrics.instrument( dataSource.getConnection() );
+            readConnection.setReadOnly( true );
+        }
+        return readConnection;
+    }
+    
+    /**
+     * Returns a borrowed connection to the pool, or closes it where 
+     * enough are idle.
+     * @param readConnection a connection from 
+     * {@linkplain #borrowReadConnection()}
+     */
+    static void returnReadConnection( Connection readConnection ) {
+        if ( readConnections.size() < MAXIMUM_IDLE_READ_CONNECTIONS ) {
+            readConnections.offer( readConnection );
+        }
+        else {
+            closeReadConnection( readConnection );
+        }
+    }
+    
+    private static void closeReadConnection( Connection readConnection ) {
+        try {
+            readConnection.close();
+        }
+        catch ( SQLException sqlEx ) {
+            LOGGER.warn( "Could not close read connection: {}", sqlEx.getMessage() );
+        }
+    }
+    
+    // runs on a pool thread, so must not synchronise on the manager
+    private static OptimisationReport.TableReport optimiseTable( 
+            String tableName, long pagesBefore, boolean inPlace ) 
+            throws SQLException {
+        try ( Connection tableConnection = Metrics.instrument( dataSource.getConnection() ) ) {
+            long start = System.nanoTime();
+            try ( PreparedStatement sqlCompressTable = tableConnection.prepareStatement( 
+                    inPlace ? derbyInPlaceCompressTable : derbyCompressTable ) ) {
+                sqlCompressTable.setString( 1, SCHEMA );
+                sqlCompressTable.setString( 2, tableName );
+                sqlCompressTable.execute();
+            }
+            long compressed = System.nanoTime();
+            try ( PreparedStatement sqlUpdateStatistics = 
+                    tableConnection.prepareStatement( derbyUpdateStatistics ) ) {
+                sqlUpdateStatistics.setString( 1, SCHEMA );
+                sqlUpdateStatistics.setString( 2, tableName );
+                sqlUpdateStatistics.execute();
+            }
+            long updated = System.nanoTime();
+            
+            OptimisationReport.TableReport report = new OptimisationReport.TableReport(
+                    tableName,
+                    pagesBefore,
+                    allocatedPages( tableConnection, tableName ),
+                    TimeUnit.NANOSECONDS.toMillis( compressed - start ),
+                    TimeUnit.NANOSECONDS.toMillis( updated - compressed ) );
+            LOGGER.info( "Optimised {}", report );
+            return report;
+        }
+    }
+    
+    private static long allocatedPages( Connection tableConnection, String tableName ) 
+            throws SQLException {
+        try ( Statement statement = tableConnection.createStatement();
+                ResultSet resultSet = statement.executeQuery( 
+                        String.format( derbyAllocatedPages, SCHEMA, tableName ) ) ) {
+            return resultSet.next() ? resultSet.getLong( 1 ) : 0;
+        }
+    }
+    
+    // deadlocks and lock timeouts
+    private static boolean isLockConflict( SQLException sqlEx ) {
+        return "40001".equals( sqlEx.getSQLState() ) 
+                || "40XL1".equals( sqlEx.getSQLState() );
+    }
+    
+    private synchronized static int executeUpdate( String sql, int... parameters ) 
+            throws SQLException {
+        try ( PreparedStatement statement = connection.prepareStatement( sql ) ) {
+            for ( int i = 0; i < parameters.length; i++ ) {
+                statement.setInt( i + 1, parameters[ i ] );
+            }
+            return statement.executeUpdate();
+        }
+    }
+
     // create the data tables and populate the read only tables
     private synchronized static void createTables() throws SQLException {
         LOGGER.info("Creating database tables.");
@@ -961,38 +1867,620 @@ class EntityDatabaseManager {
     }
 
     
-    private synchronized static void populateSpeciesTable() throws SQLException {
-         try (PreparedStatement statement = connection.prepareStatement(
-                 "INSERT INTO " + SCHEMA + "." + SPECIES_TABLE
-                         + " (species_name) VALUES(?)")) {
-            for (Species species : Species.values()) {
-                 statement.setString(1, species.description());
-                 statement.execute();
+    // Creates tables added to the schema since the original release, so 
+    // that databases created by earlier versions can be written to.
+    private synchronized static void upgradeSchema() throws SQLException {
+        if ( ! tableExists( FILE_DIGESTS_TABLE ) ) {
+            LOGGER.info( "Adding table {} to the database.", FILE_DIGESTS_TABLE );
+            try ( PreparedStatement statement = 
+                    connection.prepareStatement( SQL_CREATE_FILE_DIGESTS_TABLE ) ) {
+                statement.execute();
             }
         }
-        connection.commit();
+        
+        if ( ! columnExists( PROGRAM_ENTITIES_TABLE, "MODIFIERS" ) ) {
+            addModifiersColumn();
+        }
+        
+        createProgramEntitiesIndex( ENTITY_POSITION_INDEX, SQL_CREATE_ENTITY_POSITION_INDEX );
+        createProgramEntitiesIndex( ENTITY_UID_INDEX, SQL_CREATE_ENTITY_UID_INDEX );
+        
+        if ( deduplicated ) {
+            createDeduplicationTables();
+        }
     }
-
-    private synchronized static void populateModifiersTable() throws SQLException {
-         try (PreparedStatement statement = connection.prepareStatement(
-                 "INSERT INTO " + SCHEMA + "." + MODIFIERS_TABLE
-                         + " (modifier) VALUES(?)")) {
-             for (Modifier modifier : Modifier.values()) {
-                 statement.setString(1, modifier.description() );
-                 statement.execute();
+    
+    /**
+     * Adds the modifiers bit mask column to the program entities table and 
+     * fills it from the modifiers cross reference table, which is no longer
+     * written to.
+     */
+    private synchronized static void addModifiersColumn() throws SQLException {
+        LOGGER.info( "Adding modifiers column to {}", PROGRAM_ENTITIES_TABLE );
+        String bits = modifierBitsCase();
+        
+        // the schema may be upgraded before auto-commit is switched off
+        boolean autoCommit = connection.getAutoCommit();
+        connection.setAutoCommit( false );
+        try {
+            executeUpdate( 
+                    "ALTER TABLE " + SCHEMA + "." + PROGRAM_ENTITIES_TABLE 
+                            + " ADD COLUMN modifiers INT NOT NULL DEFAULT 0" );
+            int rowCount = executeUpdate( 
+                    "UPDATE " + SCHEMA + "." + PROGRAM_ENTITIES_TABLE + " e"
+                            + " SET modifiers = (SELECT COALESCE(SUM(" + bits + "), 0) FROM " 
+                            + SCHEMA + "." + MODIFIERS_XREF_TABLE + " x"
+                            + " WHERE x.program_entity_key_fk = e.program_entity_key)"
+                            + " WHERE EXISTS (SELECT 1 FROM " 
+                            + SCHEMA + "." + MODIFIERS_XREF_TABLE + " x"
+                            + " WHERE x.program_entity_key_fk = e.program_entity_key)" );
+            connection.commit();
+            modifierBits = null;
+            LOGGER.info( "Recorded modifiers for {} program entities", rowCount );
+        }
+        catch ( SQLException sqlEx ) {
+            connection.rollback();
+            throw sqlEx;
+        }
+        finally {
+            connection.setAutoCommit( autoCommit );
+        }
+    }
+    
+    // the bit for each modifier key of the cross reference table aliased x
+    private synchronized static String modifierBitsCase() throws SQLException {
+        StringBuilder bits = new StringBuilder( "CASE x.modifier_key_fk" );
+        try ( PreparedStatement sqlModifierKeysQuery = connection.prepareStatement( 
+                "SELECT modifier_key FROM " + SCHEMA + "." + MODIFIERS_TABLE ) ) {
+            ResultSet resultSet = sqlModifierKeysQuery.executeQuery();
+            while ( resultSet.next() ) {
+                int modifierKey = resultSet.getInt( 1 );
+                bits.append( " WHEN " ).append( modifierKey )
+                        .append( " THEN " ).append( ModifierCache.bitFor( modifierKey ) );
             }
         }
-        connection.commit();
+        return bits.append( " ELSE 0 END" ).toString();
     }
     
-    // The following cache* methods are repetitive.
-    // It is possible to replace most of them with a single generic method that
-    // takes a *Cache instance and a query as an argument.
-    // However, it won't work with the Singleton cache implementations
-    // as they are.
-
-    private synchronized static void cacheIdentifierNamesAndKeys() {
-        // first the identifier names
+    private synchronized static boolean columnExists( String tableName, String columnName ) 
+            throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        try ( ResultSet resultSet = 
+                metaData.getColumns( null, SCHEMA, tableName, columnName ) ) {
+            return resultSet.next();
+        }
+    }
+    
+    private synchronized static void createDeduplicationTables() throws SQLException {
+        if ( ! tableExists( ENTITY_VERSIONS_TABLE ) ) {
+            LOGGER.info( "Adding table {} to the database.", ENTITY_VERSIONS_TABLE );
+            try ( PreparedStatement statement = 
+                    connection.prepareStatement( SQL_CREATE_ENTITY_VERSIONS_TABLE ) ) {
+                statement.execute();
+            }
+        }
+    }
+    
+    private synchronized static void createProgramEntitiesIndex( String indexName, String sql ) 
+            throws SQLException {
+        if ( ! indexExists( PROGRAM_ENTITIES_TABLE, indexName ) ) {
+            LOGGER.info( "Adding index {} to the database.", indexName );
+            try ( PreparedStatement statement = connection.prepareStatement( sql ) ) {
+                statement.execute();
+            }
+        }
+    }
+    
+    private synchronized static boolean indexExists( String tableName, String indexName ) 
+            throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        try ( ResultSet resultSet = 
+                metaData.getIndexInfo( null, SCHEMA, tableName, false, true ) ) {
+            while ( resultSet.next() ) {
+                if ( indexName.equals( resultSet.getString( "INDEX_NAME" ) ) ) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Creates the condition restricting a query on the program entities 
+     * table to a project. The condition has a single parameter, the 
+     * project key.
+     * @param alias the alias of the program entities table in the query
+     * @return an SQL condition
+     */
+    static String projectScope( String alias ) {
+        return scoped( alias + "." + PROJECT_SCOPE );
+    }
+    
+    /**
+     * Creates the expression for the modifiers bit mask of an entity, 
+     * which is summed from the modifier rows of a database opened for 
+     * reading before the modifiers column was added.
+     * @param alias the alias of the program entities table in the query
+     * @return an SQL expression
+     */
+    static String modifiersOf( String alias ) {
+        if ( modifierBits == null ) {
+            return alias + ".modifiers";
+        }
+        
+        // each modifier appears once for an entity, so the sum of bits is the mask
+        return "(SELECT COALESCE(SUM(" + modifierBits + "), 0) FROM " 
+                + SCHEMA + "." + MODIFIERS_XREF_TABLE + " x"
+                + " WHERE x.program_entity_key_fk = " + alias + ".program_entity_key)";
+    }
+    
+    /**
+     * Creates the select list for all the columns of the program entities 
+     * table, including the modifiers bit mask.
+     * @param alias the alias of the program entities table in the query
+     * @return an SQL select list
+     */
+    static String entityColumns( String alias ) {
+        if ( modifierBits == null ) {
+            return alias + ".*";
+        }
+        
+        return alias + ".*, " + modifiersOf( alias ) + " AS modifiers";
+    }
+    
+    /**
+     * Retrieves a prepared statement for the text of a compiled entity 
+     * query. Statements are kept for reuse, so the same text is only 
+     * prepared once while it remains in use.
+     * @param sql the text of a query
+     * @return a prepared statement
+     * @throws SQLException if the statement cannot be prepared
+     */
+    static synchronized PreparedStatement getQueryPlan( String sql ) throws SQLException {
+        PreparedStatement statement = queryPlans.get( sql );
+        if ( statement == null ) {
+            statement = connection.prepareStatement( sql );
+            queryPlans.put( sql, statement );
+        }
+        return statement;
+    }
+    
+    private static void clearQueryPlans() {
+        queryPlans.values().forEach( EntityDatabaseManager::closeQueryPlan );
+        queryPlans.clear();
+    }
+    
+    private static void closeQueryPlan( PreparedStatement statement ) {
+        try {
+            statement.close();
+        }
+        catch ( SQLException sqlEx ) {
+            LOGGER.warn( "Could not close query plan: {}", sqlEx.getMessage() );
+        }
+    }
+    
+    // completes the project scope and modifiers placeholders in a query
+    private static String scoped( String sql ) {
+        String table = SCHEMA + "." + PROGRAM_ENTITIES_TABLE;
+        sql = sql
+                .replace( "SELECT * FROM " + table, "SELECT " + entityColumns( table ) + " FROM " + table )
+                .replace( MODIFIERS_MASK, modifiersOf( table ) );
+        if ( deduplicated ) {
+            String versions = 
+                    "program_entity_key IN (SELECT program_entity_key_fk FROM " 
+                    + SCHEMA + "." + ENTITY_VERSIONS_TABLE
+                    + " WHERE project_key_fk = ?";
+            return sql
+                    .replace( PROJECT_PACKAGE_SCOPE, versions + " AND package_key_fk = ?)" )
+                    .replace( PROJECT_SCOPE, versions + ")" );
+        }
+        
+        return sql
+                .replace( PROJECT_PACKAGE_SCOPE, "project_key_fk = ? AND package_key_fk = ?" )
+                .replace( PROJECT_SCOPE, "project_key_fk = ?" );
+    }
+    
+    private synchronized static boolean readBooleanProperty( String property ) 
+            throws SQLException {
+        try ( PreparedStatement statement = connection.prepareStatement( 
+                "VALUES SYSCS_UTIL.SYSCS_GET_DATABASE_PROPERTY(?)" ) ) {
+            statement.setString( 1, property );
+            try ( ResultSet resultSet = statement.executeQuery() ) {
+                return resultSet.next() 
+                        && Boolean.parseBoolean( resultSet.getString( 1 ) );
+            }
+        }
+    }
+    
+    /**
+     * Indicates whether program entities are shared between versions of 
+     * a project.
+     * @return {@code true} if storage is deduplicated
+     */
+    static synchronized boolean isDeduplicated() {
+        return deduplicated;
+    }
+    
+    /**
+     * Switches the database to deduplicated storage. Entities already 
+     * stored are recorded as members of their own project, and entities 
+     * stored from now on are shared with any identical entity in another 
+     * version. The setting is stored in the database and cannot be undone.
+     * @throws SQLException if the database cannot be converted, in which
+     * case it is unchanged
+     * @throws IllegalStateException if the database is not open for writing
+     */
+    static synchronized void enableDeduplication() throws SQLException {
+        if ( ! openedForWriting ) {
+            throw new IllegalStateException( 
+                    "Database must be opened for writing to enable deduplication" );
+        }
+        if ( deduplicated ) {
+            return;
+        }
+        
+        LOGGER.info( "Converting database to deduplicated storage" );
+        try {
+            createDeduplicationTables();
+            int rowCount = executeUpdate( 
+                    "INSERT INTO " + SCHEMA + "." + ENTITY_VERSIONS_TABLE
+                            + "(project_key_fk, program_entity_key_fk, package_key_fk) "
+                            + "SELECT project_key_fk, program_entity_key, package_key_fk FROM "
+                            + SCHEMA + "." + PROGRAM_ENTITIES_TABLE );
+            try ( PreparedStatement statement = connection.prepareStatement( 
+                    "CALL SYSCS_UTIL.SYSCS_SET_DATABASE_PROPERTY(?, 'true')" ) ) {
+                statement.setString( 1, DEDUPLICATED_PROPERTY );
+                statement.execute();
+            }
+            connection.commit();
+            LOGGER.info( "Recorded {} existing entities as project members", rowCount );
+        }
+        catch ( SQLException sqlEx ) {
+            connection.rollback();
+            throw sqlEx;
+        }
+        
+        deduplicated = true;
+        createReaderPreparedStatements();
+        createWriterPreparedStatements();
+    }
+    
+    /**
+     * Indicates whether uids are stored as bit data.
+     * @return {@code true} if uids are stored in binary form
+     */
+    static synchronized boolean hasBinaryUids() {
+        return binaryUids;
+    }
+    
+    /**
+     * Converts the container and entity uid columns of the program 
+     * entities table to bit data, encoding the uids already stored. The 
+     * setting is stored in the database and cannot be undone.
+     * @throws SQLException if the database cannot be converted, in which
+     * case it is unchanged
+     * @throws IllegalStateException if the database is not open for writing
+     */
+    static synchronized void enableBinaryUids() throws SQLException {
+        if ( ! openedForWriting ) {
+            throw new IllegalStateException( 
+                    "Database must be opened for writing to store binary uids" );
+        }
+        if ( binaryUids ) {
+            return;
+        }
+        
+        LOGGER.info( "Converting uids to binary storage" );
+        String table = SCHEMA + "." + PROGRAM_ENTITIES_TABLE;
+        boolean isUidIndexed = indexExists( PROGRAM_ENTITIES_TABLE, ENTITY_UID_INDEX );
+        int rowCount = 0;
+        try {
+            executeUpdate( "ALTER TABLE " + table 
+                    + " ADD COLUMN binary_container_uid " + BINARY_UID_TYPE );
+            executeUpdate( "ALTER TABLE " + table 
+                    + " ADD COLUMN binary_entity_uid " + BINARY_UID_TYPE );
+            
+            try ( PreparedStatement sqlUidsQuery = connection.prepareStatement( 
+                    "SELECT program_entity_key, container_uid, entity_uid FROM " + table );
+                    PreparedStatement sqlUidsUpdate = connection.prepareStatement( 
+                    "UPDATE " + table 
+                            + " SET binary_container_uid = ?, binary_entity_uid = ?"
+                            + " WHERE program_entity_key = ?" ) ) {
+                ResultSet resultSet = sqlUidsQuery.executeQuery();
+                while ( resultSet.next() ) {
+                    setBinaryUid( sqlUidsUpdate, 1, resultSet.getString( 2 ) );
+                    setBinaryUid( sqlUidsUpdate, 2, resultSet.getString( 3 ) );
+                    sqlUidsUpdate.setInt( 3, resultSet.getInt( 1 ) );
+                    sqlUidsUpdate.addBatch();
+                    if ( ++rowCount % UID_CONVERSION_BATCH_SIZE == 0 ) {
+                        sqlUidsUpdate.executeBatch();
+                    }
+                }
+                sqlUidsUpdate.executeBatch();
+            }
+            
+            if ( isUidIndexed ) {
+                executeUpdate( "DROP INDEX " + SCHEMA + "." + ENTITY_UID_INDEX );
+            }
+            executeUpdate( "ALTER TABLE " + table + " DROP COLUMN container_uid" );
+            executeUpdate( "ALTER TABLE " + table + " DROP COLUMN entity_uid" );
+            executeUpdate( "RENAME COLUMN " + table 
+                    + ".binary_container_uid TO container_uid" );
+            executeUpdate( "RENAME COLUMN " + table 
+                    + ".binary_entity_uid TO entity_uid" );
+            if ( isUidIndexed ) {
+                executeUpdate( SQL_CREATE_ENTITY_UID_INDEX );
+            }
+            
+            try ( PreparedStatement statement = connection.prepareStatement( 
+                    "CALL SYSCS_UTIL.SYSCS_SET_DATABASE_PROPERTY(?, 'true')" ) ) {
+                statement.setString( 1, BINARY_UIDS_PROPERTY );
+                statement.execute();
+            }
+            connection.commit();
+            LOGGER.info( "Converted the uids of {} program entities", rowCount );
+        }
+        catch ( SQLException sqlEx ) {
+            connection.rollback();
+            throw sqlEx;
+        }
+        
+        // the statements prepared against the old columns bind and read 
+        // character data, and fail once Derby recompiles them
+        binaryUids = true;
+        createReaderPreparedStatements();
+        createWriterPreparedStatements();
+        clearQueryPlans();
+    }
+    
+    /**
+     * Sets a uid parameter in the form used by the database.
+     * @param statement a statement with a uid parameter
+     * @param parameterIndex the index of the parameter
+     * @param uid a uid, or {@code null}
+     * @throws SQLException if the parameter cannot be set
+     */
+    static void setUid( PreparedStatement statement, int parameterIndex, String uid ) 
+            throws SQLException {
+        if ( binaryUids ) {
+            setBinaryUid( statement, parameterIndex, uid );
+        }
+        else {
+            statement.setString( parameterIndex, uid );
+        }
+    }
+    
+    /**
+     * Retrieves a uid from a result set.
+     * @param resultSet a result set positioned on a row
+     * @param columnLabel the name of a uid column
+     * @return the uid, or {@code null}
+     * @throws SQLException if the column cannot be read
+     */
+    static String getUid( ResultSet resultSet, String columnLabel ) throws SQLException {
+        return binaryUids 
+                ? UidCodec.decode( resultSet.getBytes( columnLabel ) )
+                : resultSet.getString( columnLabel );
+    }
+    
+    private static String getUid( ResultSet resultSet, int columnIndex ) throws SQLException {
+        return binaryUids 
+                ? UidCodec.decode( resultSet.getBytes( columnIndex ) )
+                : resultSet.getString( columnIndex );
+    }
+    
+    private static void setBinaryUid( 
+            PreparedStatement statement, int parameterIndex, String uid ) 
+            throws SQLException {
+        if ( uid == null ) {
+            statement.setNull( parameterIndex, Types.VARBINARY );
+        }
+        else {
+            statement.setBytes( parameterIndex, UidCodec.encode( uid ) );
+        }
+    }
+    
+    private synchronized static boolean tableExists( String tableName ) 
+            throws SQLException {
+        DatabaseMetaData metaData = connection.getMetaData();
+        try ( ResultSet resultSet = 
+                metaData.getTables( null, SCHEMA, tableName, null ) ) {
+            return resultSet.next();
+        }
+    }
+    
+    /**
+     * Groups subsequent writes into a single transaction. While the 
+     * transaction is open the writer does not commit after each insert.
+     */
+    static synchronized void beginTransaction() {
+        inTransaction = true;
+        writeFailure = null;
+        for ( DatabaseKeyCache cache : journalledCaches() ) {
+            cache.startJournal();
+        }
+        EntityBitmapIndex.getInstance().startJournal();
+        ContainmentIndexCache.getInstance().startJournal();
+        ProjectContextCache.getInstance().startJournal();
+    }
+    
+    /**
+     * Records a write that failed and was logged rather than thrown. 
+     * Within a transaction the failure prevents the commit, so that a 
+     * file is never recorded as stored with entities missing.
+     * @param sqlEx the failure
+     */
+    static synchronized void recordWriteFailure( SQLException sqlEx ) {
+        if ( inTransaction && writeFailure == null ) {
+            writeFailure = sqlEx;
+        }
+    }
+    
+    /**
+     * Indicates whether writes are being grouped into a transaction.
+     * @return {@code true} if a transaction is open
+     */
+    static synchronized boolean isInTransaction() {
+        return inTransaction;
+    }
+    
+    /**
+     * Commits the open transaction.
+     * @throws SQLException if a write in the transaction failed or the 
+     * commit fails, in which case the transaction is rolled back
+     */
+    static synchronized void commitTransaction() throws SQLException {
+        if ( writeFailure != null ) {
+            SQLException failure = new SQLException( 
+                    "Transaction not committed as a write failed: " + writeFailure.getMessage(),
+                    writeFailure.getSQLState(),
+                    writeFailure.getErrorCode(),
+                    writeFailure );
+            rollbackTransaction();
+            throw failure;
+        }
+        try {
+            connection.commit();
+            inTransaction = false;
+            for ( DatabaseKeyCache cache : journalledCaches() ) {
+                cache.endJournal();
+            }
+            EntityBitmapIndex.getInstance().endJournal();
+            ContainmentIndexCache.getInstance().endJournal();
+            ProjectContextCache.getInstance().endJournal();
+        }
+        catch ( SQLException sqlEx ) {
+            rollbackTransaction();
+            throw sqlEx;
+        }
+    }
+    
+    /**
+     * Abandons the open transaction. The keys the caches gained during the 
+     * transaction are removed, as are indexes and contexts loaded during 
+     * it, so that the caches hold no rows that no longer exist.
+     */
+    static synchronized void rollbackTransaction() {
+        inTransaction = false;
+        writeFailure = null;
+        try {
+            connection.rollback();
+        }
+        catch ( SQLException sqlEx ) {
+            LOGGER.error(
+                    "Transaction rollback failed: {}\n"
+                            + "SQL state: {}\nError code: {}",
+                    sqlEx.getMessage(), 
+                    sqlEx.getSQLState(), 
+                    sqlEx.getErrorCode() );
+        }
+        for ( DatabaseKeyCache cache : journalledCaches() ) {
+            cache.rollBackJournal();
+        }
+        EntityBitmapIndex.getInstance().rollBackJournal();
+        ContainmentIndexCache.getInstance().rollBackJournal();
+        ProjectContextCache.getInstance().rollBackJournal();
+    }
+    
+    // the caches that gain keys as entities are stored; projects are 
+    // recorded outside a file's transaction
+    private static DatabaseKeyCache[] journalledCaches() {
+        return new DatabaseKeyCache[] {
+            IdentifierNameCache.getInstance(),
+            TokenCache.getInstance(),
+            MethodSignatureCache.getInstance(),
+            TypeNameCache.getInstance(),
+            PackageNameCache.getInstance(),
+            PackageCache.getInstance(),
+            FileNameCache.getInstance()
+        };
+    }
+    
+    private synchronized static void rebuildCaches() {
+        LOGGER.info( "Rebuilding caches" );
+        IdentifierNameCache.getInstance().clear();
+        TokenCache.getInstance().clear();
+        MethodSignatureCache.getInstance().clear();
+        TypeNameCache.getInstance().clear();
+        PackageNameCache.getInstance().clear();
+        PackageCache.getInstance().clear();
+        FileNameCache.getInstance().clear();
+        ProjectKeyStore.getInstance().clear();
+        EntityBitmapIndex.getInstance().clear();
+        ContainmentIndexCache.getInstance().clear();
+        ProjectContextCache.getInstance().clear();
+        buildCaches();
+        
+        Integer projectKey = JimDbConfiguration.getInstance().getProjectKey();
+        if ( projectKey != null ) {
+            cachePackagesForProject( projectKey );
+        }
+    }
+    
+    /**
+     * Loads the packages already recorded for a project into the 
+     * {@linkplain PackageCache} so that a writer can add to an existing 
+     * project without duplicating its packages.
+     * @param projectKey a database key for a project
+     */
+    synchronized static void cachePackagesForProject( int projectKey ) {
+        PackageCache packageCache = PackageCache.getInstance();
+        PackageNameCache packageNameCache = PackageNameCache.getInstance();
+        try {
+            try ( PreparedStatement sqlPackagesQuery = 
+                    connection.prepareStatement( PACKAGES_FOR_PROJECT_QUERY ) ) {
+                sqlPackagesQuery.setInt( 1, projectKey );
+                ResultSet resultSet = sqlPackagesQuery.executeQuery();
+                while ( resultSet.next() ) {
+                    packageCache.put(
+                            resultSet.getInt( "package_key" ),
+                            packageNameCache.get( 
+                                    resultSet.getInt( "package_name_key_fk" ) ) );
+                }
+            }
+        }
+        catch (SQLException sqlEx) {
+            LOGGER.warn(
+                    "Packages cache query failed: {}\n"
+                            + "SQL state: {}\nError code: {}",
+                    sqlEx.getMessage(), 
+                    sqlEx.getSQLState(), 
+                    sqlEx.getErrorCode() );
+        }
+    }
+    
+    private synchronized static void populateSpeciesTable() throws SQLException {
+         try (PreparedStatement statement = connection.prepareStatement(
+                 "INSERT INTO " + SCHEMA + "." + SPECIES_TABLE
+                         + " (species_name) VALUES(?)")) {
+            for (Species species : Species.values()) {
+                 statement.setString(1, species.description());
+                 statement.execute();
+            }
+        }
+        connection.commit();
+    }
+
+    private synchronized static void populateModifiersTable() throws SQLException {
+         try (PreparedStatement statement = connection.prepareStatement(
+                 "INSERT INTO " + SCHEMA + "." + MODIFIERS_TABLE
+                         + " (modifier) VALUES(?)")) {
+             for (Modifier modifier : Modifier.values()) {
+                 statement.setString(1, modifier.description() );
+                 statement.execute();
+            }
+        }
+        connection.commit();
+    }
+    
+    // The following cache* methods are repetitive.
+    // It is possible to replace most of them with a single generic method that
+    // takes a *Cache instance and a query as an argument.
+    // However, it won't work with the Singleton cache implementations
+    // as they are.
+
+    private synchronized static void cacheIdentifierNamesAndKeys() {
+        // first the identifier names
         LOGGER.info("Caching identifier names and keys");
         IdentifierNameCache cache = IdentifierNameCache.getInstance();
         try {
@@ -1117,6 +2605,42 @@ class EntityDatabaseManager {
                 cache.size());
     }
 
+    // loads the whole component words xref table in one pass, replacing
+    // a query per identifier name when tokens are recovered
+    private synchronized static void cacheTokenSequences() {
+        LOGGER.info( "Caching token sequences" );
+        TokenSequenceStore store = TokenSequenceStore.getInstance();
+        store.clear();
+        try {
+            try (PreparedStatement sqlTokenSequencesQuery =
+                    connection.prepareStatement(
+                            "SELECT identifier_name_key_fk, component_word_key_fk FROM "
+                            + SCHEMA
+                            + "."
+                            + COMPONENT_WORDS_XREF_TABLE
+                            + " ORDER BY identifier_name_key_fk, position")) {
+                ResultSet resultSet = sqlTokenSequencesQuery.executeQuery();
+                while (resultSet.next() == true) {
+                    store.append(
+                            resultSet.getInt( 1 ),
+                            resultSet.getInt( 2 ) );
+                }
+            }
+        }
+        catch (SQLException sqlEx) {
+            LOGGER.warn(
+                    "Token sequence query failed: {}\nSQL state: {}\nError code: {}",
+                    sqlEx.getMessage(),
+                    sqlEx.getSQLState(),
+                    sqlEx.getErrorCode() );
+            return; // fail here
+        }
+
+        LOGGER.info(
+                "{} token sequence entries cached",
+                store.size());
+    }
+
     private synchronized static void cacheMethodSignatures() {
         LOGGER.info("Caching method signatures");
         MethodSignatureCache cache = MethodSignatureCache.getInstance();
@@ -1244,6 +2768,303 @@ class EntityDatabaseManager {
         
     }
    
+    /**
+     * Loads the project name and version, and the names of all the 
+     * packages recorded for a project.
+     * @param projectKey a database key for a project
+     * @return a project context, or {@code null} if the project details 
+     * cannot be recovered
+     */
+    synchronized static ProjectContext loadProjectContext( int projectKey ) {
+        String projectName;
+        String projectVersion;
+        HashMap<Integer,String> packageNames = new HashMap<>();
+        PackageNameCache packageNameCache = PackageNameCache.getInstance();
+        
+        try {
+            sqlProjectDetailsQuery.setInt( 1, projectKey );
+            try ( ResultSet resultSet = sqlProjectDetailsQuery.executeQuery() ) {
+                if ( resultSet.next() == false ) {
+                    LOGGER.warn( "No project found with key: {}", projectKey );
+                    return null;
+                }
+                projectName = resultSet.getString( "project_name" );
+                projectVersion = resultSet.getString( "project_version" );
+            }
+            
+            sqlPackagesForProjectQuery.setInt( 1, projectKey );
+            try ( ResultSet resultSet = sqlPackagesForProjectQuery.executeQuery() ) {
+                while ( resultSet.next() ) {
+                    packageNames.put(
+                            resultSet.getInt( "package_key" ),
+                            packageNameCache.get( 
+                                    resultSet.getInt( "package_name_key_fk" ) ) );
+                }
+            }
+        }
+        catch (SQLException sqlEx) {
+            LOGGER.error(
+                    "Could not load context for project: {}\n"
+                            + "SQL state: {}\nError code: {}",
+                    sqlEx.getMessage(), 
+                    sqlEx.getSQLState(), 
+                    sqlEx.getErrorCode() );
+            return null;
+        }
+        
+        LOGGER.debug(
+                "Loaded context for project \"{} {}\" with {} packages",
+                projectName, 
+                projectVersion, 
+                packageNames.size() );
+        
+        return new ProjectContext( 
+                projectKey, 
+                projectName, 
+                projectVersion, 
+                packageNames );
+    }
+   
+    /**
+     * Reads the program entities of a project into primitive columns. Rows
+     * are ordered by program entity key and names are left as keys.
+     * @param projectKey a database key for a project
+     * @return the columns for the project, or {@code null} if they cannot
+     * be read
+     */
+    synchronized static ProjectEntityColumns loadProjectEntityColumns( int projectKey ) {
+        ProjectEntityColumns columns;
+        
+        try {
+            int rowCount = 0;
+            try ( PreparedStatement sqlCountQuery = connection.prepareStatement( scoped( 
+                    "SELECT COUNT(*) FROM " + SCHEMA + "." + PROGRAM_ENTITIES_TABLE
+                            + " WHERE " + PROJECT_SCOPE ) ) ) {
+                sqlCountQuery.setInt( 1, projectKey );
+                ResultSet resultSet = sqlCountQuery.executeQuery();
+                if ( resultSet.next() ) {
+                    rowCount = resultSet.getInt( 1 );
+                }
+            }
+            
+            columns = new ProjectEntityColumns( projectKey, rowCount );
+            
+            // shared entities take their package from this project's membership
+            String packageColumn;
+            String entitySource;
+            if ( deduplicated ) {
+                packageColumn = "v.package_key_fk";
+                entitySource = SCHEMA + "." + PROGRAM_ENTITIES_TABLE + " e, "
+                        + SCHEMA + "." + ENTITY_VERSIONS_TABLE + " v "
+                        + "WHERE v.program_entity_key_fk = e.program_entity_key "
+                        + "AND v.project_key_fk = ? ";
+            }
+            else {
+                packageColumn = "e.package_key_fk";
+                entitySource = SCHEMA + "." + PROGRAM_ENTITIES_TABLE + " e "
+                        + "WHERE e.project_key_fk = ? ";
+            }
+            try ( PreparedStatement sqlEntitiesQuery = connection.prepareStatement( 
+                    "SELECT e.program_entity_key, e.identifier_name_key_fk, "
+                            + "e.species_name_key_fk, e.type_name_key_fk, "
+                            + packageColumn + ", e.file_name_key_fk, "
+                            + "e.method_signature_key_fk, e.container_uid, e.entity_uid, "
+                            + "e.is_anonymous, e.is_array, e.is_loop_control_var, "
+                            + "e.start_line_number, e.start_column, "
+                            + "e.end_line_number, e.end_column, " + modifiersOf( "e" ) + " "
+                            + "FROM " + entitySource
+                            + "ORDER BY e.program_entity_key" ) ) {
+                sqlEntitiesQuery.setInt( 1, projectKey );
+                ResultSet resultSet = sqlEntitiesQuery.executeQuery();
+                int[] modifierKeys = new int[ Math.max( 16, rowCount ) ];
+                int modifierCount = 0;
+                int row = 0;
+                // rows added between the count and this query are ignored
+                while ( row < rowCount && resultSet.next() ) {
+                    columns.programEntityKeys[ row ] = resultSet.getInt( 1 );
+                    columns.identifierNameKeys[ row ] = resultSet.getInt( 2 );
+                    columns.speciesKeys[ row ] = resultSet.getInt( 3 );
+                    columns.typeNameKeys[ row ] = resultSet.getInt( 4 );
+                    columns.packageKeys[ row ] = resultSet.getInt( 5 );
+                    columns.fileNameKeys[ row ] = resultSet.getInt( 6 );
+                    columns.methodSignatureKeys[ row ] = resultSet.getInt( 7 );
+                    columns.containerUids[ row ] = getUid( resultSet, 8 );
+                    columns.entityUids[ row ] = getUid( resultSet, 9 );
+                    columns.isAnonymous[ row ] = resultSet.getBoolean( 10 );
+                    columns.isArray[ row ] = resultSet.getBoolean( 11 );
+                    columns.isLoopControlVariable[ row ] = resultSet.getBoolean( 12 );
+                    columns.startLineNumbers[ row ] = resultSet.getInt( 13 );
+                    columns.startColumns[ row ] = resultSet.getInt( 14 );
+                    columns.endLineNumbers[ row ] = resultSet.getInt( 15 );
+                    columns.endColumns[ row ] = resultSet.getInt( 16 );
+                    
+                    int modifiers = resultSet.getInt( 17 );
+                    if ( modifierCount + Integer.bitCount( modifiers ) > modifierKeys.length ) {
+                        modifierKeys = Arrays.copyOf( modifierKeys, modifierKeys.length * 2 );
+                    }
+                    while ( modifiers != 0 ) {
+                        modifierKeys[ modifierCount++ ] = 
+                                Integer.numberOfTrailingZeros( modifiers ) + 1;
+                        modifiers &= modifiers - 1;
+                    }
+                    row++;
+                    columns.modifierOffsets[ row ] = modifierCount;
+                }
+                // fewer rows than counted leaves the tail empty
+                while ( row < rowCount ) {
+                    row++;
+                    columns.modifierOffsets[ row ] = modifierCount;
+                }
+                columns.modifierKeys = modifierKeys;
+            }
+        }
+        catch (SQLException sqlEx) {
+            LOGGER.error(
+                    "Could not read entity columns for project: {}\n"
+                            + "SQL state: {}\nError code: {}",
+                    sqlEx.getMessage(), 
+                    sqlEx.getSQLState(), 
+                    sqlEx.getErrorCode() );
+            return null;
+        }
+        
+        return columns;
+    }
+    
+    /**
+     * Reads the names of the super classes, or the super types, of every
+     * program entity that has them.
+     * @param isSuperTypes {@code true} to read super types rather than
+     * super classes
+     * @return a map of program entity keys to the identifier name keys of
+     * their super classes or types, or {@code null} if they cannot be read
+     */
+    synchronized static HashMap<Integer, int[]> loadSuperNameKeys( boolean isSuperTypes ) {
+        HashMap<Integer, int[]> superNameKeys = new HashMap<>();
+        try ( PreparedStatement sqlSuperNamesQuery = connection.prepareStatement( 
+                isSuperTypes ? ALL_SUPER_TYPE_NAMES_QUERY : ALL_SUPER_CLASS_NAMES_QUERY );
+                ResultSet resultSet = sqlSuperNamesQuery.executeQuery() ) {
+            while ( resultSet.next() ) {
+                int nameKey = resultSet.getInt( 2 );
+                superNameKeys.merge( 
+                        resultSet.getInt( 1 ), 
+                        new int[] { nameKey }, 
+                        (keys, added) -> {
+                            int[] merged = Arrays.copyOf( keys, keys.length + 1 );
+                            merged[ keys.length ] = nameKey;
+                            return merged;
+                        } );
+            }
+        }
+        catch (SQLException sqlEx) {
+            LOGGER.error(
+                    "Could not read super names: {}\n"
+                            + "SQL state: {}\nError code: {}",
+                    sqlEx.getMessage(), 
+                    sqlEx.getSQLState(), 
+                    sqlEx.getErrorCode() );
+            return null;
+        }
+        
+        return superNameKeys;
+    }
+   
+    /**
+     * Loads the species, type, project and modifier of every program entity
+     * into an index.
+     * @param index the index to load
+     * @return {@code true} if the index was loaded
+     */
+    /**
+     * Builds the containment index of a project.
+     * @param projectKey key of a project
+     * @return the index, or {@code null} if the entities could not be read
+     */
+    synchronized static ContainmentIndex loadContainmentIndex( int projectKey ) {
+        int[] programEntityKeys = new int[ 1024 ];
+        int[] speciesKeys = new int[ 1024 ];
+        String[] containerUids = new String[ 1024 ];
+        String[] entityUids = new String[ 1024 ];
+        int rowCount = 0;
+        
+        try ( PreparedStatement sqlEntitiesQuery = connection.prepareStatement( scoped( 
+                "SELECT program_entity_key, species_name_key_fk, container_uid, entity_uid "
+                        + "FROM " + SCHEMA + "." + PROGRAM_ENTITIES_TABLE
+                        + " WHERE " + PROJECT_SCOPE
+                        + " ORDER BY program_entity_key" ) ) ) {
+            sqlEntitiesQuery.setInt( 1, projectKey );
+            ResultSet resultSet = sqlEntitiesQuery.executeQuery();
+            while ( resultSet.next() ) {
+                if ( rowCount == programEntityKeys.length ) {
+                    programEntityKeys = Arrays.copyOf( programEntityKeys, rowCount * 2 );
+                    speciesKeys = Arrays.copyOf( speciesKeys, rowCount * 2 );
+                    containerUids = Arrays.copyOf( containerUids, rowCount * 2 );
+                    entityUids = Arrays.copyOf( entityUids, rowCount * 2 );
+                }
+                programEntityKeys[ rowCount ] = resultSet.getInt( 1 );
+                speciesKeys[ rowCount ] = resultSet.getInt( 2 );
+                containerUids[ rowCount ] = getUid( resultSet, 3 );
+                entityUids[ rowCount ] = getUid( resultSet, 4 );
+                rowCount++;
+            }
+        }
+        catch (SQLException sqlEx) {
+            LOGGER.error(
+                    "Could not load containment index: {}\n"
+                            + "SQL state: {}\nError code: {}",
+                    sqlEx.getMessage(), 
+                    sqlEx.getSQLState(), 
+                    sqlEx.getErrorCode() );
+            return null;
+        }
+        
+        return new ContainmentIndex( 
+                programEntityKeys, speciesKeys, containerUids, entityUids, rowCount );
+    }
+    
+    synchronized static boolean loadEntityBitmapIndex( EntityBitmapIndex index ) {
+        LOGGER.info( "Loading entity bitmap index" );
+        try {
+            try ( PreparedStatement sqlEntitiesQuery = connection.prepareStatement( 
+                    "SELECT program_entity_key, project_key_fk, "
+                            + "species_name_key_fk, type_name_key_fk, "
+                            + modifiersOf( SCHEMA + "." + PROGRAM_ENTITIES_TABLE ) + " "
+                            + "FROM " + SCHEMA + "." + PROGRAM_ENTITIES_TABLE ) ) {
+                ResultSet resultSet = sqlEntitiesQuery.executeQuery();
+                while ( resultSet.next() ) {
+                    index.addEntity( 
+                            resultSet.getInt( 1 ), 
+                            resultSet.getInt( 2 ), 
+                            resultSet.getInt( 3 ), 
+                            resultSet.getInt( 4 ),
+                            resultSet.getInt( 5 ) );
+                }
+            }
+            
+            if ( deduplicated ) {
+                try ( PreparedStatement sqlVersionsQuery = connection.prepareStatement( 
+                        "SELECT program_entity_key_fk, project_key_fk "
+                                + "FROM " + SCHEMA + "." + ENTITY_VERSIONS_TABLE ) ) {
+                    ResultSet resultSet = sqlVersionsQuery.executeQuery();
+                    while ( resultSet.next() ) {
+                        index.addToProject( resultSet.getInt( 1 ), resultSet.getInt( 2 ) );
+                    }
+                }
+            }
+        }
+        catch (SQLException sqlEx) {
+            LOGGER.error(
+                    "Could not load entity bitmap index: {}\n"
+                            + "SQL state: {}\nError code: {}",
+                    sqlEx.getMessage(), 
+                    sqlEx.getSQLState(), 
+                    sqlEx.getErrorCode() );
+            return false;
+        }
+        
+        return true;
+    }
+   
     private synchronized static void cacheFileNames() {
         FileNameCache cache = FileNameCache.getInstance();
         try {
@@ -22,11 +22,20 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.EnumMap;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.function.Consumer;
+import java.util.function.IntFunction;
+import java.util.function.ObjIntConsumer;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import uk.ac.open.crc.idtk.Modifier;
@@ -49,8 +58,10 @@ class EntityDatabaseReader {
     private final ModifierCache modifierCache;
     private final PackageNameCache packageNameCache;
     private final ProjectKeyStore projectKeyStore;
+    private final ProjectContextCache projectContextCache;
     private final SpeciesCache speciesCache;
     private final TypeNameCache typeNameCache;
+    private final TokenSequenceStore tokenSequenceStore;
 
     EntityDatabaseReader() {
         this.connection = EntityDatabaseManager.getConnection();
@@ -63,8 +74,10 @@ class EntityDatabaseReader {
         this.modifierCache = ModifierCache.getInstance();
         this.packageNameCache = PackageNameCache.getInstance();
         this.projectKeyStore = ProjectKeyStore.getInstance();
+        this.projectContextCache = ProjectContextCache.getInstance();
         this.speciesCache = SpeciesCache.getInstance();
         this.typeNameCache = TypeNameCache.getInstance();
+        this.tokenSequenceStore = TokenSequenceStore.getInstance();
     }
 
     ArrayList<String> getProjectsList() {
@@ -82,40 +95,17 @@ class EntityDatabaseReader {
                     identifierName );
         }
         else {
-            try {
-                PreparedStatement componentWordsXrefQuery = 
-                        EntityDatabaseManager.sqlComponentWordsXrefQuery;
-                componentWordsXrefQuery.setInt( 1, identifierNameKey );
-
-                ResultSet resultSet = componentWordsXrefQuery.executeQuery();
-                HashMap<Integer, Integer> components = new HashMap<>();
-                while ( resultSet.next() ) {
-                    components.put(
-                            resultSet.getInt( "position" ) - 1,
-                            resultSet.getInt( "component_word_key_fk" ) );
-                }
-
-                String[] words = new String[components.size()];
-
-                for ( int index = 0; index < components.size(); index++ ) {
-                    words[index] = this.tokenCache.get( components.get( index ) );
-                }
-
-                componentWords = new ArrayList<>( Arrays.asList( words ) );
-            }
-            catch ( SQLException sqlEx ) {
-                LOGGER.error(
-                        "Could not recover component words for \"{}\": "
-                                + "{}\nSQL state: {}\nError code: {}",
-                        identifierName, 
-                        sqlEx.getMessage(), 
-                        sqlEx.getSQLState(), 
-                        sqlEx.getErrorCode() );
-            }
+            componentWords = tokensFor( identifierNameKey.intValue() );
         }
         return componentWords;
     }
 
+    // the token sequences are cached when the database is opened, so
+    // no query is needed here
+    ArrayList<String> tokensFor( int identifierNameKey ) {
+        return this.tokenSequenceStore.tokensFor( identifierNameKey, this.tokenCache );
+    }
+
     ArrayList<String> getPackageNamesForProject( String projectName ) {
         ArrayList<String> packageNames = new ArrayList<>();
 
@@ -210,6 +200,7 @@ class EntityDatabaseReader {
                 new ArrayList<>();
 
         int projectKey = this.projectKeyStore.get( projectNameAndVersion );
+        ProjectContext projectContext = this.projectContextCache.get( projectKey );
 
         try {
             PreparedStatement sqlAllClassDataQuery = 
@@ -231,18 +222,18 @@ class EntityDatabaseReader {
                             this.identifierNameCache.get( identifierNameKey );
                 }
 
-                String packageName = getPackageNameFor( packageKey );
+                String packageName = getPackageNameFor( projectContext, packageKey );
 
                 // recover the tokens
                 ArrayList<String> tokens = 
-                        tokensFor( identifierName );
+                        tokensFor( identifierNameKey );
 
                 // get the modifiers
                 ArrayList<Modifier> modifierList = 
-                        getModifierList( programEntityKey );
+                        this.modifierCache.modifiersFor( resultSet.getInt( "modifiers" ) );
 
-                String containerUid = resultSet.getString( "container_uid" );
-                String entityUid = resultSet.getString( "entity_uid" );
+                String containerUid = EntityDatabaseManager.getUid( resultSet, "container_uid" );
+                String entityUid = EntityDatabaseManager.getUid( resultSet, "entity_uid" );
                 int typeNameKey = resultSet.getInt( "type_name_key_fk" );
                 String type = this.typeNameCache.get( typeNameKey );
                 String resolveableType = null;  // for the moment
@@ -256,9 +247,6 @@ class EntityDatabaseReader {
                 int endLineNumber = resultSet.getInt( "end_line_number" );
                 int endColumn = resultSet.getInt( "end_column" );
                 
-                // recover project name and version 
-                ProjectDetails projectDetails = getProjectDetails( projectKey );
-                
                 // get the parents and their tokens
                 HashMap<String, ArrayList<String>> superClasses = 
                         buildSuperClassesMap( programEntityKey );
@@ -267,8 +255,8 @@ class EntityDatabaseReader {
 
                 // create a class name data object and add it to the list
                 classNameData.add(new InheritableProgramEntity(
-                        projectDetails.name(),
-                        projectDetails.version(),
+                        projectContext.name(),
+                        projectContext.version(),
                         identifierName,
                         packageName,
                         tokens,
@@ -343,6 +331,7 @@ class EntityDatabaseReader {
 
         int projectKey = this.projectKeyStore.get( projectName );
         int speciesKey = this.speciesCache.get( species.description() );
+        ProjectContext projectContext = this.projectContextCache.get( projectKey );
 
         try {
             PreparedStatement sqlEntitiesBySpeciesQuery = 
@@ -355,19 +344,21 @@ class EntityDatabaseReader {
             while ( resultSet.next() ) {
                 int programEntityKey = resultSet.getInt( "program_entity_key" );
                 // gather the data
+                int identifierNameKey = resultSet.getInt( "identifier_name_key_fk" );
                 String identifierName = 
-                        this.identifierNameCache.get( resultSet.getInt( "identifier_name_key_fk" ) );
+                        this.identifierNameCache.get( identifierNameKey );
                 String packageName = 
-                        this.getPackageNameFor( resultSet.getInt( "package_key_fk" ) );
-                ArrayList<String> componentWords = this.tokensFor( identifierName );
+                        this.getPackageNameFor( 
+                                projectContext, 
+                                resultSet.getInt( "package_key_fk" ) );
+                ArrayList<String> componentWords = this.tokensFor( identifierNameKey );
                 ArrayList<Modifier> accessModifiers = 
-                        this.getModifierList( programEntityKey );
-                String containerUid = resultSet.getString( "container_uid" );
-                String entityUid = resultSet.getString( "entity_uid" );
+                        this.modifierCache.modifiersFor( resultSet.getInt( "modifiers" ) );
+                String containerUid = EntityDatabaseManager.getUid( resultSet, "container_uid" );
+                String entityUid = EntityDatabaseManager.getUid( resultSet, "entity_uid" );
                 int typeNameKey = resultSet.getInt( "type_name_key_fk" );
                 String type = this.typeNameCache.get( typeNameKey );
                 String resolvableType = null;  // for the moment
-                ProjectDetails projectDetails = getProjectDetails( projectKey );
                 boolean isArrayDeclaration = resultSet.getBoolean( "is_array" );
                 boolean isLoopControlVariable = 
                         resultSet.getBoolean( "is_loop_control_var" );
@@ -397,8 +388,8 @@ class EntityDatabaseReader {
                 // now instantiate a ProgramEntity and add it to the list
                 ProgramEntity programEntityData =
                         ProgramEntityFactory.create( 
-                        projectDetails.name(),
-                        projectDetails.version(),
+                        projectContext.name(),
+                        projectContext.version(),
                         identifierName,
                         packageName,
                         componentWords,
@@ -437,13 +428,12 @@ class EntityDatabaseReader {
         ArrayList<Modifier> modifiers = new ArrayList<>();
 
         try {
-            PreparedStatement sqlModifiersXrefQuery = 
-                    EntityDatabaseManager.sqlModifiersXrefQuery;
-            sqlModifiersXrefQuery.setInt( 1, programEntityKey );
-            ResultSet resultSet = sqlModifiersXrefQuery.executeQuery();
-            while ( resultSet.next() ) {
-                modifiers.add( Modifier.getModifierFor( 
-                        this.modifierCache.get( resultSet.getInt( "modifier_key_fk" ) ) ) );
+            PreparedStatement sqlEntityModifiersQuery = 
+                    EntityDatabaseManager.sqlEntityModifiersQuery;
+            sqlEntityModifiersQuery.setInt( 1, programEntityKey );
+            ResultSet resultSet = sqlEntityModifiersQuery.executeQuery();
+            if ( resultSet.next() ) {
+                modifiers = this.modifierCache.modifiersFor( resultSet.getInt( "modifiers" ) );
             }
         }
         catch ( SQLException sqlEx ) {
@@ -459,11 +449,15 @@ class EntityDatabaseReader {
     }
 
     String getPackageNameFor( int packageKey ) {
+        return getPackageNameFor( EntityDatabaseManager.sqlPackageNameKeyQuery, packageKey );
+    }
+    
+    // reads a package name with a package name key query prepared on the 
+    // connection of the caller
+    private String getPackageNameFor( PreparedStatement sqlPackageNameKeyQuery, int packageKey ) {
         String packageName = null;
 
         try {
-            PreparedStatement sqlPackageNameKeyQuery = 
-                    EntityDatabaseManager.sqlPackageNameKeyQuery;
             sqlPackageNameKeyQuery.setInt( 1, packageKey );
             ResultSet resultSet = sqlPackageNameKeyQuery.executeQuery();
             resultSet.next();
@@ -482,6 +476,33 @@ class EntityDatabaseReader {
         return packageName;
     }
 
+    // resolves a package name from the project context where possible,
+    // falling back to the database for packages added since the context
+    // was loaded
+    private String getPackageNameFor( ProjectContext projectContext, int packageKey ) {
+        return getPackageNameFor( 
+                projectContext, packageKey, EntityDatabaseManager.sqlPackageNameKeyQuery );
+    }
+    
+    private String getPackageNameFor( 
+            ProjectContext projectContext, 
+            int packageKey, 
+            PreparedStatement sqlPackageNameKeyQuery ) {
+        if ( projectContext == null ) {
+            return getPackageNameFor( sqlPackageNameKeyQuery, packageKey );
+        }
+
+        String packageName = projectContext.packageNameFor( packageKey );
+        if ( packageName == null ) {
+            packageName = getPackageNameFor( sqlPackageNameKeyQuery, packageKey );
+            if ( packageName != null ) {
+                projectContext.putPackageName( packageKey, packageName );
+            }
+        }
+
+        return packageName;
+    }
+
     /**
      * Retrieves a list of super classes for the given program entity. Where the
      * program entity is not a class an empty list is returned.
@@ -566,6 +587,7 @@ class EntityDatabaseReader {
     
     List<ProgramEntity> getEntitiesFor( final String projectNameAndVersion ) {
         int projectKey = this.projectKeyStore.get( projectNameAndVersion );
+        ProjectContext projectContext = this.projectContextCache.get( projectKey );
         
         ArrayList<ProgramEntity> programEntityList = 
                 new ArrayList<>( QUARTER_OF_A_MILLION );
@@ -580,23 +602,25 @@ class EntityDatabaseReader {
             while ( resultSet.next() ) {
                 int programEntityKey = resultSet.getInt( "program_entity_key" );
                 // gather the data
+                int identifierNameKey = resultSet.getInt( "identifier_name_key_fk" );
                 String identifierName = 
-                        this.identifierNameCache.get( resultSet.getInt( "identifier_name_key_fk" ) );
+                        this.identifierNameCache.get( identifierNameKey );
                 String packageName = 
-                        this.getPackageNameFor( resultSet.getInt( "package_key_fk" ) );
+                        this.getPackageNameFor( 
+                                projectContext, 
+                                resultSet.getInt( "package_key_fk" ) );
                 ArrayList<String> componentWords = 
-                        this.tokensFor( identifierName );
+                        this.tokensFor( identifierNameKey );
                 ArrayList<Modifier> accessModifiers = 
-                        this.getModifierList( programEntityKey );
-                String containerUid = resultSet.getString( "container_uid" );
-                String entityUid = resultSet.getString( "entity_uid" );
+                        this.modifierCache.modifiersFor( resultSet.getInt( "modifiers" ) );
+                String containerUid = EntityDatabaseManager.getUid( resultSet, "container_uid" );
+                String entityUid = EntityDatabaseManager.getUid( resultSet, "entity_uid" );
                 int typeNameKey = resultSet.getInt( "type_name_key_fk" );
                 String type = this.typeNameCache.get( typeNameKey );
                 String resolvableType = null;  // for the moment
                 boolean isArrayDeclaration = resultSet.getBoolean( "is_array" );
                 boolean isLoopControlVariable = 
                         resultSet.getBoolean( "is_loop_control_var" );
-                ProjectDetails projectDetails = getProjectDetails( projectKey );
                 // get text position
                 int fileNameKey = resultSet.getInt( "file_name_key_fk" );
                 String fileName = this.fileNameCache.get( fileNameKey );
@@ -625,8 +649,8 @@ class EntityDatabaseReader {
                 
                 // now instantiate a ProgramEntity and add it to the list
                 ProgramEntity programEntityData = ProgramEntityFactory.create( 
-                        projectDetails.name(),
-                        projectDetails.version(),
+                        projectContext.name(),
+                        projectContext.version(),
                         identifierName,
                         packageName,
                         componentWords,
@@ -661,6 +685,1120 @@ class EntityDatabaseReader {
         return programEntityList;
     }
     
+    /**
+     * Retrieves the keys of the program entities of a species.
+     * @param species a species
+     * @return a set of program entity keys
+     */
+    EntityKeySet getEntityKeysFor( Species species ) {
+        Integer speciesKey = this.speciesCache.get( species.description() );
+        return speciesKey == null 
+                ? new EntityKeySet() 
+                : EntityBitmapIndex.getInstance().getSpeciesSet( speciesKey );
+    }
+    
+    /**
+     * Retrieves the keys of the program entities declared with a modifier.
+     * @param modifier a modifier
+     * @return a set of program entity keys
+     */
+    EntityKeySet getEntityKeysFor( Modifier modifier ) {
+        Integer modifierKey = this.modifierCache.get( modifier.description() );
+        return modifierKey == null 
+                ? new EntityKeySet() 
+                : EntityBitmapIndex.getInstance().getModifierSet( modifierKey );
+    }
+    
+    /**
+     * Retrieves the keys of the program entities whose type is in a type 
+     * group.
+     * @param typeGroup a type group
+     * @return a set of program entity keys
+     */
+    EntityKeySet getEntityKeysFor( TypeGroup typeGroup ) {
+        return EntityBitmapIndex.getInstance().getTypeGroupSet( typeGroup );
+    }
+    
+    /**
+     * Retrieves the keys of the program entities of a project.
+     * @param projectNameAndVersion the project name and version separated 
+     * by a space
+     * @return a set of program entity keys
+     */
+    EntityKeySet getEntityKeysForProject( String projectNameAndVersion ) {
+        Integer projectKey = this.projectKeyStore.get( projectNameAndVersion );
+        return projectKey == null 
+                ? new EntityKeySet() 
+                : EntityBitmapIndex.getInstance().getProjectSet( projectKey );
+    }
+    
+    /**
+     * Retrieves the program entities for a set of keys. Keys that no 
+     * longer identify an entity are ignored.
+     * @param entityKeys a set of program entity keys
+     * @return the program entities in key order
+     */
+    List<ProgramEntity> getEntitiesFor( EntityKeySet entityKeys ) {
+        int[] keys = entityKeys.toArray();
+        ArrayList<ProgramEntity> programEntityList = new ArrayList<>( keys.length );
+        readEntities( keys, entityKeys.projectKey(), (programEntity, programEntityKey) -> 
+                programEntityList.add( programEntity ) );
+        return programEntityList;
+    }
+    
+    // retrieves entities in the order of the keys given, as entities of a 
+    // project where one is given
+    private List<ProgramEntity> getEntitiesInOrder( int[] keys, Integer projectKey ) {
+        HashMap<Integer, ProgramEntity> programEntities = new HashMap<>( keys.length * 2 );
+        readEntities( keys, projectKey, (programEntity, programEntityKey) -> 
+                programEntities.put( programEntityKey, programEntity ) );
+        
+        ArrayList<ProgramEntity> programEntityList = new ArrayList<>( keys.length );
+        for ( int programEntityKey : keys ) {
+            ProgramEntity programEntity = programEntities.get( programEntityKey );
+            if ( programEntity != null ) {
+                programEntityList.add( programEntity );
+            }
+        }
+        return programEntityList;
+    }
+    
+    // passes each entity found to the consumer with its key, in batches 
+    // ordered by key, reading them as entities of a project where one is 
+    // given and omitting those that do not belong to it
+    private void readEntities( 
+            int[] keys, Integer projectKey, ObjIntConsumer<ProgramEntity> consumer ) {
+        int batchSize = EntityDatabaseManager.ENTITY_KEY_BATCH_SIZE;
+        
+        try {
+            VersionResolver versions = new VersionResolver( projectKey );
+            PreparedStatement sqlEntitiesByKeysQuery = 
+                    EntityDatabaseManager.sqlProgramEntitiesByKeysQuery;
+            for ( int start = 0; start < keys.length; start += batchSize ) {
+                bindKeyBatch( sqlEntitiesByKeysQuery, keys, start );
+                // the inheritance of the whole batch is read up front
+                HashMap<Integer, ArrayList<String>> superClassNames = readSuperNames( 
+                        EntityDatabaseManager.sqlSuperClassNamesByKeysQuery, keys, start );
+                HashMap<Integer, ArrayList<String>> superTypeNames = readSuperNames( 
+                        EntityDatabaseManager.sqlSuperTypeNamesByKeysQuery, keys, start );
+                
+                try ( ResultSet resultSet = sqlEntitiesByKeysQuery.executeQuery() ) {
+                    while ( resultSet.next() ) {
+                        if ( versions.resolve( resultSet ) ) {
+                            consumer.accept( 
+                                    createProgramEntity( 
+                                            resultSet, versions, superClassNames, superTypeNames ), 
+                                    resultSet.getInt( "program_entity_key" ) );
+                        }
+                    }
+                }
+            }
+        }
+        catch ( SQLException sqlEx ) {
+            LOGGER.error(
+                    "Encountered problem recovering program entities by key: {}\n"
+                            + "SQL state: {}\nError code: {}",
+                    sqlEx.getMessage(), 
+                    sqlEx.getSQLState(), 
+                    sqlEx.getErrorCode() );
+        }
+    }
+    
+    // reads the names of the supertypes of a batch of entities from one 
+    // of the batched cross reference queries
+    private HashMap<Integer, ArrayList<String>> readSuperNames( 
+            PreparedStatement statement, int[] keys, int start ) throws SQLException {
+        HashMap<Integer, ArrayList<String>> superNames = new HashMap<>();
+        bindKeyBatch( statement, keys, start );
+        try ( ResultSet resultSet = statement.executeQuery() ) {
+            while ( resultSet.next() ) {
+                superNames.computeIfAbsent( resultSet.getInt( 1 ), (key) -> new ArrayList<>() )
+                        .add( this.identifierNameCache.get( resultSet.getInt( 2 ) ) );
+            }
+        }
+        return superNames;
+    }
+    
+    private static void bindKeyBatch( PreparedStatement statement, int[] keys, int start ) 
+            throws SQLException {
+        for ( int i = 0; i < EntityDatabaseManager.ENTITY_KEY_BATCH_SIZE; i++ ) {
+            int index = start + i;
+            statement.setInt( i + 1, index < keys.length ? keys[ index ] : -1 );
+        }
+    }
+    
+    /**
+     * Retrieves program entities by key.
+     * @param programEntityKeys program entity keys
+     * @return the entities in the order of the keys given, omitting keys 
+     * that do not identify an entity
+     */
+    List<ProgramEntity> getEntitiesByKeys( Collection<Integer> programEntityKeys ) {
+        int[] keys = new int[ programEntityKeys.size() ];
+        int keyCount = 0;
+        for ( Integer programEntityKey : programEntityKeys ) {
+            if ( programEntityKey != null ) {
+                keys[ keyCount++ ] = programEntityKey;
+            }
+        }
+        return getEntitiesInOrder( Arrays.copyOf( keys, keyCount ), null );
+    }
+    
+    /**
+     * Retrieves the program entity with an entity uid in a project.
+     * @param projectNameAndVersion the project name and version separated 
+     * by a space
+     * @param entityUid an entity uid
+     * @return the entity, or {@code null} if there is none
+     */
+    ProgramEntity getEntityByUid( String projectNameAndVersion, String entityUid ) {
+        return getEntitiesByUids( 
+                projectNameAndVersion, Collections.singleton( entityUid ) ).get( entityUid );
+    }
+    
+    /**
+     * Retrieves the program entities with the given entity uids in a 
+     * project. Where several entities share a uid the first stored is 
+     * returned.
+     * @param projectNameAndVersion the project name and version separated 
+     * by a space
+     * @param entityUids entity uids
+     * @return a map of uids to entities, omitting unknown uids
+     */
+    Map<String, ProgramEntity> getEntitiesByUids( 
+            String projectNameAndVersion, Collection<String> entityUids ) {
+        HashMap<String, ProgramEntity> programEntities = new HashMap<>();
+        Integer projectKey = this.projectKeyStore.get( projectNameAndVersion );
+        if ( projectKey == null ) {
+            return programEntities;
+        }
+        
+        int batchSize = EntityDatabaseManager.ENTITY_KEY_BATCH_SIZE;
+        String[] uids = entityUids.stream()
+                .filter( (uid) -> uid != null )
+                .distinct()
+                .toArray( String[]::new );
+        HashMap<Integer, String> uidsByKey = new HashMap<>( uids.length * 2 );
+        HashSet<String> foundUids = new HashSet<>( uids.length * 2 );
+        try {
+            PreparedStatement sqlEntityKeysByUidsQuery = 
+                    EntityDatabaseManager.sqlEntityKeysByUidsQuery;
+            for ( int start = 0; start < uids.length; start += batchSize ) {
+                for ( int i = 0; i < batchSize; i++ ) {
+                    int index = start + i;
+                    EntityDatabaseManager.setUid( 
+                            sqlEntityKeysByUidsQuery, 
+                            i + 1, 
+                            index < uids.length ? uids[ index ] : null );
+                }
+                sqlEntityKeysByUidsQuery.setInt( batchSize + 1, projectKey );
+                try ( ResultSet resultSet = sqlEntityKeysByUidsQuery.executeQuery() ) {
+                    while ( resultSet.next() ) {
+                        String uid = EntityDatabaseManager.getUid( resultSet, "entity_uid" );
+                        // rows are in key order, so the first for a uid is kept
+                        if ( foundUids.add( uid ) ) {
+                            uidsByKey.put( resultSet.getInt( "program_entity_key" ), uid );
+                        }
+                    }
+                }
+            }
+        }
+        catch ( SQLException sqlEx ) {
+            LOGGER.error(
+                    "Encountered problem recovering program entities by uid: {}\n"
+                            + "SQL state: {}\nError code: {}",
+                    sqlEx.getMessage(), 
+                    sqlEx.getSQLState(), 
+                    sqlEx.getErrorCode() );
+            return programEntities;
+        }
+        
+        readEntities( 
+                uidsByKey.keySet().stream().mapToInt( Integer::intValue ).sorted().toArray(), 
+                projectKey,
+                (programEntity, programEntityKey) -> 
+                        programEntities.put( uidsByKey.get( programEntityKey ), programEntity ) );
+        
+        return programEntities;
+    }
+    
+    /**
+     * Retrieves the entities declared directly within an entity.
+     * @param projectNameAndVersion the project name and version separated 
+     * by a space
+     * @param entityUid the uid of the containing entity
+     * @return the contained entities in key order, empty if the project or 
+     * uid is unknown
+     */
+    List<ProgramEntity> getChildren( String projectNameAndVersion, String entityUid ) {
+        Integer projectKey = this.projectKeyStore.get( projectNameAndVersion );
+        ContainmentIndex index = containmentIndexFor( projectKey );
+        return index == null 
+                ? new ArrayList<>() 
+                : getEntitiesInOrder( index.childrenOf( entityUid ), projectKey );
+    }
+    
+    /**
+     * Retrieves the entities declared within an entity at any depth.
+     * @param projectNameAndVersion the project name and version separated 
+     * by a space
+     * @param entityUid the uid of the containing entity
+     * @param species the species to include, or none to include all
+     * @return the contained entities, each preceding its own contents, 
+     * empty if the project or uid is unknown
+     */
+    List<ProgramEntity> getDescendants( 
+            String projectNameAndVersion, String entityUid, Species... species ) {
+        Integer projectKey = this.projectKeyStore.get( projectNameAndVersion );
+        ContainmentIndex index = containmentIndexFor( projectKey );
+        if ( index == null ) {
+            return new ArrayList<>();
+        }
+        
+        HashSet<Integer> speciesKeys = new HashSet<>();
+        for ( Species s : species ) {
+            Integer speciesKey = this.speciesCache.get( s.description() );
+            if ( speciesKey != null ) {
+                speciesKeys.add( speciesKey );
+            }
+        }
+        if ( species.length > 0 && speciesKeys.isEmpty() ) {
+            return new ArrayList<>();
+        }
+        
+        return getEntitiesInOrder( 
+                index.descendantsOf( 
+                        entityUid, 
+                        (speciesKey) -> speciesKeys.isEmpty() || speciesKeys.contains( speciesKey ) ),
+                projectKey );
+    }
+    
+    /**
+     * Retrieves the entities within which an entity is declared.
+     * @param projectNameAndVersion the project name and version separated 
+     * by a space
+     * @param entityUid the uid of an entity
+     * @return the containing entities, innermost first, empty if the 
+     * project or uid is unknown
+     */
+    List<ProgramEntity> getAncestors( String projectNameAndVersion, String entityUid ) {
+        Integer projectKey = this.projectKeyStore.get( projectNameAndVersion );
+        ContainmentIndex index = containmentIndexFor( projectKey );
+        return index == null 
+                ? new ArrayList<>() 
+                : getEntitiesInOrder( index.ancestorsOf( entityUid ), projectKey );
+    }
+    
+    /**
+     * Retrieves the members of a class, interface or enum grouped by 
+     * species.
+     * @param projectNameAndVersion the project name and version separated 
+     * by a space
+     * @param classUid the uid of the type declaration
+     * @return a map of species to members in key order, empty if the 
+     * project or uid is unknown
+     */
+    Map<Species, List<ProgramEntity>> getMembers( 
+            String projectNameAndVersion, String classUid ) {
+        EnumMap<Species, List<ProgramEntity>> members = new EnumMap<>( Species.class );
+        getChildren( projectNameAndVersion, classUid ).forEach( (member) -> 
+                members.computeIfAbsent( member.getSpecies(), (s) -> new ArrayList<>() )
+                        .add( member ) );
+        return members;
+    }
+    
+    /**
+     * Retrieves the entities whose declarations span a line of a file.
+     * @param projectNameAndVersion the project name and version separated 
+     * by a space
+     * @param fileName a file name, as stored
+     * @param lineNumber a line number
+     * @return the entities in order of position, empty if the project or
+     * file is unknown
+     */
+    List<ProgramEntity> getEntitiesAt( 
+            String projectNameAndVersion, String fileName, int lineNumber ) {
+        // any start column on the line, and any end column, is accepted
+        return readEntitiesInFile( 
+                EntityDatabaseManager.sqlEntitiesAtPositionQuery,
+                projectNameAndVersion,
+                fileName,
+                lineNumber, lineNumber, 
+                lineNumber, Integer.MAX_VALUE, 
+                lineNumber, Integer.MIN_VALUE );
+    }
+    
+    /**
+     * Retrieves the entities whose declarations span a position in a file.
+     * @param projectNameAndVersion the project name and version separated 
+     * by a space
+     * @param fileName a file name, as stored
+     * @param lineNumber a line number
+     * @param column a column on the line
+     * @return the entities in order of position, empty if the project or
+     * file is unknown
+     */
+    List<ProgramEntity> getEntitiesAt( 
+            String projectNameAndVersion, String fileName, int lineNumber, int column ) {
+        return readEntitiesInFile( 
+                EntityDatabaseManager.sqlEntitiesAtPositionQuery,
+                projectNameAndVersion,
+                fileName,
+                lineNumber, lineNumber, 
+                lineNumber, column, 
+                lineNumber, column );
+    }
+    
+    /**
+     * Retrieves the entities whose declarations lie wholly within a range
+     * of lines of a file.
+     * @param projectNameAndVersion the project name and version separated 
+     * by a space
+     * @param fileName a file name, as stored
+     * @param firstLineNumber the first line of the range
+     * @param lastLineNumber the last line of the range
+     * @return the entities in order of position, empty if the project or
+     * file is unknown
+     */
+    List<ProgramEntity> getEntitiesWithin( 
+            String projectNameAndVersion, 
+            String fileName, 
+            int firstLineNumber, 
+            int lastLineNumber ) {
+        return readEntitiesInFile( 
+                EntityDatabaseManager.sqlEntitiesWithinLinesQuery,
+                projectNameAndVersion,
+                fileName,
+                firstLineNumber, lastLineNumber, lastLineNumber );
+    }
+    
+    /**
+     * Retrieves the entities declared in a file.
+     * @param projectNameAndVersion the project name and version separated 
+     * by a space
+     * @param fileName a file name, as stored
+     * @return the entities in order of position, empty if the project or
+     * file is unknown
+     */
+    List<ProgramEntity> getEntitiesInFile( String projectNameAndVersion, String fileName ) {
+        return readEntitiesInFile( 
+                EntityDatabaseManager.sqlEntitiesInFileQuery,
+                projectNameAndVersion,
+                fileName );
+    }
+    
+    // runs a query whose parameters are the file name key, the positions 
+    // given and the project key
+    private List<ProgramEntity> readEntitiesInFile( 
+            PreparedStatement statement, 
+            String projectNameAndVersion, 
+            String fileName, 
+            int... positions ) {
+        ArrayList<ProgramEntity> programEntityList = new ArrayList<>();
+        Integer projectKey = this.projectKeyStore.get( projectNameAndVersion );
+        Integer fileNameKey = this.fileNameCache.get( fileName );
+        if ( projectKey == null || fileNameKey == null ) {
+            return programEntityList;
+        }
+        
+        try {
+            statement.setInt( 1, fileNameKey );
+            for ( int i = 0; i < positions.length; i++ ) {
+                statement.setInt( i + 2, positions[ i ] );
+            }
+            statement.setInt( positions.length + 2, projectKey );
+            VersionResolver versions = new VersionResolver( projectKey );
+            try ( ResultSet resultSet = statement.executeQuery() ) {
+                while ( resultSet.next() ) {
+                    if ( versions.resolve( resultSet ) ) {
+                        programEntityList.add( createProgramEntity( resultSet, versions ) );
+                    }
+                }
+            }
+        }
+        catch ( SQLException sqlEx ) {
+            LOGGER.error(
+                    "Could not recover program entities by source position: {}\n"
+                            + "SQL state: {}\nError code: {}",
+                    sqlEx.getMessage(), 
+                    sqlEx.getSQLState(), 
+                    sqlEx.getErrorCode() );
+        }
+        
+        return programEntityList;
+    }
+    
+    private ContainmentIndex containmentIndexFor( Integer projectKey ) {
+        return projectKey == null 
+                ? null 
+                : ContainmentIndexCache.getInstance().get( projectKey );
+    }
+    
+    /**
+     * Retrieves the program entities matching a query.
+     * @param query a query
+     * @return the matching program entities in key order
+     */
+    List<ProgramEntity> getEntitiesFor( EntityQuery query ) {
+        ArrayList<ProgramEntity> programEntityList = new ArrayList<>();
+        forEachEntity( query, programEntityList::add );
+        return programEntityList;
+    }
+    
+    /**
+     * Passes each program entity matching a query to a consumer as it is 
+     * read, so that the results need not be held in memory together.
+     * @param query a query
+     * @param consumer receives each program entity in key order
+     */
+    void forEachEntity( EntityQuery query, Consumer<? super ProgramEntity> consumer ) {
+        EntityQuery.Compiled compiled = query.compile( EntityDatabaseManager.entityColumns( "e" ) );
+        if ( compiled == null ) {
+            return;
+        }
+        
+        VersionResolver versions = new VersionResolver( compiled.projectKey );
+        try ( ResultSet resultSet = executeEntityQuery( compiled ) ) {
+            while ( resultSet.next() ) {
+                if ( versions.resolve( resultSet ) ) {
+                    consumer.accept( createProgramEntity( resultSet, versions ) );
+                }
+            }
+        }
+        catch ( SQLException sqlEx ) {
+            LOGGER.error(
+                    "Encountered problem running entity query: {}\n"
+                            + "SQL state: {}\nError code: {}",
+                    sqlEx.getMessage(), 
+                    sqlEx.getSQLState(), 
+                    sqlEx.getErrorCode() );
+        }
+    }
+    
+    /**
+     * Retrieves the keys of the program entities matching a query.
+     * @param query a query
+     * @return a set of program entity keys
+     */
+    EntityKeySet getEntityKeysFor( EntityQuery query ) {
+        EntityKeySet entityKeys = new EntityKeySet();
+        EntityQuery.Compiled compiled = query.compile( "e.program_entity_key" );
+        if ( compiled == null ) {
+            return entityKeys;
+        }
+        
+        try ( ResultSet resultSet = executeEntityQuery( compiled ) ) {
+            while ( resultSet.next() ) {
+                entityKeys.add( resultSet.getInt( 1 ) );
+            }
+        }
+        catch ( SQLException sqlEx ) {
+            LOGGER.error(
+                    "Encountered problem running entity query: {}\n"
+                            + "SQL state: {}\nError code: {}",
+                    sqlEx.getMessage(), 
+                    sqlEx.getSQLState(), 
+                    sqlEx.getErrorCode() );
+        }
+        
+        return entityKeys;
+    }
+    
+    /**
+     * Retrieves a page of the program entities matching a query, seeking
+     * past the entities already read by their keys rather than skipping
+     * rows. Where the database fails part way through a page the entities
+     * read are returned, with a token that resumes after them.
+     * @param query a query
+     * @param continuationToken a token from the previous page, or
+     * {@code null} to start the scan
+     * @param pageSize the maximum number of program entities in the page
+     * @return the page
+     */
+    EntityPage getEntityPage( EntityQuery query, String continuationToken, int pageSize ) {
+        if ( pageSize < 1 ) {
+            throw new IllegalArgumentException( "Page size must be positive: " + pageSize );
+        }
+        int fingerprint = query.fingerprint();
+        ContinuationToken token = continuationToken == null
+                ? new ContinuationToken( 0, Integer.MAX_VALUE, fingerprint )
+                : ContinuationToken.decode( continuationToken, fingerprint );
+        
+        ArrayList<ProgramEntity> programEntityList = new ArrayList<>( pageSize );
+        EntityQuery.Compiled compiled = query.compilePage( EntityDatabaseManager.entityColumns( "e" ), token, pageSize );
+        if ( compiled == null ) {
+            return new EntityPage( programEntityList, null );
+        }
+        
+        int lastKeyRead = token.afterKey;
+        int rowCount = 0;
+        boolean isComplete = false;
+        VersionResolver versions = new VersionResolver( compiled.projectKey );
+        try ( ResultSet resultSet = executeEntityQuery( compiled ) ) {
+            while ( resultSet.next() ) {
+                if ( versions.resolve( resultSet ) ) {
+                    programEntityList.add( createProgramEntity( resultSet, versions ) );
+                }
+                lastKeyRead = resultSet.getInt( "program_entity_key" );
+                rowCount++;
+            }
+            isComplete = true;
+        }
+        catch ( SQLException sqlEx ) {
+            LOGGER.error(
+                    "Encountered problem reading page of entity query: {}\n"
+                            + "SQL state: {}\nError code: {}",
+                    sqlEx.getMessage(), 
+                    sqlEx.getSQLState(), 
+                    sqlEx.getErrorCode() );
+        }
+        
+        boolean isLast = isComplete 
+                && ( rowCount < pageSize || lastKeyRead == token.lastKey );
+        return new EntityPage( 
+                programEntityList, 
+                isLast ? null : token.after( lastKeyRead ).encode() );
+    }
+    
+    /**
+     * Divides the scan of a query into ranges of program entity keys of 
+     * about equal width, so that each may be paged through by a different
+     * worker.
+     * @param query a query
+     * @param partitions the number of ranges wanted
+     * @return a continuation token starting each range, in key order; 
+     * fewer than asked for where there are few keys, and none where 
+     * nothing matches
+     */
+    List<String> splitEntityScan( EntityQuery query, int partitions ) {
+        return partitionsFor( query, partitions ).stream()
+                .map( ContinuationToken::encode )
+                .collect( Collectors.toList() );
+    }
+    
+    /**
+     * Reads the program entities matching a query in parallel. The key
+     * range of the query is divided into partitions, each read on a
+     * pooled connection of its own and hydrated by a task of the fork join
+     * pool running the stream, which is the common pool unless the
+     * stream's terminal operation is run from another pool. A partition
+     * is read whole before its entities are passed on, so more partitions
+     * hold fewer entities in memory at once.
+     * @param query a query, whose limit is ignored
+     * @param partitions the number of partitions
+     * @return a parallel stream whose encounter order is key order
+     * @throws IllegalStateException from the terminal operation if a 
+     * partition cannot be read
+     */
+    Stream<ProgramEntity> streamEntities( EntityQuery query, int partitions ) {
+        List<ContinuationToken> tokens = partitionsFor( query, partitions );
+        // the projects are loaded here, so that the tasks reading the 
+        // partitions never use the shared connection
+        EntityQuery.Compiled compiled = query.compile( "e.program_entity_key" );
+        HashMap<Integer, ProjectContext> projectContexts = new HashMap<>();
+        if ( compiled != null && compiled.projectKey != null ) {
+            projectContexts.put( 
+                    compiled.projectKey, this.projectContextCache.get( compiled.projectKey ) );
+        }
+        else if ( ! tokens.isEmpty() ) {
+            for ( String projectNameAndVersion : this.projectKeyStore.getProjectNames() ) {
+                Integer projectKey = this.projectKeyStore.get( projectNameAndVersion );
+                if ( projectKey != null ) {
+                    projectContexts.put( projectKey, this.projectContextCache.get( projectKey ) );
+                }
+            }
+        }
+        
+        return tokens.parallelStream()
+                .map( (partition) -> readPartition( query, partition, projectContexts ) )
+                .flatMap( List::stream );
+    }
+    
+    /**
+     * Reads the program entities matching a query in parallel, as
+     * {@linkplain #streamEntities(EntityQuery, int)} does, and merges
+     * them in key order.
+     * @param query a query, whose limit is ignored
+     * @param partitions the number of partitions
+     * @return the matching program entities in key order
+     */
+    List<ProgramEntity> getEntitiesInParallel( EntityQuery query, int partitions ) {
+        return streamEntities( query, partitions ).collect( Collectors.toList() );
+    }
+    
+    // divides the key range of a query into ranges of about equal width
+    private List<ContinuationToken> partitionsFor( EntityQuery query, int partitions ) {
+        if ( partitions < 1 ) {
+            throw new IllegalArgumentException( "Partitions must be positive: " + partitions );
+        }
+        ArrayList<ContinuationToken> tokens = new ArrayList<>( partitions );
+        EntityQuery.Compiled compiled = query.compileKeyBounds();
+        if ( compiled == null ) {
+            return tokens;
+        }
+        
+        try ( ResultSet resultSet = executeEntityQuery( compiled ) ) {
+            if ( ! resultSet.next() ) {
+                return tokens;
+            }
+            int firstKey = resultSet.getInt( 1 );
+            if ( resultSet.wasNull() ) {
+                return tokens;
+            }
+            int lastKey = resultSet.getInt( 2 );
+            
+            int fingerprint = query.fingerprint();
+            long width = (long) lastKey - firstKey + 1;
+            int count = (int) Math.min( partitions, width );
+            for ( int i = 0; i < count; i++ ) {
+                tokens.add( new ContinuationToken( 
+                        (int) ( firstKey - 1 + width * i / count ),
+                        (int) ( firstKey - 1 + width * ( i + 1 ) / count ),
+                        fingerprint ) );
+            }
+        }
+        catch ( SQLException sqlEx ) {
+            LOGGER.error(
+                    "Encountered problem dividing entity query: {}\n"
+                            + "SQL state: {}\nError code: {}",
+                    sqlEx.getMessage(), 
+                    sqlEx.getSQLState(), 
+                    sqlEx.getErrorCode() );
+        }
+        
+        return tokens;
+    }
+    
+    // reads the entities of one partition of a parallel scan, letting the
+    // fork join pool add a worker while this one waits on the database
+    private List<ProgramEntity> readPartition( 
+            EntityQuery query, 
+            ContinuationToken partition, 
+            Map<Integer, ProjectContext> projectContexts ) {
+        ArrayList<ProgramEntity> programEntityList = new ArrayList<>();
+        EntityQuery.Compiled compiled = query.compilePage( EntityDatabaseManager.entityColumns( "e" ), partition, 0 );
+        if ( compiled == null ) {
+            return programEntityList;
+        }
+        
+        ForkJoinPool.ManagedBlocker reader = new ForkJoinPool.ManagedBlocker() {
+            private boolean isDone = false;
+            
+            @Override
+            public boolean block() {
+                readPartition( compiled, partition, projectContexts, programEntityList );
+                this.isDone = true;
+                return true;
+            }
+            
+            @Override
+            public boolean isReleasable() {
+                return this.isDone;
+            }
+        };
+        try {
+            ForkJoinPool.managedBlock( reader );
+        }
+        catch ( InterruptedException e ) {
+            Thread.currentThread().interrupt();
+        }
+        return programEntityList;
+    }
+    
+    // reads a partition on a pooled connection, on which packages and the 
+    // versions of shared entities are also resolved
+    private void readPartition( 
+            EntityQuery.Compiled compiled, 
+            ContinuationToken partition, 
+            Map<Integer, ProjectContext> projectContexts,
+            List<ProgramEntity> programEntityList ) {
+        Connection readConnection = null;
+        try {
+            readConnection = EntityDatabaseManager.borrowReadConnection();
+            // the inheritance of the whole partition is read up front
+            HashMap<Integer, ArrayList<String>> superClassNames = readSuperNames( 
+                    readConnection, 
+                    EntityDatabaseManager.SUPER_CLASS_NAMES_IN_RANGE_QUERY, 
+                    partition );
+            HashMap<Integer, ArrayList<String>> superTypeNames = readSuperNames( 
+                    readConnection, 
+                    EntityDatabaseManager.SUPER_TYPE_NAMES_IN_RANGE_QUERY, 
+                    partition );
+            
+            try ( PreparedStatement sqlPackageNameKeyQuery = readConnection.prepareStatement( 
+                            EntityDatabaseManager.PACKAGE_NAME_KEY_QUERY );
+                    PreparedStatement statement = readConnection.prepareStatement( compiled.sql ) ) {
+                VersionResolver versions = new VersionResolver( 
+                        compiled.projectKey, 
+                        sqlPackageNameKeyQuery, 
+                        projectContexts::get );
+                bindParameters( statement, compiled );
+                try ( ResultSet resultSet = statement.executeQuery() ) {
+                    while ( resultSet.next() ) {
+                        if ( versions.resolve( resultSet ) ) {
+                            programEntityList.add( createProgramEntity( 
+                                    resultSet, versions, superClassNames, superTypeNames ) );
+                        }
+                    }
+                }
+            }
+        }
+        catch ( SQLException sqlEx ) {
+            LOGGER.error(
+                    "Encountered problem reading partition of entity query: {}\n"
+                            + "SQL state: {}\nError code: {}",
+                    sqlEx.getMessage(), 
+                    sqlEx.getSQLState(), 
+                    sqlEx.getErrorCode() );
+            // a partial scan would pass for a complete one
+            throw new IllegalStateException( 
+                    "Could not read partition of entity query: " + sqlEx.getMessage(), sqlEx );
+        }
+        finally {
+            if ( readConnection != null ) {
+                EntityDatabaseManager.returnReadConnection( readConnection );
+            }
+        }
+    }
+    
+    // reads the names of the supertypes of the entities in a key range
+    private HashMap<Integer, ArrayList<String>> readSuperNames( 
+            Connection readConnection, String sql, ContinuationToken partition ) 
+            throws SQLException {
+        HashMap<Integer, ArrayList<String>> superNames = new HashMap<>();
+        try ( PreparedStatement statement = readConnection.prepareStatement( sql ) ) {
+            statement.setInt( 1, partition.afterKey );
+            statement.setInt( 2, partition.lastKey );
+            try ( ResultSet resultSet = statement.executeQuery() ) {
+                while ( resultSet.next() ) {
+                    superNames.computeIfAbsent( resultSet.getInt( 1 ), (key) -> new ArrayList<>() )
+                            .add( this.identifierNameCache.get( resultSet.getInt( 2 ) ) );
+                }
+            }
+        }
+        return superNames;
+    }
+    
+    private ResultSet executeEntityQuery( EntityQuery.Compiled compiled ) 
+            throws SQLException {
+        PreparedStatement statement = EntityDatabaseManager.getQueryPlan( compiled.sql );
+        bindParameters( statement, compiled );
+        return statement.executeQuery();
+    }
+    
+    private static void bindParameters( PreparedStatement statement, EntityQuery.Compiled compiled ) 
+            throws SQLException {
+        int index = 1;
+        for ( Object parameter : compiled.parameters ) {
+            if ( parameter instanceof Integer ) {
+                statement.setInt( index++, (Integer) parameter );
+            }
+            else {
+                statement.setString( index++, (String) parameter );
+            }
+        }
+    }
+    
+    // resolves the project each row of a program entities query is read as, 
+    // and the package the entity has there. A deduplicated entity belongs 
+    // to every version holding it while its row records only the version 
+    // that stored it. The queries that ask for a version select only its 
+    // members, so the row is read as that version; and as package names 
+    // are part of what makes entities identical, the row's package gives 
+    // the name. A package of another version is looked up once and then 
+    // kept in the context of the version asked for.
+    private final class VersionResolver {
+        private final Integer projectKey;
+        private final boolean isDeduplicated;
+        private final PreparedStatement sqlPackageNameKeyQuery;
+        private final IntFunction<ProjectContext> projectContexts;
+        private ProjectContext projectContext;
+        private String packageName;
+        
+        // resolves rows on the shared connection
+        VersionResolver( Integer projectKey ) {
+            this( 
+                    projectKey, 
+                    EntityDatabaseManager.sqlPackageNameKeyQuery, 
+                    projectContextCache::get );
+        }
+        
+        VersionResolver( 
+                Integer projectKey, 
+                PreparedStatement sqlPackageNameKeyQuery, 
+                IntFunction<ProjectContext> projectContexts ) {
+            this.projectKey = projectKey;
+            this.isDeduplicated = EntityDatabaseManager.isDeduplicated();
+            this.sqlPackageNameKeyQuery = sqlPackageNameKeyQuery;
+            this.projectContexts = projectContexts;
+        }
+        
+        // resolves the current row, returning false if the entity does not 
+        // belong to the project asked for or the project cannot be loaded
+        boolean resolve( ResultSet resultSet ) throws SQLException {
+            int versionKey = resultSet.getInt( "project_key_fk" );
+            if ( this.projectKey != null && versionKey != this.projectKey ) {
+                if ( ! this.isDeduplicated ) {
+                    // an entity belongs only to the project that stored it
+                    return false;
+                }
+                versionKey = this.projectKey;
+            }
+            
+            this.projectContext = this.projectContexts.apply( versionKey );
+            if ( this.projectContext == null ) {
+                return false;
+            }
+            this.packageName = getPackageNameFor( 
+                    this.projectContext, 
+                    resultSet.getInt( "package_key_fk" ), 
+                    this.sqlPackageNameKeyQuery );
+            return true;
+        }
+    }
+    
+    // builds a program entity from the current row of a program entities 
+    // query, once resolved
+    private ProgramEntity createProgramEntity( ResultSet resultSet, VersionResolver versions ) 
+            throws SQLException {
+        return createProgramEntity( resultSet, versions, null, null );
+    }
+    
+    // as above, taking the names of supertypes from maps read for a batch 
+    // of entities where they are given
+    private ProgramEntity createProgramEntity( 
+            ResultSet resultSet,
+            VersionResolver versions,
+            Map<Integer, ArrayList<String>> superClassNames,
+            Map<Integer, ArrayList<String>> superTypeNames ) throws SQLException {
+        int programEntityKey = resultSet.getInt( "program_entity_key" );
+        ProjectContext projectContext = versions.projectContext;
+        int identifierNameKey = resultSet.getInt( "identifier_name_key_fk" );
+        String identifierName = this.identifierNameCache.get( identifierNameKey );
+        String packageName = versions.packageName;
+        ArrayList<String> componentWords = this.tokensFor( identifierNameKey );
+        ArrayList<Modifier> accessModifiers = this.modifierCache.modifiersFor( resultSet.getInt( "modifiers" ) );
+        String containerUid = EntityDatabaseManager.getUid( resultSet, "container_uid" );
+        String entityUid = EntityDatabaseManager.getUid( resultSet, "entity_uid" );
+        String type = this.typeNameCache.get( resultSet.getInt( "type_name_key_fk" ) );
+        String resolvableType = null;  // for the moment
+        boolean isArrayDeclaration = resultSet.getBoolean( "is_array" );
+        boolean isLoopControlVariable = resultSet.getBoolean( "is_loop_control_var" );
+        String fileName = this.fileNameCache.get( resultSet.getInt( "file_name_key_fk" ) );
+        
+        String speciesName = 
+                this.speciesCache.get( resultSet.getInt( "species_name_key_fk" ) );
+        Species species = Species.getSpeciesFor( speciesName );
+        
+        String methodSignature = null;
+        HashMap<String,ArrayList<String>> superClasses = null;
+        HashMap<String,ArrayList<String>> superTypes = null;
+        if ( species.isMethod() || species.isConstructor() ) {
+            methodSignature = 
+                    this.methodSignatureCache.get( 
+                            resultSet.getInt( "method_signature_key_fk" ) );
+        }
+        else if ( species.isClassOrInterface() ) {
+            superClasses = superClassNames == null 
+                    ? buildSuperClassesMap( programEntityKey )
+                    : tokenMapFor( superClassNames.get( programEntityKey ) );
+            superTypes = superTypeNames == null 
+                    ? buildSuperTypesMap( programEntityKey )
+                    : tokenMapFor( superTypeNames.get( programEntityKey ) );
+        }
+        
+        return ProgramEntityFactory.create( 
+                projectContext.name(),
+                projectContext.version(),
+                identifierName,
+                packageName,
+                componentWords,
+                accessModifiers,
+                species,
+                containerUid,
+                entityUid,
+                type,
+                resolvableType,
+                isArrayDeclaration,
+                isLoopControlVariable,
+                fileName,
+                resultSet.getInt( "start_line_number" ),
+                resultSet.getInt( "start_column" ),
+                resultSet.getInt( "end_line_number" ),
+                resultSet.getInt( "end_column" ),
+                methodSignature,
+                superClasses,
+                superTypes );
+    }
+    
+    /**
+     * Counts the declarations of each species in a project.
+     * @param projectNameAndVersion the project name and version separated 
+     * by a space
+     * @return a map of species to counts, empty if the project is unknown
+     */
+    Map<Species, FacetCount> countBySpecies( String projectNameAndVersion ) {
+        return readFacetCounts( 
+                EntityDatabaseManager.sqlSpeciesFacetQuery, 
+                projectNameAndVersion,
+                (key) -> Species.getSpeciesFor( this.speciesCache.get( key ) ) );
+    }
+    
+    /**
+     * Counts the declarations using each modifier in a project.
+     * @param projectNameAndVersion the project name and version separated 
+     * by a space
+     * @return a map of modifiers to counts, empty if the project is unknown
+     */
+    Map<Modifier, FacetCount> countByModifier( String projectNameAndVersion ) {
+        HashMap<Modifier, FacetCount> counts = new HashMap<>();
+        Integer projectKey = this.projectKeyStore.get( projectNameAndVersion );
+        if ( projectKey == null ) {
+            return counts;
+        }
+        
+        // the query returns one row for each modifier mask and name pair
+        HashMap<Integer, Integer> entityCounts = new HashMap<>();
+        HashMap<Integer, HashSet<Integer>> nameKeys = new HashMap<>();
+        try {
+            PreparedStatement sqlModifierFacetQuery = 
+                    EntityDatabaseManager.sqlModifierFacetQuery;
+            sqlModifierFacetQuery.setInt( 1, projectKey );
+            try ( ResultSet resultSet = sqlModifierFacetQuery.executeQuery() ) {
+                while ( resultSet.next() ) {
+                    int modifiers = resultSet.getInt( 1 );
+                    while ( modifiers != 0 ) {
+                        int modifierKey = Integer.numberOfTrailingZeros( modifiers ) + 1;
+                        entityCounts.merge( modifierKey, resultSet.getInt( 3 ), Integer::sum );
+                        nameKeys.computeIfAbsent( modifierKey, (key) -> new HashSet<>() )
+                                .add( resultSet.getInt( 2 ) );
+                        modifiers &= modifiers - 1;
+                    }
+                }
+            }
+        }
+        catch ( SQLException sqlEx ) {
+            LOGGER.error(
+                    "Could not count declarations by modifier: {}\n"
+                            + "SQL state: {}\nError code: {}",
+                    sqlEx.getMessage(), 
+                    sqlEx.getSQLState(), 
+                    sqlEx.getErrorCode() );
+        }
+        
+        entityCounts.forEach( (modifierKey, entityCount) -> 
+                counts.put( 
+                        Modifier.getModifierFor( this.modifierCache.get( modifierKey ) ), 
+                        new FacetCount( entityCount, nameKeys.get( modifierKey ).size() ) ) );
+        
+        return counts;
+    }
+    
+    /**
+     * Counts the declarations in each package of a project.
+     * @param projectNameAndVersion the project name and version separated 
+     * by a space
+     * @return a map of package names to counts, empty if the project is 
+     * unknown
+     */
+    Map<String, FacetCount> countByPackage( String projectNameAndVersion ) {
+        return readFacetCounts( 
+                EntityDatabaseManager.sqlPackageFacetQuery, 
+                projectNameAndVersion,
+                this.packageNameCache::get );
+    }
+    
+    /**
+     * Counts the declarations in a project whose types fall in each type 
+     * group.
+     * @param projectNameAndVersion the project name and version separated 
+     * by a space
+     * @return a map of type groups to counts, empty if the project is 
+     * unknown
+     */
+    Map<TypeGroup, FacetCount> countByTypeGroup( String projectNameAndVersion ) {
+        EnumMap<TypeGroup, FacetCount> counts = new EnumMap<>( TypeGroup.class );
+        Integer projectKey = this.projectKeyStore.get( projectNameAndVersion );
+        if ( projectKey == null ) {
+            return counts;
+        }
+        
+        // the query returns one row for each type and name pair
+        EnumMap<TypeGroup, Integer> entityCounts = new EnumMap<>( TypeGroup.class );
+        EnumMap<TypeGroup, HashSet<Integer>> nameKeys = new EnumMap<>( TypeGroup.class );
+        HashMap<Integer, TypeGroup> typeGroups = new HashMap<>();
+        try {
+            PreparedStatement sqlTypeNameFacetQuery = 
+                    EntityDatabaseManager.sqlTypeNameFacetQuery;
+            sqlTypeNameFacetQuery.setInt( 1, projectKey );
+            try ( ResultSet resultSet = sqlTypeNameFacetQuery.executeQuery() ) {
+                while ( resultSet.next() ) {
+                    TypeGroup typeGroup = typeGroups.computeIfAbsent( 
+                            resultSet.getInt( 1 ), 
+                            (key) -> classifyTypeName( key ) );
+                    entityCounts.merge( typeGroup, resultSet.getInt( 3 ), Integer::sum );
+                    nameKeys.computeIfAbsent( typeGroup, (group) -> new HashSet<>() )
+                            .add( resultSet.getInt( 2 ) );
+                }
+            }
+        }
+        catch ( SQLException sqlEx ) {
+            LOGGER.error(
+                    "Could not count declarations by type group: {}\n"
+                            + "SQL state: {}\nError code: {}",
+                    sqlEx.getMessage(), 
+                    sqlEx.getSQLState(), 
+                    sqlEx.getErrorCode() );
+        }
+        
+        entityCounts.forEach( (typeGroup, entityCount) -> 
+                counts.put( 
+                        typeGroup, 
+                        new FacetCount( entityCount, nameKeys.get( typeGroup ).size() ) ) );
+        
+        return counts;
+    }
+    
+    private TypeGroup classifyTypeName( int typeNameKey ) {
+        String typeName = this.typeNameCache.get( typeNameKey );
+        return typeName == null 
+                ? TypeGroup.REFERENCE 
+                : TypeGroup.classifyFromString( typeName );
+    }
+    
+    // runs a query returning a facet key, an entity count and a name count
+    private <K> Map<K, FacetCount> readFacetCounts( 
+            PreparedStatement facetQuery, 
+            String projectNameAndVersion,
+            IntFunction<K> facetFor ) {
+        HashMap<K, FacetCount> counts = new HashMap<>();
+        Integer projectKey = this.projectKeyStore.get( projectNameAndVersion );
+        if ( projectKey == null ) {
+            return counts;
+        }
+        
+        try {
+            facetQuery.setInt( 1, projectKey );
+            try ( ResultSet resultSet = facetQuery.executeQuery() ) {
+                while ( resultSet.next() ) {
+                    counts.put( 
+                            facetFor.apply( resultSet.getInt( 1 ) ), 
+                            new FacetCount( resultSet.getInt( 2 ), resultSet.getInt( 3 ) ) );
+                }
+            }
+        }
+        catch ( SQLException sqlEx ) {
+            LOGGER.error(
+                    "Could not count declarations: {}\n"
+                            + "SQL state: {}\nError code: {}",
+                    sqlEx.getMessage(), 
+                    sqlEx.getSQLState(), 
+                    sqlEx.getErrorCode() );
+        }
+        
+        return counts;
+    }
+    
     private int getIdentifierNameKeyForTypeName( int typeNameKey ) {
         Integer identifierNameKey = null;
 
@@ -757,16 +1895,17 @@ class EntityDatabaseReader {
 
         if ( projectName != null ) {
             try {
-                Integer modifierKey = this.modifierCache.get( modifier.name() );
+                Integer modifierKey = this.modifierCache.get( modifier.description() );
                 Integer projectKey = this.projectKeyStore.get( projectName );
                 Integer speciesKey = this.speciesCache.get( species.description() );
 
-                if ( projectKey != null ) {
+                if ( projectKey != null && speciesKey != null && modifierKey != null ) {
                     PreparedStatement sqlSpeciesForProjectAndModifierQuery = 
-                            EntityDatabaseManager.sqlAllNamesForSpeciesByProjectQuery;
+                            EntityDatabaseManager.sqlAllNamesForSpeciesByProjectAndModifierQuery;
                     sqlSpeciesForProjectAndModifierQuery.setInt( 1, speciesKey );
                     sqlSpeciesForProjectAndModifierQuery.setInt( 2, projectKey );
-                    sqlSpeciesForProjectAndModifierQuery.setInt( 3, modifierKey );
+                    sqlSpeciesForProjectAndModifierQuery.setInt( 
+                            3, ModifierCache.bitFor( modifierKey ) );
 
                     ResultSet resultSet = sqlSpeciesForProjectAndModifierQuery.executeQuery();
                     while ( resultSet.next() ) {
@@ -989,9 +2128,9 @@ class EntityDatabaseReader {
             ArrayList<String> componentWords = tokensFor( entityName );
 
             // get the modifiers
-            ArrayList<Modifier> modifierList = getModifierList( programEntityKey );
-            String containerUid = resultSet.getString( "container_uid" );
-            String entityUid = resultSet.getString( "entity_uid" );
+            ArrayList<Modifier> modifierList = this.modifierCache.modifiersFor( resultSet.getInt( "modifiers" ) );
+            String containerUid = EntityDatabaseManager.getUid( resultSet, "container_uid" );
+            String entityUid = EntityDatabaseManager.getUid( resultSet, "entity_uid" );
             int typeNameKey = resultSet.getInt( "type_name_key_fk" );
             String type = this.typeNameCache.get( typeNameKey );
             String resolveableType = null;  // for the moment
@@ -1001,7 +2140,7 @@ class EntityDatabaseReader {
             boolean isArrayDeclaration = resultSet.getBoolean( "is_array" );
             boolean isLoopControlVariable = 
                     resultSet.getBoolean( "is_loop_control_var" );
-            ProjectDetails projectDetails = getProjectDetails( projectKey );
+            ProjectContext projectContext = this.projectContextCache.get( projectKey );
             // get text position
             int fileNameKey = resultSet.getInt( "file_name_key_fk" );
             String fileName = this.fileNameCache.get( fileNameKey );
@@ -1018,8 +2157,8 @@ class EntityDatabaseReader {
 
             // create a class name data object and add it to the list
             entityData = new InheritableProgramEntity(
-                    projectDetails.name(),
-                    projectDetails.version(),
+                    projectContext.name(),
+                    projectContext.version(),
                     entityName,
                     packageName,
                     componentWords,
@@ -1074,20 +2213,21 @@ class EntityDatabaseReader {
                 // recover the component words
                 ArrayList<String> tokens = tokensFor( className );
 
-                String packageName = getPackageNameFor( resultSet.getInt( "package_key_fk" ));
+                int projectKey = resultSet.getInt( "project_key_fk" );
+                ProjectContext projectContext = this.projectContextCache.get( projectKey );
+                String packageName = 
+                        getPackageNameFor( projectContext, resultSet.getInt( "package_key_fk" ) );
                 
                 // get the modifiers
-                ArrayList<Modifier> modifierList = getModifierList( programEntityKey );
-                String containerUid = resultSet.getString( "container_uid" );
-                String entityUid = resultSet.getString( "entity_uid" );
+                ArrayList<Modifier> modifierList = this.modifierCache.modifiersFor( resultSet.getInt( "modifiers" ) );
+                String containerUid = EntityDatabaseManager.getUid( resultSet, "container_uid" );
+                String entityUid = EntityDatabaseManager.getUid( resultSet, "entity_uid" );
                 int typeNameKey = resultSet.getInt( "type_name_key_fk" );
                 String type = this.typeNameCache.get( typeNameKey );
                 String resolveableType = null;  // for the moment
                 int speciesNameKey = resultSet.getInt( "species_name_key_fk" );
                 Species species = Species.getSpeciesFor( this.speciesCache.get( speciesNameKey ) );
                 
-                int projectKey = resultSet.getInt( "project_key_fk" );
-                ProjectDetails projectDetails = getProjectDetails( projectKey );
                 // get text position
                 int fileNameKey = resultSet.getInt( "file_name_key_fk" );
                 String fileName = this.fileNameCache.get( fileNameKey );
@@ -1104,8 +2244,8 @@ class EntityDatabaseReader {
 
                 // create a class name data object and add it to the list
                 InheritableProgramEntity entityData = new InheritableProgramEntity(
-                        projectDetails.name(),
-                        projectDetails.version(),
+                        projectContext.name(),
+                        projectContext.version(),
                         className,
                         packageName,
                         tokens,
@@ -1144,13 +2284,18 @@ class EntityDatabaseReader {
         ArrayList<InheritableProgramEntity> candidateSubclasses = new ArrayList<>();
         int typeNameKey = 0; // initialise to something
         // recover the type name key
-        int typeIdentifierNameKey = this.identifierNameCache.get( className );
+        Integer typeIdentifierNameKey = this.identifierNameCache.get( className );
+        if ( typeIdentifierNameKey == null ) {
+            return candidateSubclasses;
+        }
         try {
             PreparedStatement typeNameQuery = 
                     EntityDatabaseManager.sqlTypeNameKeyByIdentifierNameKeyQuery;
             typeNameQuery.setInt( 1, typeIdentifierNameKey );
             ResultSet resultSet = typeNameQuery.executeQuery();
-            typeNameKey = resultSet.getInt( "type_name_key" );
+            if ( resultSet.next() ) {
+                typeNameKey = resultSet.getInt( "type_name_key" );
+            }
         }
         catch ( SQLException sqlEx ) {
             LOGGER.error(
@@ -1168,10 +2313,11 @@ class EntityDatabaseReader {
                     EntityDatabaseManager.sqlSubClassKeyQuery;
             subClassKeyQuery.setInt( 1, typeNameKey);
             ResultSet resultSet = subClassKeyQuery.executeQuery();
+            ArrayList<Integer> subClassKeys = new ArrayList<>();
             while ( resultSet.next() ) {
-                candidateSubclasses.add( getInheritableEntityFor( 
-                        resultSet.getInt( "sub_class_entity_key_fk" ) ));
+                subClassKeys.add( resultSet.getInt( "sub_class_entity_key_fk" ) );
             }
+            addInheritableEntities( subClassKeys, candidateSubclasses );
         }
         catch ( SQLException sqlEx ) {
             LOGGER.error(
@@ -1190,13 +2336,18 @@ class EntityDatabaseReader {
         ArrayList<InheritableProgramEntity> candidateSubTypes = new ArrayList<>();
         int typeNameKey = 0; // initialise to something
         // recover the type name key
-        int typeIdentifierNameKey = this.identifierNameCache.get( interfaceName );
+        Integer typeIdentifierNameKey = this.identifierNameCache.get( interfaceName );
+        if ( typeIdentifierNameKey == null ) {
+            return candidateSubTypes;
+        }
         try {
             PreparedStatement typeNameQuery = 
                     EntityDatabaseManager.sqlTypeNameKeyByIdentifierNameKeyQuery;
             typeNameQuery.setInt( 1, typeIdentifierNameKey );
             ResultSet resultSet = typeNameQuery.executeQuery();
-            typeNameKey = resultSet.getInt( "type_name_key" );
+            if ( resultSet.next() ) {
+                typeNameKey = resultSet.getInt( "type_name_key" );
+            }
         }
         catch ( SQLException sqlEx ) {
             LOGGER.error(
@@ -1212,10 +2363,11 @@ class EntityDatabaseReader {
                     EntityDatabaseManager.sqlSubTypeKeyQuery;
             subTypeKeyQuery.setInt( 1, typeNameKey);
             ResultSet resultSet = subTypeKeyQuery.executeQuery();
+            ArrayList<Integer> subTypeKeys = new ArrayList<>();
             while ( resultSet.next() ) {
-                candidateSubTypes.add( getInheritableEntityFor( 
-                        resultSet.getInt( "sub_type_entity_key_fk" ) ));
+                subTypeKeys.add( resultSet.getInt( "sub_type_entity_key_fk" ) );
             }
+            addInheritableEntities( subTypeKeys, candidateSubTypes );
         }
         catch ( SQLException sqlEx ) {
             LOGGER.error(
@@ -1279,18 +2431,21 @@ class EntityDatabaseReader {
             while ( resultSet.next() ) {
                 ProgramEntity entityData;
                 
+                int identifierNameKey = resultSet.getInt( "identifier_name_key_fk" );
                 String entityName = 
-                        this.identifierNameCache.get( resultSet.getInt( "identifier_name_key_fk" ) );
-                ArrayList<String> tokens = tokensFor( entityName );
+                        this.identifierNameCache.get( identifierNameKey );
+                ArrayList<String> tokens = tokensFor( identifierNameKey );
 
+                int projectKey = resultSet.getInt( "project_key_fk" );
+                ProjectContext projectContext = this.projectContextCache.get( projectKey );
                 String packageName = 
-                        getPackageNameFor( resultSet.getInt( "package_key_fk" ));
+                        getPackageNameFor( projectContext, resultSet.getInt( "package_key_fk" ) );
 
                 // get the modifiers
                 int programEntityKey = resultSet.getInt( "program_entity_key" );
-                ArrayList<Modifier> modifierList = getModifierList( programEntityKey );
-                String containerUid = resultSet.getString( "container_uid" );
-                String entityUid = resultSet.getString( "entity_uid" );
+                ArrayList<Modifier> modifierList = this.modifierCache.modifiersFor( resultSet.getInt( "modifiers" ) );
+                String containerUid = EntityDatabaseManager.getUid( resultSet, "container_uid" );
+                String entityUid = EntityDatabaseManager.getUid( resultSet, "entity_uid" );
                 int typeNameKey = resultSet.getInt( "type_name_key_fk" );
                 String type = this.typeNameCache.get( typeNameKey );
                 String resolveableType = null;  // for the moment
@@ -1298,8 +2453,6 @@ class EntityDatabaseReader {
                 boolean isLoopControlVariable = 
                         resultSet.getBoolean( "is_loop_control_var" );
 
-                int projectKey = resultSet.getInt( "project_key_fk" );
-                ProjectDetails projectDetails = getProjectDetails( projectKey );
                 // get text position
                 int fileNameKey = resultSet.getInt( "file_name_key_fk" );
                 String fileName = this.fileNameCache.get( fileNameKey );
@@ -1324,8 +2477,8 @@ class EntityDatabaseReader {
                 }
                     
                 entityData = ProgramEntityFactory.create(
-                            projectDetails.name(),
-                            projectDetails.version(),
+                            projectContext.name(),
+                            projectContext.version(),
                             entityName,
                             packageName,
                             tokens,
@@ -1380,159 +2533,32 @@ class EntityDatabaseReader {
         return outputSet;
     }
     
-    // recovers and inheritable program entity from a program entity key
-    // currently used for retrieving subclasses and subtypes
-    //
-    // The majority of this method is replicated in a number of places
-    // in this class and is a prime candidate for refactoring (possible). 
-    private InheritableProgramEntity getInheritableEntityFor( int programEntityKey ) {
-        InheritableProgramEntity entityData = null;
-        
-        try {
-            PreparedStatement sqlInheritableProgramEntityQuery = 
-                    EntityDatabaseManager.sqlInheritableProgramEntityQuery;
-            sqlInheritableProgramEntityQuery.setInt( 1, programEntityKey);
-            ResultSet resultSet = sqlInheritableProgramEntityQuery.executeQuery();
-            resultSet.next();
-
-            String entityName = 
-                    this.identifierNameCache.get( resultSet.getInt( "identifier_name_key_fk" ) );
-            ArrayList<String> componentWords = tokensFor( entityName );
-
-            String packageName = getPackageNameFor( resultSet.getInt( "package_key_fk" ));
-
-            // get the modifiers
-            ArrayList<Modifier> modifierList = getModifierList( programEntityKey );
-            String containerUid = resultSet.getString( "container_uid" );
-            String entityUid = resultSet.getString( "entity_uid" );
-            int typeNameKey = resultSet.getInt( "type_name_key_fk" );
-            String type = this.typeNameCache.get( typeNameKey );
-            String resolveableType = null;  // for the moment
-            int speciesNameKey = resultSet.getInt( "species_name_key_fk" );
-            Species species = Species.getSpeciesFor( this.speciesCache.get( speciesNameKey ) );
-
-            int projectKey = resultSet.getInt( "project_key_fk" );
-            ProjectDetails projectDetails = getProjectDetails( projectKey );
-            // get text position
-            int fileNameKey = resultSet.getInt( "file_name_key_fk" );
-            String fileName = this.fileNameCache.get( fileNameKey );
-            int startLineNumber = resultSet.getInt( "start_line_number" );
-            int startColumn = resultSet.getInt( "start_column" );
-            int endLineNumber = resultSet.getInt( "end_line_number" );
-            int endColumn = resultSet.getInt( "end_column" );
-  
-            // get the parents and their tokens
-            HashMap<String, ArrayList<String>> superClasses = 
-                    buildSuperClassesMap( programEntityKey );
-            HashMap<String, ArrayList<String>> superTypes = 
-                    buildSuperTypesMap( programEntityKey );
-
-            // create a class name data object and add it to the list
-            entityData = new InheritableProgramEntity(
-                    projectDetails.name(),
-                    projectDetails.version(),
-                    entityName,
-                    packageName,
-                    componentWords,
-                    modifierList,
-                    species,
-                    containerUid,
-                    entityUid,
-                    type,
-                    resolveableType,
-                    false,              // not an array declaration
-                    false,              // not loop control variable
-                    fileName,
-                    startLineNumber,
-                    startColumn,
-                    endLineNumber,
-                    endColumn,
-                    superClasses,
-                    superTypes );
-        }
-        catch ( SQLException sqlEx ) {
-            LOGGER.error(
-                    "Could not recover subclass entity key : {}\n"
-                            + "SQL state: {}\nError code: {}",
-                    sqlEx.getMessage(), 
-                    sqlEx.getSQLState(), 
-                    sqlEx.getErrorCode() );
-            // is this fatal, or should we return here?
-        }
-        
-        return entityData;
+    // recovers the entities for the keys of subclasses or subtypes in 
+    // batches, keeping the classes and interfaces
+    private void addInheritableEntities( 
+            List<Integer> programEntityKeys, 
+            ArrayList<InheritableProgramEntity> inheritableEntities ) {
+        getEntitiesByKeys( programEntityKeys ).stream()
+                .filter( (programEntity) -> programEntity instanceof InheritableProgramEntity )
+                .forEach( (programEntity) -> 
+                        inheritableEntities.add( (InheritableProgramEntity) programEntity ) );
     }
     
     private HashMap<String, ArrayList<String>> buildSuperClassesMap( int programEntityKey ) {
-        ArrayList<String> superClassList = getSuperClassNameList( programEntityKey );
-        HashMap<String, ArrayList<String>> superClasses = new HashMap<>();
-        superClassList.stream().forEach((superClassName) -> {
-            ArrayList<String> componentWordList = tokensFor( superClassName );
-            superClasses.put( superClassName, componentWordList );
-        } );
-
-        return superClasses;
+        return tokenMapFor( getSuperClassNameList( programEntityKey ) );
     }
 
     private HashMap<String, ArrayList<String>> buildSuperTypesMap( int programEntityKey ) {
-        ArrayList<String> superTypeList = getSuperTypeNameList( programEntityKey );
-        HashMap<String, ArrayList<String>> superTypes = new HashMap<>();
-        superTypeList.stream().forEach((superTypeName) -> {
-            ArrayList<String> componentWordList = tokensFor( superTypeName );
-            superTypes.put( superTypeName, componentWordList );
-        } );
-
-        return superTypes;
+        return tokenMapFor( getSuperTypeNameList( programEntityKey ) );
     }
     
-    private ProjectDetails getProjectDetails( int projectKey ) {
-        ProjectDetails projectDetails;
-        PreparedStatement sqlProjectDetailsQuery = 
-                EntityDatabaseManager.sqlProjectDetailsQuery;
-        
-        try {
-            sqlProjectDetailsQuery.setInt( 1, projectKey);
-            ResultSet resultSet = sqlProjectDetailsQuery.executeQuery();
-            resultSet.next();
-            projectDetails = new ProjectDetails( 
-                    resultSet.getString( "project_name" ), 
-                    resultSet.getString( "project_version" ) );
-        }
-        catch ( SQLException sqlEx ) {
-            LOGGER.error(
-                    "Could not recover project details : {}\n"
-                            + "SQL state: {}\nError code: {}",
-                    sqlEx.getMessage(), 
-                    sqlEx.getSQLState(), 
-                    sqlEx.getErrorCode() );
-            return null;
+    // maps each name to its component words
+    private HashMap<String, ArrayList<String>> tokenMapFor( List<String> names ) {
+        HashMap<String, ArrayList<String>> tokenMap = new HashMap<>();
+        if ( names != null ) {
+            names.stream().forEach( (name) -> tokenMap.put( name, tokensFor( name ) ) );
         }
-        
-        return projectDetails;
-    }
-    
-    
-    
-    /**
-     * Class to encapsulate data.
-     *
-     */
-    class ProjectDetails {
-        private final String name;
-        private final String version;
-    
-        ProjectDetails( String name, String version ) {
-            this.name = name;
-            this.version = version;
-        }
-    
-        String name() {
-            return this.name;
-        }
-    
-        String version() {
-            return this.version;
-        }
-    
+
+        return tokenMap;
     }
 }
@@ -21,19 +21,25 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
-import uk.ac.open.crc.idtk.Modifier;
 import uk.ac.open.crc.idtk.Species;
 import uk.ac.open.crc.idtk.TypeName;
+import uk.ac.open.crc.jimdb.MetricsListener.IngestStage;
 
 /**
- * Provides an implementation for writing to the database.
+ * Provides an implementation for writing to the database. This is the 
+ * {@linkplain EntityStore} of the Derby backend. The database has a 
+ * single connection for writing, so one writer at a time may have a file 
+ * started.
  *
  */
 
-class EntityDatabaseWriter {
+class EntityDatabaseWriter implements EntityStore {
     private static final Logger LOGGER = 
             LoggerFactory.getLogger( EntityDatabaseWriter.class );
 
@@ -47,8 +53,13 @@ class EntityDatabaseWriter {
     private final PackageNameCache packageNameCache;
     private final ModifierCache modifierCache;
     private final FileNameCache fileNameCache;
+    private final TokenSequenceStore tokenSequenceStore;
 
     private Integer projectKey;
+    // time spent tokenising names for the entity being stored
+    private long tokenisationNanos;
+    // set while this writer's file is stored in a transaction
+    private boolean isFileStarted;
 
     /**
      * Constructor.
@@ -70,14 +81,18 @@ class EntityDatabaseWriter {
         // (unless multiple versions are being investigated)
         this.fileNameCache = FileNameCache.getInstance();
         
+        this.tokenSequenceStore = TokenSequenceStore.getInstance();
+        
         this.connection = EntityDatabaseManager.getConnection();
+        this.isFileStarted = false;
     }
 
     /**
      * Stores a program entity in the database.
      * @param programEntity the entity to store
      */
-    void store(RawProgramEntity programEntity) {
+    @Override
+    public void store(RawProgramEntity programEntity) {
         this.projectKey = JimDbConfiguration.getInstance().getProjectKey();
         
         // REVIEW THIS - there must be a better way of doing this!
@@ -88,6 +103,8 @@ class EntityDatabaseWriter {
                     JimDbConfiguration.getInstance().getProjectVersion());
         }
 
+        long stageStart = System.nanoTime();
+        this.tokenisationNanos = 0;
       
         String fileName = programEntity.getFileName();
         Integer fileNameKey = this.fileNameCache.get( fileName );
@@ -136,11 +153,7 @@ class EntityDatabaseWriter {
         // name is fqn, or identifier name if not
         // may need to be changed to local name at later date to increase accuracy
         TypeName typeName = programEntity.getTypeName();
-        String typeNameString = typeName.fqn();
-        if ( typeNameString == null 
-                || typeNameString.isEmpty() ) {
-            typeNameString = typeName.identifierName();
-        }
+        String typeNameString = typeNameString( typeName );
         
         Integer typeNameKey = this.typeNameCache.get( typeNameString );
         if (typeNameKey == null) {
@@ -154,6 +167,31 @@ class EntityDatabaseWriter {
             identifierNameKey = storeIdentifierName( identifierName );
             this.identifierNameCache.put( identifierNameKey, identifierName );            
         }
+        
+        boolean isAnonymous = identifierName.equals( ProgramEntity.ANONYMOUS );
+        int modifiers = this.modifierCache.maskFor( programEntity.getModifiers() );
+        stageStart = Metrics.ingestStage( 
+                IngestStage.DICTIONARY, stageStart, this.tokenisationNanos );
+        
+        // an identical entity stored for another version is shared
+        if ( EntityDatabaseManager.isDeduplicated() ) {
+            Integer identicalEntityKey = findIdenticalEntity(
+                    programEntity,
+                    packageNameKey,
+                    identifierNameKey,
+                    speciesNameKey,
+                    typeNameKey,
+                    methodSignatureKey,
+                    isAnonymous,
+                    fileNameKey,
+                    modifiers );
+            if ( identicalEntityKey != null ) {
+                stageStart = Metrics.ingestStage( IngestStage.ENTITY_INSERT, stageStart );
+                storeEntityVersion( identicalEntityKey, packageKey );
+                Metrics.ingestStage( IngestStage.CROSS_REFERENCES, stageStart );
+                return;
+            }
+        }
 
         // store the ProgramEntity data to the database
         // to get the program entity key and 
@@ -167,22 +205,22 @@ class EntityDatabaseWriter {
                 speciesNameKey,
                 typeNameKey,
                 methodSignatureKey,
-                identifierName.equals( ProgramEntity.ANONYMOUS ),
+                isAnonymous,
                 fileNameKey,
                 programEntity.isArrayDeclaration(),
                 programEntity.isLoopControlVariable(),
                 programEntity.getBeginLineNumber(),
                 programEntity.getBeginColumn(),
                 programEntity.getEndLineNumber(),
-                programEntity.getEndColumn());
-        
-     
-        // store the modifiers
-        ArrayList<Modifier> modifierList = programEntity.getModifiers();
-        if ( modifierList != null
-                && ! modifierList.isEmpty() ) {
-            storeModifierList(programEntityKey, modifierList);
+                programEntity.getEndColumn(),
+                modifiers);
+        stageStart = Metrics.ingestStage( IngestStage.ENTITY_INSERT, stageStart );
+        if ( programEntityKey == null ) {
+            return;
         }
+        EntityBitmapIndex.getInstance().addEntity( 
+                programEntityKey, this.projectKey, speciesNameKey, typeNameKey, modifiers );
+        ContainmentIndexCache.getInstance().remove( this.projectKey );
         
         // now the inheritance trees
         if ( species.isClass() || species.isInterface() ) {
@@ -195,6 +233,141 @@ class EntityDatabaseWriter {
                 storeSuperType( superType, programEntityKey);
             });
         }
+        
+        if ( EntityDatabaseManager.isDeduplicated() ) {
+            storeEntityVersion( programEntityKey, packageKey );
+        }
+        Metrics.ingestStage( IngestStage.CROSS_REFERENCES, stageStart );
+    }
+    
+    /**
+     * Searches other versions of the project for an entity identical to 
+     * the one being stored: the same uid, attributes, location, package
+     * name, modifiers and super types.
+     * @return the key of an identical entity, or {@code null} if there 
+     * is none
+     */
+    private Integer findIdenticalEntity(
+            RawProgramEntity programEntity,
+            Integer packageNameKey,
+            Integer identifierNameKey,
+            Integer speciesNameKey,
+            Integer typeNameKey,
+            Integer methodSignatureKey,
+            boolean isAnonymous,
+            Integer fileNameKey,
+            int modifiers ) {
+        if ( programEntity.getEntityUid() == null 
+                || programEntity.getContainerUid() == null ) {
+            return null;
+        }
+        
+        List<Integer> candidateKeys = new ArrayList<>();
+        try {
+            PreparedStatement sqlIdenticalEntityQuery = 
+                    EntityDatabaseManager.sqlIdenticalEntityQuery;
+            EntityDatabaseManager.setUid( sqlIdenticalEntityQuery, 1, programEntity.getEntityUid() );
+            sqlIdenticalEntityQuery.setInt( 2, identifierNameKey );
+            EntityDatabaseManager.setUid( sqlIdenticalEntityQuery, 3, programEntity.getContainerUid() );
+            sqlIdenticalEntityQuery.setInt( 4, speciesNameKey );
+            sqlIdenticalEntityQuery.setInt( 5, typeNameKey );
+            sqlIdenticalEntityQuery.setInt( 6, methodSignatureKey );
+            sqlIdenticalEntityQuery.setBoolean( 7, isAnonymous );
+            sqlIdenticalEntityQuery.setInt( 8, fileNameKey );
+            sqlIdenticalEntityQuery.setBoolean( 9, programEntity.isArrayDeclaration() );
+            sqlIdenticalEntityQuery.setBoolean( 10, programEntity.isLoopControlVariable() );
+            sqlIdenticalEntityQuery.setInt( 11, programEntity.getBeginLineNumber() );
+            sqlIdenticalEntityQuery.setInt( 12, programEntity.getBeginColumn() );
+            sqlIdenticalEntityQuery.setInt( 13, programEntity.getEndLineNumber() );
+            sqlIdenticalEntityQuery.setInt( 14, programEntity.getEndColumn() );
+            sqlIdenticalEntityQuery.setInt( 15, modifiers );
+            sqlIdenticalEntityQuery.setInt( 16, packageNameKey );
+            sqlIdenticalEntityQuery.setInt( 17, this.projectKey );
+            try ( ResultSet resultSet = sqlIdenticalEntityQuery.executeQuery() ) {
+                while ( resultSet.next() ) {
+                    candidateKeys.add( resultSet.getInt( 1 ) );
+                }
+            }
+            
+            if ( candidateKeys.isEmpty() ) {
+                return null;
+            }
+            
+            Set<String> superClassNames = programEntity.getSuperClassList().stream()
+                    .map( EntityDatabaseWriter::typeNameString )
+                    .collect( Collectors.toSet() );
+            Set<String> superTypeNames = programEntity.getSuperTypeList().stream()
+                    .map( EntityDatabaseWriter::typeNameString )
+                    .collect( Collectors.toSet() );
+            
+            for ( Integer candidateKey : candidateKeys ) {
+                if ( superClassNames.equals( 
+                                namesFor( EntityDatabaseManager.sqlEntitySuperClassNamesQuery, candidateKey ) )
+                        && superTypeNames.equals( 
+                                namesFor( EntityDatabaseManager.sqlEntitySuperTypeNamesQuery, candidateKey ) ) ) {
+                    return candidateKey;
+                }
+            }
+        }
+        catch ( SQLException sqlEx ) {
+            LOGGER.warn(
+                    "Search for identical program entity failed: {}\n"
+                            + "SQL state: {}\nError code: {}",
+                    sqlEx.getMessage(), 
+                    sqlEx.getSQLState(), 
+                    sqlEx.getErrorCode() );
+        }
+        
+        return null;
+    }
+    
+    private static Set<String> namesFor( PreparedStatement statement, int programEntityKey ) 
+            throws SQLException {
+        Set<String> names = new HashSet<>();
+        statement.setInt( 1, programEntityKey );
+        try ( ResultSet resultSet = statement.executeQuery() ) {
+            while ( resultSet.next() ) {
+                names.add( resultSet.getString( 1 ) );
+            }
+        }
+        return names;
+    }
+    
+    // type names are stored as the fqn, or the identifier name if unresolved
+    static String typeNameString( TypeName typeName ) {
+        String name = typeName.fqn();
+        if ( name == null || name.isEmpty() ) {
+            name = typeName.identifierName();
+        }
+        return name;
+    }
+    
+    /**
+     * Records that a program entity belongs to the current project.
+     * @param programEntityKey key of the program entity
+     * @param packageKey the key of the entity's package in this project
+     */
+    private void storeEntityVersion( Integer programEntityKey, Integer packageKey ) {
+        try {
+            PreparedStatement sqlEntityVersionInsert = 
+                    EntityDatabaseManager.sqlEntityVersionInsert;
+            sqlEntityVersionInsert.setInt( 1, this.projectKey );
+            sqlEntityVersionInsert.setInt( 2, programEntityKey );
+            sqlEntityVersionInsert.setInt( 3, packageKey );
+            sqlEntityVersionInsert.executeUpdate();
+            commit();
+            EntityBitmapIndex.getInstance().addToProject( programEntityKey, this.projectKey );
+            ContainmentIndexCache.getInstance().remove( this.projectKey );
+        }
+        catch ( SQLException sqlEx ) {
+            EntityDatabaseManager.recordWriteFailure( sqlEx );
+            LOGGER.warn(
+                    "Insert into entity versions table failed: {}\n"
+                            + "SQL state: {}\nError code: {}",
+                    sqlEx.getMessage(), 
+                    sqlEx.getSQLState(), 
+                    sqlEx.getErrorCode() );
+        }
     }
 
     /**
@@ -215,6 +388,7 @@ class EntityDatabaseWriter {
      * @param beginColumn physical location of entity in file
      * @param endLineNumber physical location of entity in file
      * @param endColumn physical location of entity in file
+     * @param modifiers the entity's modifiers as a bit mask
      * @return the program entity key
      */
     Integer storeProgramEntity(
@@ -233,7 +407,8 @@ class EntityDatabaseWriter {
                 int beginLineNumber,
                 int beginColumn,
                 int endLineNumber,
-                int endColumn) {
+                int endColumn,
+                int modifiers) {
         Integer programEntityKey = null;
     
         try {
@@ -241,8 +416,8 @@ class EntityDatabaseWriter {
             sqlProgramEntityInsert.setInt(1, projectKey);
             sqlProgramEntityInsert.setInt(2, packageKey);
             sqlProgramEntityInsert.setInt(3, identifierNameKey);
-            sqlProgramEntityInsert.setString(4, parentDigest);
-            sqlProgramEntityInsert.setString(5, entityDigest);
+            EntityDatabaseManager.setUid(sqlProgramEntityInsert, 4, parentDigest);
+            EntityDatabaseManager.setUid(sqlProgramEntityInsert, 5, entityDigest);
             sqlProgramEntityInsert.setInt(6, speciesNameKey);
             sqlProgramEntityInsert.setInt(7, typeNameKey);
             sqlProgramEntityInsert.setInt(8, methodSignatureKey);
@@ -254,13 +429,16 @@ class EntityDatabaseWriter {
             sqlProgramEntityInsert.setInt(14, beginColumn);
             sqlProgramEntityInsert.setInt(15, endLineNumber);
             sqlProgramEntityInsert.setInt(16, endColumn);
+            sqlProgramEntityInsert.setInt(17, modifiers);
             sqlProgramEntityInsert.execute();
-            ResultSet resultSet = sqlProgramEntityInsert.getGeneratedKeys();
-            resultSet.next();
-            programEntityKey = resultSet.getInt(1);
-            this.connection.commit();
+            try ( ResultSet resultSet = sqlProgramEntityInsert.getGeneratedKeys() ) {
+                resultSet.next();
+                programEntityKey = resultSet.getInt(1);
+            }
+            commit();
         }
         catch (SQLException sqlEx) {
+            EntityDatabaseManager.recordWriteFailure( sqlEx );
             LOGGER.error(
                     "Insert in to program entity table failed: {}\n"
                             + "SQL state: {}\nError code: {}",
@@ -288,12 +466,16 @@ class EntityDatabaseWriter {
             sqlPackageInsert.setInt(1, this.projectKey);
             sqlPackageInsert.setInt(2, packageNameKey);
             sqlPackageInsert.execute();
-            ResultSet resultSet = sqlPackageInsert.getGeneratedKeys();
-            resultSet.next();
-            packageKey = resultSet.getInt(1);
-            this.connection.commit();
+            try ( ResultSet resultSet = sqlPackageInsert.getGeneratedKeys() ) {
+                resultSet.next();
+                packageKey = resultSet.getInt(1);
+            }
+            commit();
+            // the project's cached package names are now incomplete
+            ProjectContextCache.getInstance().invalidate( this.projectKey );
         }
         catch (SQLException sqlEx) {
+            EntityDatabaseManager.recordWriteFailure( sqlEx );
             LOGGER.warn(
                     "Insert in to package table failed: {}\nSQL state: {}\nError code: {}",
                     sqlEx.getMessage(), sqlEx.getSQLState(), sqlEx.getErrorCode() );
@@ -319,10 +501,11 @@ class EntityDatabaseWriter {
             try (ResultSet resultSet = sqlProjectInsert.getGeneratedKeys()) {
                 resultSet.next();
                 localProjectKey = resultSet.getInt(1);
-                this.connection.commit();
+                commit();
             }
         }
         catch (SQLException sqlEx) {
+            EntityDatabaseManager.recordWriteFailure( sqlEx );
             LOGGER.warn(
                     "Failed to store project in container table: {}\n"
                             + "SQL state: {}\nError code: {}", 
@@ -332,10 +515,260 @@ class EntityDatabaseWriter {
         }
 
         JimDbConfiguration.getInstance().setProjectKey( localProjectKey );
+        if ( localProjectKey != null ) {
+            ProjectKeyStore.getInstance().put( name + " " + version, localProjectKey );
+        }
 
         return localProjectKey;
     }
 
+    /**
+     * Recovers the key for the current project, reusing a project already 
+     * recorded with the same name and version, so that its entities can be
+     * updated in place. The project is created if it does not exist.
+     * @return the project key in the database
+     */
+    Integer resumeProject() {
+        this.projectKey = JimDbConfiguration.getInstance().getProjectKey();
+        if ( this.projectKey != null ) {
+            return this.projectKey;
+        }
+        
+        String name = JimDbConfiguration.getInstance().getProjectName();
+        String version = JimDbConfiguration.getInstance().getProjectVersion();
+        this.projectKey = ProjectKeyStore.getInstance().get( name + " " + version );
+        if ( this.projectKey == null ) {
+            this.projectKey = storeProject( name, version );
+        }
+        else {
+            LOGGER.info( "Resuming project \"{} {}\"", name, version );
+            JimDbConfiguration.getInstance().setProjectKey( this.projectKey );
+            EntityDatabaseManager.cachePackagesForProject( this.projectKey );
+        }
+        
+        return this.projectKey;
+    }
+    
+    @Override
+    public boolean beginFile( String fileName, String digest ) throws StorageException {
+        // any new project is recorded outside the file's transaction
+        resumeProject();
+        if ( isFileUnchanged( fileName, digest ) ) {
+            return false;
+        }
+
+        if ( EntityDatabaseManager.isInTransaction() ) {
+            throw new StorageException( 
+                    "Another writer has a file started: cannot begin " + fileName );
+        }
+        EntityDatabaseManager.beginTransaction();
+        try {
+            deleteFileEntities( fileName );
+        }
+        catch ( SQLException sqlEx ) {
+            EntityDatabaseManager.rollbackTransaction();
+            throw new StorageException( "Could not delete entities of file: " + fileName, sqlEx );
+        }
+        this.isFileStarted = true;
+
+        return true;
+    }
+
+    @Override
+    public void endFile( String fileName, String digest ) throws StorageException {
+        if ( ! this.isFileStarted ) {
+            throw new StorageException( "File not started: " + fileName );
+        }
+        this.isFileStarted = false;
+        try {
+            resumeProject();
+            storeFileDigest( fileName, digest );
+            EntityDatabaseManager.commitTransaction();
+        }
+        catch ( SQLException sqlEx ) {
+            if ( EntityDatabaseManager.isInTransaction() ) {
+                EntityDatabaseManager.rollbackTransaction();
+            }
+            throw new StorageException( "Could not store file: " + fileName, sqlEx );
+        }
+    }
+
+    @Override
+    public void abandonFile() {
+        if ( this.isFileStarted ) {
+            this.isFileStarted = false;
+            EntityDatabaseManager.rollbackTransaction();
+        }
+    }
+
+    @Override
+    public void removeFile( String fileName ) throws StorageException {
+        resumeProject();
+        if ( EntityDatabaseManager.isInTransaction() ) {
+            throw new StorageException( 
+                    "Another writer has a file started: cannot remove " + fileName );
+        }
+        EntityDatabaseManager.beginTransaction();
+        try {
+            deleteFileEntities( fileName );
+            EntityDatabaseManager.commitTransaction();
+        }
+        catch ( SQLException sqlEx ) {
+            if ( EntityDatabaseManager.isInTransaction() ) {
+                EntityDatabaseManager.rollbackTransaction();
+            }
+            throw new StorageException( "Could not remove file: " + fileName, sqlEx );
+        }
+    }
+    
+    /**
+     * Determines whether a file has the same digest as when its entities 
+     * were last stored for the current project.
+     * @param fileName a file name
+     * @param digest a digest of the file's content
+     * @return {@code true} if the recorded digest matches
+     */
+    boolean isFileUnchanged( String fileName, String digest ) {
+        Integer fileNameKey = this.fileNameCache.get( fileName );
+        if ( fileNameKey == null ) {
+            return false;
+        }
+        
+        try {
+            PreparedStatement sqlFileDigestQuery = 
+                    EntityDatabaseManager.sqlFileDigestQuery;
+            sqlFileDigestQuery.setInt( 1, this.projectKey );
+            sqlFileDigestQuery.setInt( 2, fileNameKey );
+            try ( ResultSet resultSet = sqlFileDigestQuery.executeQuery() ) {
+                return resultSet.next() 
+                        && digest.equals( resultSet.getString( "digest" ) );
+            }
+        }
+        catch (SQLException sqlEx) {
+            LOGGER.warn(
+                    "File digest query failed: {}\n"
+                            + "SQL state: {}\nError code: {}", 
+                    sqlEx.getMessage(), 
+                    sqlEx.getSQLState(), 
+                    sqlEx.getErrorCode() );
+        }
+        
+        return false;
+    }
+    
+    /**
+     * Deletes the entities, and their cross references, recorded for a file
+     * in the current project, together with the file's digest. Names and 
+     * tokens are left in place as they may be shared with other entities.
+     * @param fileName a file name
+     * @throws SQLException if any of the deletions fail
+     */
+    void deleteFileEntities( String fileName ) throws SQLException {
+        Integer fileNameKey = this.fileNameCache.get( fileName );
+        if ( fileNameKey == null ) {
+            return; // nothing has been stored for the file
+        }
+        
+        // the deleted keys are dropped when the indexes are next loaded
+        EntityBitmapIndex.getInstance().clear();
+        ContainmentIndexCache.getInstance().clear();
+        
+        if ( EntityDatabaseManager.isDeduplicated() ) {
+            deleteSharedFileEntities( fileNameKey, fileName );
+            return;
+        }
+        
+        PreparedStatement[] deletions = {
+            EntityDatabaseManager.sqlFileModifiersXrefDelete,
+            EntityDatabaseManager.sqlFileSuperClassXrefDelete,
+            EntityDatabaseManager.sqlFileSuperTypeXrefDelete,
+            EntityDatabaseManager.sqlFileProgramEntitiesDelete,
+            EntityDatabaseManager.sqlFileDigestDelete
+        };
+        int entityCount = 0;
+        for ( PreparedStatement deletion : deletions ) {
+            deletion.setInt( 1, this.projectKey );
+            deletion.setInt( 2, fileNameKey );
+            int rowCount = deletion.executeUpdate();
+            if ( deletion == EntityDatabaseManager.sqlFileProgramEntitiesDelete ) {
+                entityCount = rowCount;
+            }
+        }
+        commit();
+        
+        LOGGER.debug( "Deleted {} entities for file {}", entityCount, fileName );
+    }
+    
+    /**
+     * Removes the current project's membership of a file's entities, then 
+     * deletes those entities that no longer belong to any version.
+     */
+    private void deleteSharedFileEntities( Integer fileNameKey, String fileName ) 
+            throws SQLException {
+        PreparedStatement sqlFileEntityVersionsDelete = 
+                EntityDatabaseManager.sqlFileEntityVersionsDelete;
+        sqlFileEntityVersionsDelete.setInt( 1, this.projectKey );
+        sqlFileEntityVersionsDelete.setInt( 2, fileNameKey );
+        int memberCount = sqlFileEntityVersionsDelete.executeUpdate();
+        
+        PreparedStatement sqlFileDigestDelete = 
+                EntityDatabaseManager.sqlFileDigestDelete;
+        sqlFileDigestDelete.setInt( 1, this.projectKey );
+        sqlFileDigestDelete.setInt( 2, fileNameKey );
+        sqlFileDigestDelete.executeUpdate();
+        
+        PreparedStatement[] deletions = {
+            EntityDatabaseManager.sqlUnsharedModifiersXrefDelete,
+            EntityDatabaseManager.sqlUnsharedSuperClassXrefDelete,
+            EntityDatabaseManager.sqlUnsharedSuperTypeXrefDelete,
+            EntityDatabaseManager.sqlUnsharedProgramEntitiesDelete
+        };
+        int entityCount = 0;
+        for ( PreparedStatement deletion : deletions ) {
+            deletion.setInt( 1, fileNameKey );
+            entityCount = deletion.executeUpdate();
+        }
+        commit();
+        
+        LOGGER.debug( "Removed {} entities for file {}, of which {} were unshared", 
+                memberCount, fileName, entityCount );
+    }
+    
+    /**
+     * Records the digest of a file for the current project.
+     * @param fileName a file name
+     * @param digest a digest of the file's content
+     * @throws SQLException if the digest cannot be stored
+     */
+    void storeFileDigest( String fileName, String digest ) throws SQLException {
+        Integer fileNameKey = this.fileNameCache.get( fileName );
+        if ( fileNameKey == null ) {
+            fileNameKey = storeFileName( fileName );
+            this.fileNameCache.put( fileNameKey, fileName );
+        }
+        
+        PreparedStatement sqlFileDigestDelete = 
+                EntityDatabaseManager.sqlFileDigestDelete;
+        sqlFileDigestDelete.setInt( 1, this.projectKey );
+        sqlFileDigestDelete.setInt( 2, fileNameKey );
+        sqlFileDigestDelete.executeUpdate();
+        
+        PreparedStatement sqlFileDigestInsert = 
+                EntityDatabaseManager.sqlFileDigestInsert;
+        sqlFileDigestInsert.setInt( 1, this.projectKey );
+        sqlFileDigestInsert.setInt( 2, fileNameKey );
+        sqlFileDigestInsert.setString( 3, digest );
+        sqlFileDigestInsert.executeUpdate();
+        commit();
+    }
+    
+    // commits unless the inserts are being grouped into a transaction
+    private void commit() throws SQLException {
+        if ( ! EntityDatabaseManager.isInTransaction() ) {
+            this.connection.commit();
+        }
+    }
+
 
     // file names and keys are only being cached during the current data run
     // so need to check prior to store that the file name has not 
@@ -347,9 +780,10 @@ class EntityDatabaseWriter {
             PreparedStatement sqlFileNameQuery = 
                     EntityDatabaseManager.sqlFileNameQuery;
             sqlFileNameQuery.setString(1, fileName);
-            ResultSet resultSet = sqlFileNameQuery.executeQuery();
-            if ( resultSet.next() == true ) {
-                fileNameKey = resultSet.getInt("file_name_key");
+            try ( ResultSet resultSet = sqlFileNameQuery.executeQuery() ) {
+                if ( resultSet.next() == true ) {
+                    fileNameKey = resultSet.getInt("file_name_key");
+                }
             }
         }
         catch (SQLException sqlEx) {
@@ -369,12 +803,14 @@ class EntityDatabaseWriter {
                 sqlFileNameInsert.setString(1, fileName);
                 sqlFileNameInsert.executeUpdate();
 
-                ResultSet resultSet = sqlFileNameInsert.getGeneratedKeys();
-                resultSet.next();
-                fileNameKey = resultSet.getInt(1);
-                this.connection.commit();
+                try ( ResultSet resultSet = sqlFileNameInsert.getGeneratedKeys() ) {
+                    resultSet.next();
+                    fileNameKey = resultSet.getInt(1);
+                }
+                commit();
             }
             catch (SQLException sqlEx) {
+                EntityDatabaseManager.recordWriteFailure( sqlEx );
                 LOGGER.warn(
                         "Failed to store file name: {}\n"
                                 + "SQL state: {}\nError code: {}", 
@@ -407,11 +843,12 @@ class EntityDatabaseWriter {
                     packageResults.next();
                     packageNameKey = packageResults.getInt(1);
                     
-                    this.connection.commit();
+                    commit();
                     packageResults.close();
                 }
             }
             catch (SQLException sqlEx) {
+                EntityDatabaseManager.recordWriteFailure( sqlEx );
                  LOGGER.warn(
                             "Failed to store package in package table: {}\n"
                                     + "SQL state: {}\nError code: {}",
@@ -445,16 +882,20 @@ class EntityDatabaseWriter {
                 nameResults.next();
                 identifierNameKey = nameResults.getInt(1);
                 
-                this.connection.commit();
+                commit();
             }
 
             if ( ! identifierName.startsWith( "#" ) ) { // trap out the non names
+                long start = System.nanoTime();
                 List<String> tokens = 
                         InttSingleton.getInstance().tokenise( identifierName );
+                this.tokenisationNanos += 
+                        Metrics.ingestStage( IngestStage.TOKENISATION, start ) - start;
                 storeTokens( tokens, identifierNameKey );
             }
         }
         catch (SQLException sqlEx) {
+            EntityDatabaseManager.recordWriteFailure( sqlEx );
              LOGGER.warn(
                         "Failed to store identifier name in identifier name table: {}\n"
                                 + "SQL state: {}\nError code: {}",
@@ -478,10 +919,7 @@ class EntityDatabaseWriter {
             this.identifierNameCache.put( identifierNameKey, typeName.identifierName() );
         }
         
-        String name = typeName.fqn();
-        if ( name == null || name.isEmpty() ) {
-            name = typeName.identifierName(); 
-        }
+        String name = typeNameString( typeName );
         
         try {
             PreparedStatement sqlTypeNameInsert = 
@@ -493,10 +931,11 @@ class EntityDatabaseWriter {
                 typeNameResults.next();
                 typeNameKey = typeNameResults.getInt( 1 );
                 
-                this.connection.commit();
+                commit();
             }
         }
         catch (SQLException sqlEx) {
+            EntityDatabaseManager.recordWriteFailure( sqlEx );
              LOGGER.warn(
                         "Failed to store type name in identifier name table: {}\n"
                                 + "SQL state: {}\nError code: {}",
@@ -515,6 +954,7 @@ class EntityDatabaseWriter {
         PreparedStatement sqlComponentWordInsert = 
                 EntityDatabaseManager.sqlComponentWordInsert;
         Integer tokenKey;
+        int[] tokenKeys = new int[ tokens.size() ];
         for ( int i = 0; i < tokens.size(); i++ ) {
             String token = tokens.get( i ).toLowerCase();
             tokenKey = this.tokenCache.get( token );
@@ -527,10 +967,11 @@ class EntityDatabaseWriter {
                     try ( ResultSet resultSet = sqlComponentWordInsert.getGeneratedKeys() ) {
                         resultSet.next();
                         tokenKey = resultSet.getInt(1);
-                        this.connection.commit();
+                        commit();
                     }
                 }
                 catch (SQLException sqlEx) {
+                    EntityDatabaseManager.recordWriteFailure( sqlEx );
                     LOGGER.warn(
                             "Insert into hard words table failed: {}\n"
                                     + "SQL state: {}\nError code: {}",
@@ -543,6 +984,7 @@ class EntityDatabaseWriter {
                 // and cache the token key for later
                 this.tokenCache.put( tokenKey, token );
             }
+            tokenKeys[i] = tokenKey;
 
             // now save the cross reference
             // this is a straghtforward insert
@@ -553,9 +995,10 @@ class EntityDatabaseWriter {
                 sqlComponentWordXrefInsert.setInt( 2, identifierNameKey );
                 sqlComponentWordXrefInsert.setInt( 3, i + 1 );  // the nth position in the identifier
                 sqlComponentWordXrefInsert.executeUpdate();
-                this.connection.commit();
+                commit();
             }
             catch (SQLException sqlEx) {
+                EntityDatabaseManager.recordWriteFailure( sqlEx );
                 LOGGER.warn(
                         "Insert into hard words xref table failed: {}\n"
                                 + "SQL state: {}\nError code: {}",
@@ -564,6 +1007,9 @@ class EntityDatabaseWriter {
                         sqlEx.getErrorCode() );
             }
         }
+        
+        // keep the in-memory token sequences in step with the xref table
+        this.tokenSequenceStore.put( identifierNameKey, tokenKeys );
     }
 
 
@@ -578,11 +1024,13 @@ class EntityDatabaseWriter {
                         EntityDatabaseManager.sqlMethodSignatureInsert;
                 sqlMethodSignatureInsert.setString( 1, methodSignature );
                 sqlMethodSignatureInsert.execute();
-                ResultSet resultSet = sqlMethodSignatureInsert.getGeneratedKeys();
-                resultSet.next();
-                methodSignatureKey = resultSet.getInt(1);
+                try ( ResultSet resultSet = sqlMethodSignatureInsert.getGeneratedKeys() ) {
+                    resultSet.next();
+                    methodSignatureKey = resultSet.getInt(1);
+                }
             }
             catch (SQLException sqlEx) {
+                EntityDatabaseManager.recordWriteFailure( sqlEx );
                     LOGGER.warn(
                             "Insert into method signatures table failed: {}\n"
                                     + "SQL state: {}\nError code: {}",
@@ -599,20 +1047,12 @@ class EntityDatabaseWriter {
     }
 
 
-    private void storeModifierList(
-            Integer programEntityKey, 
-            ArrayList<Modifier> modifiers ) {
-        modifiers.stream()
-                .map( (modifier) -> this.modifierCache.get( modifier.description() ) )
-                .forEach( (modifierKey) -> {
-            storeModifierXref(modifierKey, programEntityKey);
-        } );
-    }
-
-    
     private void storeSuperClass(TypeName superClassName, int programEntityKey) {
         // make sure the type is already stored, then xref
-        Integer typeNameKey = this.storeTypeName( superClassName );
+        Integer typeNameKey = this.typeNameCache.get( typeNameString( superClassName ) );
+        if ( typeNameKey == null ) {
+            typeNameKey = this.storeTypeName( superClassName );
+        }
         
         try {
             PreparedStatement sqlSuperClassInsert = 
@@ -622,6 +1062,7 @@ class EntityDatabaseWriter {
             sqlSuperClassInsert.executeUpdate();
         }
         catch (SQLException sqlEx) {
+            EntityDatabaseManager.recordWriteFailure( sqlEx );
             LOGGER.warn(
                     "Insert into super class xref table failed: {}\n"
                             + "SQL state: {}\nError code: {}",
@@ -632,7 +1073,10 @@ class EntityDatabaseWriter {
     }
     
     private void storeSuperType( TypeName superTypeName, int programEntityKey ) {
-        Integer typeNameKey = this.storeTypeName( superTypeName );
+        Integer typeNameKey = this.typeNameCache.get( typeNameString( superTypeName ) );
+        if ( typeNameKey == null ) {
+            typeNameKey = this.storeTypeName( superTypeName );
+        }
         
         try {
             PreparedStatement sqlSuperTypeInsert =
@@ -642,6 +1086,7 @@ class EntityDatabaseWriter {
             sqlSuperTypeInsert.executeUpdate();
         }
         catch (SQLException sqlEx) {
+            EntityDatabaseManager.recordWriteFailure( sqlEx );
             LOGGER.warn(
                     "Insert into super type xref table failed: {}\n"
                             + "SQL state: {}\nError code: {}",
@@ -651,25 +1096,4 @@ class EntityDatabaseWriter {
         }
     }
     
-    private void storeModifierXref( Integer modifierKey, Integer programEntityKey ) {
-        try {
-            PreparedStatement sqlModifierXrefInsert = 
-                    EntityDatabaseManager.sqlModifierXrefInsert;
-            sqlModifierXrefInsert.setInt(1, modifierKey);
-            sqlModifierXrefInsert.setInt(2, programEntityKey);
-            
-            sqlModifierXrefInsert.execute();
-            
-            this.connection.commit();
-        }
-        catch (SQLException sqlEx) {
-             LOGGER.warn(
-                        "Failed to store modifier cross reference: {}\n"
-                                + "SQL state: {}\nError code: {}",
-                        sqlEx.getMessage(), 
-                        sqlEx.getSQLState(), 
-                        sqlEx.getErrorCode() );
-        }
-    }
-    
 }
@@ -0,0 +1,583 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.function.IntConsumer;
+
+/**
+ * A compressed set of program entity keys. Sets are combined with
+ * {@linkplain #and(EntityKeySet)}, {@linkplain #or(EntityKeySet)} and
+ * {@linkplain #andNot(EntityKeySet)}, each of which returns a new set, and
+ * the entities in a set are retrieved with
+ * {@linkplain DatabaseReader#getEntitiesFor(EntityKeySet)}.
+ *
+ * <p>
+ * Keys are partitioned on their upper 16 bits. Each partition holds its
+ * lower 16 bits either as a sorted array, when sparse, or as a 65536 bit
+ * bitmap, when dense, in the manner of a Roaring bitmap.
+ * </p>
+ */
+public final class EntityKeySet {
+
+    // partitions with more entries than this are stored as bitmaps
+    private static final int ARRAY_LIMIT = 4096;
+    private static final int BITMAP_WORDS = 1024;
+
+    private char[] highKeys;
+    private Object[] containers; // char[] when sparse, long[] when dense
+    private int[] cardinalities;
+    private int size;
+    // the project the keys were drawn from, while they all belong to it,
+    // so that entities shared between versions are read as that project's
+    private Integer projectKey;
+
+    /**
+     * Creates an empty set.
+     */
+    EntityKeySet() {
+        this( 4 );
+    }
+
+    private EntityKeySet( int capacity ) {
+        this.highKeys = new char[ capacity ];
+        this.containers = new Object[ capacity ];
+        this.cardinalities = new int[ capacity ];
+        this.size = 0;
+        this.projectKey = null;
+    }
+
+    /**
+     * Creates a set containing the given keys.
+     * @param keys program entity keys, which must not be negative
+     * @return a set of keys
+     */
+    public static EntityKeySet of( int... keys ) {
+        EntityKeySet set = new EntityKeySet();
+        for ( int key : keys ) {
+            set.add( key );
+        }
+        return set;
+    }
+
+    /**
+     * Adds a key to the set.
+     * @param key a program entity key
+     * @throws IllegalArgumentException if the key is negative
+     */
+    void add( int key ) {
+        if ( key < 0 ) {
+            throw new IllegalArgumentException( "Negative entity key: " + key );
+        }
+
+        char high = (char) ( key >>> 16 );
+        char low = (char) key;
+        int index = indexOf( high );
+        if ( index < 0 ) {
+            index = -index - 1;
+            insertPartition( index, high, new char[] { low }, 1 );
+            return;
+        }
+
+        Object container = this.containers[ index ];
+        int cardinality = this.cardinalities[ index ];
+        if ( container instanceof long[] ) {
+            long[] bitmap = (long[]) container;
+            long bit = 1L << low;
+            if ( ( bitmap[ low >>> 6 ] & bit ) == 0 ) {
+                bitmap[ low >>> 6 ] |= bit;
+                this.cardinalities[ index ]++;
+            }
+            return;
+        }
+
+        char[] array = (char[]) container;
+        int position = Arrays.binarySearch( array, 0, cardinality, low );
+        if ( position >= 0 ) {
+            return;
+        }
+        position = -position - 1;
+        if ( cardinality == ARRAY_LIMIT ) {
+            long[] bitmap = toBitmap( array, cardinality );
+            bitmap[ low >>> 6 ] |= 1L << low;
+            this.containers[ index ] = bitmap;
+        }
+        else {
+            if ( cardinality == array.length ) {
+                array = Arrays.copyOf( array, Math.min( ARRAY_LIMIT, cardinality * 2 ) );
+                this.containers[ index ] = array;
+            }
+            System.arraycopy( array, position, array, position + 1, cardinality - position );
+            array[ position ] = low;
+        }
+        this.cardinalities[ index ]++;
+    }
+
+    /**
+     * Removes a key from the set.
+     * @param key a program entity key
+     */
+    void remove( int key ) {
+        if ( key < 0 ) {
+            return;
+        }
+
+        int index = indexOf( (char) ( key >>> 16 ) );
+        if ( index < 0 ) {
+            return;
+        }
+
+        char low = (char) key;
+        Object container = this.containers[ index ];
+        int cardinality = this.cardinalities[ index ];
+        if ( container instanceof long[] ) {
+            long[] bitmap = (long[]) container;
+            long bit = 1L << low;
+            if ( ( bitmap[ low >>> 6 ] & bit ) == 0 ) {
+                return;
+            }
+            bitmap[ low >>> 6 ] &= ~bit;
+            cardinality--;
+            if ( cardinality <= ARRAY_LIMIT ) {
+                this.containers[ index ] = toArray( bitmap, cardinality );
+            }
+        }
+        else {
+            char[] array = (char[]) container;
+            int position = Arrays.binarySearch( array, 0, cardinality, low );
+            if ( position < 0 ) {
+                return;
+            }
+            System.arraycopy( array, position + 1, array, position, cardinality - position - 1 );
+            cardinality--;
+        }
+
+        if ( cardinality == 0 ) {
+            removePartition( index );
+        }
+        else {
+            this.cardinalities[ index ] = cardinality;
+        }
+    }
+
+    /**
+     * Tests whether a key is a member of the set.
+     * @param key a program entity key
+     * @return {@code true} if the key is in the set
+     */
+    public boolean contains( int key ) {
+        if ( key < 0 ) {
+            return false;
+        }
+
+        int index = indexOf( (char) ( key >>> 16 ) );
+        return index >= 0
+                && containsLow( this.containers[ index ], this.cardinalities[ index ], (char) key );
+    }
+
+    /**
+     * Retrieves the number of keys in the set.
+     * @return the number of keys
+     */
+    public int cardinality() {
+        int cardinality = 0;
+        for ( int i = 0; i < this.size; i++ ) {
+            cardinality += this.cardinalities[ i ];
+        }
+        return cardinality;
+    }
+
+    /**
+     * Indicates whether the set is empty.
+     * @return {@code true} if the set contains no keys
+     */
+    public boolean isEmpty() {
+        return this.size == 0;
+    }
+
+    /**
+     * Creates the intersection of this set and another.
+     * @param other a set of keys
+     * @return a new set containing the keys found in both sets
+     */
+    public EntityKeySet and( EntityKeySet other ) {
+        EntityKeySet result = new EntityKeySet( Math.min( this.size, other.size ) + 1 );
+        int i = 0;
+        int j = 0;
+        while ( i < this.size && j < other.size ) {
+            char high = this.highKeys[ i ];
+            char otherHigh = other.highKeys[ j ];
+            if ( high < otherHigh ) {
+                i++;
+            }
+            else if ( high > otherHigh ) {
+                j++;
+            }
+            else {
+                result.appendPartition( high, intersect(
+                        this.containers[ i ], this.cardinalities[ i ],
+                        other.containers[ j ], other.cardinalities[ j ] ) );
+                i++;
+                j++;
+            }
+        }
+        result.projectKey = this.projectKey == null 
+                ? other.projectKey 
+                : other.projectKey == null || this.projectKey.equals( other.projectKey ) 
+                        ? this.projectKey 
+                        : null;
+        return result;
+    }
+
+    /**
+     * Creates the union of this set and another.
+     * @param other a set of keys
+     * @return a new set containing the keys found in either set
+     */
+    public EntityKeySet or( EntityKeySet other ) {
+        EntityKeySet result = new EntityKeySet( this.size + other.size + 1 );
+        int i = 0;
+        int j = 0;
+        while ( i < this.size || j < other.size ) {
+            if ( j == other.size
+                    || ( i < this.size && this.highKeys[ i ] < other.highKeys[ j ] ) ) {
+                result.appendCopy( this, i++ );
+            }
+            else if ( i == this.size || this.highKeys[ i ] > other.highKeys[ j ] ) {
+                result.appendCopy( other, j++ );
+            }
+            else {
+                result.appendPartition( this.highKeys[ i ], union(
+                        this.containers[ i ], this.cardinalities[ i ],
+                        other.containers[ j ], other.cardinalities[ j ] ) );
+                i++;
+                j++;
+            }
+        }
+        result.projectKey = Objects.equals( this.projectKey, other.projectKey ) 
+                ? this.projectKey 
+                : null;
+        return result;
+    }
+
+    /**
+     * Creates the difference of this set and another.
+     * @param other a set of keys
+     * @return a new set containing the keys in this set that are not in
+     * the other
+     */
+    public EntityKeySet andNot( EntityKeySet other ) {
+        EntityKeySet result = new EntityKeySet( this.size + 1 );
+        int j = 0;
+        for ( int i = 0; i < this.size; i++ ) {
+            char high = this.highKeys[ i ];
+            while ( j < other.size && other.highKeys[ j ] < high ) {
+                j++;
+            }
+            if ( j < other.size && other.highKeys[ j ] == high ) {
+                result.appendPartition( high, difference(
+                        this.containers[ i ], this.cardinalities[ i ],
+                        other.containers[ j ], other.cardinalities[ j ] ) );
+            }
+            else {
+                result.appendCopy( this, i );
+            }
+        }
+        result.projectKey = this.projectKey;
+        return result;
+    }
+
+    /**
+     * Passes each key in the set to a consumer in ascending order.
+     * @param consumer receives each key
+     */
+    public void forEach( IntConsumer consumer ) {
+        for ( int i = 0; i < this.size; i++ ) {
+            int high = this.highKeys[ i ] << 16;
+            Object container = this.containers[ i ];
+            if ( container instanceof long[] ) {
+                long[] bitmap = (long[]) container;
+                for ( int word = 0; word < BITMAP_WORDS; word++ ) {
+                    long bits = bitmap[ word ];
+                    while ( bits != 0 ) {
+                        consumer.accept( high | ( word << 6 ) | Long.numberOfTrailingZeros( bits ) );
+                        bits &= bits - 1;
+                    }
+                }
+            }
+            else {
+                char[] array = (char[]) container;
+                for ( int k = 0; k < this.cardinalities[ i ]; k++ ) {
+                    consumer.accept( high | array[ k ] );
+                }
+            }
+        }
+    }
+
+    /**
+     * Retrieves the keys in the set.
+     * @return the keys in ascending order
+     */
+    public int[] toArray() {
+        int[] keys = new int[ cardinality() ];
+        int[] count = { 0 };
+        forEach( (key) -> keys[ count[ 0 ]++ ] = key );
+        return keys;
+    }
+
+    /**
+     * Creates an independent copy of the set.
+     * @return a copy of the set
+     */
+    EntityKeySet copy() {
+        EntityKeySet copy = new EntityKeySet( this.size + 1 );
+        for ( int i = 0; i < this.size; i++ ) {
+            copy.appendCopy( this, i );
+        }
+        copy.projectKey = this.projectKey;
+        return copy;
+    }
+
+    /**
+     * Records that the keys in the set all belong to a project.
+     * @param projectKey a database key for a project
+     * @return this set
+     */
+    EntityKeySet inProject( int projectKey ) {
+        this.projectKey = projectKey;
+        return this;
+    }
+
+    /**
+     * Retrieves the project all the keys in the set belong to.
+     * @return a database key for a project, or {@code null} if the keys
+     * are not known to belong to a single project
+     */
+    Integer projectKey() {
+        return this.projectKey;
+    }
+
+    @Override
+    public boolean equals( Object o ) {
+        if ( this == o ) {
+            return true;
+        }
+        if ( ! ( o instanceof EntityKeySet ) ) {
+            return false;
+        }
+        return Arrays.equals( toArray(), ( (EntityKeySet) o ).toArray() );
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode( toArray() );
+    }
+
+    @Override
+    public String toString() {
+        return "EntityKeySet[" + cardinality() + " keys]";
+    }
+
+
+    // ---------- partitions
+
+    private int indexOf( char high ) {
+        return Arrays.binarySearch( this.highKeys, 0, this.size, high );
+    }
+
+    private void insertPartition( int index, char high, Object container, int cardinality ) {
+        if ( this.size == this.highKeys.length ) {
+            int capacity = Math.max( 4, this.size * 2 );
+            this.highKeys = Arrays.copyOf( this.highKeys, capacity );
+            this.containers = Arrays.copyOf( this.containers, capacity );
+            this.cardinalities = Arrays.copyOf( this.cardinalities, capacity );
+        }
+        int tail = this.size - index;
+        System.arraycopy( this.highKeys, index, this.highKeys, index + 1, tail );
+        System.arraycopy( this.containers, index, this.containers, index + 1, tail );
+        System.arraycopy( this.cardinalities, index, this.cardinalities, index + 1, tail );
+        this.highKeys[ index ] = high;
+        this.containers[ index ] = container;
+        this.cardinalities[ index ] = cardinality;
+        this.size++;
+    }
+
+    private void removePartition( int index ) {
+        int tail = this.size - index - 1;
+        System.arraycopy( this.highKeys, index + 1, this.highKeys, index, tail );
+        System.arraycopy( this.containers, index + 1, this.containers, index, tail );
+        System.arraycopy( this.cardinalities, index + 1, this.cardinalities, index, tail );
+        this.size--;
+        this.containers[ this.size ] = null;
+    }
+
+    // partitions are appended in key order, empty results are dropped
+    private void appendPartition( char high, Object container ) {
+        int cardinality = container instanceof long[]
+                ? bitCount( (long[]) container )
+                : ( (char[]) container ).length;
+        if ( cardinality == 0 ) {
+            return;
+        }
+        if ( container instanceof long[] && cardinality <= ARRAY_LIMIT ) {
+            container = toArray( (long[]) container, cardinality );
+        }
+        insertPartition( this.size, high, container, cardinality );
+    }
+
+    private void appendCopy( EntityKeySet source, int index ) {
+        Object container = source.containers[ index ];
+        int cardinality = source.cardinalities[ index ];
+        insertPartition( this.size, source.highKeys[ index ],
+                container instanceof long[]
+                        ? ( (long[]) container ).clone()
+                        : Arrays.copyOf( (char[]) container, cardinality ),
+                cardinality );
+    }
+
+
+    // ---------- containers
+
+    private static boolean containsLow( Object container, int cardinality, char low ) {
+        if ( container instanceof long[] ) {
+            return ( ( (long[]) container )[ low >>> 6 ] & ( 1L << low ) ) != 0;
+        }
+        return Arrays.binarySearch( (char[]) container, 0, cardinality, low ) >= 0;
+    }
+
+    private static Object intersect( Object a, int aCount, Object b, int bCount ) {
+        if ( a instanceof long[] && b instanceof long[] ) {
+            long[] bitmap = ( (long[]) a ).clone();
+            long[] other = (long[]) b;
+            for ( int word = 0; word < BITMAP_WORDS; word++ ) {
+                bitmap[ word ] &= other[ word ];
+            }
+            return bitmap;
+        }
+        if ( a instanceof long[] ) {
+            return intersect( b, bCount, a, aCount );
+        }
+        // a is sparse, so the result is too
+        char[] array = (char[]) a;
+        char[] result = new char[ aCount ];
+        int count = 0;
+        for ( int i = 0; i < aCount; i++ ) {
+            if ( containsLow( b, bCount, array[ i ] ) ) {
+                result[ count++ ] = array[ i ];
+            }
+        }
+        return Arrays.copyOf( result, count );
+    }
+
+    private static Object union( Object a, int aCount, Object b, int bCount ) {
+        if ( a instanceof char[] && b instanceof char[] && aCount + bCount <= ARRAY_LIMIT ) {
+            char[] x = (char[]) a;
+            char[] y = (char[]) b;
+            char[] result = new char[ aCount + bCount ];
+            int i = 0;
+            int j = 0;
+            int count = 0;
+            while ( i < aCount || j < bCount ) {
+                if ( j == bCount || ( i < aCount && x[ i ] < y[ j ] ) ) {
+                    result[ count++ ] = x[ i++ ];
+                }
+                else if ( i == aCount || x[ i ] > y[ j ] ) {
+                    result[ count++ ] = y[ j++ ];
+                }
+                else {
+                    result[ count++ ] = x[ i++ ];
+                    j++;
+                }
+            }
+            return Arrays.copyOf( result, count );
+        }
+
+        long[] bitmap = a instanceof long[] ? ( (long[]) a ).clone() : toBitmap( (char[]) a, aCount );
+        if ( b instanceof long[] ) {
+            long[] other = (long[]) b;
+            for ( int word = 0; word < BITMAP_WORDS; word++ ) {
+                bitmap[ word ] |= other[ word ];
+            }
+        }
+        else {
+            char[] array = (char[]) b;
+            for ( int i = 0; i < bCount; i++ ) {
+                bitmap[ array[ i ] >>> 6 ] |= 1L << array[ i ];
+            }
+        }
+        return bitmap;
+    }
+
+    private static Object difference( Object a, int aCount, Object b, int bCount ) {
+        if ( a instanceof char[] ) {
+            char[] array = (char[]) a;
+            char[] result = new char[ aCount ];
+            int count = 0;
+            for ( int i = 0; i < aCount; i++ ) {
+                if ( ! containsLow( b, bCount, array[ i ] ) ) {
+                    result[ count++ ] = array[ i ];
+                }
+            }
+            return Arrays.copyOf( result, count );
+        }
+
+        long[] bitmap = ( (long[]) a ).clone();
+        if ( b instanceof long[] ) {
+            long[] other = (long[]) b;
+            for ( int word = 0; word < BITMAP_WORDS; word++ ) {
+                bitmap[ word ] &= ~other[ word ];
+            }
+        }
+        else {
+            char[] array = (char[]) b;
+            for ( int i = 0; i < bCount; i++ ) {
+                bitmap[ array[ i ] >>> 6 ] &= ~( 1L << array[ i ] );
+            }
+        }
+        return bitmap;
+    }
+
+    private static long[] toBitmap( char[] array, int cardinality ) {
+        long[] bitmap = new long[ BITMAP_WORDS ];
+        for ( int i = 0; i < cardinality; i++ ) {
+            bitmap[ array[ i ] >>> 6 ] |= 1L << array[ i ];
+        }
+        return bitmap;
+    }
+
+    private static char[] toArray( long[] bitmap, int cardinality ) {
+        char[] array = new char[ cardinality ];
+        int count = 0;
+        for ( int word = 0; word < BITMAP_WORDS; word++ ) {
+            long bits = bitmap[ word ];
+            while ( bits != 0 ) {
+                array[ count++ ] = (char) ( ( word << 6 ) | Long.numberOfTrailingZeros( bits ) );
+                bits &= bits - 1;
+            }
+        }
+        return array;
+    }
+
+    private static int bitCount( long[] bitmap ) {
+        int count = 0;
+        for ( long word : bitmap ) {
+            count += Long.bitCount( word );
+        }
+        return count;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A page of the declarations matching a query, returned by 
+ * {@linkplain DatabaseReader#getEntityPage(EntityQuery, java.lang.String, int)},
+ * with the token that continues the scan after it.
+ */
+public final class EntityPage {
+
+    private final List<ProgramEntity> entities;
+    private final String continuationToken;
+
+    EntityPage( List<ProgramEntity> entities, String continuationToken ) {
+        this.entities = Collections.unmodifiableList( entities );
+        this.continuationToken = continuationToken;
+    }
+
+    /**
+     * Retrieves the declarations on the page.
+     * @return an unmodifiable list of declarations in key order
+     */
+    public List<ProgramEntity> entities() {
+        return this.entities;
+    }
+
+    /**
+     * Retrieves the token that continues the scan after this page. The 
+     * token is a short string that may be saved and used by another 
+     * reader or process to resume the scan.
+     * @return a continuation token, or {@code null} if this is the last 
+     * page
+     */
+    public String continuationToken() {
+        return this.continuationToken;
+    }
+
+    /**
+     * Determines whether this is the last page of the scan.
+     * @return {@code true} if there are no more pages
+     */
+    public boolean isLast() {
+        return this.continuationToken == null;
+    }
+
+    @Override
+    public String toString() {
+        return this.entities.size() + " entities, "
+                + ( isLast() ? "last page" : "continued by " + this.continuationToken );
+    }
+}
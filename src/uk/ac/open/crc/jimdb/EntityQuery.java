@@ -0,0 +1,447 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Objects;
+import java.util.Set;
+import uk.ac.open.crc.idtk.Modifier;
+import uk.ac.open.crc.idtk.Species;
+
+/**
+ * Describes a search for declarations as a set of predicates, all of which
+ * must hold. Queries are built fluently, for example
+ * <pre>
+ *     new EntityQuery()
+ *         .inProject( "jimdb 1.0" )
+ *         .ofSpecies( Species.FIELD )
+ *         .withModifiers( Modifier.PUBLIC, Modifier.STATIC, Modifier.FINAL )
+ *         .nameLength( 1, 3 )
+ * </pre>
+ * and are run with {@linkplain DatabaseReader#getEntitiesFor(EntityQuery)}
+ * and related methods. Each query is compiled to a single SQL statement,
+ * or evaluated over the columns of an analysis image where it is read
+ * from one.
+ * Long scans can be read a page at a time with
+ * {@linkplain DatabaseReader#getEntityPage(EntityQuery, java.lang.String, int)}.
+ */
+public final class EntityQuery {
+
+    private String projectNameAndVersion;
+    private final LinkedHashSet<Species> species;
+    private final LinkedHashSet<Modifier> modifiers;
+    private String typeName;
+    private String packageName;
+    private String fileName;
+    private String namePattern;
+    private String componentWord;
+    private int minimumNameLength;
+    private int maximumNameLength;
+    private int limit;
+
+    /**
+     * Creates a query that matches every declaration.
+     */
+    public EntityQuery() {
+        this.projectNameAndVersion = null;
+        this.species = new LinkedHashSet<>();
+        this.modifiers = new LinkedHashSet<>();
+        this.typeName = null;
+        this.packageName = null;
+        this.fileName = null;
+        this.namePattern = null;
+        this.componentWord = null;
+        this.minimumNameLength = 0;
+        this.maximumNameLength = Integer.MAX_VALUE;
+        this.limit = 0;
+    }
+
+    /**
+     * Restricts the query to a project.
+     * @param projectNameAndVersion the project name and version separated
+     * by a space
+     * @return this query
+     */
+    public EntityQuery inProject( String projectNameAndVersion ) {
+        this.projectNameAndVersion = projectNameAndVersion;
+        return this;
+    }
+
+    /**
+     * Restricts the query to declarations of any of the given species.
+     * Repeated calls add to the permitted species.
+     * @param species one or more species
+     * @return this query
+     */
+    public EntityQuery ofSpecies( Species... species ) {
+        Collections.addAll( this.species, species );
+        return this;
+    }
+
+    /**
+     * Restricts the query to declarations using all of the given modifiers.
+     * Repeated calls add to the required modifiers.
+     * @param modifiers one or more modifiers
+     * @return this query
+     */
+    public EntityQuery withModifiers( Modifier... modifiers ) {
+        Collections.addAll( this.modifiers, modifiers );
+        return this;
+    }
+
+    /**
+     * Restricts the query to declarations of a type.
+     * @param typeName a type name, fully qualified where the type was
+     * resolved when stored
+     * @return this query
+     */
+    public EntityQuery ofType( String typeName ) {
+        this.typeName = typeName;
+        return this;
+    }
+
+    /**
+     * Restricts the query to declarations in a package.
+     * @param packageName a package name
+     * @return this query
+     */
+    public EntityQuery inPackage( String packageName ) {
+        this.packageName = packageName;
+        return this;
+    }
+
+    /**
+     * Restricts the query to declarations in a file.
+     * @param fileName a file name, as stored
+     * @return this query
+     */
+    public EntityQuery inFile( String fileName ) {
+        this.fileName = fileName;
+        return this;
+    }
+
+    /**
+     * Restricts the query to declarations whose names match a pattern.
+     * @param pattern an SQL {@code LIKE} pattern, in which {@code %}
+     * matches any sequence of characters and {@code _} any single character
+     * @return this query
+     */
+    public EntityQuery nameMatching( String pattern ) {
+        this.namePattern = pattern;
+        return this;
+    }
+
+    /**
+     * Restricts the query to declarations whose names contain a component
+     * word. Component words are stored in lower case, so the word is 
+     * matched regardless of case.
+     * @param componentWord a component word
+     * @return this query
+     */
+    public EntityQuery containingWord( String componentWord ) {
+        this.componentWord = componentWord == null ? null : componentWord.toLowerCase();
+        return this;
+    }
+
+    /**
+     * Restricts the query to declarations whose names have a length in
+     * the given range.
+     * @param minimum the minimum number of characters
+     * @param maximum the maximum number of characters
+     * @return this query
+     * @throws IllegalArgumentException if the range is empty
+     */
+    public EntityQuery nameLength( int minimum, int maximum ) {
+        if ( minimum > maximum ) {
+            throw new IllegalArgumentException(
+                    "Empty name length range: " + minimum + " to " + maximum );
+        }
+        this.minimumNameLength = minimum;
+        this.maximumNameLength = maximum;
+        return this;
+    }
+
+    /**
+     * Caps the number of declarations returned.
+     * @param maximumCount the maximum number of declarations, or zero for
+     * no limit
+     * @return this query
+     */
+    public EntityQuery limit( int maximumCount ) {
+        this.limit = Math.max( 0, maximumCount );
+        return this;
+    }
+
+    // the predicates, for readers that evaluate the query themselves
+
+    String projectNameAndVersion() {
+        return this.projectNameAndVersion;
+    }
+
+    Set<Species> species() {
+        return Collections.unmodifiableSet( this.species );
+    }
+
+    Set<Modifier> modifiers() {
+        return Collections.unmodifiableSet( this.modifiers );
+    }
+
+    String typeName() {
+        return this.typeName;
+    }
+
+    String packageName() {
+        return this.packageName;
+    }
+
+    String fileName() {
+        return this.fileName;
+    }
+
+    String namePattern() {
+        return this.namePattern;
+    }
+
+    String componentWord() {
+        return this.componentWord;
+    }
+
+    int minimumNameLength() {
+        return this.minimumNameLength;
+    }
+
+    int maximumNameLength() {
+        return this.maximumNameLength;
+    }
+
+    int maximumCount() {
+        return this.limit;
+    }
+
+    /**
+     * Compiles the query. Names are resolved to database keys, so the
+     * statement text depends only on which predicates are used.
+     * @param selectList the columns to select from the program entities
+     * table, which has the alias {@code e}
+     * @return the compiled query, or {@code null} if a name is unknown and
+     * the query cannot match anything
+     */
+    Compiled compile( String selectList ) {
+        return compile( selectList, null, this.limit, true );
+    }
+
+    /**
+     * Compiles a page of a keyset scan, which seeks to the first key in
+     * the range with the primary key index. The query's own limit is
+     * replaced by the page size.
+     * @param selectList the columns to select
+     * @param token the position of the scan
+     * @param pageSize the maximum number of rows in the page
+     * @return the compiled query, or {@code null} if it cannot match
+     */
+    Compiled compilePage( String selectList, ContinuationToken token, int pageSize ) {
+        return compile( selectList, token, pageSize, true );
+    }
+
+    /**
+     * Compiles a query for the least and greatest matching keys.
+     * @return the compiled query, or {@code null} if it cannot match
+     */
+    Compiled compileKeyBounds() {
+        return compile( "MIN(e.program_entity_key), MAX(e.program_entity_key)", null, 0, false );
+    }
+
+    /**
+     * Computes a value identifying the query, which is recorded in
+     * continuation tokens. The value depends on the predicates alone, so
+     * readers that do not compile queries to SQL record the same value.
+     * Tokens outlive the reader that issued them, so the value is built 
+     * from names, whose hash codes are the same in every run, rather than
+     * from the enum constants themselves.
+     * @return the fingerprint
+     */
+    int fingerprint() {
+        return Objects.hash(
+                this.projectNameAndVersion,
+                namesOf( this.species ),
+                namesOf( this.modifiers ),
+                this.typeName,
+                this.packageName,
+                this.fileName,
+                this.namePattern,
+                this.componentWord,
+                this.minimumNameLength,
+                this.maximumNameLength );
+    }
+
+    // the names of a set of constants in alphabetical order, so that the
+    // order in which they were given does not matter
+    private static List<String> namesOf( Set<? extends Enum<?>> constants ) {
+        ArrayList<String> names = new ArrayList<>();
+        for ( Enum<?> constant : constants ) {
+            names.add( constant.name() );
+        }
+        Collections.sort( names );
+        return names;
+    }
+
+    private Compiled compile(
+            String selectList,
+            ContinuationToken token,
+            int fetchCount,
+            boolean isOrdered ) {
+        String entities = EntityDatabaseManager.SCHEMA + "."
+                + EntityDatabaseManager.PROGRAM_ENTITIES_TABLE;
+        StringBuilder from = new StringBuilder( entities ).append( " e" );
+        ArrayList<String> conditions = new ArrayList<>();
+        ArrayList<Object> parameters = new ArrayList<>();
+        Integer projectKey = null;
+
+        if ( token != null ) {
+            conditions.add( "e.program_entity_key > ? AND e.program_entity_key <= ?" );
+            parameters.add( token.afterKey );
+            parameters.add( token.lastKey );
+        }
+
+        if ( this.projectNameAndVersion != null ) {
+            projectKey = ProjectKeyStore.getInstance().get( this.projectNameAndVersion );
+            if ( projectKey == null ) {
+                return null;
+            }
+            conditions.add( EntityDatabaseManager.projectScope( "e" ) );
+            parameters.add( projectKey );
+        }
+
+        if ( ! this.species.isEmpty() ) {
+            ArrayList<String> placeholders = new ArrayList<>();
+            for ( Species s : this.species ) {
+                Integer speciesKey = SpeciesCache.getInstance().get( s.description() );
+                if ( speciesKey != null ) {
+                    placeholders.add( "?" );
+                    parameters.add( speciesKey );
+                }
+            }
+            if ( placeholders.isEmpty() ) {
+                return null;
+            }
+            conditions.add( "e.species_name_key_fk IN ("
+                    + String.join( ",", placeholders ) + ")" );
+        }
+
+        for ( Modifier modifier : this.modifiers ) {
+            Integer modifierKey = ModifierCache.getInstance().get( modifier.description() );
+            if ( modifierKey == null ) {
+                return null;
+            }
+            // Derby has no bitwise operators, so the bit is tested arithmetically
+            conditions.add( "MOD(" + EntityDatabaseManager.modifiersOf( "e" ) + " / ?, 2) = 1" );
+            parameters.add( ModifierCache.bitFor( modifierKey ) );
+        }
+
+        if ( this.typeName != null ) {
+            Integer typeNameKey = TypeNameCache.getInstance().get( this.typeName );
+            if ( typeNameKey == null ) {
+                return null;
+            }
+            conditions.add( "e.type_name_key_fk = ?" );
+            parameters.add( typeNameKey );
+        }
+
+        if ( this.packageName != null ) {
+            Integer packageNameKey = PackageNameCache.getInstance().get( this.packageName );
+            if ( packageNameKey == null ) {
+                return null;
+            }
+            conditions.add( "e.package_key_fk IN (SELECT package_key FROM "
+                    + EntityDatabaseManager.SCHEMA + "."
+                    + EntityDatabaseManager.PACKAGES_TABLE
+                    + " WHERE package_name_key_fk = ?)" );
+            parameters.add( packageNameKey );
+        }
+
+        if ( this.fileName != null ) {
+            Integer fileNameKey = FileNameCache.getInstance().get( this.fileName );
+            if ( fileNameKey == null ) {
+                return null;
+            }
+            conditions.add( "e.file_name_key_fk = ?" );
+            parameters.add( fileNameKey );
+        }
+
+        if ( this.componentWord != null ) {
+            conditions.add( "e.identifier_name_key_fk IN (SELECT c.identifier_name_key_fk FROM "
+                    + EntityDatabaseManager.SCHEMA + "."
+                    + EntityDatabaseManager.COMPONENT_WORDS_XREF_TABLE + " c, "
+                    + EntityDatabaseManager.SCHEMA + "."
+                    + EntityDatabaseManager.COMPONENT_WORDS_TABLE + " w"
+                    + " WHERE c.component_word_key_fk = w.component_word_key"
+                    + " AND w.component_word = ?)" );
+            parameters.add( this.componentWord );
+        }
+
+        boolean hasLengthRange = this.minimumNameLength > 0
+                || this.maximumNameLength < Integer.MAX_VALUE;
+        if ( this.namePattern != null || hasLengthRange ) {
+            from.append( ", " ).append( EntityDatabaseManager.SCHEMA ).append( "." )
+                    .append( EntityDatabaseManager.IDENTIFIER_NAMES_TABLE ).append( " i" );
+            conditions.add( "i.identifier_name_key = e.identifier_name_key_fk" );
+            if ( this.namePattern != null ) {
+                conditions.add( "i.identifier_name LIKE ?" );
+                parameters.add( this.namePattern );
+            }
+            if ( hasLengthRange ) {
+                conditions.add( "LENGTH(i.identifier_name) BETWEEN ? AND ?" );
+                parameters.add( this.minimumNameLength );
+                parameters.add( this.maximumNameLength );
+            }
+        }
+
+        StringBuilder sql = new StringBuilder( "SELECT " ).append( selectList )
+                .append( " FROM " ).append( from );
+        if ( ! conditions.isEmpty() ) {
+            sql.append( " WHERE " ).append( String.join( " AND ", conditions ) );
+        }
+        if ( isOrdered ) {
+            sql.append( " ORDER BY e.program_entity_key" );
+        }
+        if ( fetchCount > 0 ) {
+            sql.append( token != null ? " FETCH NEXT ? ROWS ONLY" : " FETCH FIRST ? ROWS ONLY" );
+            parameters.add( fetchCount );
+        }
+
+        return new Compiled( sql.toString(), parameters, projectKey );
+    }
+
+    /**
+     * The text and parameter values of a compiled query, with the
+     * project it is restricted to, if any.
+     */
+    static final class Compiled {
+        final String sql;
+        final List<Object> parameters;
+        final Integer projectKey;
+
+        Compiled( String sql, List<Object> parameters, Integer projectKey ) {
+            this.sql = sql;
+            this.parameters = parameters;
+            this.projectKey = projectKey;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+/**
+ * Stores the program entities given to a {@linkplain DatabaseWriter}. Each 
+ * writer has a store of its own, created by the 
+ * {@linkplain StorageBackend} chosen when the database was initialised.
+ * <p>
+ * The writer checks the order of its calls, so a store sees at most one 
+ * file started at a time, and a file is always ended or abandoned before 
+ * another is started. Entities are stored for the project named with 
+ * {@linkplain DatabaseManager#setProjectName(java.lang.String)} and 
+ * {@linkplain DatabaseManager#setProjectVersion(java.lang.String)}.
+ * </p>
+ */
+public interface EntityStore {
+
+    /**
+     * Stores a declaration for the current project.
+     * @param programEntity a declaration
+     */
+    void store( RawProgramEntity programEntity );
+
+    /**
+     * Starts replacing the entities of a file, unless its digest is 
+     * unchanged.
+     * @param fileName the file name, as recorded in each entity
+     * @param digest a digest of the file's content
+     * @return {@code false} if the file is unchanged and nothing was done
+     * @throws StorageException if the file's existing entities cannot be deleted
+     */
+    boolean beginFile( String fileName, String digest ) throws StorageException;
+
+    /**
+     * Records the digest of the file started and makes its entities 
+     * visible.
+     * @param fileName the file name given to {@linkplain #beginFile(java.lang.String, java.lang.String)}
+     * @param digest the digest given to {@linkplain #beginFile(java.lang.String, java.lang.String)}
+     * @throws StorageException if the entities cannot be committed, in 
+     * which case the file's previous entities are retained
+     */
+    void endFile( String fileName, String digest ) throws StorageException;
+
+    /**
+     * Discards the entities stored since the file was started, retaining 
+     * the file's previous entities.
+     */
+    void abandonFile();
+
+    /**
+     * Deletes the entities of a file from the current project.
+     * @param fileName the file name, as recorded in each entity
+     * @throws StorageException if the entities cannot be deleted
+     */
+    void removeFile( String fileName ) throws StorageException;
+}
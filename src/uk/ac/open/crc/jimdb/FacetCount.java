@@ -0,0 +1,72 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+/**
+ * Records the number of declarations in a facet, such as a species or a
+ * package, together with the number of distinct identifier names they use.
+ */
+public final class FacetCount {
+
+    private final int entities;
+    private final int distinctNames;
+
+    FacetCount( int entities, int distinctNames ) {
+        this.entities = entities;
+        this.distinctNames = distinctNames;
+    }
+
+    /**
+     * Retrieves the number of declarations.
+     * @return the number of declarations
+     */
+    public int entities() {
+        return this.entities;
+    }
+
+    /**
+     * Retrieves the number of distinct identifier names used by the
+     * declarations.
+     * @return the number of distinct names
+     */
+    public int distinctNames() {
+        return this.distinctNames;
+    }
+
+    @Override
+    public boolean equals( Object o ) {
+        if ( this == o ) {
+            return true;
+        }
+        if ( ! ( o instanceof FacetCount ) ) {
+            return false;
+        }
+        FacetCount other = (FacetCount) o;
+        return this.entities == other.entities
+                && this.distinctNames == other.distinctNames;
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * this.entities + this.distinctNames;
+    }
+
+    @Override
+    public String toString() {
+        return this.entities + " entities, " + this.distinctNames + " distinct names";
+    }
+}
@@ -0,0 +1,1403 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntPredicate;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.open.crc.idtk.Modifier;
+import uk.ac.open.crc.idtk.Species;
+import uk.ac.open.crc.jimdb.AnalysisImage.Dictionary;
+import uk.ac.open.crc.jimdb.AnalysisImage.KeyedLists;
+import uk.ac.open.crc.jimdb.AnalysisImage.Lists;
+import uk.ac.open.crc.jimdb.AnalysisImage.Section;
+import uk.ac.open.crc.jimdb.AnalysisImage.Strings;
+
+/**
+ * Serves reads from an {@linkplain AnalysisImage} rather than the
+ * database. Every lookup is a scan or binary search of the mapped
+ * columns, so nothing is loaded when the reader is created and nothing
+ * is held in memory but the containment index of each project queried.
+ * {@linkplain EntityQuery} queries are evaluated over the columns too,
+ * with their names resolved to the keys of the image.
+ */
+final class ImageDatabaseReader implements DatabaseReader {
+    private static final Logger LOGGER = LoggerFactory.getLogger( ImageDatabaseReader.class );
+
+    // ints in each entry of the project rows section
+    private static final int PROJECT_ROW_SIZE = 5;
+    private static final int[] NO_ROWS = { 0, 0 };
+
+    private final AnalysisImage image;
+
+    private final Dictionary identifierNames;
+    private final Dictionary tokens;
+    private final Dictionary typeNames;
+    private final Dictionary fileNames;
+    private final Dictionary methodSignatures;
+    private final Dictionary packageNames;
+    private final Dictionary speciesNames;
+    private final Dictionary modifierNames;
+    private final Dictionary projects;
+    private final Dictionary projectNames;
+    private final Dictionary projectVersions;
+    private final Lists tokenSequences;
+
+    private final IntBuffer projectRows;
+    private final int projectCount;
+    private final IntBuffer programEntityKeys;
+    private final IntBuffer identifierNameKeys;
+    private final IntBuffer speciesKeys;
+    private final IntBuffer typeNameKeys;
+    private final IntBuffer packageKeys;
+    private final IntBuffer fileNameKeys;
+    private final IntBuffer methodSignatureKeys;
+    private final IntBuffer flags;
+    private final IntBuffer modifiers;
+    private final IntBuffer startLineNumbers;
+    private final IntBuffer startColumns;
+    private final IntBuffer endLineNumbers;
+    private final IntBuffer endColumns;
+    private final Strings containerUids;
+    private final Strings entityUids;
+    private final IntBuffer keyIndex;
+    private final IntBuffer uidIndex;
+    private final Lists superClassNames;
+    private final Lists superTypeNames;
+    private final KeyedLists subClasses;
+    private final KeyedLists subTypes;
+
+    private final HashMap<Integer, Species> speciesByKey;
+    private final HashMap<Integer, Modifier> modifiersByKey;
+    private final ConcurrentHashMap<Integer, TypeGroup> typeGroups;
+    // by position in the project rows section
+    private final ConcurrentHashMap<Integer, ContainmentIndex> containmentIndexes;
+
+    ImageDatabaseReader( AnalysisImage image ) {
+        this.image = image;
+        this.identifierNames = image.dictionary( Section.IDENTIFIER_NAMES );
+        this.tokens = image.dictionary( Section.TOKENS );
+        this.typeNames = image.dictionary( Section.TYPE_NAMES );
+        this.fileNames = image.dictionary( Section.FILE_NAMES );
+        this.methodSignatures = image.dictionary( Section.METHOD_SIGNATURES );
+        this.packageNames = image.dictionary( Section.PACKAGE_NAMES );
+        this.speciesNames = image.dictionary( Section.SPECIES );
+        this.modifierNames = image.dictionary( Section.MODIFIERS );
+        this.projects = image.dictionary( Section.PROJECTS );
+        this.projectNames = image.dictionary( Section.PROJECT_NAMES );
+        this.projectVersions = image.dictionary( Section.PROJECT_VERSIONS );
+        this.tokenSequences = image.lists( Section.TOKEN_SEQUENCES );
+
+        this.projectRows = image.ints( Section.PROJECT_ROWS );
+        this.projectCount = this.projectRows.limit() / PROJECT_ROW_SIZE;
+        this.programEntityKeys = image.ints( Section.ENTITY_KEYS );
+        this.identifierNameKeys = image.ints( Section.ENTITY_NAMES );
+        this.speciesKeys = image.ints( Section.ENTITY_SPECIES );
+        this.typeNameKeys = image.ints( Section.ENTITY_TYPE_NAMES );
+        this.packageKeys = image.ints( Section.ENTITY_PACKAGES );
+        this.fileNameKeys = image.ints( Section.ENTITY_FILES );
+        this.methodSignatureKeys = image.ints( Section.ENTITY_SIGNATURES );
+        this.flags = image.ints( Section.ENTITY_FLAGS );
+        this.modifiers = image.ints( Section.ENTITY_MODIFIERS );
+        this.startLineNumbers = image.ints( Section.START_LINES );
+        this.startColumns = image.ints( Section.START_COLUMNS );
+        this.endLineNumbers = image.ints( Section.END_LINES );
+        this.endColumns = image.ints( Section.END_COLUMNS );
+        this.containerUids = image.strings( Section.CONTAINER_UID_OFFSETS, Section.CONTAINER_UID_BYTES );
+        this.entityUids = image.strings( Section.ENTITY_UID_OFFSETS, Section.ENTITY_UID_BYTES );
+        this.keyIndex = image.ints( Section.KEY_INDEX );
+        this.uidIndex = image.ints( Section.UID_INDEX );
+        this.superClassNames = image.lists( Section.SUPER_CLASS_OFFSETS, Section.SUPER_CLASS_NAMES );
+        this.superTypeNames = image.lists( Section.SUPER_TYPE_OFFSETS, Section.SUPER_TYPE_NAMES );
+        this.subClasses = image.keyedLists( Section.SUB_CLASSES );
+        this.subTypes = image.keyedLists( Section.SUB_TYPES );
+
+        this.speciesByKey = new HashMap<>();
+        for ( int i = 0; i < this.speciesNames.size(); i++ ) {
+            this.speciesByKey.put(
+                    this.speciesNames.keyAt( i ),
+                    Species.getSpeciesFor( this.speciesNames.valueAt( i ) ) );
+        }
+        this.modifiersByKey = new HashMap<>();
+        for ( int i = 0; i < this.modifierNames.size(); i++ ) {
+            this.modifiersByKey.put(
+                    this.modifierNames.keyAt( i ),
+                    Modifier.getModifierFor( this.modifierNames.valueAt( i ) ) );
+        }
+        this.typeGroups = new ConcurrentHashMap<>();
+        this.containmentIndexes = new ConcurrentHashMap<>();
+
+        if ( image.file() != null ) {
+            LOGGER.info( "Opened analysis image {} of {} entities in {} projects",
+                    image.file(), image.rowCount(), this.projectCount );
+        }
+    }
+
+    @Override
+    public ArrayList<String> getProjectList() {
+        ArrayList<String> projectList = new ArrayList<>( this.projects.size() );
+        for ( int i = 0; i < this.projects.size(); i++ ) {
+            projectList.add( this.projects.valueAt( i ) );
+        }
+        return projectList;
+    }
+
+    @Override
+    public ArrayList<String> getTokensFor( String identifierName ) {
+        Integer identifierNameKey = this.identifierNames.get( identifierName );
+        if ( identifierNameKey == null ) {
+            LOGGER.warn(
+                    "No component words found for identifier name: \"{}\"",
+                    identifierName );
+            return null;
+        }
+        return tokensFor( identifierNameKey );
+    }
+
+    @Override
+    public ArrayList<String> getPackageNamesForProject( String projectName ) {
+        int[] rows = rowsOf( projectName );
+        TreeSet<Integer> projectPackageKeys = new TreeSet<>();
+        for ( int row = rows[ 0 ]; row < rows[ 1 ]; row++ ) {
+            projectPackageKeys.add( this.packageKeys.get( row ) );
+        }
+
+        ArrayList<String> names = new ArrayList<>( projectPackageKeys.size() );
+        for ( int packageKey : projectPackageKeys ) {
+            String packageName = this.packageNames.get( packageKey );
+            if ( packageName != null ) {
+                names.add( packageName );
+            }
+        }
+        return names;
+    }
+
+    @Override
+    public ArrayList<String> getClassNamesForPackage( String projectName, String packageName ) {
+        ArrayList<String> classNames = new ArrayList<>();
+        Integer classKey = speciesKeyFor( Species.CLASS );
+        if ( classKey == null || packageName == null ) {
+            return classNames;
+        }
+
+        int[] rows = rowsOf( projectName );
+        for ( int row = rows[ 0 ]; row < rows[ 1 ]; row++ ) {
+            if ( this.speciesKeys.get( row ) == classKey
+                    && packageName.equals( this.packageNames.get( this.packageKeys.get( row ) ) ) ) {
+                classNames.add( this.identifierNames.get( this.identifierNameKeys.get( row ) ) );
+            }
+        }
+        return classNames;
+    }
+
+    @Override
+    public ArrayList<String> getIdentifierNamesFor( String projectName, Species species ) {
+        ArrayList<String> names = new ArrayList<>();
+        Integer speciesKey = speciesKeyFor( species );
+        if ( speciesKey == null ) {
+            return names;
+        }
+
+        int[] rows = rowsOf( projectName );
+        for ( int row = rows[ 0 ]; row < rows[ 1 ]; row++ ) {
+            if ( this.speciesKeys.get( row ) == speciesKey ) {
+                names.add( this.identifierNames.get( this.identifierNameKeys.get( row ) ) );
+            }
+        }
+        return names;
+    }
+
+    @Override
+    public ArrayList<String> getIdentifierNamesFor( String projectName ) {
+        int[] rows = rowsOf( projectName );
+        ArrayList<String> names = new ArrayList<>( rows[ 1 ] - rows[ 0 ] );
+        for ( int row = rows[ 0 ]; row < rows[ 1 ]; row++ ) {
+            names.add( this.identifierNames.get( this.identifierNameKeys.get( row ) ) );
+        }
+        return names;
+    }
+
+    @Override
+    public ArrayList<String> getNameSetFor(
+            String projectName,
+            Species species,
+            Integer count,
+            Integer minimumLength ) {
+        return sampleNames( rowsOf( projectName ), species, count, minimumLength );
+    }
+
+    @Override
+    public ArrayList<String> getNameSetFor(
+            Species species,
+            Integer count,
+            Integer minimumLength ) {
+        return sampleNames( new int[] { 0, this.image.rowCount() }, species, count, minimumLength );
+    }
+
+    @Override
+    public ArrayList<String> getTokenisedNameSetFor(
+            String projectName,
+            Species species,
+            Integer count,
+            Integer minimumLength ) {
+        return tokenise( getNameSetFor( projectName, species, count, minimumLength ) );
+    }
+
+    @Override
+    public ArrayList<String> getTokenisedNameSetFor(
+            Species species,
+            Integer count,
+            Integer minimumLength ) {
+        return tokenise( getNameSetFor( species, count, minimumLength ) );
+    }
+
+    @Override
+    public ArrayList<InheritableProgramEntity> getAllClassNamesFor( String projectName ) {
+        ArrayList<InheritableProgramEntity> classes = new ArrayList<>();
+        entitiesOfSpecies( projectName, Species.CLASS ).forEach( (programEntity) ->
+                classes.add( (InheritableProgramEntity) programEntity ) );
+        return classes;
+    }
+
+    @Override
+    public ArrayList<ProgramEntity> getAllClassesAndInterfacesFor( String projectName ) {
+        ArrayList<ProgramEntity> classesAndInterfaces = new ArrayList<>();
+        for ( Species species : Species.values() ) {
+            if ( species.isClassOrInterface() ) {
+                classesAndInterfaces.addAll( entitiesOfSpecies( projectName, species ) );
+            }
+        }
+        return classesAndInterfaces;
+    }
+
+    @Override
+    public ArrayList<ProgramEntity> getAllFieldNamesFor( String projectName ) {
+        return entitiesOfSpecies( projectName, Species.FIELD );
+    }
+
+    @Override
+    public ArrayList<ProgramEntity> getAllFormalArgumentNamesFor( String projectName ) {
+        return entitiesOfSpecies( projectName, Species.FORMAL_ARGUMENT );
+    }
+
+    @Override
+    public ArrayList<ProgramEntity> getAllLocalVariableNamesFor( String projectName ) {
+        return entitiesOfSpecies( projectName, Species.LOCAL_VARIABLE );
+    }
+
+    @Override
+    @Deprecated
+    public InheritableProgramEntity getClassOrInterfaceFor( String projectName, String fqn ) {
+        int lastDotIndex = fqn.lastIndexOf( '.' );
+        String packageName = fqn.substring( 0, Math.max( lastDotIndex, 0 ) );
+        Integer identifierNameKey = this.identifierNames.get( fqn.substring( lastDotIndex + 1 ) );
+        if ( identifierNameKey == null ) {
+            return null;
+        }
+
+        int[] rows = rowsOf( projectName );
+        for ( int row = rows[ 0 ]; row < rows[ 1 ]; row++ ) {
+            if ( this.identifierNameKeys.get( row ) == identifierNameKey
+                    && speciesAt( row ).isClassOrInterface()
+                    && packageName.equals( this.packageNames.get( this.packageKeys.get( row ) ) ) ) {
+                return (InheritableProgramEntity) entityAt( row );
+            }
+        }
+        return null;
+    }
+
+    @Override
+    public ArrayList<InheritableProgramEntity> getEntityCandidatesFor(
+            String className,
+            Species targetSpecies ) {
+        // guard against inadvertant calls
+        if ( targetSpecies != Species.CLASS && targetSpecies != Species.INTERFACE ) {
+            throw new IllegalArgumentException( "target must be class or interface." );
+        }
+
+        ArrayList<InheritableProgramEntity> candidates = new ArrayList<>();
+        Integer identifierNameKey = this.identifierNames.get( className );
+        Integer speciesKey = speciesKeyFor( targetSpecies );
+        if ( identifierNameKey == null || speciesKey == null ) {
+            return candidates;
+        }
+        // an entity shared by several projects is listed once
+        HashSet<Integer> programEntityKeys = new HashSet<>();
+        for ( int row = 0; row < this.image.rowCount(); row++ ) {
+            if ( this.identifierNameKeys.get( row ) == identifierNameKey
+                    && this.speciesKeys.get( row ) == speciesKey
+                    && programEntityKeys.add( this.programEntityKeys.get( row ) ) ) {
+                candidates.add( (InheritableProgramEntity) entityAt( row ) );
+            }
+        }
+        return candidates;
+    }
+
+    @Override
+    public ArrayList<InheritableProgramEntity> getSubClassesFor( String className ) {
+        return inheritorsOf( className, this.subClasses );
+    }
+
+    @Override
+    public ArrayList<InheritableProgramEntity> getSubTypesFor( String interfaceName ) {
+        return inheritorsOf( interfaceName, this.subTypes );
+    }
+
+    @Override
+    public HashSet<ProgramEntity> getEntitySetWhere(
+            Species species,
+            int maxCount,
+            TypeGroup typeGroup ) {
+        HashSet<ProgramEntity> entitySet = new HashSet<>();
+        Integer speciesKey = speciesKeyFor( species );
+        if ( speciesKey == null ) {
+            return entitySet;
+        }
+
+        // members of the set are unique by name
+        HashSet<Integer> nameKeys = new HashSet<>();
+        for ( int row = 0; row < this.image.rowCount() && entitySet.size() < maxCount; row++ ) {
+            if ( this.speciesKeys.get( row ) == speciesKey
+                    && typeGroupAt( row ) == typeGroup
+                    && nameKeys.add( this.identifierNameKeys.get( row ) ) ) {
+                entitySet.add( entityAt( row ) );
+            }
+        }
+        return entitySet;
+    }
+
+    @Override
+    public List<ProgramEntity> getEntitiesFor( String projectName, String projectVersion ) {
+        return getEntitiesFor( projectName + " " + projectVersion );
+    }
+
+    @Override
+    public List<ProgramEntity> getEntitiesFor( String projectNameAndVersion ) {
+        return entitiesWhere( rowsOf( projectNameAndVersion ), (row) -> true );
+    }
+
+    @Override
+    public EntityKeySet getEntityKeysFor( Species species ) {
+        Integer speciesKey = speciesKeyFor( species );
+        return speciesKey == null
+                ? new EntityKeySet()
+                : keysWhere( (row) -> this.speciesKeys.get( row ) == speciesKey );
+    }
+
+    @Override
+    public EntityKeySet getEntityKeysFor( Modifier modifier ) {
+        Integer modifierKey = this.modifierNames.get( modifier.description() );
+        if ( modifierKey == null ) {
+            return new EntityKeySet();
+        }
+        int bit = ModifierCache.bitFor( modifierKey );
+        return keysWhere( (row) -> ( this.modifiers.get( row ) & bit ) != 0 );
+    }
+
+    @Override
+    public EntityKeySet getEntityKeysFor( TypeGroup typeGroup ) {
+        return keysWhere( (row) -> typeGroupAt( row ) == typeGroup );
+    }
+
+    @Override
+    public EntityKeySet getEntityKeysForProject( String projectNameAndVersion ) {
+        int project = projectFor( projectNameAndVersion );
+        if ( project < 0 ) {
+            return new EntityKeySet();
+        }
+        EntityKeySet entityKeys = new EntityKeySet();
+        int firstRow = firstRowOf( project );
+        for ( int row = firstRow; row < firstRow + rowCountOf( project ); row++ ) {
+            entityKeys.add( this.programEntityKeys.get( row ) );
+        }
+        return entityKeys.inProject( this.projectRows.get( project * PROJECT_ROW_SIZE ) );
+    }
+
+    @Override
+    public List<ProgramEntity> getEntitiesFor( EntityKeySet entityKeys ) {
+        // keys drawn from a project are read from its rows
+        int project = entityKeys.projectKey() == null ? -1 : projectFor( entityKeys.projectKey() );
+        return project < 0
+                ? entitiesInOrder( entityKeys.toArray() )
+                : entitiesInProject( project, entityKeys.toArray() );
+    }
+
+    @Override
+    public List<ProgramEntity> getEntitiesByKeys( Collection<Integer> programEntityKeys ) {
+        ArrayList<ProgramEntity> programEntities = new ArrayList<>( programEntityKeys.size() );
+        for ( Integer programEntityKey : programEntityKeys ) {
+            int row = programEntityKey == null ? -1 : rowForKey( programEntityKey );
+            if ( row >= 0 ) {
+                programEntities.add( entityAt( row ) );
+            }
+        }
+        return programEntities;
+    }
+
+    @Override
+    public ProgramEntity getEntityByUid( String projectNameAndVersion, String entityUid ) {
+        int project = projectFor( projectNameAndVersion );
+        int row = project < 0 || entityUid == null ? -1 : rowForUid( project, entityUid );
+        return row < 0 ? null : entityAt( row );
+    }
+
+    @Override
+    public Map<String, ProgramEntity> getEntitiesByUids(
+            String projectNameAndVersion, Collection<String> entityUids ) {
+        LinkedHashMap<String, ProgramEntity> programEntities = new LinkedHashMap<>();
+        int project = projectFor( projectNameAndVersion );
+        if ( project < 0 ) {
+            return programEntities;
+        }
+        for ( String entityUid : entityUids ) {
+            int row = entityUid == null ? -1 : rowForUid( project, entityUid );
+            if ( row >= 0 ) {
+                programEntities.put( entityUid, entityAt( row ) );
+            }
+        }
+        return programEntities;
+    }
+
+    @Override
+    public List<ProgramEntity> getChildren( String projectNameAndVersion, String entityUid ) {
+        int project = projectFor( projectNameAndVersion );
+        return project < 0
+                ? new ArrayList<>()
+                : entitiesInProject( project, containmentIndexFor( project ).childrenOf( entityUid ) );
+    }
+
+    @Override
+    public List<ProgramEntity> getDescendants(
+            String projectNameAndVersion, String entityUid, Species... species ) {
+        int project = projectFor( projectNameAndVersion );
+        if ( project < 0 ) {
+            return new ArrayList<>();
+        }
+
+        HashSet<Integer> includedSpeciesKeys = new HashSet<>();
+        for ( Species s : species ) {
+            Integer speciesKey = speciesKeyFor( s );
+            if ( speciesKey != null ) {
+                includedSpeciesKeys.add( speciesKey );
+            }
+        }
+        if ( species.length > 0 && includedSpeciesKeys.isEmpty() ) {
+            return new ArrayList<>();
+        }
+
+        return entitiesInProject( project, containmentIndexFor( project ).descendantsOf(
+                entityUid,
+                (speciesKey) -> includedSpeciesKeys.isEmpty()
+                        || includedSpeciesKeys.contains( speciesKey ) ) );
+    }
+
+    @Override
+    public List<ProgramEntity> getAncestors( String projectNameAndVersion, String entityUid ) {
+        int project = projectFor( projectNameAndVersion );
+        return project < 0
+                ? new ArrayList<>()
+                : entitiesInProject( project, containmentIndexFor( project ).ancestorsOf( entityUid ) );
+    }
+
+    @Override
+    public Map<Species, List<ProgramEntity>> getMembers(
+            String projectNameAndVersion, String classUid ) {
+        EnumMap<Species, List<ProgramEntity>> members = new EnumMap<>( Species.class );
+        getChildren( projectNameAndVersion, classUid ).forEach( (member) ->
+                members.computeIfAbsent( member.getSpecies(), (s) -> new ArrayList<>() )
+                        .add( member ) );
+        return members;
+    }
+
+    @Override
+    public List<ProgramEntity> getEntitiesAt(
+            String projectNameAndVersion, String fileName, int lineNumber ) {
+        return entitiesInFile( projectNameAndVersion, fileName, (row) ->
+                this.startLineNumbers.get( row ) <= lineNumber
+                && this.endLineNumbers.get( row ) >= lineNumber );
+    }
+
+    @Override
+    public List<ProgramEntity> getEntitiesAt(
+            String projectNameAndVersion, String fileName, int lineNumber, int column ) {
+        return entitiesInFile( projectNameAndVersion, fileName, (row) -> {
+            int startLineNumber = this.startLineNumbers.get( row );
+            int endLineNumber = this.endLineNumbers.get( row );
+            return startLineNumber <= lineNumber
+                    && endLineNumber >= lineNumber
+                    && ( startLineNumber < lineNumber || this.startColumns.get( row ) <= column )
+                    && ( endLineNumber > lineNumber || this.endColumns.get( row ) >= column );
+        } );
+    }
+
+    @Override
+    public List<ProgramEntity> getEntitiesWithin(
+            String projectNameAndVersion,
+            String fileName,
+            int firstLineNumber,
+            int lastLineNumber ) {
+        return entitiesInFile( projectNameAndVersion, fileName, (row) -> {
+            int startLineNumber = this.startLineNumbers.get( row );
+            return startLineNumber >= firstLineNumber
+                    && startLineNumber <= lastLineNumber
+                    && this.endLineNumbers.get( row ) <= lastLineNumber;
+        } );
+    }
+
+    @Override
+    public List<ProgramEntity> getEntitiesInFile( String projectNameAndVersion, String fileName ) {
+        return entitiesInFile( projectNameAndVersion, fileName, (row) -> true );
+    }
+
+    @Override
+    public Map<Species, FacetCount> countBySpecies( String projectNameAndVersion ) {
+        EnumMap<Species, FacetCount> counts = new EnumMap<>( Species.class );
+        HashMap<Integer, int[]> entityCounts = new HashMap<>();
+        HashMap<Integer, HashSet<Integer>> nameKeys = new HashMap<>();
+        int[] rows = rowsOf( projectNameAndVersion );
+        for ( int row = rows[ 0 ]; row < rows[ 1 ]; row++ ) {
+            count( this.speciesKeys.get( row ), row, entityCounts, nameKeys );
+        }
+        entityCounts.forEach( (speciesKey, entityCount) -> counts.put(
+                this.speciesByKey.get( speciesKey ),
+                new FacetCount( entityCount[ 0 ], nameKeys.get( speciesKey ).size() ) ) );
+        return counts;
+    }
+
+    @Override
+    public Map<Modifier, FacetCount> countByModifier( String projectNameAndVersion ) {
+        HashMap<Modifier, FacetCount> counts = new HashMap<>();
+        HashMap<Integer, int[]> entityCounts = new HashMap<>();
+        HashMap<Integer, HashSet<Integer>> nameKeys = new HashMap<>();
+        int[] rows = rowsOf( projectNameAndVersion );
+        for ( int row = rows[ 0 ]; row < rows[ 1 ]; row++ ) {
+            int mask = this.modifiers.get( row );
+            while ( mask != 0 ) {
+                count( Integer.numberOfTrailingZeros( mask ) + 1, row, entityCounts, nameKeys );
+                mask &= mask - 1;
+            }
+        }
+        entityCounts.forEach( (modifierKey, entityCount) -> counts.put(
+                this.modifiersByKey.get( modifierKey ),
+                new FacetCount( entityCount[ 0 ], nameKeys.get( modifierKey ).size() ) ) );
+        return counts;
+    }
+
+    @Override
+    public Map<String, FacetCount> countByPackage( String projectNameAndVersion ) {
+        HashMap<String, FacetCount> counts = new HashMap<>();
+        HashMap<Integer, int[]> entityCounts = new HashMap<>();
+        HashMap<Integer, HashSet<Integer>> nameKeys = new HashMap<>();
+        int[] rows = rowsOf( projectNameAndVersion );
+        for ( int row = rows[ 0 ]; row < rows[ 1 ]; row++ ) {
+            count( this.packageKeys.get( row ), row, entityCounts, nameKeys );
+        }
+        entityCounts.forEach( (packageKey, entityCount) -> counts.put(
+                this.packageNames.get( packageKey ),
+                new FacetCount( entityCount[ 0 ], nameKeys.get( packageKey ).size() ) ) );
+        return counts;
+    }
+
+    @Override
+    public Map<TypeGroup, FacetCount> countByTypeGroup( String projectNameAndVersion ) {
+        EnumMap<TypeGroup, FacetCount> counts = new EnumMap<>( TypeGroup.class );
+        HashMap<Integer, int[]> entityCounts = new HashMap<>();
+        HashMap<Integer, HashSet<Integer>> nameKeys = new HashMap<>();
+        int[] rows = rowsOf( projectNameAndVersion );
+        for ( int row = rows[ 0 ]; row < rows[ 1 ]; row++ ) {
+            count( typeGroupAt( row ).ordinal(), row, entityCounts, nameKeys );
+        }
+        TypeGroup[] typeGroupValues = TypeGroup.values();
+        entityCounts.forEach( (ordinal, entityCount) -> counts.put(
+                typeGroupValues[ ordinal ],
+                new FacetCount( entityCount[ 0 ], nameKeys.get( ordinal ).size() ) ) );
+        return counts;
+    }
+
+    @Override
+    public List<ProgramEntity> getEntitiesFor( EntityQuery query ) {
+        ArrayList<ProgramEntity> programEntities = new ArrayList<>();
+        forEachEntity( query, programEntities::add );
+        return programEntities;
+    }
+
+    @Override
+    public void forEachEntity( EntityQuery query, Consumer<? super ProgramEntity> consumer ) {
+        RowQuery rowQuery = compile( query );
+        if ( rowQuery != null ) {
+            rowQuery.forEachRow( 0, Integer.MAX_VALUE, query.maximumCount(),
+                    (row) -> consumer.accept( entityAt( row ) ) );
+        }
+    }
+
+    @Override
+    public EntityKeySet getEntityKeysFor( EntityQuery query ) {
+        EntityKeySet entityKeys = new EntityKeySet();
+        RowQuery rowQuery = compile( query );
+        if ( rowQuery != null ) {
+            rowQuery.forEachRow( 0, Integer.MAX_VALUE, query.maximumCount(),
+                    (row) -> entityKeys.add( this.programEntityKeys.get( row ) ) );
+        }
+        return entityKeys;
+    }
+
+    @Override
+    public EntityPage getEntityPage( EntityQuery query, String continuationToken, int pageSize ) {
+        if ( pageSize < 1 ) {
+            throw new IllegalArgumentException( "Page size must be positive: " + pageSize );
+        }
+        int fingerprint = query.fingerprint();
+        ContinuationToken token = continuationToken == null
+                ? new ContinuationToken( 0, Integer.MAX_VALUE, fingerprint )
+                : ContinuationToken.decode( continuationToken, fingerprint );
+
+        ArrayList<ProgramEntity> programEntities = new ArrayList<>( pageSize );
+        RowQuery rowQuery = compile( query );
+        if ( rowQuery == null ) {
+            return new EntityPage( programEntities, null );
+        }
+
+        // the page seeks to the token's key in the sorted key column
+        int[] lastKeyRead = { token.afterKey };
+        rowQuery.forEachRow( token.afterKey, token.lastKey, pageSize, (row) -> {
+            programEntities.add( entityAt( row ) );
+            lastKeyRead[ 0 ] = this.programEntityKeys.get( row );
+        } );
+
+        boolean isLast = programEntities.size() < pageSize || lastKeyRead[ 0 ] == token.lastKey;
+        return new EntityPage(
+                programEntities,
+                isLast ? null : token.after( lastKeyRead[ 0 ] ).encode() );
+    }
+
+    @Override
+    public List<String> splitEntityScan( EntityQuery query, int partitions ) {
+        return partitionsFor( compile( query ), query, partitions ).stream()
+                .map( ContinuationToken::encode )
+                .collect( Collectors.toList() );
+    }
+
+    @Override
+    public Stream<ProgramEntity> getEntityStream( EntityQuery query, int partitions ) {
+        RowQuery rowQuery = compile( query );
+        return partitionsFor( rowQuery, query, partitions ).parallelStream()
+                .map( (partition) -> {
+                    ArrayList<ProgramEntity> programEntities = new ArrayList<>();
+                    rowQuery.forEachRow( partition.afterKey, partition.lastKey, 0,
+                            (row) -> programEntities.add( entityAt( row ) ) );
+                    return programEntities;
+                } )
+                .flatMap( List::stream );
+    }
+
+    @Override
+    public List<ProgramEntity> getEntitiesInParallel( EntityQuery query, int partitions ) {
+        return getEntityStream( query, partitions ).collect( Collectors.toList() );
+    }
+
+    // --- queries
+
+    // resolves the names in a query to the keys of the image, giving null
+    // where a name is unknown and the query cannot match anything
+    private RowQuery compile( EntityQuery query ) {
+        int project = -1;
+        if ( query.projectNameAndVersion() != null ) {
+            project = projectFor( query.projectNameAndVersion() );
+            if ( project < 0 ) {
+                return null;
+            }
+        }
+
+        ArrayList<IntPredicate> conditions = new ArrayList<>();
+        if ( ! query.species().isEmpty() ) {
+            HashSet<Integer> includedSpeciesKeys = new HashSet<>();
+            for ( Species species : query.species() ) {
+                Integer speciesKey = speciesKeyFor( species );
+                if ( speciesKey != null ) {
+                    includedSpeciesKeys.add( speciesKey );
+                }
+            }
+            if ( includedSpeciesKeys.isEmpty() ) {
+                return null;
+            }
+            conditions.add( (row) -> includedSpeciesKeys.contains( this.speciesKeys.get( row ) ) );
+        }
+
+        int mask = 0;
+        for ( Modifier modifier : query.modifiers() ) {
+            Integer modifierKey = this.modifierNames.get( modifier.description() );
+            if ( modifierKey == null ) {
+                return null;
+            }
+            mask |= ModifierCache.bitFor( modifierKey );
+        }
+        if ( mask != 0 ) {
+            int requiredMask = mask;
+            conditions.add( (row) -> ( this.modifiers.get( row ) & requiredMask ) == requiredMask );
+        }
+
+        if ( query.typeName() != null ) {
+            Integer typeNameKey = this.typeNames.get( query.typeName() );
+            if ( typeNameKey == null ) {
+                return null;
+            }
+            conditions.add( (row) -> this.typeNameKeys.get( row ) == typeNameKey );
+        }
+
+        if ( query.packageName() != null ) {
+            // each project has its own key for a package
+            HashSet<Integer> namedPackageKeys = new HashSet<>();
+            for ( int i = 0; i < this.packageNames.size(); i++ ) {
+                if ( query.packageName().equals( this.packageNames.valueAt( i ) ) ) {
+                    namedPackageKeys.add( this.packageNames.keyAt( i ) );
+                }
+            }
+            if ( namedPackageKeys.isEmpty() ) {
+                return null;
+            }
+            conditions.add( (row) -> namedPackageKeys.contains( this.packageKeys.get( row ) ) );
+        }
+
+        if ( query.fileName() != null ) {
+            Integer fileNameKey = this.fileNames.get( query.fileName() );
+            if ( fileNameKey == null ) {
+                return null;
+            }
+            conditions.add( (row) -> this.fileNameKeys.get( row ) == fileNameKey );
+        }
+
+        Integer tokenKey = null;
+        if ( query.componentWord() != null ) {
+            tokenKey = this.tokens.get( query.componentWord() );
+            if ( tokenKey == null ) {
+                return null;
+            }
+        }
+        IntPredicate nameCondition = nameConditionFor( query, tokenKey );
+        if ( nameCondition != null ) {
+            // names recur, so each is tested once
+            ConcurrentHashMap<Integer, Boolean> nameMatches = new ConcurrentHashMap<>();
+            conditions.add( (row) -> nameMatches.computeIfAbsent(
+                    this.identifierNameKeys.get( row ), nameCondition::test ) );
+        }
+
+        return new RowQuery( project, (row) -> {
+            for ( IntPredicate condition : conditions ) {
+                if ( ! condition.test( row ) ) {
+                    return false;
+                }
+            }
+            return true;
+        } );
+    }
+
+    // the conditions of a query on the identifier name, as a test of
+    // identifier name keys, or null where there are none
+    private IntPredicate nameConditionFor( EntityQuery query, Integer tokenKey ) {
+        ArrayList<IntPredicate> conditions = new ArrayList<>();
+        if ( tokenKey != null ) {
+            conditions.add( (identifierNameKey) -> {
+                int index = this.identifierNames.indexOf( identifierNameKey );
+                if ( index >= 0 ) {
+                    for ( int key : this.tokenSequences.get( index ) ) {
+                        if ( key == tokenKey ) {
+                            return true;
+                        }
+                    }
+                }
+                return false;
+            } );
+        }
+        if ( query.namePattern() != null ) {
+            Pattern pattern = likePattern( query.namePattern() );
+            conditions.add( (identifierNameKey) -> 
+                    pattern.matcher( this.identifierNames.get( identifierNameKey ) ).matches() );
+        }
+        int minimumLength = query.minimumNameLength();
+        int maximumLength = query.maximumNameLength();
+        if ( minimumLength > 0 || maximumLength < Integer.MAX_VALUE ) {
+            conditions.add( (identifierNameKey) -> {
+                int length = this.identifierNames.get( identifierNameKey ).length();
+                return length >= minimumLength && length <= maximumLength;
+            } );
+        }
+        if ( conditions.isEmpty() ) {
+            return null;
+        }
+        return (identifierNameKey) -> {
+            for ( IntPredicate condition : conditions ) {
+                if ( ! condition.test( identifierNameKey ) ) {
+                    return false;
+                }
+            }
+            return true;
+        };
+    }
+
+    // translates an SQL LIKE pattern, which has no escape character
+    private static Pattern likePattern( String likePattern ) {
+        StringBuilder regex = new StringBuilder();
+        StringBuilder literal = new StringBuilder();
+        for ( char c : likePattern.toCharArray() ) {
+            if ( c == '%' || c == '_' ) {
+                if ( literal.length() > 0 ) {
+                    regex.append( Pattern.quote( literal.toString() ) );
+                    literal.setLength( 0 );
+                }
+                regex.append( c == '%' ? ".*" : "." );
+            }
+            else {
+                literal.append( c );
+            }
+        }
+        if ( literal.length() > 0 ) {
+            regex.append( Pattern.quote( literal.toString() ) );
+        }
+        return Pattern.compile( regex.toString(), Pattern.DOTALL );
+    }
+
+    // divides the key range of a query into ranges of about equal width
+    private List<ContinuationToken> partitionsFor( 
+            RowQuery rowQuery, EntityQuery query, int partitions ) {
+        if ( partitions < 1 ) {
+            throw new IllegalArgumentException( "Partitions must be positive: " + partitions );
+        }
+        ArrayList<ContinuationToken> tokens = new ArrayList<>( partitions );
+        int[] keyBounds = rowQuery == null ? null : rowQuery.keyBounds();
+        if ( keyBounds == null ) {
+            return tokens;
+        }
+
+        int fingerprint = query.fingerprint();
+        long width = (long) keyBounds[ 1 ] - keyBounds[ 0 ] + 1;
+        int count = (int) Math.min( partitions, width );
+        for ( int i = 0; i < count; i++ ) {
+            tokens.add( new ContinuationToken(
+                    (int) ( keyBounds[ 0 ] - 1 + width * i / count ),
+                    (int) ( keyBounds[ 0 ] - 1 + width * ( i + 1 ) / count ),
+                    fingerprint ) );
+        }
+        return tokens;
+    }
+
+    // a query over the rows of one project, which are in key order, or
+    // over every row in the order of the key index, in which the rows of
+    // an entity shared by several projects are adjacent and the first
+    // stands for the entity
+    private final class RowQuery {
+        private final int project;
+        private final IntPredicate condition;
+
+        RowQuery( int project, IntPredicate condition ) {
+            this.project = project;
+            this.condition = condition;
+        }
+
+        // passes the matching rows with keys after one key and up to
+        // another to an action in key order, stopping after limit rows
+        // where limit is positive
+        void forEachRow( int afterKey, int lastKey, int limit, IntConsumer action ) {
+            int count = 0;
+            int previousKey = afterKey;
+            for ( int position = positionAfter( afterKey ); position < size(); position++ ) {
+                int row = rowAt( position );
+                int programEntityKey = ImageDatabaseReader.this.programEntityKeys.get( row );
+                if ( programEntityKey > lastKey ) {
+                    return;
+                }
+                if ( programEntityKey != previousKey && this.condition.test( row ) ) {
+                    action.accept( row );
+                    if ( ++count == limit ) {
+                        return;
+                    }
+                }
+                previousKey = programEntityKey;
+            }
+        }
+
+        // the least and greatest matching keys, or null if none match
+        int[] keyBounds() {
+            int[] firstKey = { 0 };
+            boolean[] isFound = { false };
+            forEachRow( 0, Integer.MAX_VALUE, 1, (row) -> {
+                firstKey[ 0 ] = ImageDatabaseReader.this.programEntityKeys.get( row );
+                isFound[ 0 ] = true;
+            } );
+            if ( ! isFound[ 0 ] ) {
+                return null;
+            }
+            for ( int position = size() - 1; position >= 0; position-- ) {
+                int row = rowAt( position );
+                if ( this.condition.test( row ) ) {
+                    return new int[] { 
+                            firstKey[ 0 ], ImageDatabaseReader.this.programEntityKeys.get( row ) };
+                }
+            }
+            return null;
+        }
+
+        private int size() {
+            return this.project < 0 
+                    ? ImageDatabaseReader.this.keyIndex.limit() 
+                    : rowCountOf( this.project );
+        }
+
+        private int rowAt( int position ) {
+            return this.project < 0 
+                    ? ImageDatabaseReader.this.keyIndex.get( position ) 
+                    : firstRowOf( this.project ) + position;
+        }
+
+        // the first position whose key is greater than the given key
+        private int positionAfter( int programEntityKey ) {
+            int low = 0;
+            int high = size();
+            while ( low < high ) {
+                int middle = ( low + high ) >>> 1;
+                if ( ImageDatabaseReader.this.programEntityKeys.get( rowAt( middle ) ) 
+                        <= programEntityKey ) {
+                    low = middle + 1;
+                }
+                else {
+                    high = middle;
+                }
+            }
+            return low;
+        }
+    }
+
+    // --- rows
+
+    // finds a project's position in the project rows section, or -1
+    private int projectFor( String projectNameAndVersion ) {
+        Integer projectKey = projectNameAndVersion == null
+                ? null
+                : this.projects.get( projectNameAndVersion );
+        return projectKey == null ? -1 : projectFor( projectKey );
+    }
+
+    private int projectFor( int projectKey ) {
+        int low = 0;
+        int high = this.projectCount - 1;
+        while ( low <= high ) {
+            int middle = ( low + high ) >>> 1;
+            int candidate = this.projectRows.get( middle * PROJECT_ROW_SIZE );
+            if ( candidate < projectKey ) {
+                low = middle + 1;
+            }
+            else if ( candidate > projectKey ) {
+                high = middle - 1;
+            }
+            else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    // finds the project a row belongs to
+    private int projectForRow( int row ) {
+        int low = 0;
+        int high = this.projectCount - 1;
+        while ( low < high ) {
+            int middle = ( low + high + 1 ) >>> 1;
+            if ( firstRowOf( middle ) <= row ) {
+                low = middle;
+            }
+            else {
+                high = middle - 1;
+            }
+        }
+        return low;
+    }
+
+    private int firstRowOf( int project ) {
+        return this.projectRows.get( project * PROJECT_ROW_SIZE + 1 );
+    }
+
+    private int rowCountOf( int project ) {
+        return this.projectRows.get( project * PROJECT_ROW_SIZE + 2 );
+    }
+
+    // the first row of a project and the row after its last, both zero if
+    // the project is not recognised
+    private int[] rowsOf( String projectNameAndVersion ) {
+        int project = projectFor( projectNameAndVersion );
+        return project < 0
+                ? NO_ROWS
+                : new int[] { firstRowOf( project ), firstRowOf( project ) + rowCountOf( project ) };
+    }
+
+    // finds the first row with a program entity key, or -1
+    private int rowForKey( int programEntityKey ) {
+        int low = 0;
+        int high = this.keyIndex.limit() - 1;
+        while ( low <= high ) {
+            int middle = ( low + high ) >>> 1;
+            int candidate = this.programEntityKeys.get( this.keyIndex.get( middle ) );
+            if ( candidate < programEntityKey ) {
+                low = middle + 1;
+            }
+            else if ( candidate > programEntityKey ) {
+                high = middle - 1;
+            }
+            else {
+                return this.keyIndex.get( middle );
+            }
+        }
+        return -1;
+    }
+
+    // finds the row of a project with an entity uid, or -1
+    private int rowForUid( int project, String entityUid ) {
+        byte[] uid = entityUid.getBytes( StandardCharsets.UTF_8 );
+        int first = this.projectRows.get( project * PROJECT_ROW_SIZE + 3 );
+        int low = first;
+        int high = first + this.projectRows.get( project * PROJECT_ROW_SIZE + 4 ) - 1;
+        // the first of several rows sharing a uid is wanted
+        int found = -1;
+        while ( low <= high ) {
+            int middle = ( low + high ) >>> 1;
+            int comparison = this.entityUids.compare( this.uidIndex.get( middle ), uid );
+            if ( comparison < 0 ) {
+                low = middle + 1;
+            }
+            else {
+                if ( comparison == 0 ) {
+                    found = this.uidIndex.get( middle );
+                }
+                high = middle - 1;
+            }
+        }
+        return found;
+    }
+
+    // finds the row of a project with a program entity key, or -1; the
+    // rows of a project are in key order
+    private int rowInProject( int project, int programEntityKey ) {
+        int low = firstRowOf( project );
+        int high = low + rowCountOf( project ) - 1;
+        while ( low <= high ) {
+            int middle = ( low + high ) >>> 1;
+            int candidate = this.programEntityKeys.get( middle );
+            if ( candidate < programEntityKey ) {
+                low = middle + 1;
+            }
+            else if ( candidate > programEntityKey ) {
+                high = middle - 1;
+            }
+            else {
+                return middle;
+            }
+        }
+        return -1;
+    }
+
+    private ContainmentIndex containmentIndexFor( int project ) {
+        return this.containmentIndexes.computeIfAbsent( project, (p) -> {
+            int firstRow = firstRowOf( p );
+            int rowCount = rowCountOf( p );
+            int[] keys = new int[ rowCount ];
+            int[] projectSpeciesKeys = new int[ rowCount ];
+            String[] projectContainerUids = new String[ rowCount ];
+            String[] projectEntityUids = new String[ rowCount ];
+            for ( int i = 0; i < rowCount; i++ ) {
+                int row = firstRow + i;
+                keys[ i ] = this.programEntityKeys.get( row );
+                projectSpeciesKeys[ i ] = this.speciesKeys.get( row );
+                projectContainerUids[ i ] = containerUidAt( row );
+                projectEntityUids[ i ] = entityUidAt( row );
+            }
+            return new ContainmentIndex(
+                    keys, projectSpeciesKeys, projectContainerUids, projectEntityUids, rowCount );
+        } );
+    }
+
+    // --- entities
+
+    private ProgramEntity entityAt( int row ) {
+        int projectKey = this.projectRows.get( projectForRow( row ) * PROJECT_ROW_SIZE );
+        int identifierNameKey = this.identifierNameKeys.get( row );
+        int rowFlags = this.flags.get( row );
+        Species species = speciesAt( row );
+
+        String methodSignature = null;
+        HashMap<String, ArrayList<String>> superClasses = null;
+        HashMap<String, ArrayList<String>> superTypes = null;
+        if ( species.isMethod() || species.isConstructor() ) {
+            methodSignature = this.methodSignatures.get( this.methodSignatureKeys.get( row ) );
+        }
+        else if ( species.isClassOrInterface() ) {
+            superClasses = tokenMapFor( this.superClassNames.get( row ) );
+            superTypes = tokenMapFor( this.superTypeNames.get( row ) );
+        }
+
+        return ProgramEntityFactory.create(
+                this.projectNames.get( projectKey ),
+                this.projectVersions.get( projectKey ),
+                this.identifierNames.get( identifierNameKey ),
+                this.packageNames.get( this.packageKeys.get( row ) ),
+                tokensFor( identifierNameKey ),
+                modifiersFor( this.modifiers.get( row ) ),
+                species,
+                containerUidAt( row ),
+                entityUidAt( row ),
+                this.typeNames.get( this.typeNameKeys.get( row ) ),
+                null,
+                ( rowFlags & AnalysisImage.IS_ARRAY ) != 0,
+                ( rowFlags & AnalysisImage.IS_LOOP_CONTROL_VARIABLE ) != 0,
+                this.fileNames.get( this.fileNameKeys.get( row ) ),
+                this.startLineNumbers.get( row ),
+                this.startColumns.get( row ),
+                this.endLineNumbers.get( row ),
+                this.endColumns.get( row ),
+                methodSignature,
+                superClasses,
+                superTypes );
+    }
+
+    private ArrayList<ProgramEntity> entitiesWhere( int[] rows, IntPredicate condition ) {
+        ArrayList<ProgramEntity> programEntities = new ArrayList<>();
+        for ( int row = rows[ 0 ]; row < rows[ 1 ]; row++ ) {
+            if ( condition.test( row ) ) {
+                programEntities.add( entityAt( row ) );
+            }
+        }
+        return programEntities;
+    }
+
+    private ArrayList<ProgramEntity> entitiesOfSpecies( String projectName, Species species ) {
+        Integer speciesKey = speciesKeyFor( species );
+        return speciesKey == null
+                ? new ArrayList<>()
+                : entitiesWhere( rowsOf( projectName ),
+                        (row) -> this.speciesKeys.get( row ) == speciesKey );
+    }
+
+    // in order of position in the file
+    private List<ProgramEntity> entitiesInFile(
+            String projectNameAndVersion, String fileName, IntPredicate condition ) {
+        Integer fileNameKey = this.fileNames.get( fileName );
+        if ( fileNameKey == null ) {
+            return new ArrayList<>();
+        }
+
+        int[] rows = rowsOf( projectNameAndVersion );
+        ArrayList<Integer> matches = new ArrayList<>();
+        for ( int row = rows[ 0 ]; row < rows[ 1 ]; row++ ) {
+            if ( this.fileNameKeys.get( row ) == fileNameKey && condition.test( row ) ) {
+                matches.add( row );
+            }
+        }
+        matches.sort( (a, b) -> {
+            int order = Integer.compare( this.startLineNumbers.get( a ), this.startLineNumbers.get( b ) );
+            if ( order == 0 ) {
+                order = Integer.compare( this.startColumns.get( a ), this.startColumns.get( b ) );
+            }
+            return order == 0
+                    ? Integer.compare( this.programEntityKeys.get( a ), this.programEntityKeys.get( b ) )
+                    : order;
+        } );
+
+        ArrayList<ProgramEntity> programEntities = new ArrayList<>( matches.size() );
+        matches.forEach( (row) -> programEntities.add( entityAt( row ) ) );
+        return programEntities;
+    }
+
+    // the keys are those of entities in the project
+    private List<ProgramEntity> entitiesInProject( int project, int[] keys ) {
+        ArrayList<ProgramEntity> programEntities = new ArrayList<>( keys.length );
+        for ( int key : keys ) {
+            int row = rowInProject( project, key );
+            if ( row >= 0 ) {
+                programEntities.add( entityAt( row ) );
+            }
+        }
+        return programEntities;
+    }
+
+    private List<ProgramEntity> entitiesInOrder( int[] keys ) {
+        ArrayList<ProgramEntity> programEntities = new ArrayList<>( keys.length );
+        for ( int key : keys ) {
+            int row = rowForKey( key );
+            if ( row >= 0 ) {
+                programEntities.add( entityAt( row ) );
+            }
+        }
+        return programEntities;
+    }
+
+    // an entity shared by several projects is listed once
+    private ArrayList<InheritableProgramEntity> inheritorsOf( String superName, KeyedLists index ) {
+        ArrayList<InheritableProgramEntity> inheritors = new ArrayList<>();
+        Integer identifierNameKey = this.identifierNames.get( superName );
+        if ( identifierNameKey == null ) {
+            return inheritors;
+        }
+
+        HashSet<Integer> programEntityKeys = new HashSet<>();
+        for ( int row : index.get( identifierNameKey ) ) {
+            if ( programEntityKeys.add( this.programEntityKeys.get( row ) ) ) {
+                inheritors.add( (InheritableProgramEntity) entityAt( row ) );
+            }
+        }
+        return inheritors;
+    }
+
+    // visits rows in key order, so each shared entity is added once
+    private EntityKeySet keysWhere( IntPredicate condition ) {
+        EntityKeySet entityKeys = new EntityKeySet();
+        int previousKey = 0;
+        for ( int i = 0; i < this.keyIndex.limit(); i++ ) {
+            int row = this.keyIndex.get( i );
+            int programEntityKey = this.programEntityKeys.get( row );
+            if ( programEntityKey != previousKey && condition.test( row ) ) {
+                entityKeys.add( programEntityKey );
+                previousKey = programEntityKey;
+            }
+        }
+        return entityKeys;
+    }
+
+    // --- values
+
+    private Species speciesAt( int row ) {
+        return this.speciesByKey.get( this.speciesKeys.get( row ) );
+    }
+
+    private Integer speciesKeyFor( Species species ) {
+        return species == null ? null : this.speciesNames.get( species.description() );
+    }
+
+    private TypeGroup typeGroupAt( int row ) {
+        return this.typeGroups.computeIfAbsent( this.typeNameKeys.get( row ),
+                (typeNameKey) -> TypeGroup.classifyFromString( this.typeNames.get( typeNameKey ) ) );
+    }
+
+    private String containerUidAt( int row ) {
+        return ( this.flags.get( row ) & AnalysisImage.HAS_CONTAINER_UID ) == 0
+                ? null
+                : this.containerUids.get( row );
+    }
+
+    private String entityUidAt( int row ) {
+        return ( this.flags.get( row ) & AnalysisImage.HAS_ENTITY_UID ) == 0
+                ? null
+                : this.entityUids.get( row );
+    }
+
+    private ArrayList<String> tokensFor( int identifierNameKey ) {
+        int index = this.identifierNames.indexOf( identifierNameKey );
+        if ( index < 0 ) {
+            return new ArrayList<>( 0 );
+        }
+        int[] tokenKeys = this.tokenSequences.get( index );
+        ArrayList<String> componentWords = new ArrayList<>( tokenKeys.length );
+        for ( int tokenKey : tokenKeys ) {
+            componentWords.add( this.tokens.get( tokenKey ) );
+        }
+        return componentWords;
+    }
+
+    private HashMap<String, ArrayList<String>> tokenMapFor( int[] nameKeys ) {
+        HashMap<String, ArrayList<String>> tokenMap = new HashMap<>();
+        for ( int nameKey : nameKeys ) {
+            tokenMap.put( this.identifierNames.get( nameKey ), tokensFor( nameKey ) );
+        }
+        return tokenMap;
+    }
+
+    private ArrayList<Modifier> modifiersFor( int mask ) {
+        ArrayList<Modifier> modifierList = new ArrayList<>( Integer.bitCount( mask ) );
+        while ( mask != 0 ) {
+            modifierList.add( this.modifiersByKey.get( Integer.numberOfTrailingZeros( mask ) + 1 ) );
+            mask &= mask - 1;
+        }
+        return modifierList;
+    }
+
+    // adds a row to the counts of a facet value
+    private void count(
+            int value,
+            int row,
+            HashMap<Integer, int[]> entityCounts,
+            HashMap<Integer, HashSet<Integer>> nameKeys ) {
+        entityCounts.computeIfAbsent( value, (v) -> new int[ 1 ] )[ 0 ]++;
+        nameKeys.computeIfAbsent( value, (v) -> new HashSet<>() )
+                .add( this.identifierNameKeys.get( row ) );
+    }
+
+    // distinct names, sampled at random where there are more than count
+    private ArrayList<String> sampleNames(
+            int[] rows,
+            Species species,
+            Integer count,
+            Integer minimumLength ) {
+        HashSet<String> startingNameSet = new HashSet<>();
+        Integer speciesKey = speciesKeyFor( species );
+        if ( speciesKey != null ) {
+            HashSet<Integer> seenNameKeys = new HashSet<>();
+            for ( int row = rows[ 0 ]; row < rows[ 1 ]; row++ ) {
+                int identifierNameKey = this.identifierNameKeys.get( row );
+                if ( this.speciesKeys.get( row ) == speciesKey && seenNameKeys.add( identifierNameKey ) ) {
+                    String identifierName = this.identifierNames.get( identifierNameKey );
+                    if ( identifierName.length() >= minimumLength ) {
+                        startingNameSet.add( identifierName );
+                    }
+                }
+            }
+        }
+
+        ArrayList<String> nameList = new ArrayList<>( startingNameSet );
+        if ( count > 0 && nameList.size() > count ) {
+            Collections.shuffle( nameList, new Random( System.currentTimeMillis() ) );
+            nameList = new ArrayList<>( nameList.subList( 0, count ) );
+        }
+        Collections.sort( nameList );
+        return nameList;
+    }
+
+    private ArrayList<String> tokenise( List<String> names ) {
+        ArrayList<String> tokenisedNames = new ArrayList<>( names.size() );
+        for ( String name : names ) {
+            Integer identifierNameKey = this.identifierNames.get( name );
+            tokenisedNames.add( String.join( " ",
+                    identifierNameKey == null ? new ArrayList<>() : tokensFor( identifierNameKey ) ) );
+        }
+        Collections.sort( tokenisedNames );
+        return tokenisedNames;
+    }
+}
@@ -0,0 +1,568 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.open.crc.idtk.Modifier;
+import uk.ac.open.crc.idtk.Species;
+import uk.ac.open.crc.idtk.TypeName;
+import uk.ac.open.crc.jimdb.AnalysisImage.Section;
+
+/**
+ * Holds program entities in memory, without Derby or the disk. Names are 
+ * held in dictionaries and the entities of each project as rows of ints, 
+ * with keys assigned in the order names and entities are first stored.
+ * <p>
+ * Reads are served by an {@linkplain ImageDatabaseReader} over an 
+ * analysis image built in memory from the entities stored. The image is 
+ * rebuilt when a reader is created after a change, so each reader sees 
+ * the entities stored before it was created, and not those stored 
+ * later. The backend is the {@linkplain EntityStore} of every writer. The 
+ * entities of a file being replaced are held apart until the file is 
+ * ended. Names are kept when the entities using them are removed.
+ * </p>
+ */
+final class InMemoryStorageBackend implements StorageBackend, EntityStore, AnalysisImageSource {
+    private static final Logger LOGGER = LoggerFactory.getLogger( InMemoryStorageBackend.class );
+
+    private static final int[] NO_TOKENS = new int[ 0 ];
+
+    private final Names identifierNames;
+    private final Names tokens;
+    private final Names typeNames;
+    private final Names fileNames;
+    private final Names methodSignatures;
+    private final Names species;
+    private final Names modifiers;
+    // token keys by identifier name key
+    private final HashMap<Integer, int[]> tokenSequences;
+
+    private final TreeMap<Integer, Project> projects;
+    private final HashMap<String, Project> projectsByName;
+    private int nextProjectKey;
+    private int nextPackageKey;
+    private int nextProgramEntityKey;
+
+    // the file being replaced and its entities
+    private Project fileProject;
+    private EntityRows fileRows;
+
+    private long modificationCount;
+    private long snapshotModificationCount;
+    private AnalysisImage snapshot;
+
+    InMemoryStorageBackend() {
+        this.identifierNames = new Names();
+        this.tokens = new Names();
+        this.typeNames = new Names();
+        this.fileNames = new Names();
+        this.methodSignatures = new Names();
+        this.species = new Names();
+        this.modifiers = new Names();
+        this.tokenSequences = new HashMap<>();
+        this.projects = new TreeMap<>();
+        this.projectsByName = new HashMap<>();
+        clear();
+    }
+
+    @Override
+    public synchronized void store( RawProgramEntity programEntity ) {
+        Project project = this.fileRows != null ? this.fileProject : currentProject();
+        EntityRows rows = this.fileRows != null ? this.fileRows : project.rows;
+
+        String identifierName = programEntity.getIdentifierName();
+        String methodSignature = programEntity.getMethodSignature();
+        int modifierMask = 0;
+        if ( programEntity.getModifiers() != null ) {
+            for ( Modifier modifier : programEntity.getModifiers() ) {
+                modifierMask |= ModifierCache.bitFor( this.modifiers.keyFor( modifier.description() ) );
+            }
+        }
+        int flags = ( identifierName.equals( ProgramEntity.ANONYMOUS ) ? AnalysisImage.IS_ANONYMOUS : 0 )
+                | ( programEntity.isArrayDeclaration() ? AnalysisImage.IS_ARRAY : 0 )
+                | ( programEntity.isLoopControlVariable() ? AnalysisImage.IS_LOOP_CONTROL_VARIABLE : 0 );
+
+        // inheritance is only recorded for classes and interfaces
+        Species entitySpecies = programEntity.getSpecies();
+        int[] superClassNames = null;
+        int[] superTypeNames = null;
+        if ( entitySpecies.isClass() || entitySpecies.isInterface() ) {
+            superClassNames = superNameKeysFor( programEntity.getSuperClassList() );
+            superTypeNames = superNameKeysFor( programEntity.getSuperTypeList() );
+        }
+
+        int row = rows.add();
+        rows.set( row, EntityRows.KEY, this.nextProgramEntityKey++ );
+        rows.set( row, EntityRows.NAME, identifierNameKeyFor( identifierName ) );
+        rows.set( row, EntityRows.SPECIES, this.species.keyFor( entitySpecies.description() ) );
+        rows.set( row, EntityRows.TYPE_NAME, typeNameKeyFor( programEntity.getTypeName() ) );
+        rows.set( row, EntityRows.PACKAGE, packageKeyFor( project, programEntity.getPackageName() ) );
+        rows.set( row, EntityRows.FILE, this.fileNames.keyFor( programEntity.getFileName() ) );
+        rows.set( row, EntityRows.SIGNATURE,
+                methodSignature == null ? 0 : this.methodSignatures.keyFor( methodSignature ) );
+        rows.set( row, EntityRows.FLAGS, flags );
+        rows.set( row, EntityRows.MODIFIERS, modifierMask );
+        rows.set( row, EntityRows.START_LINE, programEntity.getBeginLineNumber() );
+        rows.set( row, EntityRows.START_COLUMN, programEntity.getBeginColumn() );
+        rows.set( row, EntityRows.END_LINE, programEntity.getEndLineNumber() );
+        rows.set( row, EntityRows.END_COLUMN, programEntity.getEndColumn() );
+        rows.containerUids[ row ] = programEntity.getContainerUid();
+        rows.entityUids[ row ] = programEntity.getEntityUid();
+        rows.superClassNames[ row ] = superClassNames;
+        rows.superTypeNames[ row ] = superTypeNames;
+
+        this.modificationCount++;
+    }
+
+    @Override
+    public synchronized boolean beginFile( String fileName, String digest ) {
+        Project project = currentProject();
+        if ( digest.equals( project.fileDigests.get( fileName ) ) ) {
+            return false;
+        }
+
+        this.fileProject = project;
+        this.fileRows = new EntityRows();
+        return true;
+    }
+
+    @Override
+    public synchronized void endFile( String fileName, String digest ) {
+        Integer fileNameKey = this.fileNames.keyOf( fileName );
+        if ( fileNameKey != null ) {
+            this.fileProject.rows.removeFile( fileNameKey );
+        }
+        this.fileProject.rows.addAll( this.fileRows );
+        this.fileProject.fileDigests.put( fileName, digest );
+        this.fileProject = null;
+        this.fileRows = null;
+        this.modificationCount++;
+    }
+
+    @Override
+    public synchronized void abandonFile() {
+        this.fileProject = null;
+        this.fileRows = null;
+    }
+
+    @Override
+    public synchronized void removeFile( String fileName ) {
+        Project project = currentProject();
+        Integer fileNameKey = this.fileNames.keyOf( fileName );
+        if ( fileNameKey != null ) {
+            project.rows.removeFile( fileNameKey );
+        }
+        project.fileDigests.remove( fileName );
+        this.modificationCount++;
+    }
+
+    @Override
+    public synchronized boolean removeProject( String projectNameAndVersion ) {
+        Project project = this.projectsByName.remove( projectNameAndVersion );
+        if ( project == null ) {
+            return false;
+        }
+
+        this.projects.remove( project.projectKey );
+        this.modificationCount++;
+        return true;
+    }
+
+    // every writer shares the backend's entities, and its file being replaced
+    @Override
+    public EntityStore createStore() {
+        return this;
+    }
+
+    @Override
+    public synchronized DatabaseReader createReader() {
+        if ( this.snapshot == null || this.snapshotModificationCount != this.modificationCount ) {
+            long start = System.currentTimeMillis();
+            try {
+                this.snapshot = new AnalysisImageBuilder( this ).buildInMemory();
+            }
+            catch ( IOException ioEx ) {
+                throw new UncheckedIOException( ioEx );
+            }
+            this.snapshotModificationCount = this.modificationCount;
+            LOGGER.debug( "Built in memory image of {} entities in {} ms",
+                    this.snapshot.rowCount(),
+                    System.currentTimeMillis() - start );
+        }
+
+        return new ImageDatabaseReader( this.snapshot );
+    }
+
+    @Override
+    public synchronized void shutdown() {
+        clear();
+    }
+
+    @Override
+    public synchronized SortedMap<Integer, String> entries( Section section ) {
+        switch ( section ) {
+            case IDENTIFIER_NAMES:
+                return this.identifierNames.entries();
+            case TOKENS:
+                return this.tokens.entries();
+            case TYPE_NAMES:
+                return this.typeNames.entries();
+            case FILE_NAMES:
+                return this.fileNames.entries();
+            case METHOD_SIGNATURES:
+                return this.methodSignatures.entries();
+            case SPECIES:
+                return this.species.entries();
+            case MODIFIERS:
+                return this.modifiers.entries();
+            default:
+                throw new IllegalArgumentException( "Not a stored dictionary: " + section );
+        }
+    }
+
+    @Override
+    public synchronized int[] componentWordKeysFor( int identifierNameKey ) {
+        return this.tokenSequences.getOrDefault( identifierNameKey, NO_TOKENS );
+    }
+
+    @Override
+    public synchronized SortedMap<Integer, String> projects() {
+        TreeMap<Integer, String> projectNames = new TreeMap<>();
+        this.projects.values().forEach( (project) ->
+                projectNames.put( project.projectKey, project.nameAndVersion() ) );
+        return projectNames;
+    }
+
+    @Override
+    public synchronized ProjectContext projectContext( int projectKey ) {
+        Project project = this.projects.get( projectKey );
+        return project == null
+                ? null
+                : new ProjectContext(
+                        projectKey,
+                        project.name,
+                        project.version,
+                        new HashMap<>( project.packageNames ) );
+    }
+
+    @Override
+    public synchronized ProjectEntityColumns projectEntityColumns( int projectKey ) {
+        Project project = this.projects.get( projectKey );
+        return project == null ? null : project.rows.columns( projectKey );
+    }
+
+    @Override
+    public synchronized Map<Integer, int[]> superNameKeys( boolean isSuperTypes ) {
+        HashMap<Integer, int[]> superNameKeys = new HashMap<>();
+        for ( Project project : this.projects.values() ) {
+            EntityRows rows = project.rows;
+            int[][] names = isSuperTypes ? rows.superTypeNames : rows.superClassNames;
+            for ( int row = 0; row < rows.size; row++ ) {
+                if ( names[ row ] != null ) {
+                    superNameKeys.put( rows.get( row, EntityRows.KEY ), names[ row ] );
+                }
+            }
+        }
+        return superNameKeys;
+    }
+
+    // finds or records the project named in the configuration
+    private Project currentProject() {
+        String name = JimDbConfiguration.getInstance().getProjectName();
+        String version = JimDbConfiguration.getInstance().getProjectVersion();
+        String nameAndVersion = name + " " + version;
+        Project project = this.projectsByName.get( nameAndVersion );
+        if ( project == null ) {
+            project = new Project( this.nextProjectKey++, name, version );
+            this.projects.put( project.projectKey, project );
+            this.projectsByName.put( nameAndVersion, project );
+        }
+        return project;
+    }
+
+    private int packageKeyFor( Project project, String packageName ) {
+        Integer packageKey = project.packageKeys.get( packageName );
+        if ( packageKey == null ) {
+            packageKey = this.nextPackageKey++;
+            project.packageKeys.put( packageName, packageKey );
+            project.packageNames.put( packageKey, packageName );
+        }
+        return packageKey;
+    }
+
+    // records a new name with its component words
+    private int identifierNameKeyFor( String identifierName ) {
+        Integer identifierNameKey = this.identifierNames.keyOf( identifierName );
+        if ( identifierNameKey != null ) {
+            return identifierNameKey;
+        }
+
+        identifierNameKey = this.identifierNames.keyFor( identifierName );
+        if ( ! identifierName.startsWith( "#" ) ) { // trap out the non names
+            List<String> words = InttSingleton.getInstance().tokenise( identifierName );
+            int[] tokenKeys = new int[ words.size() ];
+            for ( int i = 0; i < tokenKeys.length; i++ ) {
+                tokenKeys[ i ] = this.tokens.keyFor( words.get( i ).toLowerCase() );
+            }
+            this.tokenSequences.put( identifierNameKey, tokenKeys );
+        }
+        return identifierNameKey;
+    }
+
+    private int typeNameKeyFor( TypeName typeName ) {
+        identifierNameKeyFor( typeName.identifierName() );
+        return this.typeNames.keyFor( EntityDatabaseWriter.typeNameString( typeName ) );
+    }
+
+    private int[] superNameKeysFor( List<TypeName> superNames ) {
+        if ( superNames == null || superNames.isEmpty() ) {
+            return null;
+        }
+
+        int[] superNameKeys = new int[ superNames.size() ];
+        for ( int i = 0; i < superNameKeys.length; i++ ) {
+            TypeName superName = superNames.get( i );
+            typeNameKeyFor( superName );
+            superNameKeys[ i ] = identifierNameKeyFor( superName.identifierName() );
+        }
+        return superNameKeys;
+    }
+
+    private void clear() {
+        this.identifierNames.clear();
+        this.tokens.clear();
+        this.typeNames.clear();
+        this.fileNames.clear();
+        this.methodSignatures.clear();
+        this.species.clear();
+        this.modifiers.clear();
+        this.tokenSequences.clear();
+        this.projects.clear();
+        this.projectsByName.clear();
+        this.nextProjectKey = 1;
+        this.nextPackageKey = 1;
+        this.nextProgramEntityKey = 1;
+        this.fileProject = null;
+        this.fileRows = null;
+        this.snapshot = null;
+        this.modificationCount++;
+
+        // every species and modifier is listed, as in the database
+        for ( Species s : Species.values() ) {
+            this.species.keyFor( s.description() );
+        }
+        for ( Modifier modifier : Modifier.values() ) {
+            this.modifiers.keyFor( modifier.description() );
+        }
+    }
+
+    /**
+     * A dictionary of names, keyed from one in the order they were added.
+     */
+    private static final class Names {
+        private final HashMap<String, Integer> keys = new HashMap<>();
+        private final ArrayList<String> values = new ArrayList<>();
+
+        Integer keyOf( String value ) {
+            return this.keys.get( value );
+        }
+
+        int keyFor( String value ) {
+            Integer key = this.keys.get( value );
+            if ( key == null ) {
+                this.values.add( value );
+                key = this.values.size();
+                this.keys.put( value, key );
+            }
+            return key;
+        }
+
+        SortedMap<Integer, String> entries() {
+            TreeMap<Integer, String> entries = new TreeMap<>();
+            for ( int i = 0; i < this.values.size(); i++ ) {
+                entries.put( i + 1, this.values.get( i ) );
+            }
+            return entries;
+        }
+
+        void clear() {
+            this.keys.clear();
+            this.values.clear();
+        }
+    }
+
+    /**
+     * A project, its packages, the digests of its files and its entities.
+     */
+    private static final class Project {
+        private final int projectKey;
+        private final String name;
+        private final String version;
+        private final HashMap<String, Integer> packageKeys = new HashMap<>();
+        private final HashMap<Integer, String> packageNames = new HashMap<>();
+        private final HashMap<String, String> fileDigests = new HashMap<>();
+        private final EntityRows rows = new EntityRows();
+
+        Project( int projectKey, String name, String version ) {
+            this.projectKey = projectKey;
+            this.name = name;
+            this.version = version;
+        }
+
+        String nameAndVersion() {
+            return this.name + " " + this.version;
+        }
+    }
+
+    /**
+     * Program entities in key order. The int columns of each row are held 
+     * together in a single array.
+     */
+    private static final class EntityRows {
+        static final int KEY = 0;
+        static final int NAME = 1;
+        static final int SPECIES = 2;
+        static final int TYPE_NAME = 3;
+        static final int PACKAGE = 4;
+        static final int FILE = 5;
+        static final int SIGNATURE = 6;
+        static final int FLAGS = 7;
+        static final int MODIFIERS = 8;
+        static final int START_LINE = 9;
+        static final int START_COLUMN = 10;
+        static final int END_LINE = 11;
+        static final int END_COLUMN = 12;
+        static final int COLUMN_COUNT = 13;
+
+        private static final int INITIAL_CAPACITY = 64;
+
+        private int[] values = new int[ INITIAL_CAPACITY * COLUMN_COUNT ];
+        private String[] containerUids = new String[ INITIAL_CAPACITY ];
+        private String[] entityUids = new String[ INITIAL_CAPACITY ];
+        private int[][] superClassNames = new int[ INITIAL_CAPACITY ][];
+        private int[][] superTypeNames = new int[ INITIAL_CAPACITY ][];
+        private int size = 0;
+
+        int get( int row, int column ) {
+            return this.values[ row * COLUMN_COUNT + column ];
+        }
+
+        void set( int row, int column, int value ) {
+            this.values[ row * COLUMN_COUNT + column ] = value;
+        }
+
+        // appends an empty row, returning its index
+        int add() {
+            if ( this.size == this.containerUids.length ) {
+                int capacity = this.size * 2;
+                this.values = Arrays.copyOf( this.values, capacity * COLUMN_COUNT );
+                this.containerUids = Arrays.copyOf( this.containerUids, capacity );
+                this.entityUids = Arrays.copyOf( this.entityUids, capacity );
+                this.superClassNames = Arrays.copyOf( this.superClassNames, capacity );
+                this.superTypeNames = Arrays.copyOf( this.superTypeNames, capacity );
+            }
+            return this.size++;
+        }
+
+        void addAll( EntityRows rows ) {
+            for ( int i = 0; i < rows.size; i++ ) {
+                int row = add();
+                System.arraycopy( rows.values, i * COLUMN_COUNT,
+                        this.values, row * COLUMN_COUNT, COLUMN_COUNT );
+                this.containerUids[ row ] = rows.containerUids[ i ];
+                this.entityUids[ row ] = rows.entityUids[ i ];
+                this.superClassNames[ row ] = rows.superClassNames[ i ];
+                this.superTypeNames[ row ] = rows.superTypeNames[ i ];
+            }
+        }
+
+        // removes the rows of a file, keeping the others in order
+        void removeFile( int fileNameKey ) {
+            int kept = 0;
+            for ( int i = 0; i < this.size; i++ ) {
+                if ( get( i, FILE ) == fileNameKey ) {
+                    continue;
+                }
+                if ( kept != i ) {
+                    System.arraycopy( this.values, i * COLUMN_COUNT,
+                            this.values, kept * COLUMN_COUNT, COLUMN_COUNT );
+                    this.containerUids[ kept ] = this.containerUids[ i ];
+                    this.entityUids[ kept ] = this.entityUids[ i ];
+                    this.superClassNames[ kept ] = this.superClassNames[ i ];
+                    this.superTypeNames[ kept ] = this.superTypeNames[ i ];
+                }
+                kept++;
+            }
+            Arrays.fill( this.containerUids, kept, this.size, null );
+            Arrays.fill( this.entityUids, kept, this.size, null );
+            Arrays.fill( this.superClassNames, kept, this.size, null );
+            Arrays.fill( this.superTypeNames, kept, this.size, null );
+            this.size = kept;
+        }
+
+        ProjectEntityColumns columns( int projectKey ) {
+            ProjectEntityColumns columns = new ProjectEntityColumns( projectKey, this.size );
+            int[] modifierKeys = new int[ 16 ];
+            int modifierCount = 0;
+            for ( int i = 0; i < this.size; i++ ) {
+                int flags = get( i, FLAGS );
+                columns.programEntityKeys[ i ] = get( i, KEY );
+                columns.identifierNameKeys[ i ] = get( i, NAME );
+                columns.speciesKeys[ i ] = get( i, SPECIES );
+                columns.typeNameKeys[ i ] = get( i, TYPE_NAME );
+                columns.packageKeys[ i ] = get( i, PACKAGE );
+                columns.fileNameKeys[ i ] = get( i, FILE );
+                columns.methodSignatureKeys[ i ] = get( i, SIGNATURE );
+                columns.containerUids[ i ] = this.containerUids[ i ];
+                columns.entityUids[ i ] = this.entityUids[ i ];
+                columns.isAnonymous[ i ] = ( flags & AnalysisImage.IS_ANONYMOUS ) != 0;
+                columns.isArray[ i ] = ( flags & AnalysisImage.IS_ARRAY ) != 0;
+                columns.isLoopControlVariable[ i ] =
+                        ( flags & AnalysisImage.IS_LOOP_CONTROL_VARIABLE ) != 0;
+                columns.startLineNumbers[ i ] = get( i, START_LINE );
+                columns.startColumns[ i ] = get( i, START_COLUMN );
+                columns.endLineNumbers[ i ] = get( i, END_LINE );
+                columns.endColumns[ i ] = get( i, END_COLUMN );
+
+                int mask = get( i, MODIFIERS );
+                for ( int modifierKey = 1; mask != 0; modifierKey++ ) {
+                    int bit = ModifierCache.bitFor( modifierKey );
+                    if ( ( mask & bit ) != 0 ) {
+                        if ( modifierCount == modifierKeys.length ) {
+                            modifierKeys = Arrays.copyOf( modifierKeys, modifierCount * 2 );
+                        }
+                        modifierKeys[ modifierCount++ ] = modifierKey;
+                        mask &= ~bit;
+                    }
+                }
+                columns.modifierOffsets[ i + 1 ] = modifierCount;
+            }
+            columns.modifierKeys = Arrays.copyOf( modifierKeys, modifierCount );
+            return columns;
+        }
+    }
+}
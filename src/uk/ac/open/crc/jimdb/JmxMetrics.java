@@ -0,0 +1,308 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Accumulates measurements and publishes them as MXBeans on the platform
+ * MBean server, under the domain {@code uk.ac.open.crc.jimdb}:
+ * <ul>
+ * <li>{@code type=Statement,id=}<i>n</i> for each prepared statement
+ * executed, with its text, execution count and time and rows fetched;</li>
+ * <li>{@code type=Cache,name=}<i>cache</i> for the identifier name, token
+ * and type name caches, with their size, hits and misses;</li>
+ * <li>{@code type=Ingest} for commits and the time spent in each stage of
+ * storing program entities.</li>
+ * </ul>
+ * An instance is normally created with
+ * {@linkplain DatabaseManager#enableJmxMetrics()}.
+ */
+public final class JmxMetrics implements MetricsListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( JmxMetrics.class );
+
+    static final String DOMAIN = "uk.ac.open.crc.jimdb";
+
+    /**
+     * The measurements of one prepared statement.
+     */
+    public interface StatementMXBean {
+        /** @return the text of the statement */
+        String getSql();
+        /** @return the number of executions */
+        long getExecutionCount();
+        /** @return the total execution time in milliseconds */
+        double getTotalTimeMillis();
+        /** @return the mean execution time in microseconds */
+        double getMeanTimeMicros();
+        /** @return the number of result rows read */
+        long getRowsFetched();
+    }
+
+    /**
+     * The measurements of one key cache.
+     */
+    public interface CacheMXBean {
+        /** @return the number of entries */
+        int getSize();
+        /** @return the number of lookups that found a value */
+        long getHitCount();
+        /** @return the number of lookups that found nothing */
+        long getMissCount();
+        /** @return the proportion of lookups that found a value */
+        double getHitRatio();
+    }
+
+    /**
+     * The measurements of storing program entities.
+     */
+    public interface IngestMXBean {
+        /** @return the number of commits */
+        long getCommitCount();
+        /** @return the total commit time in milliseconds */
+        double getCommitTimeMillis();
+        /** @return the time spent tokenising names, in milliseconds */
+        double getTokenisationTimeMillis();
+        /** @return the time spent resolving dictionary keys, in milliseconds */
+        double getDictionaryTimeMillis();
+        /** @return the time spent storing entity rows, in milliseconds */
+        double getEntityInsertTimeMillis();
+        /** @return the time spent storing cross references, in milliseconds */
+        double getCrossReferenceTimeMillis();
+    }
+
+    private final MBeanServer server;
+    private final ConcurrentHashMap<String, Statement> statements;
+    private final AtomicInteger statementCount;
+    private final ConcurrentHashMap<String, Cache> caches;
+    private final LongAdder commitCount;
+    private final LongAdder commitNanos;
+    private final EnumMap<IngestStage, LongAdder> stageNanos;
+
+    /**
+     * Creates an instance and registers the cache and ingest MXBeans.
+     * Statement MXBeans are registered as statements are first executed.
+     */
+    JmxMetrics() {
+        this.server = ManagementFactory.getPlatformMBeanServer();
+        this.statements = new ConcurrentHashMap<>();
+        this.statementCount = new AtomicInteger();
+        this.caches = new ConcurrentHashMap<>();
+        this.commitCount = new LongAdder();
+        this.commitNanos = new LongAdder();
+        this.stageNanos = new EnumMap<>( IngestStage.class );
+        for ( IngestStage stage : IngestStage.values() ) {
+            this.stageNanos.put( stage, new LongAdder() );
+        }
+
+        addCache( "IdentifierNameCache", () -> IdentifierNameCache.getInstance().size() );
+        addCache( "TokenCache", () -> TokenCache.getInstance().size() );
+        addCache( "TypeNameCache", () -> TypeNameCache.getInstance().size() );
+        register( "type=Ingest", new Ingest(), IngestMXBean.class );
+    }
+
+    @Override
+    public void statementExecuted( String sql, long elapsedNanos ) {
+        Statement statement = statementFor( sql );
+        statement.executionCount.increment();
+        statement.nanos.add( elapsedNanos );
+    }
+
+    @Override
+    public void rowsFetched( String sql, long rowCount ) {
+        statementFor( sql ).rowCount.add( rowCount );
+    }
+
+    @Override
+    public void committed( long elapsedNanos ) {
+        this.commitCount.increment();
+        this.commitNanos.add( elapsedNanos );
+    }
+
+    @Override
+    public void cacheLookup( String cacheName, boolean isHit ) {
+        Cache cache = this.caches.get( cacheName );
+        if ( cache != null ) {
+            ( isHit ? cache.hits : cache.misses ).increment();
+        }
+    }
+
+    @Override
+    public void ingestStage( IngestStage stage, long elapsedNanos ) {
+        this.stageNanos.get( stage ).add( elapsedNanos );
+    }
+
+    /**
+     * Removes the MXBeans from the MBean server.
+     */
+    void unregister() {
+        try {
+            for ( ObjectName name : this.server.queryNames( new ObjectName( DOMAIN + ":*" ), null ) ) {
+                this.server.unregisterMBean( name );
+            }
+        }
+        catch ( JMException e ) {
+            LOGGER.warn( "Could not unregister metrics: {}", e.getMessage() );
+        }
+    }
+
+    private Statement statementFor( String sql ) {
+        return this.statements.computeIfAbsent( sql, (text) -> {
+            Statement statement = new Statement( text );
+            register( "type=Statement,id=" + this.statementCount.incrementAndGet(),
+                    statement, StatementMXBean.class );
+            return statement;
+        } );
+    }
+
+    private void addCache( String cacheName, IntSupplier size ) {
+        Cache cache = new Cache( size );
+        this.caches.put( cacheName, cache );
+        register( "type=Cache,name=" + cacheName, cache, CacheMXBean.class );
+    }
+
+    private <T> void register( String properties, T bean, Class<T> type ) {
+        try {
+            ObjectName name = new ObjectName( DOMAIN + ":" + properties );
+            if ( this.server.isRegistered( name ) ) {
+                this.server.unregisterMBean( name );
+            }
+            this.server.registerMBean( new StandardMBean( bean, type, true ), name );
+        }
+        catch ( JMException e ) {
+            LOGGER.warn( "Could not register metrics {}: {}", properties, e.getMessage() );
+        }
+    }
+
+    private static double millis( LongAdder nanos ) {
+        return nanos.sum() / 1e6;
+    }
+
+    private static final class Statement implements StatementMXBean {
+        private final String sql;
+        private final LongAdder executionCount = new LongAdder();
+        private final LongAdder nanos = new LongAdder();
+        private final LongAdder rowCount = new LongAdder();
+
+        Statement( String sql ) {
+            this.sql = sql;
+        }
+
+        @Override
+        public String getSql() {
+            return this.sql;
+        }
+
+        @Override
+        public long getExecutionCount() {
+            return this.executionCount.sum();
+        }
+
+        @Override
+        public double getTotalTimeMillis() {
+            return millis( this.nanos );
+        }
+
+        @Override
+        public double getMeanTimeMicros() {
+            long count = this.executionCount.sum();
+            return count == 0 ? 0 : this.nanos.sum() / 1e3 / count;
+        }
+
+        @Override
+        public long getRowsFetched() {
+            return this.rowCount.sum();
+        }
+    }
+
+    private static final class Cache implements CacheMXBean {
+        private final IntSupplier size;
+        private final LongAdder hits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+
+        Cache( IntSupplier size ) {
+            this.size = size;
+        }
+
+        @Override
+        public int getSize() {
+            return this.size.getAsInt();
+        }
+
+        @Override
+        public long getHitCount() {
+            return this.hits.sum();
+        }
+
+        @Override
+        public long getMissCount() {
+            return this.misses.sum();
+        }
+
+        @Override
+        public double getHitRatio() {
+            long hitCount = this.hits.sum();
+            long lookupCount = hitCount + this.misses.sum();
+            return lookupCount == 0 ? 0 : (double) hitCount / lookupCount;
+        }
+    }
+
+    private final class Ingest implements IngestMXBean {
+
+        @Override
+        public long getCommitCount() {
+            return commitCount.sum();
+        }
+
+        @Override
+        public double getCommitTimeMillis() {
+            return millis( commitNanos );
+        }
+
+        @Override
+        public double getTokenisationTimeMillis() {
+            return millis( stageNanos.get( IngestStage.TOKENISATION ) );
+        }
+
+        @Override
+        public double getDictionaryTimeMillis() {
+            return millis( stageNanos.get( IngestStage.DICTIONARY ) );
+        }
+
+        @Override
+        public double getEntityInsertTimeMillis() {
+            return millis( stageNanos.get( IngestStage.ENTITY_INSERT ) );
+        }
+
+        @Override
+        public double getCrossReferenceTimeMillis() {
+            return millis( stageNanos.get( IngestStage.CROSS_REFERENCES ) );
+        }
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Passes measurements to the installed {@linkplain MetricsListener} and
+ * the {@linkplain SlowQueryLog}. Statements are measured by wrapping the
+ * database connection in a proxy when it is opened, so nothing is added to
+ * the statements of a database opened without either.
+ */
+final class Metrics {
+
+    private static volatile MetricsListener listener = null;
+
+    private Metrics() {}
+
+    /**
+     * Installs a listener, replacing any other.
+     * @param metricsListener a listener, or {@code null} to stop reporting
+     */
+    static void setListener( MetricsListener metricsListener ) {
+        listener = metricsListener;
+    }
+
+    /**
+     * Retrieves the installed listener.
+     * @return the listener, or {@code null} if there is none
+     */
+    static MetricsListener getListener() {
+        return listener;
+    }
+
+    /**
+     * Reports a cache lookup.
+     * @param cacheName the name of the cache
+     * @param isHit {@code true} if the value was found
+     */
+    static void cacheLookup( String cacheName, boolean isHit ) {
+        MetricsListener current = listener;
+        if ( current != null ) {
+            current.cacheLookup( cacheName, isHit );
+        }
+    }
+
+    /**
+     * Reports the end of an ingest stage.
+     * @param stage the stage
+     * @param start the value of {@linkplain System#nanoTime()} when the
+     * stage started
+     * @return the time the stage ended, which is when the next starts
+     */
+    static long ingestStage( MetricsListener.IngestStage stage, long start ) {
+        return ingestStage( stage, start, 0 );
+    }
+
+    /**
+     * Reports the end of an ingest stage that encloses time already
+     * reported for another stage.
+     * @param stage the stage
+     * @param start the value of {@linkplain System#nanoTime()} when the
+     * stage started
+     * @param excludedNanos the time to leave out
+     * @return the time the stage ended, which is when the next starts
+     */
+    static long ingestStage( MetricsListener.IngestStage stage, long start, long excludedNanos ) {
+        long now = System.nanoTime();
+        MetricsListener current = listener;
+        if ( current != null ) {
+            current.ingestStage( stage, now - start - excludedNanos );
+        }
+        return now;
+    }
+
+    /**
+     * Wraps a connection so that its statements and commits are measured,
+     * if a listener is installed, and slow statements recorded, if the
+     * slow query log is enabled.
+     * @param connection a connection
+     * @return the wrapped connection, or the connection itself if there is
+     * nothing to measure
+     * @throws SQLException if Derby cannot collect runtime statistics for
+     * the slow query log
+     */
+    static Connection instrument( Connection connection ) throws SQLException {
+        SlowQueryLog slowQueryLog = SlowQueryLog.getInstance();
+        if ( listener == null && slowQueryLog == null ) {
+            return connection;
+        }
+        if ( slowQueryLog != null ) {
+            slowQueryLog.collectStatistics( connection );
+        }
+
+        // numbers executions, so the slow query log can tell whether
+        // Derby's statistics are still those of a statement
+        AtomicLong executionCount = new AtomicLong();
+        return proxy( Connection.class, (method, args) -> {
+            if ( method.getName().equals( "commit" ) ) {
+                long start = System.nanoTime();
+                method.invoke( connection, args );
+                report( (l) -> l.committed( System.nanoTime() - start ) );
+                return null;
+            }
+            Object result = method.invoke( connection, args );
+            if ( method.getName().equals( "prepareStatement" ) ) {
+                return instrument( PreparedStatement.class, (PreparedStatement) result, 
+                        (String) args[ 0 ], connection, executionCount );
+            }
+            if ( method.getName().equals( "createStatement" ) ) {
+                return instrument( Statement.class, (Statement) result, 
+                        null, connection, executionCount );
+            }
+            return result;
+        } );
+    }
+
+    // the text of a plain statement is given to each execute method
+    private static <T extends Statement> T instrument( 
+            Class<T> type, 
+            T statement, 
+            String preparedSql, 
+            Connection connection, 
+            AtomicLong executionCount ) {
+        Map<Integer, Object> parameters = new HashMap<>();
+        // the last execution, which is finished if its results are left 
+        // open when the statement is executed again or closed
+        Execution[] lastExecution = { null };
+        return proxy( type, (method, args) -> {
+            String name = method.getName();
+            if ( ! name.startsWith( "execute" ) 
+                    || ( preparedSql == null && ( args == null || args.length == 0 ) ) ) {
+                if ( name.equals( "close" ) && lastExecution[ 0 ] != null ) {
+                    lastExecution[ 0 ].finish();
+                }
+                else if ( name.equals( "clearParameters" ) ) {
+                    parameters.clear();
+                }
+                else if ( name.startsWith( "set" ) && args != null && args.length >= 2 
+                        && args[ 0 ] instanceof Integer ) {
+                    parameters.put( (Integer) args[ 0 ], 
+                            name.equals( "setNull" ) ? null : args[ 1 ] );
+                }
+                return method.invoke( statement, args );
+            }
+
+            if ( lastExecution[ 0 ] != null ) {
+                lastExecution[ 0 ].finish();
+            }
+            Execution execution = new Execution(
+                    preparedSql == null ? (String) args[ 0 ] : preparedSql,
+                    parameters,
+                    connection,
+                    executionCount );
+            lastExecution[ 0 ] = execution;
+            long start = System.nanoTime();
+            Object result = method.invoke( statement, args );
+            long elapsed = System.nanoTime() - start;
+            report( (l) -> l.statementExecuted( execution.sql, elapsed ) );
+            execution.nanos = elapsed;
+            if ( result instanceof ResultSet ) {
+                return instrument( (ResultSet) result, execution );
+            }
+            execution.finish();
+            return result;
+        } );
+    }
+
+    private static ResultSet instrument( ResultSet resultSet, Execution execution ) {
+        long[] rowCount = { 0 };
+        boolean[] isReported = { false };
+        return proxy( ResultSet.class, (method, args) -> {
+            String name = method.getName();
+            if ( name.equals( "next" ) ) {
+                long start = System.nanoTime();
+                boolean hasRow = (Boolean) method.invoke( resultSet, args );
+                execution.nanos += System.nanoTime() - start;
+                if ( hasRow ) {
+                    rowCount[ 0 ]++;
+                }
+                else {
+                    if ( ! isReported[ 0 ] ) {
+                        isReported[ 0 ] = true;
+                        report( (l) -> l.rowsFetched( execution.sql, rowCount[ 0 ] ) );
+                    }
+                    execution.finish();
+                }
+                return hasRow;
+            }
+
+            Object result = method.invoke( resultSet, args );
+            if ( name.equals( "close" ) ) {
+                if ( ! isReported[ 0 ] ) {
+                    isReported[ 0 ] = true;
+                    report( (l) -> l.rowsFetched( execution.sql, rowCount[ 0 ] ) );
+                }
+                execution.finish();
+            }
+            return result;
+        } );
+    }
+
+    // the listener may have been removed since the proxy was made
+    private static void report( Consumer<MetricsListener> measurement ) {
+        MetricsListener current = listener;
+        if ( current != null ) {
+            measurement.accept( current );
+        }
+    }
+
+    private static <T> T proxy( Class<T> type, Interceptor interceptor ) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            try {
+                return interceptor.invoke( method, args );
+            }
+            catch ( InvocationTargetException e ) {
+                throw e.getCause();
+            }
+        };
+        return type.cast( Proxy.newProxyInstance(
+                Metrics.class.getClassLoader(), new Class<?>[] { type }, handler ) );
+    }
+
+    /**
+     * An execution of a statement, which is finished when the statement
+     * has been executed or, for a query, when its results are exhausted or
+     * closed, or the statement is executed again or closed.
+     */
+    private static final class Execution {
+        private final String sql;
+        private final Map<Integer, Object> parameters;
+        private final Connection connection;
+        private final AtomicLong executionCount;
+        private final long number;
+        // time spent executing and reading results
+        private long nanos;
+        private boolean isFinished;
+
+        Execution( 
+                String sql, 
+                Map<Integer, Object> parameters, 
+                Connection connection, 
+                AtomicLong executionCount ) {
+            this.sql = sql;
+            // copied, as the statement's parameters may be set again
+            // before the execution is finished
+            this.parameters = new HashMap<>( parameters );
+            this.connection = connection;
+            this.executionCount = executionCount;
+            this.number = executionCount.incrementAndGet();
+            this.nanos = 0;
+            this.isFinished = false;
+        }
+
+        void finish() {
+            if ( this.isFinished ) {
+                return;
+            }
+            this.isFinished = true;
+            SlowQueryLog slowQueryLog = SlowQueryLog.getInstance();
+            if ( slowQueryLog != null && slowQueryLog.isSlow( this.nanos ) ) {
+                slowQueryLog.record(
+                        this.connection,
+                        this.sql,
+                        this.parameters,
+                        this.nanos,
+                        this.executionCount.get() == this.number );
+            }
+        }
+    }
+
+    @FunctionalInterface
+    private interface Interceptor {
+        Object invoke( Method method, Object[] args ) throws Throwable;
+    }
+}
@@ -0,0 +1,79 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+/**
+ * Receives measurements of the database's work. A listener is installed
+ * with {@linkplain DatabaseManager#setMetricsListener(MetricsListener)}.
+ * Methods are called on the thread doing the work, often from inside
+ * tight loops, so they should be quick and must be thread safe. Each
+ * method does nothing by default.
+ */
+public interface MetricsListener {
+
+    /**
+     * The stages of storing a program entity.
+     */
+    enum IngestStage {
+        /** splitting a new identifier name into component words */
+        TOKENISATION,
+        /** finding or storing the keys of names, types and packages,
+         * excluding tokenisation */
+        DICTIONARY,
+        /** storing the program entity row, or finding an identical one */
+        ENTITY_INSERT,
+        /** storing super class, super type and version cross references */
+        CROSS_REFERENCES
+    }
+
+    /**
+     * Reports the execution of a prepared statement.
+     * @param sql the text of the statement
+     * @param elapsedNanos the time taken to execute it, excluding reading
+     * any results
+     */
+    default void statementExecuted( String sql, long elapsedNanos ) {}
+
+    /**
+     * Reports the rows read from a query's results, once they are
+     * exhausted or closed.
+     * @param sql the text of the query
+     * @param rowCount the number of rows read
+     */
+    default void rowsFetched( String sql, long rowCount ) {}
+
+    /**
+     * Reports a commit.
+     * @param elapsedNanos the time taken to commit
+     */
+    default void committed( long elapsedNanos ) {}
+
+    /**
+     * Reports a lookup in one of the key caches.
+     * @param cacheName the simple class name of the cache, such as
+     * {@code IdentifierNameCache}
+     * @param isHit {@code true} if the value was found
+     */
+    default void cacheLookup( String cacheName, boolean isHit ) {}
+
+    /**
+     * Reports the time spent in a stage of storing a program entity.
+     * @param stage the stage
+     * @param elapsedNanos the time taken
+     */
+    default void ingestStage( IngestStage stage, long elapsedNanos ) {}
+}
@@ -16,6 +16,10 @@
 
 package uk.ac.open.crc.jimdb;
 
+import java.util.ArrayList;
+import java.util.List;
+import uk.ac.open.crc.idtk.Modifier;
+
 /**
  * Caches database key &ndash; modifier pairs.
  */
@@ -34,6 +38,46 @@ class ModifierCache extends DatabaseKeyCache {
         return instance;
     }
     
+    /**
+     * Retrieves the bit representing a modifier in the modifiers column of
+     * the program entities table.
+     * @param modifierKey a modifier key
+     * @return a single bit mask
+     */
+    static int bitFor( int modifierKey ) {
+        return 1 << ( modifierKey - 1 );
+    }
+    
+    /**
+     * Encodes a list of modifiers as a bit mask.
+     * @param modifiers a list of modifiers, which may be {@code null}
+     * @return a bit mask, which is zero if there are no modifiers
+     */
+    int maskFor( List<Modifier> modifiers ) {
+        int mask = 0;
+        if ( modifiers != null ) {
+            for ( Modifier modifier : modifiers ) {
+                mask |= bitFor( get( modifier.description() ) );
+            }
+        }
+        return mask;
+    }
+    
+    /**
+     * Decodes a bit mask into a list of modifiers.
+     * @param mask a bit mask
+     * @return a list of modifiers in key order
+     */
+    ArrayList<Modifier> modifiersFor( int mask ) {
+        ArrayList<Modifier> modifiers = new ArrayList<>( Integer.bitCount( mask ) );
+        while ( mask != 0 ) {
+            int modifierKey = Integer.numberOfTrailingZeros( mask ) + 1;
+            modifiers.add( Modifier.getModifierFor( get( modifierKey ) ) );
+            mask &= mask - 1;
+        }
+        return modifiers;
+    }
+    
     /// -------------------------
     private ModifierCache() {
         super();
@@ -0,0 +1,172 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes the work done by {@linkplain DatabaseManager#optimise()}: the
+ * pages allocated to each table, including its indexes, before and after
+ * compression, and the time taken.
+ */
+public final class OptimisationReport {
+
+    /**
+     * Describes the optimisation of a single table.
+     */
+    public static final class TableReport {
+        private final String tableName;
+        private final long pagesBefore;
+        private final long pagesAfter;
+        private final long compressionMillis;
+        private final long statisticsMillis;
+
+        TableReport(
+                String tableName,
+                long pagesBefore,
+                long pagesAfter,
+                long compressionMillis,
+                long statisticsMillis ) {
+            this.tableName = tableName;
+            this.pagesBefore = pagesBefore;
+            this.pagesAfter = pagesAfter;
+            this.compressionMillis = compressionMillis;
+            this.statisticsMillis = statisticsMillis;
+        }
+
+        /**
+         * Retrieves the name of the table.
+         * @return the table name
+         */
+        public String tableName() {
+            return this.tableName;
+        }
+
+        /**
+         * Retrieves the number of pages allocated before compression.
+         * @return a number of pages
+         */
+        public long pagesBefore() {
+            return this.pagesBefore;
+        }
+
+        /**
+         * Retrieves the number of pages allocated after compression.
+         * @return a number of pages
+         */
+        public long pagesAfter() {
+            return this.pagesAfter;
+        }
+
+        /**
+         * Retrieves the time taken to compress the table.
+         * @return a time in milliseconds
+         */
+        public long compressionMillis() {
+            return this.compressionMillis;
+        }
+
+        /**
+         * Retrieves the time taken to update the optimiser statistics of
+         * the table's indexes.
+         * @return a time in milliseconds
+         */
+        public long statisticsMillis() {
+            return this.statisticsMillis;
+        }
+
+        @Override
+        public String toString() {
+            return String.format( "%s: %d pages before, %d after, "
+                    + "compressed in %d ms, statistics updated in %d ms",
+                    this.tableName,
+                    this.pagesBefore,
+                    this.pagesAfter,
+                    this.compressionMillis,
+                    this.statisticsMillis );
+        }
+    }
+
+    private final List<TableReport> tables;
+    private final long checkpointMillis;
+    private final long elapsedMillis;
+
+    OptimisationReport( List<TableReport> tables, long checkpointMillis, long elapsedMillis ) {
+        this.tables = Collections.unmodifiableList( tables );
+        this.checkpointMillis = checkpointMillis;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * Retrieves the reports for each table, largest first.
+     * @return an unmodifiable list of table reports
+     */
+    public List<TableReport> tables() {
+        return this.tables;
+    }
+
+    /**
+     * Retrieves the number of pages allocated to all the tables before
+     * compression.
+     * @return a number of pages
+     */
+    public long pagesBefore() {
+        return this.tables.stream().mapToLong( TableReport::pagesBefore ).sum();
+    }
+
+    /**
+     * Retrieves the number of pages allocated to all the tables after
+     * compression.
+     * @return a number of pages
+     */
+    public long pagesAfter() {
+        return this.tables.stream().mapToLong( TableReport::pagesAfter ).sum();
+    }
+
+    /**
+     * Retrieves the time taken by the final checkpoint.
+     * @return a time in milliseconds
+     */
+    public long checkpointMillis() {
+        return this.checkpointMillis;
+    }
+
+    /**
+     * Retrieves the time taken by the whole optimisation. Tables are
+     * optimised in parallel, so this is usually less than the sum of the
+     * times for each table.
+     * @return a time in milliseconds
+     */
+    public long elapsedMillis() {
+        return this.elapsedMillis;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        builder.append( String.format( "%d pages before, %d after, "
+                + "checkpoint in %d ms, %d ms in all",
+                pagesBefore(),
+                pagesAfter(),
+                this.checkpointMillis,
+                this.elapsedMillis ) );
+        this.tables.forEach( (table) ->
+                builder.append( System.lineSeparator() ).append( "  " ).append( table ) );
+        return builder.toString();
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.util.HashMap;
+
+/**
+ * Records the details of a single project that are needed every time one
+ * of its program entities is recovered from the database: the project name
+ * and version, and the names of the packages recorded for the project.
+ * <p>
+ * File names are not held here as they are cached for the whole database
+ * by {@linkplain FileNameCache}.
+ * </p>
+ */
+class ProjectContext {
+    private final int projectKey;
+    private final String name;
+    private final String version;
+    private final HashMap<Integer,String> packageNames;
+
+    /**
+     * Constructor.
+     * @param projectKey the database key for the project
+     * @param name the project name
+     * @param version the project version
+     * @param packageNames a map of package keys to package names
+     */
+    ProjectContext(
+            int projectKey,
+            String name,
+            String version,
+            HashMap<Integer,String> packageNames ) {
+        this.projectKey = projectKey;
+        this.name = name;
+        this.version = version;
+        this.packageNames = packageNames;
+    }
+
+    /**
+     * Retrieves the database key for the project.
+     * @return a database key
+     */
+    int projectKey() {
+        return this.projectKey;
+    }
+
+    /**
+     * Retrieves the project name.
+     * @return the project name
+     */
+    String name() {
+        return this.name;
+    }
+
+    /**
+     * Retrieves the project version.
+     * @return the project version
+     */
+    String version() {
+        return this.version;
+    }
+
+    /**
+     * Retrieves the name of a package.
+     * @param packageKey a key from the packages table
+     * @return the package name, or {@code null} if the package key is
+     * not recorded for this project
+     */
+    synchronized String packageNameFor( int packageKey ) {
+        return this.packageNames.get( packageKey );
+    }
+
+    /**
+     * Records a package name that was resolved outside the context.
+     * @param packageKey a key from the packages table
+     * @param packageName the package name
+     */
+    synchronized void putPackageName( int packageKey, String packageName ) {
+        this.packageNames.put( packageKey, packageName );
+    }
+}
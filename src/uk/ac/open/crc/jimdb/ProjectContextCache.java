@@ -0,0 +1,116 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.util.HashMap;
+import java.util.HashSet;
+
+/**
+ * Caches a {@linkplain ProjectContext} for each project read from the
+ * database. Contexts are loaded the first time a project is used, and
+ * are discarded when packages are added to the project.
+ */
+class ProjectContextCache {
+    private static ProjectContextCache instance = null;
+
+    /**
+     * Recovers the instance of this class.
+     * @return the instance of this class
+     */
+    static synchronized ProjectContextCache getInstance() {
+        if ( instance == null ) {
+            instance = new ProjectContextCache();
+        }
+
+        return instance;
+    }
+
+    /// --------------------------------
+
+    private final HashMap<Integer,ProjectContext> contexts;
+    // projects whose contexts were loaded while a transaction is open,
+    // and so may hold rows that are rolled back, or null
+    private HashSet<Integer> journal;
+
+    private ProjectContextCache() {
+        this.contexts = new HashMap<>();
+        this.journal = null;
+    }
+
+    /**
+     * Retrieves the context for a project, loading it from the database
+     * if necessary.
+     * @param projectKey a database key for a project
+     * @return the project context, or {@code null} if it cannot be loaded
+     */
+    synchronized ProjectContext get( int projectKey ) {
+        ProjectContext context = this.contexts.get( projectKey );
+        if ( context == null ) {
+            context = EntityDatabaseManager.loadProjectContext( projectKey );
+            if ( context != null ) {
+                this.contexts.put( projectKey, context );
+                if ( this.journal != null ) {
+                    this.journal.add( projectKey );
+                }
+            }
+        }
+
+        return context;
+    }
+
+    /**
+     * Discards the context for a project so that it is reloaded when
+     * next used.
+     * @param projectKey a database key for a project
+     */
+    synchronized void invalidate( int projectKey ) {
+        this.contexts.remove( projectKey );
+    }
+
+    /**
+     * Discards all contexts.
+     */
+    synchronized void clear() {
+        this.contexts.clear();
+    }
+
+    /**
+     * Starts recording the contexts loaded, so that they can be discarded
+     * if the transaction open while they were loaded is rolled back.
+     */
+    synchronized void startJournal() {
+        this.journal = new HashSet<>();
+    }
+
+    /**
+     * Stops recording the contexts loaded.
+     */
+    synchronized void endJournal() {
+        this.journal = null;
+    }
+
+    /**
+     * Discards the contexts loaded since the journal was started, and
+     * stops recording.
+     */
+    synchronized void rollBackJournal() {
+        if ( this.journal != null ) {
+            this.journal.forEach( this.contexts::remove );
+            this.journal = null;
+        }
+    }
+}
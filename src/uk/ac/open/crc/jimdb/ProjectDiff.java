@@ -0,0 +1,335 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.function.Consumer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import uk.ac.open.crc.idtk.Species;
+
+/**
+ * Compares two versions of a project and reports the entities added,
+ * removed, renamed, or whose type has changed.
+ * <p>
+ * Entities are matched in three passes over the raw database keys of both
+ * versions. The first matches entity uids. The second matches the remaining
+ * entities on file name, container uid, species and identifier name. The
+ * third treats a single unmatched entity on each side with the same file,
+ * container and species as a rename. Entities still unmatched are reported
+ * as added or removed.
+ * </p>
+ * <p>
+ * Changes are passed to a consumer as they are found; the matched entities
+ * first, in the order of the new version, then the added entities, then the
+ * removed entities.
+ * </p>
+ */
+public class ProjectDiff {
+    private static final Logger LOGGER = LoggerFactory.getLogger( ProjectDiff.class );
+
+    private static final int UNMATCHED = -1;
+
+    private final ProjectKeyStore projectKeyStore;
+    private final ProjectContextCache projectContextCache;
+    private final IdentifierNameCache identifierNameCache;
+    private final TypeNameCache typeNameCache;
+    private final FileNameCache fileNameCache;
+    private final SpeciesCache speciesCache;
+
+    /**
+     * Creates a diff engine for the open database.
+     */
+    public ProjectDiff() {
+        this.projectKeyStore = ProjectKeyStore.getInstance();
+        this.projectContextCache = ProjectContextCache.getInstance();
+        this.identifierNameCache = IdentifierNameCache.getInstance();
+        this.typeNameCache = TypeNameCache.getInstance();
+        this.fileNameCache = FileNameCache.getInstance();
+        this.speciesCache = SpeciesCache.getInstance();
+    }
+
+    /**
+     * Compares two versions of a project.
+     * @param oldProjectNameAndVersion the earlier project name and version
+     * @param newProjectNameAndVersion the later project name and version
+     * @param consumer receives each change as it is found
+     * @return the number of changes reported
+     * @throws IllegalArgumentException if either project is unknown
+     * @throws IllegalStateException if either project cannot be read
+     */
+    public long compare(
+            String oldProjectNameAndVersion,
+            String newProjectNameAndVersion,
+            Consumer<EntityChange> consumer ) {
+        long start = System.currentTimeMillis();
+        Side oldSide = load( oldProjectNameAndVersion );
+        Side newSide = load( newProjectNameAndVersion );
+        ProjectEntityColumns oldColumns = oldSide.columns;
+        ProjectEntityColumns newColumns = newSide.columns;
+
+        // index of the matching old row for each new row
+        int[] newToOld = new int[ newColumns.rowCount ];
+        Arrays.fill( newToOld, UNMATCHED );
+        boolean[] oldMatched = new boolean[ oldColumns.rowCount ];
+
+        // pass 1: entity uid
+        HashMap<String,Integer> oldRowsByUid = new HashMap<>( oldColumns.rowCount * 2 );
+        for ( int row = oldColumns.rowCount - 1; row >= 0; row-- ) {
+            // iterate backwards so that the first of any duplicates wins
+            String uid = oldColumns.entityUids[ row ];
+            if ( uid != null ) {
+                oldRowsByUid.put( uid, row );
+            }
+        }
+        for ( int row = 0; row < newColumns.rowCount; row++ ) {
+            String uid = newColumns.entityUids[ row ];
+            if ( uid == null ) {
+                continue;
+            }
+            Integer oldRow = oldRowsByUid.get( uid );
+            if ( oldRow != null && ! oldMatched[ oldRow ] ) {
+                newToOld[ row ] = oldRow;
+                oldMatched[ oldRow ] = true;
+            }
+        }
+        oldRowsByUid = null;
+
+        // pass 2: file, container, species and name
+        HashMap<EntityKey,ArrayList<Integer>> oldRowsByName = new HashMap<>();
+        for ( int row = 0; row < oldColumns.rowCount; row++ ) {
+            if ( ! oldMatched[ row ] ) {
+                oldRowsByName
+                        .computeIfAbsent( EntityKey.named( oldColumns, row ), k -> new ArrayList<>( 1 ) )
+                        .add( row );
+            }
+        }
+        HashMap<EntityKey,Integer> nextCandidate = new HashMap<>();
+        for ( int row = 0; row < newColumns.rowCount; row++ ) {
+            if ( newToOld[ row ] != UNMATCHED ) {
+                continue;
+            }
+            EntityKey key = EntityKey.named( newColumns, row );
+            ArrayList<Integer> candidates = oldRowsByName.get( key );
+            if ( candidates == null ) {
+                continue;
+            }
+            int next = nextCandidate.getOrDefault( key, 0 );
+            if ( next < candidates.size() ) {
+                int oldRow = candidates.get( next );
+                newToOld[ row ] = oldRow;
+                oldMatched[ oldRow ] = true;
+                nextCandidate.put( key, next + 1 );
+            }
+        }
+        oldRowsByName = null;
+        nextCandidate = null;
+
+        // pass 3: a lone unmatched entity on each side of a container
+        HashMap<EntityKey,Integer> lonelyOld = loneUnmatchedRows( oldColumns, oldMatched );
+        boolean[] newMatched = new boolean[ newColumns.rowCount ];
+        for ( int row = 0; row < newColumns.rowCount; row++ ) {
+            newMatched[ row ] = newToOld[ row ] != UNMATCHED;
+        }
+        HashMap<EntityKey,Integer> lonelyNew = loneUnmatchedRows( newColumns, newMatched );
+        for ( Map.Entry<EntityKey,Integer> entry : lonelyNew.entrySet() ) {
+            Integer oldRow = lonelyOld.get( entry.getKey() );
+            if ( oldRow != null && oldRow >= 0 && entry.getValue() >= 0 ) {
+                newToOld[ entry.getValue() ] = oldRow;
+                oldMatched[ oldRow ] = true;
+            }
+        }
+
+        // report
+        long changeCount = 0;
+        for ( int row = 0; row < newColumns.rowCount; row++ ) {
+            int oldRow = newToOld[ row ];
+            if ( oldRow == UNMATCHED ) {
+                continue;
+            }
+            if ( oldColumns.identifierNameKeys[ oldRow ] != newColumns.identifierNameKeys[ row ] ) {
+                consumer.accept( change( EntityChange.Kind.RENAMED, oldSide, oldRow, newSide, row ) );
+                changeCount++;
+            }
+            if ( oldColumns.typeNameKeys[ oldRow ] != newColumns.typeNameKeys[ row ] ) {
+                consumer.accept( change( EntityChange.Kind.TYPE_CHANGED, oldSide, oldRow, newSide, row ) );
+                changeCount++;
+            }
+        }
+        for ( int row = 0; row < newColumns.rowCount; row++ ) {
+            if ( newToOld[ row ] == UNMATCHED ) {
+                consumer.accept( change( EntityChange.Kind.ADDED, null, UNMATCHED, newSide, row ) );
+                changeCount++;
+            }
+        }
+        for ( int row = 0; row < oldColumns.rowCount; row++ ) {
+            if ( ! oldMatched[ row ] ) {
+                consumer.accept( change( EntityChange.Kind.REMOVED, oldSide, row, null, UNMATCHED ) );
+                changeCount++;
+            }
+        }
+
+        LOGGER.info(
+                "Compared \"{}\" ({} entities) with \"{}\" ({} entities): {} changes in {} ms",
+                oldProjectNameAndVersion,
+                oldColumns.rowCount,
+                newProjectNameAndVersion,
+                newColumns.rowCount,
+                changeCount,
+                System.currentTimeMillis() - start );
+
+        return changeCount;
+    }
+
+    private Side load( String projectNameAndVersion ) {
+        Integer projectKey = this.projectKeyStore.get( projectNameAndVersion );
+        if ( projectKey == null ) {
+            throw new IllegalArgumentException( "Unknown project: " + projectNameAndVersion );
+        }
+        ProjectEntityColumns columns = EntityDatabaseManager.loadProjectEntityColumns( projectKey );
+        ProjectContext context = this.projectContextCache.get( projectKey );
+        if ( columns == null || context == null ) {
+            throw new IllegalStateException(
+                    "Could not read project from database: " + projectNameAndVersion );
+        }
+
+        return new Side( columns, context );
+    }
+
+    // maps each container key to its single unmatched row, or to
+    // UNMATCHED where the container has more than one
+    private static HashMap<EntityKey,Integer> loneUnmatchedRows(
+            ProjectEntityColumns columns,
+            boolean[] matched ) {
+        HashMap<EntityKey,Integer> rows = new HashMap<>();
+        for ( int row = 0; row < columns.rowCount; row++ ) {
+            if ( ! matched[ row ] ) {
+                rows.merge( EntityKey.unnamed( columns, row ), row, ( a, b ) -> UNMATCHED );
+            }
+        }
+        return rows;
+    }
+
+    private EntityChange change(
+            EntityChange.Kind kind,
+            Side oldSide,
+            int oldRow,
+            Side newSide,
+            int newRow ) {
+        // descriptive values come from the new version where there is one
+        Side side = newSide != null ? newSide : oldSide;
+        int row = newSide != null ? newRow : oldRow;
+        ProjectEntityColumns columns = side.columns;
+
+        return new EntityChange(
+                kind,
+                Species.getSpeciesFor( this.speciesCache.get( columns.speciesKeys[ row ] ) ),
+                this.fileNameCache.get( columns.fileNameKeys[ row ] ),
+                side.context.packageNameFor( columns.packageKeys[ row ] ),
+                columns.containerUids[ row ],
+                columns.entityUids[ row ],
+                oldSide == null
+                        ? null
+                        : this.identifierNameCache.get( oldSide.columns.identifierNameKeys[ oldRow ] ),
+                newSide == null
+                        ? null
+                        : this.identifierNameCache.get( newSide.columns.identifierNameKeys[ newRow ] ),
+                oldSide == null
+                        ? null
+                        : this.typeNameCache.get( oldSide.columns.typeNameKeys[ oldRow ] ),
+                newSide == null
+                        ? null
+                        : this.typeNameCache.get( newSide.columns.typeNameKeys[ newRow ] ),
+                oldSide == null ? 0 : oldSide.columns.startLineNumbers[ oldRow ],
+                newSide == null ? 0 : newSide.columns.startLineNumbers[ newRow ] );
+    }
+
+    /**
+     * One version of the project.
+     */
+    private static class Side {
+        final ProjectEntityColumns columns;
+        final ProjectContext context;
+
+        Side( ProjectEntityColumns columns, ProjectContext context ) {
+            this.columns = columns;
+            this.context = context;
+        }
+    }
+
+    /**
+     * The fallback matching key. File names, species and identifier names
+     * are shared across projects, so their database keys can be compared
+     * directly.
+     */
+    private static class EntityKey {
+        private final int fileNameKey;
+        private final int speciesKey;
+        private final int identifierNameKey;
+        private final String containerUid;
+        private final int hash;
+
+        private EntityKey(
+                int fileNameKey,
+                int speciesKey,
+                int identifierNameKey,
+                String containerUid ) {
+            this.fileNameKey = fileNameKey;
+            this.speciesKey = speciesKey;
+            this.identifierNameKey = identifierNameKey;
+            this.containerUid = containerUid;
+            this.hash = Objects.hash( fileNameKey, speciesKey, identifierNameKey, containerUid );
+        }
+
+        static EntityKey named( ProjectEntityColumns columns, int row ) {
+            return new EntityKey(
+                    columns.fileNameKeys[ row ],
+                    columns.speciesKeys[ row ],
+                    columns.identifierNameKeys[ row ],
+                    columns.containerUids[ row ] );
+        }
+
+        static EntityKey unnamed( ProjectEntityColumns columns, int row ) {
+            return new EntityKey(
+                    columns.fileNameKeys[ row ],
+                    columns.speciesKeys[ row ],
+                    0,
+                    columns.containerUids[ row ] );
+        }
+
+        @Override
+        public boolean equals( Object other ) {
+            if ( ! ( other instanceof EntityKey ) ) {
+                return false;
+            }
+            EntityKey key = (EntityKey) other;
+            return this.fileNameKey == key.fileNameKey
+                    && this.speciesKey == key.speciesKey
+                    && this.identifierNameKey == key.identifierNameKey
+                    && Objects.equals( this.containerUid, key.containerUid );
+        }
+
+        @Override
+        public int hashCode() {
+            return this.hash;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+/**
+ * Holds the program entities of a single project as the raw database
+ * values, one array per column, in program entity key order. Names are
+ * left as database keys so that they can be resolved through the caches
+ * by the consumer.
+ * <p>
+ * The modifier keys of row <i>i</i> are those between
+ * {@code modifierOffsets[i]} and {@code modifierOffsets[i + 1]}.
+ * </p>
+ */
+class ProjectEntityColumns {
+    final int projectKey;
+    final int rowCount;
+
+    final int[] programEntityKeys;
+    final int[] identifierNameKeys;
+    final int[] speciesKeys;
+    final int[] typeNameKeys;
+    final int[] packageKeys;
+    final int[] fileNameKeys;
+    final int[] methodSignatureKeys;
+    final String[] containerUids;
+    final String[] entityUids;
+    final boolean[] isAnonymous;
+    final boolean[] isArray;
+    final boolean[] isLoopControlVariable;
+    final int[] startLineNumbers;
+    final int[] startColumns;
+    final int[] endLineNumbers;
+    final int[] endColumns;
+
+    final int[] modifierOffsets;
+    int[] modifierKeys;
+
+    /**
+     * Creates empty columns for the given number of rows.
+     * @param projectKey the database key of the project
+     * @param rowCount the number of program entities in the project
+     */
+    ProjectEntityColumns( int projectKey, int rowCount ) {
+        this.projectKey = projectKey;
+        this.rowCount = rowCount;
+        this.programEntityKeys = new int[ rowCount ];
+        this.identifierNameKeys = new int[ rowCount ];
+        this.speciesKeys = new int[ rowCount ];
+        this.typeNameKeys = new int[ rowCount ];
+        this.packageKeys = new int[ rowCount ];
+        this.fileNameKeys = new int[ rowCount ];
+        this.methodSignatureKeys = new int[ rowCount ];
+        this.containerUids = new String[ rowCount ];
+        this.entityUids = new String[ rowCount ];
+        this.isAnonymous = new boolean[ rowCount ];
+        this.isArray = new boolean[ rowCount ];
+        this.isLoopControlVariable = new boolean[ rowCount ];
+        this.startLineNumbers = new int[ rowCount ];
+        this.startColumns = new int[ rowCount ];
+        this.endLineNumbers = new int[ rowCount ];
+        this.endColumns = new int[ rowCount ];
+        this.modifierOffsets = new int[ rowCount + 1 ];
+        this.modifierKeys = new int[ 0 ];
+    }
+}
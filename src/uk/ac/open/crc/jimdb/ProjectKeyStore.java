@@ -75,6 +75,13 @@ class ProjectKeyStore implements DatabaseKeyStore {
         return this.keyStore.size();
     }
     
+    /**
+     * Removes all projects from the cache.
+     */
+    synchronized void clear() {
+        this.keyStore.clear();
+    }
+    
     @Deprecated
     synchronized Boolean isEmpty() {
         return this.keyStore.isEmpty();
@@ -0,0 +1,228 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.LocalDateTime;
+import java.time.temporal.ChronoUnit;
+import java.util.Map;
+import java.util.TreeMap;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records statements that take longer than a threshold, with their
+ * parameters and the runtime statistics Derby kept for them, which
+ * include the plan chosen. The log is written to {@code slow-queries.log}
+ * in a chosen folder and rolled over to {@code slow-queries.log.1} and so
+ * on when it grows past 10MB, keeping five old files.
+ *
+ * <p>Derby keeps statistics for the last statement executed on a
+ * connection, and those of a query are complete once its results are
+ * read to the end or closed. A query whose results are still open when
+ * another statement is executed, as when a reader looks up the details of each row, is logged
+ * without them.</p>
+ */
+final class SlowQueryLog {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger( SlowQueryLog.class );
+
+    static final String FILE_NAME = "slow-queries.log";
+    private static final long MAXIMUM_FILE_SIZE = 10L * 1024 * 1024;
+    private static final int OLD_FILE_COUNT = 5;
+    // long parameter values are shortened to this many characters
+    private static final int MAXIMUM_VALUE_LENGTH = 200;
+
+    private static final String derbyEnableRuntimeStatistics =
+            "CALL SYSCS_UTIL.SYSCS_SET_RUNTIMESTATISTICS(1)";
+    private static final String derbyEnableStatisticsTiming =
+            "CALL SYSCS_UTIL.SYSCS_SET_STATISTICS_TIMING(1)";
+    private static final String derbyGetRuntimeStatistics =
+            "VALUES SYSCS_UTIL.SYSCS_GET_RUNTIMESTATISTICS()";
+
+    private static volatile SlowQueryLog instance = null;
+
+    private final Path file;
+    private final long thresholdNanos;
+
+    private SlowQueryLog( Path directory, long thresholdMillis ) {
+        this.file = directory.resolve( FILE_NAME );
+        this.thresholdNanos = thresholdMillis * 1_000_000L;
+    }
+
+    /**
+     * Starts recording slow statements, replacing any earlier settings.
+     * @param directory the folder for the log files, which is created if
+     * necessary
+     * @param thresholdMillis statements taking longer than this are logged
+     * @throws IOException if the folder cannot be created
+     */
+    static void enable( Path directory, long thresholdMillis ) throws IOException {
+        if ( thresholdMillis < 0 ) {
+            throw new IllegalArgumentException(
+                    "Threshold must not be negative: " + thresholdMillis );
+        }
+        Files.createDirectories( directory );
+        instance = new SlowQueryLog( directory, thresholdMillis );
+        LOGGER.info( "Logging statements slower than {}ms to {}",
+                thresholdMillis, directory );
+    }
+
+    /**
+     * Stops recording slow statements.
+     */
+    static void disable() {
+        instance = null;
+    }
+
+    /**
+     * Retrieves the log in use.
+     * @return the log, or {@code null} if slow statements are not recorded
+     */
+    static SlowQueryLog getInstance() {
+        return instance;
+    }
+
+    /**
+     * Has Derby collect runtime statistics, with timings, for the
+     * statements executed on a connection.
+     * @param connection a connection
+     * @throws SQLException if Derby refuses
+     */
+    void collectStatistics( Connection connection ) throws SQLException {
+        try ( Statement statement = connection.createStatement() ) {
+            statement.execute( derbyEnableRuntimeStatistics );
+            statement.execute( derbyEnableStatisticsTiming );
+        }
+    }
+
+    /**
+     * Indicates whether a statement is slow enough to record.
+     * @param elapsedNanos the time the statement took
+     * @return {@code true} if the time exceeds the threshold
+     */
+    boolean isSlow( long elapsedNanos ) {
+        return elapsedNanos > this.thresholdNanos;
+    }
+
+    /**
+     * Records a slow statement.
+     * @param connection the connection the statement was executed on,
+     * which must not be wrapped in a proxy
+     * @param sql the text of the statement
+     * @param parameters the parameter values by index
+     * @param elapsedNanos the time the statement took
+     * @param isLatest {@code true} if no other statement has been executed
+     * on the connection since, so that Derby's statistics are for this one
+     */
+    void record(
+            Connection connection,
+            String sql,
+            Map<Integer, Object> parameters,
+            long elapsedNanos,
+            boolean isLatest ) {
+        StringBuilder entry = new StringBuilder();
+        entry.append( "# " ).append( LocalDateTime.now().truncatedTo( ChronoUnit.MILLIS ) )
+                .append( String.format( " %.3f ms%n", elapsedNanos / 1e6 ) );
+        entry.append( sql.trim() ).append( System.lineSeparator() );
+        if ( ! parameters.isEmpty() ) {
+            entry.append( "Parameters:" );
+            new TreeMap<>( parameters ).forEach( (index, value) ->
+                    entry.append( ' ' ).append( index ).append( '=' ).append( format( value ) ) );
+            entry.append( System.lineSeparator() );
+        }
+        entry.append( isLatest
+                ? readStatistics( connection )
+                : "Statistics unavailable: another statement was executed before the results were read." )
+                .append( System.lineSeparator() ).append( System.lineSeparator() );
+
+        write( entry.toString() );
+    }
+
+    private String readStatistics( Connection connection ) {
+        try ( Statement statement = connection.createStatement();
+                ResultSet resultSet = statement.executeQuery( derbyGetRuntimeStatistics ) ) {
+            String statistics = resultSet.next() ? resultSet.getString( 1 ) : null;
+            return statistics == null ? "Statistics unavailable." : statistics.trim();
+        }
+        catch ( SQLException e ) {
+            LOGGER.warn(
+                    "Failed to read runtime statistics: {}\nSQL state: {}\nError code: {}",
+                    e.getMessage(),
+                    e.getSQLState(),
+                    e.getErrorCode() );
+            return "Statistics unavailable: " + e.getMessage();
+        }
+    }
+
+    private synchronized void write( String entry ) {
+        byte[] bytes = entry.getBytes( StandardCharsets.UTF_8 );
+        try {
+            if ( Files.exists( this.file )
+                    && Files.size( this.file ) + bytes.length > MAXIMUM_FILE_SIZE ) {
+                roll();
+            }
+            Files.write( this.file, bytes,
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND );
+        }
+        catch ( IOException e ) {
+            LOGGER.warn( "Failed to write slow query log {}: {}", this.file, e.getMessage() );
+        }
+    }
+
+    private void roll() throws IOException {
+        Files.deleteIfExists( oldFile( OLD_FILE_COUNT ) );
+        for ( int i = OLD_FILE_COUNT - 1; i > 0; i-- ) {
+            Path oldFile = oldFile( i );
+            if ( Files.exists( oldFile ) ) {
+                Files.move( oldFile, oldFile( i + 1 ), StandardCopyOption.REPLACE_EXISTING );
+            }
+        }
+        Files.move( this.file, oldFile( 1 ), StandardCopyOption.REPLACE_EXISTING );
+    }
+
+    private Path oldFile( int number ) {
+        return this.file.resolveSibling( FILE_NAME + "." + number );
+    }
+
+    private static String format( Object value ) {
+        if ( value == null ) {
+            return "NULL";
+        }
+        if ( value instanceof byte[] ) {
+            StringBuilder hex = new StringBuilder( "X'" );
+            for ( byte b : (byte[]) value ) {
+                hex.append( String.format( "%02x", b & 0xff ) );
+            }
+            return hex.append( '\'' ).toString();
+        }
+        String text = value.toString();
+        if ( text.length() > MAXIMUM_VALUE_LENGTH ) {
+            text = text.substring( 0, MAXIMUM_VALUE_LENGTH ) + "...";
+        }
+        return value instanceof String ? "'" + text + "'" : text;
+    }
+}
@@ -0,0 +1,63 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+/**
+ * Creates the stores that program entities are written through and the 
+ * readers that recover them. The backend in use is chosen when the 
+ * database is initialised: the Derby database by default, or the backend 
+ * given to {@linkplain DatabaseManager#initialise(StorageBackend)}, such 
+ * as the one created by {@linkplain DatabaseManager#initialiseInMemory()}.
+ * For the Derby database the stores are {@code EntityDatabaseWriter}s and 
+ * the readers {@linkplain DatabaseReaderImplementation}s.
+ * <p>
+ * Maintenance operations, such as {@linkplain DatabaseManager#optimise()}, 
+ * act on the Derby database only.
+ * </p>
+ */
+public interface StorageBackend {
+
+    /**
+     * Creates the store used by a new {@linkplain DatabaseWriter}.
+     * @return a store
+     */
+    EntityStore createStore();
+
+    /**
+     * Creates a reader of the entities stored. Whether a reader sees 
+     * entities stored after it was created depends on the backend: a 
+     * reader of the Derby database does, while a reader of the in-memory 
+     * backend is a snapshot of the entities stored before it was created.
+     * @return a reader
+     */
+    DatabaseReader createReader();
+
+    /**
+     * Deletes a project.
+     * @param projectNameAndVersion a project name and version, as listed 
+     *   by {@linkplain DatabaseReader#getProjectList()}
+     * @return {@code false} if there is no such project
+     * @throws StorageException if the deletion fails
+     */
+    boolean removeProject( String projectNameAndVersion ) throws StorageException;
+
+    /**
+     * Releases the resources held by the backend.
+     * @throws StorageException if the backend cannot be shut down cleanly
+     */
+    void shutdown() throws StorageException;
+}
@@ -0,0 +1,59 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.sql.SQLException;
+
+/**
+ * Signals that a {@linkplain StorageBackend} could not store, delete or 
+ * release entities. The failure of the underlying store, such as an 
+ * {@linkplain SQLException} from the Derby database, is given as the cause.
+ */
+public class StorageException extends Exception {
+    
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Creates an exception with a message.
+     * @param message a description of the failure
+     */
+    public StorageException( String message ) {
+        super( message );
+    }
+
+    /**
+     * Creates an exception reporting the failure of the underlying store.
+     * @param message a description of the failure
+     * @param cause the failure of the underlying store
+     */
+    public StorageException( String message, Throwable cause ) {
+        super( message, cause );
+    }
+    
+    /**
+     * Recovers the exception in the form reported by 
+     * {@linkplain DatabaseWriter} and {@linkplain DatabaseManager}.
+     * @return the cause if it is an {@code SQLException}, otherwise an 
+     * {@code SQLException} caused by this exception
+     */
+    SQLException toSQLException() {
+        if ( getCause() instanceof SQLException ) {
+            return (SQLException) getCause();
+        }
+        return new SQLException( getMessage(), this );
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+
+/**
+ * Caches the sequence of component word keys for each identifier name. The
+ * sequences are held in compressed sparse row form: an array of offsets
+ * indexed by identifier name key, and a single array of component word keys.
+ * The tokens of the name with key <i>k</i> are the component word keys
+ * between {@code offsets[k]} and {@code offsets[k + 1]}.
+ * <p>
+ * Identifier name keys are generated in ascending order, so names stored
+ * during a data run are appended. Any sequence that arrives out of order is
+ * held in a small overflow map.
+ * </p>
+ */
+class TokenSequenceStore {
+    private static final int INITIAL_NAME_CAPACITY = 1024;
+    private static final int INITIAL_WORD_CAPACITY = 4096;
+
+    private static TokenSequenceStore instance = null;
+
+    /**
+     * Retrieves the instance of the store.
+     * @return the instance of the store
+     */
+    static synchronized TokenSequenceStore getInstance() {
+        if ( instance == null ) {
+            instance = new TokenSequenceStore();
+        }
+
+        return instance;
+    }
+
+    /// --------------------------------
+
+    private int[] offsets;
+    private int[] wordKeys;
+    private int highestNameKey;
+    private int wordCount;
+    private final HashMap<Integer,int[]> overflow;
+
+    private TokenSequenceStore() {
+        this.overflow = new HashMap<>();
+        clear();
+    }
+
+    /**
+     * Empties the store.
+     */
+    final synchronized void clear() {
+        this.offsets = new int[INITIAL_NAME_CAPACITY];
+        this.wordKeys = new int[INITIAL_WORD_CAPACITY];
+        this.highestNameKey = 0;
+        this.wordCount = 0;
+        this.overflow.clear();
+    }
+
+    /**
+     * Adds a single component word to the end of the sequence for an
+     * identifier name. Used for bulk loading, where rows must be supplied
+     * in identifier name key and position order.
+     * @param identifierNameKey a database key for an identifier name
+     * @param componentWordKey a database key for a component word
+     */
+    synchronized void append( int identifierNameKey, int componentWordKey ) {
+        if ( identifierNameKey < this.highestNameKey ) {
+            // out of order, so cannot be placed in the arrays
+            int[] sequence = this.overflow.get( identifierNameKey );
+            if ( sequence == null ) {
+                sequence = new int[0];
+            }
+            sequence = Arrays.copyOf( sequence, sequence.length + 1 );
+            sequence[ sequence.length - 1 ] = componentWordKey;
+            this.overflow.put( identifierNameKey, sequence );
+            return;
+        }
+
+        advanceTo( identifierNameKey );
+
+        if ( this.wordCount == this.wordKeys.length ) {
+            this.wordKeys = Arrays.copyOf( this.wordKeys, this.wordCount * 2 );
+        }
+        this.wordKeys[ this.wordCount++ ] = componentWordKey;
+        this.offsets[ this.highestNameKey + 1 ] = this.wordCount;
+    }
+
+    /**
+     * Records the complete sequence of component words for an identifier name.
+     * @param identifierNameKey a database key for an identifier name
+     * @param componentWordKeys the database keys of the component words in
+     * the order they are found in the name
+     */
+    synchronized void put( int identifierNameKey, int[] componentWordKeys ) {
+        if ( identifierNameKey <= this.highestNameKey
+                && ( identifierNameKey < this.highestNameKey
+                     || this.offsets[ identifierNameKey ]
+                        != this.offsets[ identifierNameKey + 1 ] ) ) {
+            this.overflow.put(
+                    identifierNameKey,
+                    Arrays.copyOf( componentWordKeys, componentWordKeys.length ) );
+            return;
+        }
+
+        for ( int componentWordKey : componentWordKeys ) {
+            append( identifierNameKey, componentWordKey );
+        }
+    }
+
+    /**
+     * Resolves the tokens of an identifier name.
+     * @param identifierNameKey a database key for an identifier name
+     * @param tokenCache the cache used to resolve component word keys
+     * @return a list of tokens, which is empty where no tokens are recorded
+     * for the name
+     */
+    synchronized ArrayList<String> tokensFor(
+            int identifierNameKey,
+            TokenCache tokenCache ) {
+        if ( ! this.overflow.isEmpty() ) {
+            int[] sequence = this.overflow.get( identifierNameKey );
+            if ( sequence != null ) {
+                ArrayList<String> tokens = new ArrayList<>( sequence.length );
+                for ( int componentWordKey : sequence ) {
+                    tokens.add( tokenCache.get( componentWordKey ) );
+                }
+                return tokens;
+            }
+        }
+
+        if ( identifierNameKey <= 0 || identifierNameKey > this.highestNameKey ) {
+            return new ArrayList<>( 0 );
+        }
+
+        int start = this.offsets[ identifierNameKey ];
+        int end = this.offsets[ identifierNameKey + 1 ];
+        ArrayList<String> tokens = new ArrayList<>( end - start );
+        for ( int i = start; i < end; i++ ) {
+            tokens.add( tokenCache.get( this.wordKeys[ i ] ) );
+        }
+
+        return tokens;
+    }
+
+    /**
+     * Retrieves the keys of the component words of an identifier name.
+     * @param identifierNameKey a database key for an identifier name
+     * @return the component word keys in order, which is empty where no
+     * tokens are recorded for the name
+     */
+    synchronized int[] componentWordKeysFor( int identifierNameKey ) {
+        int[] sequence = this.overflow.get( identifierNameKey );
+        if ( sequence != null ) {
+            return Arrays.copyOf( sequence, sequence.length );
+        }
+
+        if ( identifierNameKey <= 0 || identifierNameKey > this.highestNameKey ) {
+            return new int[ 0 ];
+        }
+
+        return Arrays.copyOfRange(
+                this.wordKeys,
+                this.offsets[ identifierNameKey ],
+                this.offsets[ identifierNameKey + 1 ] );
+    }
+
+    /**
+     * Recovers the number of component word references held.
+     * @return the size of the store
+     */
+    synchronized int size() {
+        int size = this.wordCount;
+        for ( int[] sequence : this.overflow.values() ) {
+            size += sequence.length;
+        }
+        return size;
+    }
+
+    // moves the end of the arrays on to the given key, recording
+    // empty sequences for any keys skipped over
+    private void advanceTo( int identifierNameKey ) {
+        if ( identifierNameKey == this.highestNameKey ) {
+            return;
+        }
+
+        if ( identifierNameKey + 2 > this.offsets.length ) {
+            int capacity = Math.max( this.offsets.length * 2, identifierNameKey + 2 );
+            this.offsets = Arrays.copyOf( this.offsets, capacity );
+        }
+
+        for ( int key = this.highestNameKey + 1; key <= identifierNameKey; key++ ) {
+            this.offsets[ key + 1 ] = this.wordCount;
+        }
+        this.highestNameKey = identifierNameKey;
+    }
+}
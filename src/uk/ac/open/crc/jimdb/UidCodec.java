@@ -0,0 +1,134 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Converts entity and container uids to and from the binary form used
+ * when the database stores uids as bit data. A hexadecimal digest is
+ * packed two digits to a byte, halving its size. Any other string is kept
+ * as UTF-8. The first byte of the encoding is a flag recording which form
+ * was used, so that every string decodes to itself.
+ */
+final class UidCodec {
+
+    // flag values
+    private static final int LOWER_CASE_HEX = 0x00;
+    private static final int UPPER_CASE_HEX = 0x01;
+    private static final int ODD_LENGTH = 0x02;   // the first nibble is padding
+    private static final int TEXT = 0x80;
+
+    private static final char[] LOWER_CASE_DIGITS = "0123456789abcdef".toCharArray();
+    private static final char[] UPPER_CASE_DIGITS = "0123456789ABCDEF".toCharArray();
+
+    private UidCodec() {}
+
+    /**
+     * Encodes a uid.
+     * @param uid a uid, or {@code null}
+     * @return the encoded uid, or {@code null} if the uid is {@code null}
+     */
+    static byte[] encode( String uid ) {
+        if ( uid == null ) {
+            return null;
+        }
+
+        int flag = hexFlagFor( uid );
+        if ( flag == TEXT ) {
+            byte[] text = uid.getBytes( StandardCharsets.UTF_8 );
+            byte[] encoded = new byte[ text.length + 1 ];
+            encoded[ 0 ] = (byte) TEXT;
+            System.arraycopy( text, 0, encoded, 1, text.length );
+            return encoded;
+        }
+
+        int length = uid.length();
+        boolean isOddLength = ( length & 1 ) == 1;
+        byte[] encoded = new byte[ 1 + ( length + 1 ) / 2 ];
+        encoded[ 0 ] = (byte) ( isOddLength ? flag | ODD_LENGTH : flag );
+        // an odd length string is read as if it had a leading zero
+        int digit = isOddLength ? 1 : 0;
+        for ( int i = 0; i < length; i++, digit++ ) {
+            int value = Character.digit( uid.charAt( i ), 16 );
+            encoded[ 1 + digit / 2 ] |= ( digit & 1 ) == 0 ? value << 4 : value;
+        }
+
+        return encoded;
+    }
+
+    /**
+     * Decodes a uid.
+     * @param encoded an encoded uid, or {@code null}
+     * @return the uid, or {@code null} if {@code encoded} is {@code null}
+     * @throws IllegalArgumentException if the flag byte is not recognised
+     */
+    static String decode( byte[] encoded ) {
+        if ( encoded == null ) {
+            return null;
+        }
+        if ( encoded.length == 0 ) {
+            throw new IllegalArgumentException( "Encoded uid has no flag byte" );
+        }
+
+        int flag = encoded[ 0 ] & 0xff;
+        if ( flag == TEXT ) {
+            return new String( encoded, 1, encoded.length - 1, StandardCharsets.UTF_8 );
+        }
+        if ( ( flag & ~( UPPER_CASE_HEX | ODD_LENGTH ) ) != 0 ) {
+            throw new IllegalArgumentException(
+                    "Unrecognised uid flag: " + Integer.toHexString( flag ) );
+        }
+
+        char[] digits = ( flag & UPPER_CASE_HEX ) == 0
+                ? LOWER_CASE_DIGITS
+                : UPPER_CASE_DIGITS;
+        char[] uid = new char[ ( encoded.length - 1 ) * 2 ];
+        for ( int i = 1; i < encoded.length; i++ ) {
+            uid[ ( i - 1 ) * 2 ] = digits[ ( encoded[ i ] >> 4 ) & 0x0f ];
+            uid[ ( i - 1 ) * 2 + 1 ] = digits[ encoded[ i ] & 0x0f ];
+        }
+
+        return ( flag & ODD_LENGTH ) == 0
+                ? new String( uid )
+                : new String( uid, 1, uid.length - 1 );
+    }
+
+    // hex strings must use a single case to be recovered exactly
+    private static int hexFlagFor( String uid ) {
+        boolean hasLowerCase = false;
+        boolean hasUpperCase = false;
+        for ( int i = 0; i < uid.length(); i++ ) {
+            char c = uid.charAt( i );
+            if ( c >= 'a' && c <= 'f' ) {
+                hasLowerCase = true;
+            }
+            else if ( c >= 'A' && c <= 'F' ) {
+                hasUpperCase = true;
+            }
+            else if ( c < '0' || c > '9' ) {
+                return TEXT;
+            }
+        }
+
+        if ( hasLowerCase && hasUpperCase ) {
+            return TEXT;
+        }
+
+        return hasUpperCase ? UPPER_CASE_HEX : LOWER_CASE_HEX;
+    }
+}
@@ -0,0 +1,95 @@
+/*
+ Copyright (C) 2010-2015 The Open University
+
+ Licensed under the Apache License, Version 2.0 (the "License");
+ you may not use this file except in compliance with the License.
+ You may obtain a copy of the License at
+
+    http://www.apache.org/licenses/LICENSE-2.0
+
+ Unless required by applicable law or agreed to in writing, software
+ distributed under the License is distributed on an "AS IS" BASIS,
+ WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ See the License for the specific language governing permissions and
+ limitations under the License.
+*/
+
+package uk.ac.open.crc.jimdb;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import org.junit.Test;
+import uk.ac.open.crc.idtk.Modifier;
+import uk.ac.open.crc.idtk.Species;
+import uk.ac.open.crc.idtk.TypeName;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Tests of {@linkplain EntityQuery}.
+ */
+public class EntityQueryTest {
+
+    @Test
+    public void componentWordIsLowerCased() {
+        EntityQuery query = new EntityQuery().containingWord( "Size" );
+        
+        assertEquals( "size", query.componentWord() );
+        assertEquals( 
+                new EntityQuery().containingWord( "size" ).fingerprint(), 
+                query.fingerprint() );
+    }
+    
+    // tokens are resumed in later runs, so the fingerprint must not vary
+    @Test
+    public void fingerprintIsStable() {
+        EntityQuery query = new EntityQuery()
+                .inProject( "jimdb 1.0" )
+                .ofSpecies( Species.FIELD, Species.METHOD )
+                .withModifiers( Modifier.STATIC, Modifier.PUBLIC )
+                .ofType( "int" )
+                .containingWord( "size" )
+                .nameLength( 1, 3 );
+        
+        assertEquals( 1275361782, query.fingerprint() );
+        assertEquals( 285888160, new EntityQuery().fingerprint() );
+    }
+    
+    @Test
+    public void fingerprintIgnoresOrderOfSpeciesAndModifiers() {
+        assertEquals( 
+                new EntityQuery()
+                        .ofSpecies( Species.FIELD, Species.METHOD )
+                        .withModifiers( Modifier.STATIC, Modifier.PUBLIC )
+                        .fingerprint(),
+                new EntityQuery()
+                        .ofSpecies( Species.METHOD, Species.FIELD )
+                        .withModifiers( Modifier.PUBLIC, Modifier.STATIC )
+                        .fingerprint() );
+    }
+    
+    @Test
+    public void mixedCaseComponentWordMatches() throws Exception {
+        DatabaseManager.initialiseInMemory();
+        DatabaseManager.setProjectName( "test" );
+        DatabaseManager.setProjectVersion( "1" );
+        DatabaseWriter writer = DatabaseWriterFactory.create();
+        writer.store( field( "countItems" ) );
+        writer.store( field( "total" ) );
+        
+        List<ProgramEntity> entities = DatabaseReaderFactory.create()
+                .getEntitiesFor( new EntityQuery().containingWord( "Items" ) );
+        
+        assertEquals( 1, entities.size() );
+        assertEquals( "countItems", entities.get( 0 ).getIdentifierName() );
+    }
+    
+    private static RawProgramEntity field( String name ) {
+        return new RawProgramEntity( 
+                "A.java", "x", "root", name, name, Species.FIELD, 
+                new TypeName( "int", "int" ), false, null, 
+                new ArrayList<>( Arrays.asList( Modifier.PRIVATE ) ), false, 
+                null, new ArrayList<>(), 1, 1, 1, 10 );
+    }
+}